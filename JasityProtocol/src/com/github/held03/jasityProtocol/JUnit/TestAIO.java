@@ -0,0 +1,191 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ *
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ *
+ *     https://github.com/Held03/JasityProtocol.git
+ *
+ */
+
+package com.github.held03.jasityProtocol.JUnit;
+
+import java.io.DataOutputStream;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.held03.jasityProtocol.base.util.StringMessage;
+import com.github.held03.jasityProtocol.base.util.blocks.NodeBlock;
+import com.github.held03.jasityProtocol.interfaces.JPListener;
+import com.github.held03.jasityProtocol.interfaces.Node;
+import com.github.held03.jasityProtocol.interfaces.NodeClosedException;
+import com.github.held03.jasityProtocol.interfaces.ServerListener;
+import com.github.held03.jasityProtocol.tcp.AIOConnection;
+import com.github.held03.jasityProtocol.tcp.AIOGroup;
+import com.github.held03.jasityProtocol.tcp.AIOServer;
+import com.github.held03.jasityProtocol.tcp.TCPAddress;
+
+
+/**
+ * @author held03
+ */
+public class TestAIO {
+
+	AIOGroup group;
+
+	AIOServer server;
+
+	TCPAddress senderAddr;
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		group = new AIOGroup(2);
+
+		senderAddr = new TCPAddress(InetAddress.getLocalHost(), 12348);
+
+		server = AIOServer.openServer(12348, group);
+
+		server.addListener(new ServerListener() {
+
+			@Override
+			public void nodeLost(final Node node) {
+				System.out.println("Server: -lost node-");
+			}
+
+			@Override
+			public boolean newNode(final Node node) {
+				node.addListener(new Object() {
+
+					@JPListener
+					public Boolean receive(final StringMessage msg) {
+						try {
+							node.sendMessage(new StringMessage("I've got it: " + msg.getText()));
+						} catch (NodeClosedException e) {
+							e.printStackTrace();
+						}
+
+						return false;
+					}
+				});
+
+				return true;
+			}
+		});
+
+		server.open();
+	}
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@After
+	public void tearDown() throws Exception {
+		server.close();
+
+		group.shutdown();
+	}
+
+	/**
+	 * Test many nodes driven by the two threads of the group.
+	 * 
+	 * @throws Exception
+	 */
+	@Test(timeout = 20_000)
+	public void testManyNodes() throws Exception {
+		final int count = 50;
+
+		final Object lock = new Object();
+		final int[] answers = new int[1];
+
+		Node[] nodes = new Node[count];
+
+		for (int i = 0; i < count; i++) {
+			nodes[i] = AIOConnection.newConnection(senderAddr, group);
+
+			final String text = "Hello number " + i + " ☮☯♪♻⛔.";
+
+			nodes[i].addListener(new Object() {
+
+				@JPListener
+				public Boolean rec(final StringMessage s) {
+					if (s.getText().equals("I've got it: " + text)) {
+						synchronized (lock) {
+							answers[0]++;
+							lock.notifyAll();
+						}
+					}
+
+					return false;
+				}
+			});
+
+			nodes[i].sendMessage(new StringMessage(text));
+		}
+
+		synchronized (lock) {
+			while (answers[0] < count) {
+				lock.wait();
+			}
+		}
+
+		for (Node n : nodes) {
+			n.close();
+		}
+	}
+
+	/**
+	 * Test that a malformed block closes the connection.
+	 * 
+	 * @throws Exception
+	 */
+	@Test(timeout = 10_000)
+	public void testMalformedBlock() throws Exception {
+		try (Socket s = new Socket(senderAddr.inetAddress, senderAddr.port)) {
+			s.setSoTimeout(5000);
+
+			/*
+			 * An acknowledge with an empty range.
+			 */
+			byte[] block = { NodeBlock.BLOCK_MESSAGE_BLOCK_SACK, 0, 0, 1, 0, 0 };
+
+			DataOutputStream out = new DataOutputStream(s.getOutputStream());
+			out.writeBoolean(true);
+			out.writeInt(block.length);
+			out.write(block);
+			out.flush();
+
+			InputStream in = s.getInputStream();
+
+			while (in.read() >= 0) {
+				/*
+				 * Skip what the node sent before.
+				 */
+			}
+		}
+	}
+
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ *
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ *
+ *     https://github.com/Held03/JasityProtocol.git
+ *
+ */
+
+package com.github.held03.jasityProtocol.JUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import com.github.held03.jasityProtocol.base.util.BufferPool;
+
+
+/**
+ * @author held03
+ */
+public class TestBufferPool {
+
+	@Test
+	public void testLease() {
+		BufferPool pool = new BufferPool(false, 1 << 20);
+
+		ByteBuffer buf = pool.lease(1000);
+
+		assertEquals(0, buf.position());
+		assertEquals(1000, buf.limit());
+		assertEquals(1024, buf.capacity());
+		assertEquals(1024, pool.getLeasedBytes());
+
+		pool.release(buf);
+
+		assertEquals(0, pool.getLeasedBytes());
+
+		/*
+		 * The same buffer must be served again from the cache.
+		 */
+		ByteBuffer again = pool.lease(600);
+
+		assertSame(buf, again);
+		assertEquals(600, again.limit());
+		assertTrue(pool.getHitRate() > 0.49);
+
+		pool.release(again);
+	}
+
+	@Test
+	public void testDirect() {
+		BufferPool pool = new BufferPool(true, 1 << 20);
+
+		ByteBuffer buf = pool.lease(10);
+
+		assertTrue(buf.isDirect());
+		assertEquals(BufferPool.MIN_SIZE, buf.capacity());
+
+		pool.release(buf);
+	}
+
+	@Test
+	public void testLarge() {
+		BufferPool pool = new BufferPool(false, 1 << 20);
+
+		ByteBuffer buf = pool.lease(BufferPool.MAX_SIZE + 1);
+
+		assertEquals(BufferPool.MAX_SIZE + 1, buf.capacity());
+		assertEquals(0, pool.getLeasedBytes());
+
+		pool.release(buf);
+
+		assertEquals(0, pool.getLeasedBytes());
+	}
+
+	@Test
+	public void testGlobal() throws InterruptedException {
+		final BufferPool pool = new BufferPool(false, 64L << 20);
+
+		final ByteBuffer[] bufs = new ByteBuffer[4];
+
+		for (int i = 0; i < bufs.length; i++) {
+			bufs[i] = pool.lease(64 << 10);
+		}
+
+		/*
+		 * Release within another thread, so the buffers exceed its cache and
+		 * go into the global queue.
+		 */
+		Thread t = new Thread() {
+
+			@Override
+			public void run() {
+				for (ByteBuffer b : bufs) {
+					pool.release(b);
+				}
+			}
+		};
+
+		t.start();
+		t.join();
+
+		assertTrue(pool.getGlobalPooledBytes() > 0);
+
+		ByteBuffer buf = pool.lease(64 << 10);
+
+		assertTrue(pool.getHitRate() > 0);
+
+		pool.release(buf);
+	}
+}
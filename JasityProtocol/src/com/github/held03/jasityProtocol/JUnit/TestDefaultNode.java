@@ -26,6 +26,7 @@
 
 package com.github.held03.jasityProtocol.JUnit;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
 import java.util.HashSet;
@@ -37,13 +38,18 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.github.held03.jasityProtocol.base.AbstractConnection;
 import com.github.held03.jasityProtocol.base.DefaultNode;
 import com.github.held03.jasityProtocol.base.util.StringMessage;
+import com.github.held03.jasityProtocol.base.util.blocks.Compressed;
+import com.github.held03.jasityProtocol.base.util.blocks.Hello;
+import com.github.held03.jasityProtocol.base.util.blocks.MessageBlockSack;
 import com.github.held03.jasityProtocol.base.util.blocks.NodeBlock;
 import com.github.held03.jasityProtocol.interfaces.Address;
 import com.github.held03.jasityProtocol.interfaces.Connection;
 import com.github.held03.jasityProtocol.interfaces.JPListener;
 import com.github.held03.jasityProtocol.interfaces.Node;
+import com.github.held03.jasityProtocol.interfaces.Node.State;
 import com.github.held03.jasityProtocol.interfaces.NodeClosedException;
 
 
@@ -272,6 +278,77 @@ public class TestDefaultNode {
 		fail("Not yet implemented");
 	}
 
+	/**
+	 * Test that a compressed block announcing a forged length closes the node
+	 * instead of being inflated.
+	 */
+	@Test
+	public void testForgedCompressedLength() {
+		AbstractConnection con = new AbstractConnection(null) {
+
+			@Override
+			public int getBlockSize() {
+				return 1000;
+			}
+
+			@Override
+			public boolean isOrdered() {
+				return true;
+			}
+		};
+
+		DefaultNode node = new DefaultNode(null, con) {
+
+			{
+				remoteCapabilities = Hello.CAP_DEFLATE;
+			}
+		};
+
+		byte[] data = new byte[10];
+
+		node.receivedBlock(new Compressed(Integer.MAX_VALUE, data, 0, data.length).encode());
+
+		assertEquals("The node wasn't closed.", State.CLOSED, node.getState());
+	}
+
+	/**
+	 * Test that processing a decoded block reaches the same methods as
+	 * received data, including the selective acknowledge.
+	 */
+	@Test
+	public void testReceivedNodeBlock() {
+		final List<String> calls = new LinkedList<String>();
+
+		AbstractConnection con = new AbstractConnection(null) {
+
+			@Override
+			public int getBlockSize() {
+				return 1000;
+			}
+		};
+
+		DefaultNode node = new DefaultNode(null, con) {
+
+			{
+				receivedBlock(new MessageBlockSack(7, 100, new int[] { 120, 130 }));
+			}
+
+			@Override
+			protected void receivedSackRange(final long id, final int start, final int end) {
+				calls.add("range " + id + " " + start + " " + end);
+			}
+
+			@Override
+			protected void receivedSack(final long id, final int cumulative) {
+				calls.add("sack " + id + " " + cumulative);
+			}
+		};
+
+		assertEquals("Wrong calls.", "[range 7 120 130, sack 7 100]", calls.toString());
+
+		node.close();
+	}
+
 	List<StringMessage> res = new LinkedList<StringMessage>();
 
 	class WriteOutListener {
@@ -0,0 +1,239 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ *
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ *
+ *     https://github.com/Held03/JasityProtocol.git
+ *
+ */
+
+package com.github.held03.jasityProtocol.JUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.github.held03.jasityProtocol.base.DefaultNode;
+import com.github.held03.jasityProtocol.base.DeflateFilter;
+import com.github.held03.jasityProtocol.base.DictionaryFilter;
+import com.github.held03.jasityProtocol.base.util.StringMessage;
+import com.github.held03.jasityProtocol.base.util.blocks.VarInt;
+import com.github.held03.jasityProtocol.interfaces.JPListener;
+import com.github.held03.jasityProtocol.interfaces.MessageFilter;
+import com.github.held03.jasityProtocol.interfaces.Node;
+import com.github.held03.jasityProtocol.interfaces.ServerListener;
+import com.github.held03.jasityProtocol.local.LocalAddress;
+import com.github.held03.jasityProtocol.local.LocalServer;
+
+
+/**
+ * @author held03
+ */
+public class TestFilters {
+
+	static final byte[] DICTIONARY = "{\"id\": , \"name\": \"entry\", \"valid\": true}".getBytes(StandardCharsets.UTF_8);
+
+	LocalServer server;
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@After
+	public void tearDown() throws Exception {
+		DefaultNode.setDefaultFilters();
+
+		if (server != null) {
+			server.close();
+		}
+	}
+
+	/**
+	 * Filters the data and reverses it.
+	 * 
+	 * @param filter the filter to test
+	 * @param data the data
+	 * @return the filtered data, or <code>null</code> if not applied
+	 */
+	ByteBuffer roundTrip(final MessageFilter filter, final byte[] data) {
+		/*
+		 * A view in the middle of a bigger array.
+		 */
+		byte[] padded = new byte[data.length + 20];
+		System.arraycopy(data, 0, padded, 10, data.length);
+
+		ByteBuffer in = ByteBuffer.wrap(padded, 10, data.length).slice();
+
+		ByteBuffer filtered = filter.encode(in);
+
+		assertEquals("The input was modified.", data.length, in.remaining());
+
+		if (filtered == null) {
+			return null;
+		}
+
+		ByteBuffer res = filter.decode(filtered.duplicate());
+
+		byte[] out = new byte[res.remaining()];
+		res.get(out);
+
+		assertArrayEquals("The data wasn't restored.", data, out);
+
+		return filtered;
+	}
+
+	/**
+	 * Test method for {@link DeflateFilter}.
+	 */
+	@Test
+	public void testDeflate() {
+		DeflateFilter filter = new DeflateFilter();
+
+		StringBuilder text = new StringBuilder();
+
+		for (int i = 0; i < 200; i++) {
+			text.append("{\"id\": ").append(i).append(", \"name\": \"entry\", \"valid\": true}\n");
+		}
+
+		byte[] data = text.toString().getBytes(StandardCharsets.UTF_8);
+
+		ByteBuffer filtered = roundTrip(filter, data);
+
+		assertTrue("The data wasn't compressed.", filtered != null && filtered.remaining() < data.length / 4);
+
+		/*
+		 * Random data does not get smaller, small data is not worth it.
+		 */
+		byte[] random = new byte[1000];
+		new Random().nextBytes(random);
+
+		assertNull("Random data was compressed.", roundTrip(filter, random));
+		assertNull("Small data was compressed.", roundTrip(filter, new byte[10]));
+
+		/*
+		 * Broken data.
+		 */
+		assertNull("Broken data was accepted.", filter.decode(ByteBuffer.wrap(new byte[] { 5, 1, 2, 3 })));
+
+		/*
+		 * Forged lengths are rejected before allocating.
+		 */
+		ByteBuffer forged = ByteBuffer.allocate(100);
+		VarInt.putVarInt(forged, Integer.MAX_VALUE);
+		forged.position(0);
+
+		assertNull("A forged length was accepted.", filter.decode(forged));
+
+		filter.setMaxLength(data.length - 1);
+
+		assertNull("A length beyond the maximum was accepted.", filter.decode(filtered.duplicate()));
+	}
+
+	/**
+	 * Test method for {@link DictionaryFilter}.
+	 */
+	@Test
+	public void testDictionary() {
+		DictionaryFilter filter = new DictionaryFilter(DICTIONARY);
+
+		byte[] data = "{\"id\": 17, \"name\": \"entry\", \"valid\": true}".getBytes(StandardCharsets.UTF_8);
+
+		ByteBuffer filtered = roundTrip(filter, data);
+
+		assertTrue("The data wasn't compressed.", filtered != null && filtered.remaining() < data.length / 2);
+
+		/*
+		 * A different dictionary is detected.
+		 */
+		DictionaryFilter other = new DictionaryFilter("other".getBytes(StandardCharsets.UTF_8));
+
+		assertNull("Data of an other dictionary was accepted.", other.decode(filtered.duplicate()));
+	}
+
+	/**
+	 * Test sending filtered messages.
+	 * 
+	 * @throws Exception
+	 */
+	@Test(timeout = 10_000)
+	public void testNode() throws Exception {
+		DefaultNode.setDefaultFilters(new DictionaryFilter(DICTIONARY), new DeflateFilter());
+
+		final BlockingQueue<StringMessage> received = new ArrayBlockingQueue<StringMessage>(4);
+
+		server = LocalServer.openServer("filters", false);
+
+		server.addListener(new ServerListener() {
+
+			@Override
+			public void nodeLost(final Node node) {
+			}
+
+			@Override
+			public boolean newNode(final Node node) {
+				node.addListener(new Object() {
+
+					@JPListener
+					public Boolean receive(final StringMessage msg) {
+						received.add(msg);
+
+						return false;
+					}
+				});
+
+				return true;
+			}
+		});
+
+		server.open();
+
+		Node n = new LocalAddress("filters").connectTo();
+
+		StringBuilder text = new StringBuilder();
+
+		for (int i = 0; i < 1000; i++) {
+			text.append("{\"id\": ").append(i).append(", \"name\": \"entry\", \"valid\": true}\n");
+		}
+
+		/*
+		 * Sent before and after the hello of the remote.
+		 */
+		n.sendMessage(new StringMessage(text.toString()));
+
+		assertEquals("The message wasn't right transmitted.", text.toString(), received.take().getText());
+
+		assertEquals("The message wasn't sent.", Boolean.TRUE, n.sendMessage(new StringMessage("Hello filters.")).get());
+
+		assertEquals("The message wasn't right transmitted.", "Hello filters.", received.take().getText());
+
+		assertTrue("No time was spent in filters.", ((DefaultNode) n).getFilterTime() > 0);
+
+		n.close();
+	}
+}
@@ -0,0 +1,203 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ *
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ *
+ *     https://github.com/Held03/JasityProtocol.git
+ *
+ */
+
+package com.github.held03.jasityProtocol.JUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.github.held03.jasityProtocol.base.util.StringMessage;
+import com.github.held03.jasityProtocol.interfaces.JPListener;
+import com.github.held03.jasityProtocol.interfaces.Node;
+import com.github.held03.jasityProtocol.interfaces.NodeClosedException;
+import com.github.held03.jasityProtocol.interfaces.ServerListener;
+import com.github.held03.jasityProtocol.local.LocalAddress;
+import com.github.held03.jasityProtocol.local.LocalServer;
+
+
+/**
+ * @author held03
+ */
+public class TestLocal {
+
+	LocalServer server;
+
+	final BlockingQueue<StringMessage> received = new ArrayBlockingQueue<StringMessage>(16);
+
+	/**
+	 * Opens the server.
+	 * 
+	 * @param passByReference pass messages by reference
+	 */
+	void open(final boolean passByReference) {
+		server = LocalServer.openServer("test", passByReference);
+
+		server.addListener(new ServerListener() {
+
+			@Override
+			public void nodeLost(final Node node) {
+			}
+
+			@Override
+			public boolean newNode(final Node node) {
+				node.addListener(new Object() {
+
+					@JPListener
+					public Boolean receive(final StringMessage msg) {
+						received.add(msg);
+
+						return false;
+					}
+				});
+
+				return true;
+			}
+		});
+
+		server.open();
+	}
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@After
+	public void tearDown() throws Exception {
+		server.close();
+	}
+
+	/**
+	 * Test sending encoded messages.
+	 * 
+	 * @throws Exception
+	 */
+	@Test(timeout = 10_000)
+	public void testEncoded() throws Exception {
+		open(false);
+
+		Node n = new LocalAddress("test").connectTo();
+
+		StringMessage msg = new StringMessage("Hello world.\nIn Unicode ☮☯♪♻⛔.");
+
+		n.sendMessage(msg);
+
+		StringMessage res = received.take();
+
+		assertEquals("The message wasn't right transmitted.", msg.getText(), res.getText());
+		assertNotSame("The message wasn't encoded.", msg, res);
+
+		n.close();
+	}
+
+	/**
+	 * Test passing messages by reference.
+	 * 
+	 * @throws Exception
+	 */
+	@Test(timeout = 10_000)
+	public void testPassByReference() throws Exception {
+		open(true);
+
+		Node n = new LocalAddress("test").connectTo();
+
+		StringMessage msg = new StringMessage("Hello world.");
+
+		assertEquals("The message wasn't queued.", Boolean.TRUE, n.sendMessage(msg).get());
+
+		assertSame("The message wasn't passed by reference.", msg, received.take());
+
+		n.close();
+	}
+
+	/**
+	 * Test answering by reference from the listeners of both ends.
+	 * <p>
+	 * More messages are on the way than a queue holds blocks, so the readers
+	 * must not wait for each other.
+	 * 
+	 * @throws Exception
+	 */
+	@Test(timeout = 10_000)
+	public void testPassByReferenceEcho() throws Exception {
+		final int count = 500;
+
+		final CountDownLatch done = new CountDownLatch(count);
+
+		final Object echo = new Object() {
+
+			@JPListener
+			public Boolean receive(final StringMessage msg, final Node node) throws NodeClosedException {
+				int left = Integer.parseInt(msg.getText());
+
+				if (left == 0) {
+					done.countDown();
+				} else {
+					node.sendMessage(new StringMessage(Integer.toString(left - 1)));
+				}
+
+				return false;
+			}
+		};
+
+		server = LocalServer.openServer("echo", true);
+
+		server.addListener(new ServerListener() {
+
+			@Override
+			public void nodeLost(final Node node) {
+			}
+
+			@Override
+			public boolean newNode(final Node node) {
+				node.addListener(echo);
+
+				return true;
+			}
+		});
+
+		server.open();
+
+		Node n = new LocalAddress("echo").connectTo();
+
+		n.addListener(echo);
+
+		for (int i = 0; i < count; i++) {
+			n.sendMessage(new StringMessage("10"));
+		}
+
+		done.await();
+
+		n.close();
+	}
+
+}
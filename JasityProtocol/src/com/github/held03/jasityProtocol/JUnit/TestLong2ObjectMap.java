@@ -0,0 +1,153 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ *
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ *
+ *     https://github.com/Held03/JasityProtocol.git
+ *
+ */
+
+package com.github.held03.jasityProtocol.JUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.github.held03.jasityProtocol.base.util.ConcurrentLong2ObjectMap;
+import com.github.held03.jasityProtocol.base.util.Long2ObjectMap;
+
+
+/**
+ * @author held03
+ */
+public class TestLong2ObjectMap {
+
+	@Test
+	public void testPutGetRemove() {
+		Long2ObjectMap<String> map = new Long2ObjectMap<String>();
+
+		assertTrue(map.isEmpty());
+		assertNull(map.put(0, "zero"));
+		assertNull(map.put(-1, "minus"));
+		assertEquals("zero", map.put(0, "null"));
+
+		assertEquals(2, map.size());
+		assertEquals("null", map.get(0));
+		assertEquals("minus", map.get(-1));
+		assertNull(map.get(1));
+
+		assertEquals("null", map.remove(0));
+		assertNull(map.remove(0));
+		assertEquals(1, map.size());
+
+		map.clear();
+
+		assertTrue(map.isEmpty());
+		assertNull(map.get(-1));
+	}
+
+	@Test
+	public void testRandom() {
+		Long2ObjectMap<Long> map = new Long2ObjectMap<Long>(2);
+		Map<Long, Long> ref = new HashMap<Long, Long>();
+
+		Random ran = new Random();
+
+		/*
+		 * Few keys, so removals shift back a lot of probe sequences.
+		 */
+		for (int i = 0; i < 100000; i++) {
+			long key = ran.nextInt(2000) - 1000;
+
+			if (ran.nextInt(3) == 0) {
+				assertEquals(ref.remove(key), map.remove(key));
+			} else {
+				Long value = ran.nextLong();
+
+				assertEquals(ref.put(key, value), map.put(key, value));
+			}
+
+			assertEquals(ref.size(), map.size());
+		}
+
+		for (long key = -1000; key < 1000; key++) {
+			assertEquals(ref.get(key), map.get(key));
+			assertEquals(ref.containsKey(key), map.containsKey(key));
+		}
+	}
+
+	@Test
+	public void testConcurrent() throws InterruptedException {
+		final ConcurrentLong2ObjectMap<Long> map = new ConcurrentLong2ObjectMap<Long>(4);
+
+		final Throwable[] failed = new Throwable[1];
+
+		Thread[] threads = new Thread[4];
+
+		/*
+		 * Every thread works on own keys, so every step is predictable.
+		 */
+		for (int t = 0; t < threads.length; t++) {
+			final int base = t;
+
+			threads[t] = new Thread() {
+
+				@Override
+				public void run() {
+					try {
+						for (long key = base; key < 40000; key += 4) {
+							Long value = key + 1000000;
+
+							assertNull(map.putIfAbsent(key, value));
+							assertEquals(value, map.putIfAbsent(key, key));
+							assertTrue(map.replace(key, value, key));
+							assertTrue(!map.replace(key, value, key));
+
+							if (key % 8 < 4) {
+								assertEquals(Long.valueOf(key), map.remove(key));
+							}
+						}
+					} catch (Throwable e) {
+						failed[0] = e;
+					}
+				}
+			};
+
+			threads[t].start();
+		}
+
+		for (Thread t : threads) {
+			t.join();
+		}
+
+		assertNull(failed[0]);
+		assertEquals(20000, map.size());
+
+		for (long key = 0; key < 40000; key++) {
+			assertEquals(key % 8 < 4 ? null : Long.valueOf(key), map.get(key));
+		}
+	}
+}
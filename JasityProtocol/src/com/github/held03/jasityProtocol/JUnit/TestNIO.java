@@ -0,0 +1,238 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ *
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ *
+ *     https://github.com/Held03/JasityProtocol.git
+ *
+ */
+
+package com.github.held03.jasityProtocol.JUnit;
+
+import java.io.DataOutputStream;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.held03.jasityProtocol.base.DefaultNode;
+import com.github.held03.jasityProtocol.base.util.StringMessage;
+import com.github.held03.jasityProtocol.base.util.blocks.NodeBlock;
+import com.github.held03.jasityProtocol.interfaces.JPListener;
+import com.github.held03.jasityProtocol.interfaces.Node;
+import com.github.held03.jasityProtocol.interfaces.NodeClosedException;
+import com.github.held03.jasityProtocol.interfaces.ServerListener;
+import com.github.held03.jasityProtocol.tcp.NIOConnection;
+import com.github.held03.jasityProtocol.tcp.NIOEventLoopGroup;
+import com.github.held03.jasityProtocol.tcp.NIOServer;
+import com.github.held03.jasityProtocol.tcp.TCPAddress;
+
+
+/**
+ * @author held03
+ */
+public class TestNIO {
+
+	NIOEventLoopGroup group;
+
+	NIOServer server;
+
+	TCPAddress senderAddr;
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		group = new NIOEventLoopGroup(2);
+
+		senderAddr = new TCPAddress(InetAddress.getLocalHost(), 12346);
+
+		server = NIOServer.openServer(12346, group);
+
+		server.addListener(new ServerListener() {
+
+			@Override
+			public void nodeLost(final Node node) {
+				System.out.println("Server: -lost node-");
+			}
+
+			@Override
+			public boolean newNode(final Node node) {
+				node.addListener(new Object() {
+
+					@JPListener
+					public Boolean receive(final StringMessage msg) {
+						try {
+							node.sendMessage(new StringMessage("I've got it: " + msg.getText()));
+						} catch (NodeClosedException e) {
+							e.printStackTrace();
+						}
+
+						return false;
+					}
+				});
+
+				return true;
+			}
+		});
+
+		server.open();
+	}
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@After
+	public void tearDown() throws Exception {
+		server.close();
+
+		group.shutdown();
+
+		assertTrue("The loops didn't stop.", group.awaitTermination(5, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * Test many nodes driven by the two threads of the group.
+	 * <p>
+	 * Neither the connections nor the nodes may start own threads.
+	 * 
+	 * @throws Exception
+	 */
+	@Test(timeout = 20_000)
+	public void testManyNodes() throws Exception {
+		final int count = 50;
+
+		int threads = Thread.activeCount();
+
+		final Object lock = new Object();
+		final int[] answers = new int[1];
+
+		Node[] nodes = new Node[count];
+
+		for (int i = 0; i < count; i++) {
+			nodes[i] = NIOConnection.newConnection(senderAddr, group);
+
+			final String text = "Hello number " + i + " ☮☯♪♻⛔.";
+
+			nodes[i].addListener(new Object() {
+
+				@JPListener
+				public Boolean rec(final StringMessage s) {
+					if (s.getText().equals("I've got it: " + text)) {
+						synchronized (lock) {
+							answers[0]++;
+							lock.notifyAll();
+						}
+					}
+
+					return false;
+				}
+			});
+
+			nodes[i].sendMessage(new StringMessage(text));
+		}
+
+		synchronized (lock) {
+			while (answers[0] < count) {
+				lock.wait();
+			}
+		}
+
+		assertTrue("The threads grow with the nodes.", Thread.activeCount() - threads < count / 5);
+
+		for (Node n : nodes) {
+			n.close();
+		}
+	}
+
+	/**
+	 * Test that lingering blocks are sent once the linger time elapsed.
+	 * <p>
+	 * The loop has to be woken up again, as nothing else happens.
+	 * 
+	 * @throws Exception
+	 */
+	@Test(timeout = 10_000)
+	public void testLinger() throws Exception {
+		Node n = NIOConnection.newConnection(senderAddr, group);
+
+		final BlockingQueue<String> received = new ArrayBlockingQueue<String>(1);
+
+		n.addListener(new Object() {
+
+			@JPListener
+			public Boolean rec(final StringMessage s) {
+				received.add(s.getText());
+
+				return false;
+			}
+		});
+
+		((DefaultNode) n).setLinger(20000);
+
+		n.sendMessage(new StringMessage("Hello"));
+
+		assertEquals("The message wasn't transmitted.", "I've got it: Hello", received.take());
+
+		n.close();
+	}
+
+	/**
+	 * Test that a malformed block closes the connection.
+	 * 
+	 * @throws Exception
+	 */
+	@Test(timeout = 10_000)
+	public void testMalformedBlock() throws Exception {
+		try (Socket s = new Socket(senderAddr.inetAddress, senderAddr.port)) {
+			s.setSoTimeout(5000);
+
+			/*
+			 * An acknowledge with an empty range.
+			 */
+			byte[] block = { NodeBlock.BLOCK_MESSAGE_BLOCK_SACK, 0, 0, 1, 0, 0 };
+
+			DataOutputStream out = new DataOutputStream(s.getOutputStream());
+			out.writeBoolean(true);
+			out.writeInt(block.length);
+			out.write(block);
+			out.flush();
+
+			InputStream in = s.getInputStream();
+
+			while (in.read() >= 0) {
+				/*
+				 * Skip what the node sent before.
+				 */
+			}
+		}
+	}
+
+}
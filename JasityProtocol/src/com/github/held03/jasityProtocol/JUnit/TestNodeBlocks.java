@@ -29,20 +29,36 @@ package com.github.held03.jasityProtocol.JUnit;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.github.held03.jasityProtocol.base.util.BlockQueue;
+import com.github.held03.jasityProtocol.base.util.GatheringBuffer;
+import com.github.held03.jasityProtocol.base.util.MessageContainer;
+import com.github.held03.jasityProtocol.base.util.NodeParameters;
+import com.github.held03.jasityProtocol.base.util.ReceivingMessage;
+import com.github.held03.jasityProtocol.base.util.SendingMessage;
+import com.github.held03.jasityProtocol.base.util.blocks.BlockHandler;
+import com.github.held03.jasityProtocol.base.util.blocks.BlockPacker;
+import com.github.held03.jasityProtocol.base.util.blocks.Compressed;
 import com.github.held03.jasityProtocol.base.util.blocks.Hello;
 import com.github.held03.jasityProtocol.base.util.blocks.Ignore;
 import com.github.held03.jasityProtocol.base.util.blocks.MessageB;
 import com.github.held03.jasityProtocol.base.util.blocks.MessageBlock;
 import com.github.held03.jasityProtocol.base.util.blocks.MessageBlockFeedback;
+import com.github.held03.jasityProtocol.base.util.blocks.MessageBlockSack;
 import com.github.held03.jasityProtocol.base.util.blocks.Multi;
 import com.github.held03.jasityProtocol.base.util.blocks.NodeBlock;
 import com.github.held03.jasityProtocol.base.util.blocks.Ping;
@@ -109,6 +125,70 @@ public class TestNodeBlocks {
 		}
 	}
 
+	/**
+	 * Test method for de-/encode the parameters of the Hello class.
+	 */
+	@Test
+	public void testHelloParameters() {
+		Random ran = new Random();
+
+		for (int i = 0; i < 10; i++) {
+			NodeParameters params = new NodeParameters();
+
+			for (int j = ran.nextInt(6); j > 0; j--) {
+				params.set(ran.nextInt(300), ran.nextLong());
+			}
+
+			Hello hello = new Hello(Hello.TYPE_KNOCK, ran.nextLong(), Hello.CAP_COMPACT, params);
+
+			ByteBuffer bb = hello.encode();
+
+			assertEquals("The encoded type has a different size than predicted.", hello.getSize(), bb.remaining());
+
+			Hello res = (Hello) NodeBlock.decodeBlock(bb);
+
+			assertEquals("The capabilities weren't right transmitted.", Hello.CAP_COMPACT, res.getCapabilities());
+			assertEquals("The parameters weren't right transmitted.", params, res.getParameters());
+			assertTrue("The buffer should be consumed.", !bb.hasRemaining());
+		}
+
+		/*
+		 * Only parameters known by both are negotiated, the same on both
+		 * sides.
+		 */
+		NodeParameters a = new NodeParameters().set(NodeParameters.PARAM_BLOCK_SIZE, 1400)
+				.set(NodeParameters.PARAM_TIME_OUT, 3000).set(100, 7);
+		NodeParameters b = new NodeParameters().set(NodeParameters.PARAM_BLOCK_SIZE, 8192)
+				.set(NodeParameters.PARAM_TIME_OUT, 5000).set(101, 7);
+
+		NodeParameters n = NodeParameters.negotiate(a, b);
+
+		assertEquals("Not symmetric.", n, NodeParameters.negotiate(b, a));
+		assertEquals("Wrong count.", 2, n.size());
+		assertEquals("Wrong block size.", 1400, n.get(NodeParameters.PARAM_BLOCK_SIZE, 0));
+		assertEquals("Wrong time out.", 5000, n.get(NodeParameters.PARAM_TIME_OUT, 0));
+
+		/*
+		 * The values are unsigned.
+		 */
+		a.set(NodeParameters.PARAM_BLOCK_SIZE, -1).set(NodeParameters.PARAM_TIME_OUT, -1);
+		n = NodeParameters.negotiate(a, b);
+
+		assertEquals("Wrong unsigned block size.", 8192, n.get(NodeParameters.PARAM_BLOCK_SIZE, 0));
+		assertEquals("Wrong unsigned time out.", -1, n.get(NodeParameters.PARAM_TIME_OUT, 0));
+
+		/*
+		 * Older nodes send neither capabilities nor parameters.
+		 */
+		ByteBuffer old = ByteBuffer.allocate(10);
+		old.put(NodeBlock.BLOCK_HELLO).put(Hello.TYPE_HELLO).putLong(1);
+		old.flip();
+
+		Hello res = (Hello) NodeBlock.decodeBlock(old);
+
+		assertEquals("Parameters of an old node.", 0, res.getParameters().size());
+	}
+
 	/**
 	 * Test method for de-/encode the Ignore class.
 	 * 
@@ -199,6 +279,49 @@ public class TestNodeBlocks {
 		}
 	}
 
+	/**
+	 * Test method for the filters of new messages.
+	 */
+	@Test
+	public void testMessageBFilters() {
+		Random ran = new Random();
+
+		for (int i = 0; i < 15; i++) {
+			byte[] filters = new byte[ran.nextInt(4)];
+			ran.nextBytes(filters);
+
+			MessageB msgCtrl = new MessageB(ran.nextInt(1 << 20), ran.nextInt(1 << 20), filters);
+
+			/*
+			 * In a compact multi block behind an other block, and alone.
+			 */
+			Multi m = new Multi(new Ping(Ping.TYPE_PING, 0), msgCtrl);
+			m.setCompact(i % 2 == 0);
+
+			ByteBuffer bb = m.encode();
+
+			assertEquals("The encoded type has a different size than predicted.", m.getSize(), bb.remaining());
+
+			MessageB res = (MessageB) ((Multi) NodeBlock.decodeBlock(bb)).getSubBlocks()[1];
+
+			assertEquals("The id wasn't right transmitted.", msgCtrl.getId(), res.getId());
+			assertEquals("The size wasn't right transmitted.", msgCtrl.getMsgSize(), res.getMsgSize());
+			assertArrayEquals("The filters weren't right transmitted.", filters, res.getFilters());
+
+			msgCtrl.setCompact(false);
+			res = (MessageB) NodeBlock.decodeBlock(msgCtrl.encode());
+
+			assertArrayEquals("The filters weren't right transmitted.", filters, res.getFilters());
+		}
+
+		/*
+		 * Other types never have filters.
+		 */
+		MessageB res = (MessageB) NodeBlock.decodeBlock(new MessageB(MessageB.TYPE_SENT, 5L).encode());
+
+		assertEquals("Unexpected filters.", 0, res.getFilters().length);
+	}
+
 	/**
 	 * Test method for de-/encode the MessageBlock class.
 	 * 
@@ -374,6 +497,588 @@ public class TestNodeBlocks {
 		testAMulti(new Multi());
 	}
 
+	/**
+	 * Test that a decoded message block refers to the received buffer.
+	 */
+	@Test
+	public void testMessageBlockSlice() {
+		Random ran = new Random();
+
+		byte[] buf = new byte[1000];
+		ran.nextBytes(buf);
+
+		ByteBuffer bb = new MessageBlock(ran.nextLong(), 200, buf).encode();
+
+		MessageBlock res = (MessageBlock) NodeBlock.decodeBlock(bb);
+
+		assertEquals("Wrong data length.", buf.length, res.getDataLength());
+		assertTrue("The data should be read only.", res.getDataBuffer().isReadOnly());
+
+		/*
+		 * Copy into a container at the block offset.
+		 */
+		MessageContainer mc = new MessageContainer(res.getId(), new byte[200 + buf.length]);
+		mc.putData(res.getDataBuffer(), res.getOffset());
+
+		assertArrayEquals("The data wasn't right copied.", buf,
+				Arrays.copyOfRange(mc.getData(), 200, 200 + buf.length));
+
+		/*
+		 * Changing the received buffer changes the block.
+		 */
+		bb.put(MessageBlock.STATIC_COST, (byte) (buf[0] + 1));
+
+		assertEquals("The block should not copy the data.", (byte) (buf[0] + 1), res.getDataBuffer().get());
+	}
+
+	/**
+	 * Test method for encoding into a given buffer.
+	 */
+	@Test
+	public void testEncodeTo() {
+		Random ran = new Random();
+
+		for (int i = 0; i < 20; i++) {
+			byte[] buf = new byte[ran.nextInt(7200)];
+			ran.nextBytes(buf);
+
+			Multi m = new Multi(new Hello((byte) ran.nextInt(), ran.nextLong()), new MessageBlock(ran.nextLong(),
+					ran.nextInt(), buf), new Multi(new Ignore(ran.nextInt(700)), new Ping((byte) ran.nextInt(),
+					ran.nextLong())), new MessageBlockFeedback((byte) ran.nextInt(), ran.nextLong(),
+					ran.nextInt(), ran.nextInt()));
+
+			int offset = ran.nextInt(10);
+
+			ByteBuffer bb = ByteBuffer.allocateDirect(offset + m.getSize() + 10);
+			bb.position(offset);
+
+			m.encodeTo(bb);
+
+			assertEquals("Wrong count of bytes written.", offset + m.getSize(), bb.position());
+
+			byte[] direct = new byte[m.getSize()];
+			bb.position(offset);
+			bb.get(direct);
+
+			assertArrayEquals("Encoding differs from encode().", m.encode().array(), direct);
+		}
+	}
+
+	/**
+	 * Test method for de-/encode the compact form.
+	 */
+	@Test
+	public void testCompact() {
+		Random ran = new Random();
+
+		for (int i = 0; i < 20; i++) {
+			long id = ran.nextInt(1 << 20);
+			byte[] buf = new byte[ran.nextInt(700)];
+			ran.nextBytes(buf);
+
+			Multi m = new Multi(new MessageB(id, ran.nextInt(1 << 16)), new MessageBlock(id, ran.nextInt(1 << 16),
+					buf), new Ping(Ping.TYPE_PING, ran.nextLong()), new MessageBlockFeedback(
+					MessageBlockFeedback.TYPE_ACKNOWLEDGE, id - 1, ran.nextInt(1 << 16), ran.nextInt(1 << 10)),
+					new MessageB(MessageB.TYPE_SENT, id + 2));
+
+			int normal = m.getSize();
+
+			m.setCompact(true);
+
+			int size = m.getSize();
+
+			assertTrue("The compact form should be smaller.", size < normal);
+
+			ByteBuffer bb = m.encode();
+
+			assertEquals("The encoded type has a different size than predicted.", size, bb.remaining());
+			assertEquals("Wrong wire type.", NodeBlock.BLOCK_MULTIBLOCK_COMPACT, bb.get(0));
+
+			Multi res = (Multi) NodeBlock.decodeBlock(bb);
+
+			assertEquals("Wrong native type.", NodeBlock.BLOCK_MULTIBLOCK, res.getNativeType());
+			assertTrue("Should be decoded compact.", res.isCompact());
+
+			NodeBlock[] subs = res.getSubBlocks();
+
+			assertEquals("Wrong count of sub blocks.", 5, subs.length);
+
+			assertEquals("Wrong id.", id, ((MessageB) subs[0]).getId());
+			assertEquals("Wrong size.", ((MessageB) m.getSubBlocks()[0]).getMsgSize(), ((MessageB) subs[0]).getMsgSize());
+			assertEquals("Wrong id.", id, ((MessageBlock) subs[1]).getId());
+			assertEquals("Wrong offset.", ((MessageBlock) m.getSubBlocks()[1]).getOffset(),
+					((MessageBlock) subs[1]).getOffset());
+			assertArrayEquals("Wrong data.", buf, ((MessageBlock) subs[1]).getData());
+			assertEquals("Wrong ping id.", ((Ping) m.getSubBlocks()[2]).getId(), ((Ping) subs[2]).getId());
+			assertEquals("Wrong id.", id - 1, ((MessageBlockFeedback) subs[3]).getId());
+			assertEquals("Wrong length.", ((MessageBlockFeedback) m.getSubBlocks()[3]).getLength(),
+					((MessageBlockFeedback) subs[3]).getLength());
+			assertEquals("Wrong id.", id + 2, ((MessageB) subs[4]).getId());
+			assertEquals("Wrong type.", MessageB.TYPE_SENT, ((MessageB) subs[4]).getType());
+		}
+	}
+
+	/**
+	 * Test that hello blocks of older nodes have no capabilities.
+	 */
+	@Test
+	public void testHelloCapabilities() {
+		Hello hello = new Hello(Hello.TYPE_KNOCK, 3, Hello.CAP_COMPACT);
+
+		Hello res = (Hello) NodeBlock.decodeBlock(hello.encode());
+
+		assertEquals("Wrong capabilities.", Hello.CAP_COMPACT, res.getCapabilities());
+
+		/*
+		 * Older nodes send only the type and the version.
+		 */
+		ByteBuffer old = ByteBuffer.allocate(10);
+		old.put(NodeBlock.BLOCK_HELLO).put(Hello.TYPE_KNOCK).putLong(1);
+		old.flip();
+
+		res = (Hello) NodeBlock.decodeBlock(old);
+
+		assertEquals("Wrong version.", 1, res.getVersion());
+		assertEquals("Wrong capabilities.", 0, res.getCapabilities());
+	}
+
+	/**
+	 * Test method for {@link Compressed}.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testCompressed() throws Exception {
+		Random ran = new Random();
+
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+		Inflater inflater = new Inflater(true);
+
+		for (int i = 0; i < 20; i++) {
+			/*
+			 * Random data is incompressible, so the bound gets checked.
+			 */
+			byte[] buf = new byte[ran.nextInt(70000)];
+			ran.nextBytes(buf);
+
+			NodeBlock nb = new MessageBlock(i, 0, buf);
+
+			if (i % 2 == 0) {
+				Arrays.fill(buf, (byte) 'x');
+			}
+
+			byte[] plain = nb.encode().array();
+			byte[] out = new byte[Compressed.getMaxSize(plain.length)];
+
+			deflater.setInput(plain);
+			int len = deflater.deflate(out, 0, out.length, Deflater.SYNC_FLUSH);
+
+			assertTrue("The bound was exceeded.", len < out.length && deflater.needsInput());
+
+			Compressed c = new Compressed(plain.length, out, 0, len);
+
+			assertTrue("The bound was exceeded.", c.getSize() <= Compressed.getMaxSize(plain.length));
+
+			ByteBuffer bb = c.encode();
+
+			assertEquals("Wrong size.", c.getSize(), bb.remaining());
+
+			Compressed dec = (Compressed) NodeBlock.decodeBlock(bb);
+
+			assertEquals("Wrong length.", plain.length, dec.getLength());
+
+			ByteBuffer data = dec.getDataBuffer();
+			byte[] in = new byte[data.remaining()];
+			data.get(in);
+
+			byte[] res = new byte[plain.length + 1];
+
+			inflater.setInput(in);
+
+			assertEquals("Wrong inflated length.", plain.length, inflater.inflate(res));
+			assertEquals("The input wasn't consumed.", 0, inflater.getRemaining());
+			assertArrayEquals("Wrong inflated block.", plain, Arrays.copyOf(res, plain.length));
+		}
+
+		deflater.end();
+		inflater.end();
+	}
+
+	/**
+	 * Test method for encoding into a gathering buffer.
+	 */
+	@Test
+	public void testGathering() {
+		Random ran = new Random();
+
+		for (int i = 0; i < 20; i++) {
+			byte[] large = new byte[GatheringBuffer.MIN_GATHER_SIZE + ran.nextInt(7200)];
+			byte[] small = new byte[ran.nextInt(GatheringBuffer.MIN_GATHER_SIZE)];
+			ran.nextBytes(large);
+			ran.nextBytes(small);
+
+			Multi m = new Multi(new MessageB(3, 100), new MessageBlock(3, 0, large), new Ping(Ping.TYPE_PONG,
+					ran.nextLong()), new MessageBlock(4, 10, small));
+
+			m.setCompact(ran.nextBoolean());
+
+			ByteBuffer bb = ByteBuffer.allocate(m.getSize());
+			GatheringBuffer gb = new GatheringBuffer(bb);
+
+			m.encodeTo(gb);
+
+			assertEquals("Wrong count of bytes reserved.", m.getSize(), bb.position());
+			assertEquals("The large data should not be copied.", large.length, gb.getGatheredBytes());
+
+			ByteBuffer joined = ByteBuffer.allocate(m.getSize());
+			ByteBuffer[] segments = gb.getSegments();
+
+			for (int j = 0, count = gb.finish(); j < count; j++) {
+				joined.put(segments[j]);
+			}
+
+			assertTrue("All segments should be consumed.", !gb.hasRemaining());
+			assertArrayEquals("Gathering differs from encode().", m.encode().array(), joined.array());
+		}
+	}
+
+	/**
+	 * Test method for decoding by a block handler.
+	 */
+	@Test
+	public void testBlockHandler() {
+		Random ran = new Random();
+
+		for (int i = 0; i < 20; i++) {
+			final long id = ran.nextInt(1 << 20);
+			final long pingId = ran.nextLong();
+			final byte[] buf = new byte[ran.nextInt(700)];
+			ran.nextBytes(buf);
+
+			Multi m = new Multi(new Hello(Hello.TYPE_HELLO, 2, Hello.CAP_COMPACT), new MessageB(id, 300), new Multi(
+					new Ignore(ran.nextInt(50)), new MessageBlock(id + 1, 20, buf)), new Ping(Ping.TYPE_PING, pingId),
+					new MessageBlockFeedback(MessageBlockFeedback.TYPE_REPEAT, id - 1, 40, 50), new MessageBlockSack(id,
+							100, new int[] { 120, 130 }));
+
+			m.setCompact(ran.nextBoolean());
+
+			final StringBuilder calls = new StringBuilder();
+
+			ByteBuffer bb = m.encode();
+
+			NodeBlock.decodeBlock(bb, new BlockHandler() {
+
+				@Override
+				public void onHello(final byte type, final long version, final int capabilities,
+						final NodeParameters parameters) {
+					calls.append("hello " + type + " " + version + " " + capabilities + ";");
+				}
+
+				@Override
+				public void onPing(final byte type, final long id) {
+					assertEquals("Wrong ping id.", pingId, id);
+					calls.append("ping " + type + ";");
+				}
+
+				@Override
+				public void onMessage(final byte type, final long id, final int size, final byte[] filters) {
+					calls.append("message " + type + " " + id + " " + size + ";");
+				}
+
+				@Override
+				public void onMessageBlock(final long id, final int offset, final ByteBuffer data) {
+					byte[] got = new byte[data.remaining()];
+					data.get(got);
+
+					assertArrayEquals("Wrong data.", buf, got);
+					calls.append("block " + id + " " + offset + ";");
+				}
+
+				@Override
+				public void onFeedback(final byte type, final long id, final int offset, final int length) {
+					calls.append("feedback " + type + " " + id + " " + offset + " " + length + ";");
+				}
+
+				@Override
+				public void onSackRange(final long id, final int index, final int start, final int end) {
+					calls.append("range " + id + " " + index + " " + start + " " + end + ";");
+				}
+
+				@Override
+				public void onSack(final long id, final int cumulative) {
+					calls.append("sack " + id + " " + cumulative + ";");
+				}
+
+				@Override
+				public void onCompressed(final int length, final ByteBuffer data) {
+					calls.append("compressed;");
+				}
+			});
+
+			assertEquals("Wrong calls.", "hello 1 2 1;message 0 " + id + " 300;block " + (id + 1) + " 20;ping 0;"
+					+ "feedback 1 " + (id - 1) + " 40 50;range " + id + " 0 120 130;sack " + id + " 100;",
+					calls.toString());
+			assertTrue("The buffer should be consumed.", !bb.hasRemaining());
+		}
+	}
+
+	/**
+	 * Test method for packing blocks by the block packer.
+	 */
+	@Test
+	public void testBlockPacker() {
+		Random ran = new Random();
+		BlockPacker packer = new BlockPacker();
+
+		assertEquals("Empty packer.", 0, packer.getSize());
+		assertNull("Empty packer.", packer.finish());
+
+		for (int i = 0; i < 10; i++) {
+			int count = ran.nextInt(40) + 1;
+			NodeBlock[] blocks = new NodeBlock[count];
+
+			for (int j = 0; j < count; j++) {
+				blocks[j] = new MessageBlockFeedback(MessageBlockFeedback.TYPE_ACKNOWLEDGE, ran.nextLong(),
+						ran.nextInt(), ran.nextInt(1000));
+
+				int with = packer.getSizeWith(blocks[j].getSize());
+
+				packer.add(blocks[j]);
+
+				assertEquals("Wrong predicted size.", with, packer.getSize());
+			}
+
+			assertEquals("Wrong count.", count, packer.getCount());
+
+			int size = packer.getSize();
+			NodeBlock nb = packer.finish();
+
+			assertEquals("Wrong size.", nb.getSize(), size);
+			assertEquals("Wrong size.", nb.encode().remaining(), size);
+			assertTrue("Not reset.", packer.isEmpty());
+
+			if (count == 1) {
+				assertSame("A single block is not packed.", blocks[0], nb);
+			} else {
+				assertArrayEquals("Wrong blocks.", blocks, ((Multi) nb).getSubBlocks());
+			}
+		}
+	}
+
+	/**
+	 * Test method for de-/encode the MessageBlockSack class and acknowledging
+	 * by it.
+	 */
+	@Test
+	public void testMessageBlockSack() {
+		ReceivingMessage rm = new ReceivingMessage(7, new byte[1000]);
+		SendingMessage sm = new SendingMessage(7, new byte[1000]);
+
+		for (int offset = 0; offset < 1000; offset += 100) {
+			sm.getNextBlock(100, 10000);
+		}
+
+		assertNull("Nothing received yet.", rm.createAck());
+
+		/*
+		 * Receive all but the second and the fourth block.
+		 */
+		for (int offset = 0; offset < 1000; offset += 100) {
+			if (offset != 100 && offset != 300) {
+				rm.addReceived(offset, 100);
+			}
+		}
+
+		MessageBlockSack sack = rm.createAck();
+
+		assertEquals("Wrong cumulative offset.", 100, sack.getCumulative());
+		assertArrayEquals("Wrong ranges.", new int[] { 200, 300, 400, 1000 }, sack.getRanges());
+		assertNull("Acknowledged twice.", rm.createAck());
+
+		ByteBuffer bb = sack.encode();
+
+		assertEquals("The encoded type has a different size than predicted.", sack.getSize(), bb.remaining());
+
+		MessageBlockSack res = (MessageBlockSack) NodeBlock.decodeBlock(bb);
+
+		assertEquals("Wrong id.", 7, res.getId());
+		assertEquals("Wrong cumulative offset.", 100, res.getCumulative());
+		assertArrayEquals("Wrong ranges.", sack.getRanges(), res.getRanges());
+
+		for (int i = 0; i < res.getRanges().length; i += 2) {
+			sm.readSackRange(res.getRanges()[i], res.getRanges()[i + 1]);
+		}
+
+		sm.readSack(res.getCumulative());
+
+		assertTrue("Not finished yet.", !sm.wasSuccessful());
+
+		rm.addReceived(100, 100);
+		rm.addReceived(300, 100);
+
+		assertTrue("Not complete.", rm.isComplete());
+
+		sack = rm.createAck();
+
+		assertEquals("Wrong cumulative offset.", 1000, sack.getCumulative());
+		assertEquals("Wrong ranges.", 0, sack.getRanges().length);
+
+		sm.readSack(sack.getCumulative());
+
+		assertTrue("Not finished.", sm.wasSuccessful());
+	}
+
+	/**
+	 * Test method for rejecting malformed acknowledge ranges before any of
+	 * them is passed on.
+	 */
+	@Test
+	public void testMessageBlockSackMalformed() {
+		final StringBuilder calls = new StringBuilder();
+
+		BlockHandler handler = new BlockHandler() {
+
+			@Override
+			public void onSackRange(final long id, final int index, final int start, final int end) {
+				calls.append("range;");
+			}
+
+			@Override
+			public void onSack(final long id, final int cumulative) {
+				calls.append("sack;");
+			}
+
+			@Override
+			public void onHello(final byte type, final long version, final int capabilities,
+					final NodeParameters parameters) {
+				calls.append("hello;");
+			}
+
+			@Override
+			public void onPing(final byte type, final long id) {
+				calls.append("ping;");
+			}
+
+			@Override
+			public void onMessage(final byte type, final long id, final int size, final byte[] filters) {
+				calls.append("message;");
+			}
+
+			@Override
+			public void onMessageBlock(final long id, final int offset, final ByteBuffer data) {
+				calls.append("block;");
+			}
+
+			@Override
+			public void onFeedback(final byte type, final long id, final int offset, final int length) {
+				calls.append("feedback;");
+			}
+
+			@Override
+			public void onCompressed(final int length, final ByteBuffer data) {
+				calls.append("compressed;");
+			}
+		};
+
+		/*
+		 * An empty range after a valid one.
+		 */
+		ByteBuffer bb = new MessageBlockSack(3, 100, new int[] { 120, 130, 130, 130 }).encode();
+
+		try {
+			NodeBlock.decodeBlock(bb, handler);
+			fail("Empty range accepted.");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+
+		/*
+		 * A range ending beyond the int range.
+		 */
+		bb = new MessageBlockSack(3, Integer.MAX_VALUE - 10, new int[] { Integer.MAX_VALUE - 5, Integer.MAX_VALUE })
+				.encode();
+
+		int pos = bb.limit() - 1;
+		bb.put(pos, (byte) (bb.get(pos) + 1));
+
+		try {
+			NodeBlock.decodeBlock(bb, handler);
+			fail("Overflowing range accepted.");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+
+		assertEquals("Handler called for malformed ranges.", "", calls.toString());
+	}
+
+	/**
+	 * Test method for queuing blocks from several threads.
+	 * 
+	 * @throws InterruptedException
+	 */
+	@Test(timeout = 20000)
+	public void testBlockQueue() throws InterruptedException {
+		final BlockQueue queue = new BlockQueue();
+		final int threads = 4;
+		final int count = 10000;
+
+		Ping urgent = new Ping(Ping.TYPE_PING, 1);
+		queue.add(new Ping(Ping.TYPE_PONG, 2));
+		queue.addFirst(urgent);
+
+		assertSame("Urgent block not first.", urgent, queue.poll());
+		assertNotNull(queue.poll());
+		assertNull("Queue not empty.", queue.poll());
+		assertEquals("Wrong size.", 0, queue.getEncodedSize());
+
+		Thread[] producers = new Thread[threads];
+
+		for (int i = 0; i < threads; i++) {
+			final int t = i;
+
+			producers[i] = new Thread() {
+
+				@Override
+				public void run() {
+					for (int j = 0; j < count; j++) {
+						queue.add(new Ping(Ping.TYPE_PING, t * (long) count + j));
+					}
+				}
+			};
+			producers[i].start();
+		}
+
+		/*
+		 * Take the blocks while they are added, every producer's blocks have
+		 * to arrive in order.
+		 */
+		long[] next = new long[threads];
+		int taken = 0;
+
+		while (taken < threads * count) {
+			NodeBlock nb = queue.poll();
+
+			if (nb == null) {
+				Thread.yield();
+				continue;
+			}
+
+			long id = ((Ping) nb).getId();
+			int t = (int) (id / count);
+
+			assertEquals("Wrong order.", t * (long) count + next[t]++, id);
+
+			taken++;
+		}
+
+		for (Thread p : producers) {
+			p.join();
+		}
+
+		assertTrue("Queue not empty.", queue.isEmpty());
+		assertEquals("Wrong size.", 0, queue.getEncodedSize());
+	}
+
 	private void testAMulti(final Multi m) {
 		NodeBlock nb;
 		Multi res;
@@ -0,0 +1,200 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ *
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ *
+ *     https://github.com/Held03/JasityProtocol.git
+ *
+ */
+
+package com.github.held03.jasityProtocol.JUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.github.held03.jasityProtocol.base.util.RangeSet;
+import com.github.held03.jasityProtocol.base.util.SendingMessage;
+import com.github.held03.jasityProtocol.base.util.blocks.MessageBlock;
+
+
+/**
+ * @author held03
+ */
+public class TestRangeSet {
+
+	@Test
+	public void testAddRemove() {
+		RangeSet set = new RangeSet();
+
+		assertTrue(set.isEmpty());
+
+		set.add(10, 20);
+		set.add(30, 40);
+		set.add(20, 30);
+
+		assertEquals("Touching ranges not merged.", 1, set.getRangeCount());
+		assertTrue(set.contains(10, 40));
+		assertTrue(!set.contains(9, 40));
+
+		set.remove(15, 25);
+
+		assertEquals("[10-15, 25-40]", set.toString());
+		assertEquals(15, set.nextClear(10));
+		assertEquals(25, set.nextSet(15));
+		assertEquals(Integer.MAX_VALUE, set.nextSet(40));
+
+		set.clear();
+
+		assertTrue(set.isEmpty());
+	}
+
+	@Test
+	public void testMaxValue() {
+		RangeSet set = new RangeSet();
+
+		set.add(0, 10);
+		set.add(Integer.MAX_VALUE - 20, Integer.MAX_VALUE - 10);
+		set.add(Integer.MAX_VALUE - 10, Integer.MAX_VALUE);
+
+		assertEquals("Touching ranges not merged.", 2, set.getRangeCount());
+		assertTrue(set.contains(Integer.MAX_VALUE - 20, Integer.MAX_VALUE));
+		assertTrue(!set.contains(Integer.MAX_VALUE - 21, Integer.MAX_VALUE));
+		assertEquals(Integer.MAX_VALUE, set.nextClear(Integer.MAX_VALUE - 1));
+		assertEquals(Integer.MAX_VALUE, set.nextSet(Integer.MAX_VALUE));
+		assertEquals(Integer.MAX_VALUE - 20, set.nextSet(10));
+
+		set.remove(Integer.MAX_VALUE - 1, Integer.MAX_VALUE);
+
+		assertEquals("[0-10, " + (Integer.MAX_VALUE - 20) + "-" + (Integer.MAX_VALUE - 1) + "]",
+				set.toString());
+	}
+
+	@Test
+	public void testRandom() {
+		RangeSet set = new RangeSet();
+		boolean[] ref = new boolean[1000];
+
+		Random ran = new Random();
+
+		for (int i = 0; i < 20000; i++) {
+			int start = ran.nextInt(ref.length);
+			int end = Math.min(ref.length, start + ran.nextInt(50));
+			boolean add = ran.nextBoolean();
+
+			if (add) {
+				set.add(start, end);
+			} else {
+				set.remove(start, end);
+			}
+
+			for (int j = start; j < end; j++) {
+				ref[j] = add;
+			}
+
+			/*
+			 * The ranges must be sorted, disjoint and not touching.
+			 */
+			for (int r = 0; r < set.getRangeCount(); r++) {
+				assertTrue(set.getStart(r) < set.getEnd(r));
+
+				if (r > 0) {
+					assertTrue(set.getEnd(r - 1) < set.getStart(r));
+				}
+			}
+		}
+
+		for (int j = 0; j < ref.length; j++) {
+			assertEquals(ref[j], set.contains(j, j + 1));
+
+			int clear = j;
+			while (clear < ref.length && ref[clear]) {
+				clear++;
+			}
+
+			assertEquals(clear, set.nextClear(j));
+		}
+	}
+
+	@Test
+	public void testAcknowledge() throws InterruptedException {
+		SendingMessage sm = new SendingMessage(1, new byte[1000]);
+
+		/*
+		 * Send everything and confirm all but the second block.
+		 */
+		for (int offset = 0; offset < 1000; offset += 100) {
+			MessageBlock mb = sm.getNextBlock(100, 10000);
+
+			assertNotNull(mb);
+			assertEquals(offset, mb.getOffset());
+		}
+
+		assertNull("Unconfirmed data sent again.", sm.getNextBlock(100, 10000));
+
+		sm.readBlockResponse(0, 100);
+		sm.readBlockResponse(200, 800);
+
+		/*
+		 * Responses beyond the sent data must not confirm anything.
+		 */
+		sm.readBlockResponse(-100, 200);
+		sm.readBlockResponse(100, Integer.MAX_VALUE);
+		sm.readBlockResponse(Integer.MAX_VALUE, 100);
+
+		assertTrue(!sm.wasSuccessful());
+
+		/*
+		 * Requested data is sent again at once, overdue data after the time
+		 * out.
+		 */
+		sm.repeat(100, 100);
+
+		MessageBlock mb = sm.getNextBlock(60, 10000);
+
+		assertEquals(100, mb.getOffset());
+		assertEquals(60, mb.getDataLength());
+
+		mb = sm.getNextBlock(100, 10000);
+
+		assertEquals(160, mb.getOffset());
+		assertEquals(40, mb.getDataLength());
+
+		assertNull(sm.getNextBlock(100, 10000));
+
+		Thread.sleep(20);
+
+		mb = sm.getNextBlock(100, 10);
+
+		assertNotNull("Overdue data not sent again.", mb);
+		assertEquals(100, mb.getOffset());
+		assertEquals(100, mb.getDataLength());
+
+		sm.readBlockResponse(100, 100);
+
+		assertTrue(sm.wasSuccessful());
+		assertNull(sm.getNextBlock(100, 0));
+	}
+}
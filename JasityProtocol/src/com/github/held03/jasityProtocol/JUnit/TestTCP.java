@@ -27,11 +27,20 @@
 package com.github.held03.jasityProtocol.JUnit;
 
 import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.github.held03.jasityProtocol.base.DefaultNode;
+import com.github.held03.jasityProtocol.base.util.BufferPool;
 import com.github.held03.jasityProtocol.base.util.StringMessage;
 import com.github.held03.jasityProtocol.interfaces.Address;
 import com.github.held03.jasityProtocol.interfaces.JPListener;
@@ -39,6 +48,7 @@ import com.github.held03.jasityProtocol.interfaces.Node;
 import com.github.held03.jasityProtocol.interfaces.NodeClosedException;
 import com.github.held03.jasityProtocol.interfaces.ServerListener;
 import com.github.held03.jasityProtocol.tcp.TCPAddress;
+import com.github.held03.jasityProtocol.tcp.TCPConnection;
 import com.github.held03.jasityProtocol.tcp.TCPServer;
 
 
@@ -155,4 +165,273 @@ public class TestTCP {
 		}
 	}
 
+	/**
+	 * Test method for
+	 * {@link com.github.held03.jasityProtocol.tcp.TCPConnection#newConnection(TCPAddress, boolean)}
+	 * .
+	 */
+	@Test(timeout = 10_000)
+	public void testVirtualThreads() throws Exception {
+		if (!TCPConnection.isVirtualThreadsSupported()) {
+			System.out.println("Virtual threads not supported, skipped.");
+			return;
+		}
+
+		Node n = TCPConnection.newConnection((TCPAddress) senderAddr, true);
+
+		final Thread local = Thread.currentThread();
+
+		n.addListener(new Object() {
+
+			@JPListener
+			public Boolean rec(final StringMessage s) {
+				System.out.println("Client: " + s.getText());
+
+				if (s.getText().equals("I've got it: " + "Virtual"))
+					local.interrupt();
+
+				return false;
+			}
+		});
+
+		n.sendMessage(new StringMessage("Virtual"));
+
+		try {
+			synchronized (this) {
+				this.wait();
+			}
+		} catch (InterruptedException e) {
+			//e.printStackTrace();
+		}
+
+		n.close();
+	}
+
+	/**
+	 * Test the continuous accept loop with many clients.
+	 * 
+	 * @throws Exception
+	 */
+	@Test(timeout = 20_000)
+	public void testManyConnections() throws Exception {
+		final int count = 20;
+
+		long leased = BufferPool.getDefault().getLeasedBytes();
+
+		final Object lock = new Object();
+		final int[] answers = new int[1];
+
+		Node[] nodes = new Node[count];
+
+		for (int i = 0; i < count; i++) {
+			nodes[i] = senderAddr.connectTo();
+
+			final String text = "Hello number " + i;
+
+			nodes[i].addListener(new Object() {
+
+				@JPListener
+				public Boolean rec(final StringMessage s) {
+					if (s.getText().equals("I've got it: " + text)) {
+						synchronized (lock) {
+							answers[0]++;
+							lock.notifyAll();
+						}
+					}
+
+					return false;
+				}
+			});
+
+			nodes[i].sendMessage(new StringMessage(text));
+		}
+
+		synchronized (lock) {
+			while (answers[0] < count) {
+				lock.wait();
+			}
+		}
+
+		/*
+		 * Idle connections keep no buffers.
+		 */
+		Thread.sleep(200);
+
+		assertTrue("Idle connections keep buffers.",
+				BufferPool.getDefault().getLeasedBytes() - leased < count * BufferPool.MIN_SIZE);
+
+		for (Node n : nodes) {
+			n.close();
+		}
+	}
+
+	/**
+	 * Test that connections above the limit are refused.
+	 * 
+	 * @throws Exception
+	 */
+	@Test(timeout = 10_000)
+	public void testMaxConnections() throws Exception {
+		server.setMaxConnections(1);
+
+		Node first = senderAddr.connectTo();
+
+		final Thread local = Thread.currentThread();
+
+		first.addListener(new Object() {
+
+			@JPListener
+			public Boolean rec(final StringMessage s) {
+				local.interrupt();
+
+				return false;
+			}
+		});
+
+		first.sendMessage(new StringMessage("First"));
+
+		try {
+			synchronized (this) {
+				this.wait();
+			}
+		} catch (InterruptedException e) {
+			//e.printStackTrace();
+		}
+
+		Node second = senderAddr.connectTo();
+
+		Thread.sleep(500);
+
+		assertEquals(1, server.getRelatedNodes().size());
+
+		second.close();
+		first.close();
+	}
+
+	/**
+	 * Test sending compressed blocks.
+	 * 
+	 * @throws Exception
+	 */
+	@Test(timeout = 10_000)
+	public void testCompression() throws Exception {
+		DefaultNode.setDefaultCompressionLevel(Deflater.BEST_SPEED);
+
+		try {
+			Node n = TCPConnection.newConnection((TCPAddress) senderAddr);
+
+			final BlockingQueue<String> received = new ArrayBlockingQueue<String>(4);
+
+			n.addListener(new Object() {
+
+				@JPListener
+				public Boolean rec(final StringMessage s) {
+					received.add(s.getText());
+
+					return false;
+				}
+			});
+
+			StringBuilder text = new StringBuilder();
+
+			for (int i = 0; i < 5000; i++) {
+				text.append("{\"id\": ").append(i).append(", \"name\": \"entry\", \"valid\": true}\n");
+			}
+
+			n.sendMessage(new StringMessage(text.toString()));
+
+			assertEquals("The message wasn't right transmitted.", "I've got it: " + text, received.take());
+			assertTrue("The blocks weren't compressed.", ((DefaultNode) n).isCompressing());
+
+			n.close();
+
+		} finally {
+			DefaultNode.setDefaultCompressionLevel(Deflater.NO_COMPRESSION);
+		}
+	}
+
+	/**
+	 * Test holding back small messages by corking and lingering.
+	 * 
+	 * @throws Exception
+	 */
+	@Test(timeout = 10_000)
+	public void testCoalescing() throws Exception {
+		final int count = 200;
+
+		Node n = TCPConnection.newConnection((TCPAddress) senderAddr);
+
+		final BlockingQueue<String> received = new ArrayBlockingQueue<String>(count);
+
+		n.addListener(new Object() {
+
+			@JPListener
+			public Boolean rec(final StringMessage s) {
+				received.add(s.getText());
+
+				return false;
+			}
+		});
+
+		n.cork();
+
+		for (int i = 0; i < count; i++) {
+			n.sendMessage(new StringMessage("Hello number " + i));
+		}
+
+		Thread.sleep(50);
+
+		assertTrue("The corked messages weren't held back.", received.isEmpty());
+
+		n.uncork();
+
+		for (int i = 0; i < count; i++) {
+			assertTrue("The message wasn't transmitted.", received.take().startsWith("I've got it: Hello number "));
+		}
+
+		/*
+		 * A burst far below the minimum fill is held back for the whole
+		 * linger time and sent together.
+		 */
+		final long linger = 200000;
+
+		((DefaultNode) n).setLinger(linger);
+		((DefaultNode) n).setMinFill(0.5f);
+
+		long start = System.nanoTime();
+
+		for (int i = 0; i < count; i++) {
+			n.sendMessage(new StringMessage("Hello again " + i));
+		}
+
+		Thread.sleep(linger / 2000);
+
+		assertTrue("The lingering messages weren't held back.", received.isEmpty());
+
+		for (int i = 0; i < count; i++) {
+			assertTrue("The message wasn't transmitted.", received.take().startsWith("I've got it: Hello again "));
+		}
+
+		assertTrue("The messages weren't held back for the linger time.", System.nanoTime() - start >= linger * 1000);
+
+		n.close();
+	}
+
+	/**
+	 * Test that the port is released when the server is closed.
+	 * 
+	 * @throws Exception
+	 */
+	@Test(timeout = 20_000)
+	public void testRebind() throws Exception {
+		for (int i = 0; i < 20; i++) {
+			new Socket(((TCPAddress) senderAddr).inetAddress, 12345).close();
+
+			server.close();
+
+			server = TCPServer.openServer(12345);
+			server.open();
+		}
+	}
+
 }
@@ -26,11 +26,13 @@
 
 package com.github.held03.jasityProtocol.base;
 
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.HashSet;
-import java.util.Hashtable;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+import com.github.held03.jasityProtocol.base.util.GatheringBuffer;
 import com.github.held03.jasityProtocol.interfaces.Address;
 import com.github.held03.jasityProtocol.interfaces.Connection;
 import com.github.held03.jasityProtocol.interfaces.Node;
@@ -52,13 +54,19 @@ public abstract class AbstractConnection implements Connection {
 	 * <p>
 	 * Usually this nodes have to send as well over this connection, but that is
 	 * not necessary.
+	 * <p>
+	 * It is read without locking, so receiving blocks never waits for other
+	 * nodes. Changes are synchronized on the map, to keep {@link #nodeArray}
+	 * in line.
 	 */
-	protected Hashtable<Address, Node> nodes = new Hashtable<Address, Node>();
+	protected final ConcurrentHashMap<Address, Node> nodes = new ConcurrentHashMap<Address, Node>();
 
 	/**
-	 * List of all remote addresses of the nodes.
+	 * Snapshot of all nodes, in the order they were added.
+	 * <p>
+	 * It is replaced on every change, so it can be iterated without locking.
 	 */
-	protected ArrayList<Address> addresses = new ArrayList<Address>();
+	protected volatile Node[] nodeArray = new Node[0];
 
 	/**
 	 * Indicates if the user requested closing
@@ -78,6 +86,11 @@ public abstract class AbstractConnection implements Connection {
 	 */
 	protected final Address localAddress;
 
+	/**
+	 * Index of the node in {@link #nodeArray} which sent last.
+	 * <p>
+	 * It is only used by the sending thread.
+	 */
 	protected int lastSenderIndex = 0;
 
 	/**
@@ -124,13 +137,20 @@ public abstract class AbstractConnection implements Connection {
 	public void close() {
 		isClosed = true;
 
+		Node[] closing;
+
 		synchronized (nodes) {
-			for (Node n : nodes.values()) {
-				n.close();
-			}
+			closing = nodeArray;
 
 			nodes.clear();
-			addresses.clear();
+			nodeArray = new Node[0];
+		}
+
+		/*
+		 * Close outside of the lock, the nodes may call back.
+		 */
+		for (Node n : closing) {
+			n.close();
 		}
 	}
 
@@ -165,6 +185,24 @@ public abstract class AbstractConnection implements Connection {
 		return 0;
 	}
 
+	/**
+	 * Checks if the connection delivers the blocks in order and without loss.
+	 * <p>
+	 * Stream based back ends like TCP usually do, datagram based back ends
+	 * don't. The {@link DefaultNode} uses this to decide about features which
+	 * rely on the order of the blocks, like the block compression. Other
+	 * {@link Connection} implementations are treated as unordered.
+	 * 
+	 * @return <code>true</code> if the blocks arrive in the order they were
+	 *         sent and none gets lost
+	 */
+	public boolean isOrdered() {
+		/*
+		 * Stream based back ends override this.
+		 */
+		return false;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see
@@ -172,9 +210,7 @@ public abstract class AbstractConnection implements Connection {
 	 */
 	@Override
 	public Set<Node> getRelatedNodes() {
-		synchronized (nodes) {
-			return new HashSet<Node>(nodes.values());
-		}
+		return new HashSet<Node>(Arrays.asList(nodeArray));
 	}
 
 	/*
@@ -197,11 +233,12 @@ public abstract class AbstractConnection implements Connection {
 	public boolean addNode(final Node n) {
 		synchronized (nodes) {
 
-			if (nodes.containsKey(n.getRemoteAddress())) {
+			if (nodes.putIfAbsent(n.getRemoteAddress(), n) != null) {
 				return false;
 			} else {
-				nodes.put(n.getRemoteAddress(), n);
-				addresses.add(n.getRemoteAddress());
+				Node[] array = Arrays.copyOf(nodeArray, nodeArray.length + 1);
+				array[array.length - 1] = n;
+				nodeArray = array;
 
 //				System.out.println("Added: " + n.getRemoteAddress() + " -> "
 //						+ nodes.get(n.getRemoteAddress()).getRemoteAddress());
@@ -219,21 +256,34 @@ public abstract class AbstractConnection implements Connection {
 	 *         not found
 	 */
 	public boolean rmNode(final Node n) {
+		boolean empty;
+
 		synchronized (nodes) {
+			Node removed = nodes.remove(n.getRemoteAddress());
 
-			if (nodes.containsKey(n.getRemoteAddress())) {
-				nodes.remove(n.getRemoteAddress());
-				addresses.remove(n.getRemoteAddress());
+			if (removed == null) {
+				return false;
+			}
 
-				if (nodes.size() == 0 && closeIfEmpty) {
-					close();
-				}
+			Node[] array = new Node[nodeArray.length - 1];
+			int i = 0;
 
-				return true;
-			} else {
-				return false;
+			for (Node node : nodeArray) {
+				if (node != removed) {
+					array[i++] = node;
+				}
 			}
+
+			nodeArray = array;
+
+			empty = array.length == 0;
+		}
+
+		if (empty && closeIfEmpty) {
+			close();
 		}
+
+		return true;
 	}
 
 	/**
@@ -250,17 +300,40 @@ public abstract class AbstractConnection implements Connection {
 	 *         <code>false</code>
 	 */
 	public boolean deliverBlock(final byte[] data, final Address from) {
-		synchronized (nodes) {
-			if (nodes.containsKey(from)) {
-				Node n = nodes.get(from);
+		Node n = nodes.get(from);
 
-				n.receivedBlock(data);
+		if (n == null) {
+			return false;
+		}
 
-				return true;
-			} else {
-				return false;
-			}
+		n.receivedBlock(data);
+
+		return true;
+	}
+
+	/**
+	 * Forwards a data block to the specific node.
+	 * <p>
+	 * Like {@link #deliverBlock(byte[], Address)}, but the block is read from
+	 * the position to the limit of the buffer. The buffer can be reused after
+	 * this call, so it may be leased from a
+	 * {@link com.github.held03.jasityProtocol.base.util.BufferPool}.
+	 * 
+	 * @param data the buffer containing an block for the nodes
+	 * @param from the address from which the block was received
+	 * @return <code>true</code> if successfully delivered, otherwise
+	 *         <code>false</code>
+	 */
+	public boolean deliverBlock(final ByteBuffer data, final Address from) {
+		Node n = nodes.get(from);
+
+		if (n == null) {
+			return false;
 		}
+
+		n.receivedBlock(data);
+
+		return true;
 	}
 
 	/**
@@ -270,76 +343,113 @@ public abstract class AbstractConnection implements Connection {
 	 * returned.
 	 * <p>
 	 * The block contains the binary data and the address to send to.
+	 * <p>
+	 * The nodes are asked in turn, so this must be called only by the sending
+	 * thread.
 	 * 
 	 * @return the next block to send
 	 */
 	public Block getNextBlockDirectly() {
-		if (nodes.size() == 0 || isClosed)
+		/*
+		 * Work on a snapshot, so no lock is held while the nodes encode
+		 * their blocks.
+		 */
+		Node[] array = nodeArray;
+
+		if (array.length == 0 || isClosed)
 			return null;
 
-		Block block;
+		if (lastSenderIndex >= array.length)
+			lastSenderIndex = 0;
 
-		synchronized (nodes) {
-			if (lastSenderIndex >= addresses.size())
-				lastSenderIndex = 0;
-
-			byte[] data;
-			block = null;
-
-			/*
-			 * Post loop (after the last index)
-			 */
-			for (int i = lastSenderIndex + 1; i < addresses.size(); i++) {
-				Node currentNode = nodes.get(addresses.get(i));
-
-				try {
-					data = currentNode.getNextBlockDirectly(getBlockSize());
-
-					if (data != null) {
-						block = new Block(data, currentNode.getRemoteAddress());
-						lastSenderIndex = i;
-						break;
-					}
-				} catch (NodeClosedException e) {
-					rmNode(currentNode);
-				}
-			}
+		byte[] data;
+
+		/*
+		 * Start behind the last sender, and end with it.
+		 */
+		for (int j = 1; j <= array.length; j++) {
+			int i = (lastSenderIndex + j) % array.length;
+			Node currentNode = array[i];
 
-			/*
-			 * Pre loop (before the last index and the last index)
-			 */
-			if (block == null) {
-				for (int i = 0; i <= lastSenderIndex && i < addresses.size(); i++) {
-					Node currentNode = nodes.get(addresses.get(i));
-
-					try {
-						data = currentNode.getNextBlockDirectly(getBlockSize());
-
-						if (data != null) {
-							block = new Block(data, currentNode.getRemoteAddress());
-							lastSenderIndex = i;
-							break;
-						}
-					} catch (NodeClosedException e) {
-						rmNode(currentNode);
-					}
+			try {
+				data = currentNode.getNextBlockDirectly(getBlockSize());
+
+				if (data != null) {
+					lastSenderIndex = i;
+
+					return new Block(data, currentNode.getRemoteAddress());
 				}
+			} catch (NodeClosedException e) {
+				rmNode(currentNode);
 			}
-
 		}
 
-		return block;
+		return null;
 	}
 
 	public byte[] getNextBlock(final Address address) throws InterruptedException, NodeClosedException {
 
-		if (nodes.containsKey(address)) {
-			return nodes.get(address).getNextBlock();
+		Node n = nodes.get(address);
+
+		if (n != null) {
+			return n.getNextBlock();
 		}
 
 		return null;
 	}
 
+	/**
+	 * Writes the next block of the node with the given address into the
+	 * buffer.
+	 * <p>
+	 * This blocks until a block is available.
+	 * 
+	 * @param address the remote address of the node
+	 * @param buffer the buffer to write into
+	 * @return the length of the written block, or <code>-1</code> if there is
+	 *         no such node
+	 * @throws InterruptedException
+	 * @throws NodeClosedException
+	 * @see Node#getNextBlock(ByteBuffer)
+	 */
+	public int getNextBlock(final Address address, final ByteBuffer buffer) throws InterruptedException,
+			NodeClosedException {
+
+		Node n = nodes.get(address);
+
+		if (n != null) {
+			return n.getNextBlock(buffer);
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Writes the next block of the node with the given address into the
+	 * gathering buffer.
+	 * <p>
+	 * This blocks until a block is available.
+	 * 
+	 * @param address the remote address of the node
+	 * @param buffer the buffer to write into
+	 * @return the length of the written block, or <code>-1</code> if there is
+	 *         no such node
+	 * @throws InterruptedException
+	 * @throws NodeClosedException
+	 * @see Node#getNextBlock(GatheringBuffer)
+	 */
+	public int getNextBlock(final Address address, final GatheringBuffer buffer) throws InterruptedException,
+			NodeClosedException {
+
+		Node n = nodes.get(address);
+
+		if (n != null) {
+			return n.getNextBlock(buffer);
+		}
+
+		return -1;
+	}
+
 	/**
 	 * A block of data to send to a target.
 	 * 
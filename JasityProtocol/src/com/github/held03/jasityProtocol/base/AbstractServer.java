@@ -104,13 +104,11 @@ public abstract class AbstractServer extends AbstractConnection implements Serve
 	 */
 	@Override
 	public void broadcast(final Message msg, final Priority priority) {
-		synchronized (nodes) {
-			for (Node n : nodes.values()) {
-				try {
-					n.sendMessage(msg, priority);
-				} catch (NodeClosedException e) {
-					// will be handled if try to read from node
-				}
+		for (Node n : nodeArray) {
+			try {
+				n.sendMessage(msg, priority);
+			} catch (NodeClosedException e) {
+				// will be handled if try to read from node
 			}
 		}
 	}
@@ -28,40 +28,66 @@ package com.github.held03.jasityProtocol.base;
 
 import java.lang.reflect.InvocationTargetException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 import com.github.held03.jasityProtocol.Jasity;
+import com.github.held03.jasityProtocol.base.util.BlockQueue;
+import com.github.held03.jasityProtocol.base.util.BufferPool;
+import com.github.held03.jasityProtocol.base.util.ConcurrentLong2ObjectMap;
+import com.github.held03.jasityProtocol.base.util.GatheringBuffer;
 import com.github.held03.jasityProtocol.base.util.MessageBlockFragment;
-import com.github.held03.jasityProtocol.base.util.MessageContainer;
+import com.github.held03.jasityProtocol.base.util.MpscQueue;
+import com.github.held03.jasityProtocol.base.util.NodeParameters;
 import com.github.held03.jasityProtocol.base.util.PingManager;
+import com.github.held03.jasityProtocol.base.util.ReceivingMessage;
+import com.github.held03.jasityProtocol.base.util.SendWaitStrategy;
 import com.github.held03.jasityProtocol.base.util.SendingMessage;
+import com.github.held03.jasityProtocol.base.util.blocks.BlockHandler;
+import com.github.held03.jasityProtocol.base.util.blocks.BlockPacker;
+import com.github.held03.jasityProtocol.base.util.blocks.Compressed;
 import com.github.held03.jasityProtocol.base.util.blocks.Hello;
-import com.github.held03.jasityProtocol.base.util.blocks.Ignore;
 import com.github.held03.jasityProtocol.base.util.blocks.MessageB;
 import com.github.held03.jasityProtocol.base.util.blocks.MessageBlock;
 import com.github.held03.jasityProtocol.base.util.blocks.MessageBlockFeedback;
+import com.github.held03.jasityProtocol.base.util.blocks.MessageBlockSack;
 import com.github.held03.jasityProtocol.base.util.blocks.Multi;
 import com.github.held03.jasityProtocol.base.util.blocks.NodeBlock;
 import com.github.held03.jasityProtocol.base.util.blocks.Ping;
 import com.github.held03.jasityProtocol.interfaces.Address;
 import com.github.held03.jasityProtocol.interfaces.Connection;
+import com.github.held03.jasityProtocol.interfaces.DirectConnection;
 import com.github.held03.jasityProtocol.interfaces.JPListener;
 import com.github.held03.jasityProtocol.interfaces.Message;
 import com.github.held03.jasityProtocol.interfaces.Message.Priority;
+import com.github.held03.jasityProtocol.interfaces.Message.Transport;
 import com.github.held03.jasityProtocol.interfaces.MessageCoder;
+import com.github.held03.jasityProtocol.interfaces.MessageFilter;
 import com.github.held03.jasityProtocol.interfaces.Node;
 import com.github.held03.jasityProtocol.interfaces.NodeClosedException;
 
@@ -97,9 +123,98 @@ public class DefaultNode implements Node {
 	public static final long CURRENT_VERSION = Jasity.CURRENT_VERSION;
 
 	/**
-	 * Monitor to synchronize block requests.
+	 * The capabilities of this implementation, sent with every hello block.
+	 * <p>
+	 * Over ordered connections {@link Hello#CAP_DEFLATE} is sent as well.
+	 * 
+	 * @see Hello#getCapabilities()
+	 * @see #getCapabilities()
+	 */
+	public static final int CAPABILITIES = Hello.CAP_COMPACT | Hello.CAP_FILTERS;
+
+	/**
+	 * The version of the wire format of this implementation, sent as
+	 * {@link NodeParameters#PARAM_WIRE_FORMAT}.
+	 */
+	public static final long WIRE_FORMAT = 1;
+
+	/**
+	 * The default minimum size of a block to get compressed.
+	 * <p>
+	 * Smaller blocks are hardly worth the work.
+	 */
+	public static final int DEFAULT_COMPRESSION_THRESHOLD = 256;
+
+	/**
+	 * The default count of message blocks acknowledged together.
+	 * 
+	 * @see NodeParameters#PARAM_ACK_EVERY
+	 */
+	public static final int DEFAULT_ACK_EVERY = 16;
+
+	/**
+	 * The default maximum time in milliseconds an acknowledge is delayed.
+	 * 
+	 * @see NodeParameters#PARAM_ACK_DELAY
+	 */
+	public static final long DEFAULT_ACK_DELAY = 20;
+
+	/**
+	 * The compression level of new nodes.
+	 * 
+	 * @see #setDefaultCompressionLevel(int)
+	 */
+	private static volatile int defaultCompressionLevel = Deflater.NO_COMPRESSION;
+
+	/**
+	 * The maximum time in microseconds data is held back by {@link #cork()}.
+	 */
+	public static final long MAX_CORK_TIME = 200000; // 200ms 
+
+	/**
+	 * The wait strategy of new nodes.
+	 * 
+	 * @see #setDefaultWaitStrategy(SendWaitStrategy)
+	 */
+	private static volatile SendWaitStrategy defaultWaitStrategy = SendWaitStrategy.BLOCK;
+
+	/**
+	 * The timer shared by all nodes.
+	 * 
+	 * @see #getScheduler()
 	 */
-	private Object monitor = new Object();
+	private static ScheduledThreadPoolExecutor scheduler;
+
+	/**
+	 * Lock of the writer, held while blocks are taken to send.
+	 * <p>
+	 * Blocks and messages are queued without it, so neither the receiving
+	 * thread nor the application waits for the writer. A lock is used instead
+	 * of a monitor, so that a virtual thread does not pin its carrier thread.
+	 */
+	private final ReentrantLock sendLock = new ReentrantLock();
+
+	/**
+	 * Lock of the {@link #currentState}, only taken to wait for a change.
+	 */
+	private final ReentrantLock stateLock = new ReentrantLock();
+
+	/**
+	 * Signaled if the state changed.
+	 */
+	private final Condition stateChanged = stateLock.newCondition();
+
+	/**
+	 * How the writer waits for blocks to send.
+	 * 
+	 * @see #setWaitStrategy(SendWaitStrategy)
+	 */
+	protected volatile SendWaitStrategy waitStrategy = defaultWaitStrategy;
+
+	/**
+	 * The thread waiting in {@link #getNextBlock()}, or <code>null</code>.
+	 */
+	private volatile Thread writer;
 
 	/**
 	 * The set of all registered connection listeners.
@@ -162,38 +277,220 @@ public class DefaultNode implements Node {
 	/**
 	 * The version of the remote
 	 */
-	protected long remoteVersionCode = -1;
+	protected volatile long remoteVersionCode = -1;
+
+	/**
+	 * The capabilities of the remote, zero until its hello block arrived.
+	 * <p>
+	 * Compact blocks are only sent if the remote has {@link Hello#CAP_COMPACT}.
+	 */
+	protected volatile int remoteCapabilities = 0;
+
+	/**
+	 * The parameters agreed with the remote, empty until its hello block
+	 * arrived.
+	 * 
+	 * @see #getNegotiatedParameters()
+	 */
+	protected volatile NodeParameters negotiatedParameters = new NodeParameters();
+
+	/**
+	 * The deflate level of the sent blocks, or
+	 * {@link Deflater#NO_COMPRESSION} if they are not compressed.
+	 * 
+	 * @see #setCompressionLevel(int)
+	 */
+	protected volatile int compressionLevel = defaultCompressionLevel;
+
+	/**
+	 * The minimum size of a block to get compressed.
+	 */
+	protected volatile int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+
+	/**
+	 * The priorities of messages which are never sent compressed.
+	 * <p>
+	 * This field is guarded by {@link #sendLock}.
+	 */
+	protected final Set<Priority> uncompressedPriorities = EnumSet.noneOf(Priority.class);
+
+	/**
+	 * The stream compressing the sent blocks, created on first use.
+	 * <p>
+	 * This field is guarded by {@link #sendLock}.
+	 */
+	private Deflater deflater;
+
+	/**
+	 * The stream inflating the received blocks, created on first use.
+	 * <p>
+	 * This field is guarded by {@link #inflaterLock}.
+	 */
+	private Inflater inflater;
+
+	/**
+	 * Lock of the {@link #inflater}.
+	 */
+	private final Object inflaterLock = new Object();
+
+	/**
+	 * The filters of new nodes.
+	 * 
+	 * @see #setDefaultFilters(MessageFilter...)
+	 */
+	private static volatile MessageFilter[] defaultFilters = new MessageFilter[0];
+
+	/**
+	 * The filters the messages pass, in the order they are applied.
+	 * 
+	 * @see #addFilter(MessageFilter)
+	 */
+	protected final List<MessageFilter> filters = new CopyOnWriteArrayList<>(defaultFilters);
+
+	/**
+	 * The time spent in filters in nanoseconds.
+	 */
+	private final AtomicLong filterTime = new AtomicLong();
+
+	/**
+	 * The count of received message blocks acknowledged together, sent as
+	 * {@link NodeParameters#PARAM_ACK_EVERY}.
+	 * <p>
+	 * If it is <code>0</code>, every block is acknowledged on its own. It
+	 * takes effect with the next hello.
+	 */
+	protected volatile int ackEvery = DEFAULT_ACK_EVERY;
+
+	/**
+	 * The maximum time in milliseconds an acknowledge is delayed, sent as
+	 * {@link NodeParameters#PARAM_ACK_DELAY}.
+	 */
+	protected volatile long ackDelay = DEFAULT_ACK_DELAY;
+
+	/**
+	 * The time in microseconds partial blocks are held back, waiting for more
+	 * data.
+	 * <p>
+	 * If it is <code>0</code>, blocks are sent as soon as they are available.
+	 */
+	protected volatile long lingerTime = 0;
+
+	/**
+	 * The ratio of the block size, which is sent without lingering.
+	 */
+	protected volatile float minFill = 1;
+
+	/**
+	 * Set if the node is corked.
+	 */
+	protected volatile boolean corked = false;
+
+	/**
+	 * The time the held back data was first seen by {@link #pollBlock(int)},
+	 * in nanoseconds, or <code>0</code> if nothing is pending.
+	 */
+	private long pendingSince = 0;
+
+	/**
+	 * The time until which blocks are held back, in nanoseconds, or
+	 * <code>0</code> if not holding.
+	 */
+	private volatile long holdUntil = 0;
+
+	/**
+	 * Set while a wake up of the connection for held back blocks is
+	 * scheduled.
+	 */
+	private volatile boolean wakeupScheduled = false;
+
+	/**
+	 * Wakes up the connection for held back blocks.
+	 * 
+	 * @see #scheduleWakeup(long)
+	 */
+	private final Runnable wakeupTask = new Runnable() {
+
+		@Override
+		public void run() {
+			wakeupScheduled = false;
+
+			notifyConnection();
+		}
+	};
+
+	/**
+	 * The scheduled wake up, or <code>null</code> if none got scheduled yet.
+	 * <p>
+	 * This field is guarded by {@link #timerLock}.
+	 */
+	private ScheduledFuture<?> wakeup;
 
 	/**
 	 * The ping manager to manage pings.
 	 */
 	protected PingManager pingManager = new PingManager();
 
+	/**
+	 * Passes received blocks to the <code>received</code> methods.
+	 * <p>
+	 * The blocks are decoded directly from the received data, no block objects
+	 * are created.
+	 */
+	private final BlockHandler receiver = new Receiver();
+
 	/**
 	 * System node blocks to send.
+	 * <p>
+	 * Any thread may add blocks, only the writer takes them.
+	 */
+	protected final BlockQueue blocks = new BlockQueue();
+
+	/**
+	 * Collects the blocks sent together by {@link #pollBlock(int)}.
+	 * <p>
+	 * This field is guarded by {@link #sendLock}.
+	 */
+	private final BlockPacker packer = new BlockPacker();
+
+	/**
+	 * Received blocks without knowing the message of it, by message ID.
+	 * <p>
+	 * The fragments of a message are chained by
+	 * {@link MessageBlockFragment#next}, the last received one is mapped.
 	 */
-	protected List<NodeBlock> blocks = Collections.synchronizedList(new LinkedList<NodeBlock>());
+	protected final ConcurrentLong2ObjectMap<MessageBlockFragment> fragments = new ConcurrentLong2ObjectMap<MessageBlockFragment>();
 
 	/**
-	 * Set of received blocks without knowing the message of it.
+	 * Messages sent by the application, not yet taken into the
+	 * {@link #sendingQueue} by the writer.
 	 */
-	protected Set<MessageBlockFragment> fragments = Collections.synchronizedSet(new HashSet<MessageBlockFragment>());
+	private final MpscQueue<SendingMessage> submitted = new MpscQueue<SendingMessage>();
 
 	/**
 	 * Queue of messages waiting to send.
+	 * <p>
+	 * Removed messages are only marked, see {@link SendingMessage#removed},
+	 * and get dropped from the queue as soon as it is walked. This field is
+	 * guarded by its own monitor.
 	 */
 	protected PriorityQueue<SendingMessage> sendingQueue = new PriorityQueue<SendingMessage>();
 
 	/**
-	 * List of currently receiving messages.
+	 * The queued messages by their IDs, including the {@link #submitted} ones.
+	 * <p>
+	 * Feedback looks up its message here without waiting for the writer.
+	 */
+	protected final ConcurrentLong2ObjectMap<SendingMessage> sendingIndex = new ConcurrentLong2ObjectMap<SendingMessage>();
+
+	/**
+	 * Currently receiving messages by their IDs.
 	 */
-	protected Map<Long, MessageContainer> receivingList = Collections
-			.synchronizedMap(new HashMap<Long, MessageContainer>());
+	protected final ConcurrentLong2ObjectMap<ReceivingMessage> receivingList = new ConcurrentLong2ObjectMap<ReceivingMessage>();
 
 	/**
 	 * The current state of the Node.
 	 */
-	protected State currentState = State.OPENING;
+	protected volatile State currentState = State.OPENING;
 
 	/**
 	 * Time between pings.
@@ -201,9 +498,70 @@ public class DefaultNode implements Node {
 	protected long pingInterval = 5000; // 5s
 
 	/**
-	 * Timer to send new pings.
+	 * The timer running the tasks of this node, shared by all nodes.
+	 * 
+	 * @see #getScheduler()
+	 */
+	protected final ScheduledExecutorService timer = getScheduler();
+
+	/**
+	 * Lock of the tasks of this node on the {@link #timer}.
+	 * <p>
+	 * No task gets scheduled after {@link #timerClosed} was set.
+	 */
+	private final Object timerLock = new Object();
+
+	/**
+	 * Set if the node got closed and its tasks were canceled.
+	 * <p>
+	 * This field is guarded by {@link #timerLock}.
+	 */
+	private boolean timerClosed = false;
+
+	/**
+	 * The scheduled pings, rescheduled if the ping interval changes.
+	 * <p>
+	 * This field is guarded by {@link #timerLock}.
+	 */
+	private ScheduledFuture<?> pingTask;
+
+	/**
+	 * The latest message waiting for a delayed acknowledge, the others are
+	 * chained by {@link ReceivingMessage#nextAck}.
+	 */
+	private final AtomicReference<ReceivingMessage> pendingAcks = new AtomicReference<ReceivingMessage>();
+
+	/**
+	 * Sends the delayed acknowledges of all {@link #pendingAcks}.
+	 */
+	private final Runnable ackTask = new Runnable() {
+
+		@Override
+		public void run() {
+			ReceivingMessage mc = pendingAcks.getAndSet(null);
+
+			while (mc != null) {
+				ReceivingMessage next = mc.nextAck;
+				mc.nextAck = null;
+
+				MessageBlockSack sack = mc.createDelayedAck();
+
+				if (sack != null) {
+					sendBlock(sack);
+				}
+
+				mc = next;
+			}
+		}
+	};
+
+	/**
+	 * The scheduled {@link #ackTask}, or <code>null</code> if none got
+	 * scheduled yet.
+	 * <p>
+	 * This field is guarded by {@link #timerLock}.
 	 */
-	protected Timer pingSender;
+	private ScheduledFuture<?> ackFuture;
 
 	/**
 	 * Create a new Node.
@@ -214,10 +572,9 @@ public class DefaultNode implements Node {
 		this.remoteAddress = remote;
 		this.connection = connection;
 
-		this.pingSender = new Timer(true);
-		pingSender.schedule(new PingTimerTask(), 100, pingInterval);
+		this.pingTask = timer.scheduleWithFixedDelay(new PingTask(), 100, pingInterval, TimeUnit.MILLISECONDS);
 
-		sendBlock(new Hello(Hello.TYPE_KNOCK, CURRENT_VERSION));
+		sendBlock(new Hello(Hello.TYPE_KNOCK, CURRENT_VERSION, getCapabilities(), getLocalParameters()));
 	}
 
 	/*
@@ -227,591 +584,1895 @@ public class DefaultNode implements Node {
 	 */
 	@Override
 	public void receivedBlock(final byte[] block) {
-		NodeBlock nb = NodeBlock.decodeBlock(block);
+		NodeBlock.decodeBlock(ByteBuffer.wrap(block), receiver);
+	}
 
-		receivedBlock(nb);
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.interfaces.Node#receivedBlock(java.nio
+	 * .ByteBuffer)
+	 */
+	@Override
+	public void receivedBlock(final ByteBuffer block) {
+		NodeBlock.decodeBlock(block, receiver);
 	}
 
 	/**
 	 * Process given node block.
+	 * <p>
+	 * The content of the block is passed to the <code>received</code>
+	 * methods. The block is encoded and decoded by the same
+	 * {@link BlockHandler} as received data, so every block type is handled
+	 * alike.
 	 * 
 	 * @param nb the block to process
 	 */
 	protected void receivedBlock(final NodeBlock nb) {
-//		System.out.println("[" + Thread.currentThread().getName() + "] Receive: " + nb);
+		NodeBlock.decodeBlock(nb.encode(), receiver);
+	}
 
-		switch (nb.getNativeType()) {
-		case NodeBlock.BLOCK_MULTIBLOCK:
-			Multi multi = (Multi) nb;
+	/**
+	 * Process a received hello block.
+	 * 
+	 * @param type the hello type
+	 * @param version the version of the remote
+	 * @param capabilities the capabilities of the remote
+	 * @param parameters the parameters of the remote
+	 */
+	protected void receivedHello(final byte type, final long version, final int capabilities,
+			final NodeParameters parameters) {
+		switch (type) {
+		case Hello.TYPE_KNOCK:
+			/*
+			 * Update remote Version code.
+			 * The capabilities and parameters are set first, they are valid
+			 * as soon as the version is.
+			 */
+			remoteCapabilities = capabilities;
+			negotiate(parameters);
+			remoteVersionCode = version;
 
 			/*
-			 * Call receive recursively for every block
+			 * Check remote version and decline if too old.
+			 * Otherwise accept it with Hello.
 			 */
-			for (NodeBlock sub : multi.getSubBlocks()) {
-				receivedBlock(sub);
+			if (remoteVersionCode < MIN_VERSION) {
+				sendBlock(new Hello(Hello.TYPE_BUSY, CURRENT_VERSION));
+
+			} else {
+				sendBlock(new Hello(Hello.TYPE_HELLO, CURRENT_VERSION, getCapabilities(), getLocalParameters()));
+
 			}
 
 			break;
 
-		case NodeBlock.BLOCK_IGNORE:
-			Ignore ign = (Ignore) nb;
-
+		case Hello.TYPE_HELLO:
 			/*
-			 * Easily ignore it ;)
+			 * Sets node to available
 			 */
+			remoteCapabilities = capabilities;
+			negotiate(parameters);
+			remoteVersionCode = version;
 
-			break;
+			stateLock.lock();
+			try {
+				if (currentState.equals(State.OPENING)) {
+					currentState = State.CONNECTED;
 
-		case NodeBlock.BLOCK_HELLO:
-			Hello hello = (Hello) nb;
+					stateChanged.signalAll();
+				}
+			} finally {
+				stateLock.unlock();
+			}
 
-			switch (hello.getType()) {
-			case Hello.TYPE_KNOCK:
-				/*
-				 * Update remote Version code.
-				 */
-				remoteVersionCode = hello.getVersion();
+			wakeUp();
 
-				/*
-				 * Check remote version and decline if too old.
-				 * Otherwise accept it with Hello.
-				 */
-				if (remoteVersionCode < MIN_VERSION) {
-					sendBlock(new Hello(Hello.TYPE_BUSY, CURRENT_VERSION));
+			break;
 
-				} else {
-					sendBlock(new Hello(Hello.TYPE_HELLO, CURRENT_VERSION));
+		case Hello.TYPE_BUSY:
+			/*
+			 * Remote refused.
+			 * Close node.
+			 */
+		case Hello.TYPE_BYE:
+			/*
+			 * Remote node closed the connection.
+			 * Close node.
+			 */
+			close();
 
-				}
+			break;
+		}
+	}
 
-				break;
+	/**
+	 * Agrees the parameters with the remote and applies them.
+	 * <p>
+	 * Both nodes send their parameters with the knock and the hello, so this
+	 * may be called twice with the same parameters.
+	 * 
+	 * @param remote the parameters of the remote
+	 */
+	protected void negotiate(final NodeParameters remote) {
+		NodeParameters p = NodeParameters.negotiate(getLocalParameters(), remote);
 
-			case Hello.TYPE_HELLO:
-				/*
-				 * Sets node to available
-				 */
-				remoteVersionCode = hello.getVersion();
+		timeOut = p.get(NodeParameters.PARAM_TIME_OUT, timeOut);
 
-				synchronized (monitor) {
-					if (currentState.equals(State.OPENING)) {
-						currentState = State.CONNECTED;
+		long interval = p.get(NodeParameters.PARAM_PING_INTERVAL, pingInterval);
 
-						monitor.notify();
-					}
-				}
+		negotiatedParameters = p;
 
-				break;
+		if (interval != pingInterval && interval > 0) {
+			synchronized (timerLock) {
+				pingInterval = interval;
 
-			case Hello.TYPE_BUSY:
 				/*
-				 * Remote refused.
-				 * Close node.
+				 * If the node got closed, no more pings.
 				 */
-			case Hello.TYPE_BYE:
-				/*
-				 * Remote node closed the connection.
-				 * Close node.
-				 */
-				close();
-
-				break;
+				if (!timerClosed) {
+					pingTask.cancel(false);
+					pingTask = timer.scheduleWithFixedDelay(new PingTask(), interval, interval, TimeUnit.MILLISECONDS);
+				}
 			}
+		}
+	}
 
-			break;
+	/**
+	 * Checks if the blocks are sent in their compact form.
+	 * <p>
+	 * It is decided by the negotiated
+	 * {@link NodeParameters#PARAM_WIRE_FORMAT}. A remote not sending it
+	 * decides by {@link Hello#CAP_COMPACT}.
+	 * 
+	 * @return <code>true</code> if compact
+	 */
+	protected boolean isCompact() {
+		NodeParameters p = negotiatedParameters;
 
-		case NodeBlock.BLOCK_PING:
-			Ping ping = (Ping) nb;
+		if (p.contains(NodeParameters.PARAM_WIRE_FORMAT)) {
+			return p.get(NodeParameters.PARAM_WIRE_FORMAT, 0) >= NodeParameters.WIRE_FORMAT_COMPACT;
+		}
 
-			switch (ping.getType()) {
-			case Ping.TYPE_PING:
-				/*
-				 * Answer the ping directly unless the node was closed.
-				 * The ping has a high priority.
-				 */
-				if (!currentState.equals(State.CLOSED))
-					sendBlock(new Ping(Ping.TYPE_PONG, ping.getId()), true);
+		return (remoteCapabilities & Hello.CAP_COMPACT) != 0;
+	}
 
-				break;
+	/**
+	 * Checks if the connection delivers the blocks in order and without loss.
+	 * 
+	 * @return <code>true</code> if the connection is an ordered
+	 *         {@link AbstractConnection}
+	 * @see AbstractConnection#isOrdered()
+	 */
+	protected boolean isOrdered() {
+		return connection instanceof AbstractConnection && ((AbstractConnection) connection).isOrdered();
+	}
 
-			case Ping.TYPE_PONG:
-				/*
-				 * Forward it to the ping manager.
-				 */
-				pingManager.addPong(ping.getId());
+	/**
+	 * Gets the parameters sent with the hello blocks of this node.
+	 * <p>
+	 * Subclasses may add own parameters, the remote ignores those it doesn't
+	 * know.
+	 * 
+	 * @return the parameters of this node
+	 */
+	protected NodeParameters getLocalParameters() {
+		NodeParameters p = new NodeParameters();
 
-			}
+		p.set(NodeParameters.PARAM_BLOCK_SIZE, connection.getBlockSize());
+		p.set(NodeParameters.PARAM_TIME_OUT, timeOut);
+		p.set(NodeParameters.PARAM_PING_INTERVAL, pingInterval);
+		p.set(NodeParameters.PARAM_WIRE_FORMAT, WIRE_FORMAT);
 
-			break;
+		if (ackEvery > 0) {
+			p.set(NodeParameters.PARAM_ACK_EVERY, ackEvery);
+			p.set(NodeParameters.PARAM_ACK_DELAY, ackDelay);
+		}
 
-		case NodeBlock.BLOCK_MESSAGE:
-			MessageB msg = (MessageB) nb;
+		return p;
+	}
 
-			switch (msg.getType()) {
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.interfaces.Node#getNegotiatedParameters()
+	 */
+	@Override
+	public NodeParameters getNegotiatedParameters() {
+		return new NodeParameters(negotiatedParameters);
+	}
+
+	/**
+	 * Process a received ping block.
+	 * 
+	 * @param type the ping type
+	 * @param id the ping id
+	 */
+	protected void receivedPing(final byte type, final long id) {
+		switch (type) {
+		case Ping.TYPE_PING:
 			/*
-			 * Handle receiving operations.
+			 * Answer the ping directly unless the node was closed.
+			 * The ping has a high priority.
 			 */
-			case MessageB.TYPE_NEW:
-				if (receivingList.containsKey(msg.getId())) {
-					/*
-					 * Ignore if already known.
-					 */
-				} else {
-					/*
-					 * Creating new container to store the new message.
-					 */
-					MessageContainer mc = new MessageContainer(msg.getId(), new byte[msg.getMsgSize()]);
-
-					receivingList.put(msg.getId(), mc);
-
-					/*
-					 * Search for already received blocks.
-					 */
-					HashSet<MessageBlockFragment> rm = new HashSet<MessageBlockFragment>();
-
-					for (MessageBlockFragment mbf : fragments) {
-						if (mbf.id == msg.getId()) {
-							/*
-							 * Mark for remove.
-							 */
-							rm.add(mbf);
-
-							/*
-							 * Insert data.
-							 */
-							mc.putData(mbf.data, mbf.offset);
-
-							/*
-							 * Send acknowledge.
-							 */
-							sendBlock(new MessageBlockFeedback(MessageBlockFeedback.TYPE_ACKNOWLEDGE, mbf.id,
-									mbf.offset, mbf.data.length));
-						}
-					}
-				}
+			if (!currentState.equals(State.CLOSED))
+				sendBlock(new Ping(Ping.TYPE_PONG, id), true);
 
+			break;
 
-				break;
+		case Ping.TYPE_PONG:
+			/*
+			 * Forward it to the ping manager.
+			 */
+			pingManager.addPong(id);
 
-			case MessageB.TYPE_SENT:
+		}
+	}
 
+	/**
+	 * Process a received message meta data block.
+	 * 
+	 * @param type the message type
+	 * @param id the message id
+	 * @param size the message size, only set on NEW
+	 * @param filters the IDs of the filters applied to the message, only set
+	 *            on NEW
+	 */
+	protected void receivedMessage(final byte type, final long id, final int size, final byte[] filters) {
+		switch (type) {
+		/*
+		 * Handle receiving operations.
+		 */
+		case MessageB.TYPE_NEW:
+			if (receivingList.containsKey(id)) {
+				/*
+				 * Ignore if already known.
+				 */
+			} else {
 				/*
-				 * Remote verifies that a message have been sent.
-				 * So let it deliver.
+				 * Creating new container to store the new message.
 				 */
+				ReceivingMessage mc = new ReceivingMessage(id, new byte[size]);
 
-				if (receivingList.containsKey(msg.getId())) {
+				mc.setFilters(filters);
+
+				if (receivingList.putIfAbsent(id, mc) == null) {
 					/*
-					 * Pull message from map and decode it.
+					 * Insert already received blocks.
 					 */
-					MessageContainer mc = receivingList.remove(msg.getId());
+					putFragments(mc);
+				}
+			}
 
-					Message m = coder.decodeMessage(ByteBuffer.wrap(mc.getData()));
 
-					/*
-					 * Send COMPLETE back.
-					 */
-					sendBlock(new MessageB(MessageB.TYPE_COMPLETE, msg.getId()));
+			break;
 
-					/*
-					 * Deliver message to listeners.
-					 * TODO: This should be done by an special thread.
-					 */
-					deliverMessage(m);
+		case MessageB.TYPE_SENT:
 
-				} else {
-					/*
-					 * Ignore if no more present.
-					 * But answer with COMPLETE.
-					 */
+			/*
+			 * Remote verifies that a message have been sent.
+			 * So let it deliver.
+			 */
 
-					sendBlock(new MessageB(MessageB.TYPE_COMPLETE, msg.getId()));
-				}
+			/*
+			 * Pull message from map and decode it.
+			 */
+			ReceivingMessage mc = receivingList.remove(id);
 
-				break;
+			if (mc != null) {
 
-			case MessageB.TYPE_ERROR_SEND:
+				ByteBuffer data = unfilter(ByteBuffer.wrap(mc.getData()), mc.getFilters());
 
-				if (receivingList.containsKey(msg.getId())) {
-					/*
-					 * Remove due cancellation.
-					 */
-					receivingList.remove(msg.getId());
+				if (data == null) {
+					Logger.getLogger(DefaultNode.class.getName()).log(Level.WARNING,
+							"Could not reverse the filters {0} of message {1}.",
+							new Object[] { Arrays.toString(mc.getFilters()), id });
 
-				} else {
-					/*
-					 * If already removed, ignore it.
-					 */
+					sendBlock(new MessageB(MessageB.TYPE_ERROR_RECIEVE, id));
+
+					break;
 				}
 
-				break;
+				Message m = coder.decodeMessage(data);
 
-			case MessageB.TYPE_PENDING:
+				/*
+				 * Send COMPLETE back.
+				 */
+				sendBlock(new MessageB(MessageB.TYPE_COMPLETE, id));
 
-				if (receivingList.containsKey(msg.getId())) {
-					/*
-					 * If exist the related message, update the time stamp.
-					 */
-					receivingList.get(msg.getId()).setUpdate();
-				} else {
-					/*
-					 * Ignore it other wise.
-					 */
-				}
+				/*
+				 * Deliver message to listeners.
+				 * TODO: This should be done by an special thread.
+				 */
+				deliverMessage(m);
 
-				break;
-			/*
-			 * Handle sending operations.
-			 */
-			case MessageB.TYPE_UNKNOWN:
+			} else {
+				/*
+				 * Ignore if no more present.
+				 * But answer with COMPLETE.
+				 */
 
-				SendingMessage sm = getSendingById(msg.getId());
+				sendBlock(new MessageB(MessageB.TYPE_COMPLETE, id));
+			}
 
-				if (sm != null) {
-					/*
-					 * Send the remote the NEW message.
-					 */
+			break;
 
-					sendBlock(new MessageB(sm.getId(), sm.getDataLength()));
-				} else {
-					/*
-					 * If there is no more message.
-					 * Send ERROR back.
-					 */
-					sendBlock(new MessageB(MessageB.TYPE_ERROR_SEND, msg.getId()));
-				}
+		case MessageB.TYPE_ERROR_SEND:
 
-				break;
+			if (receivingList.remove(id) != null) {
+				/*
+				 * Removed due cancellation.
+				 */
+
+			} else {
+				/*
+				 * If already removed, ignore it.
+				 */
+			}
 
-			case MessageB.TYPE_COMPLETE:
+			break;
+
+		case MessageB.TYPE_PENDING:
 
+			mc = receivingList.get(id);
+
+			if (mc != null) {
+				/*
+				 * If exist the related message, update the time stamp.
+				 */
+				mc.setUpdate();
+			} else {
 				/*
-				 * Message was successfully transmitted.
-				 * Remove it if it still exist.
+				 * Ignore it other wise.
 				 */
+			}
 
-				sm = getSendingById(msg.getId());
+			break;
+		/*
+		 * Handle sending operations.
+		 */
+		case MessageB.TYPE_UNKNOWN:
 
-				if (sm != null) {
-					synchronized (sendingQueue) {
-						sendingQueue.remove(sm);
-					}
-				}
+			SendingMessage sm = getSendingById(id);
 
-				break;
+			if (sm != null) {
+				/*
+				 * Send the remote the NEW message.
+				 */
 
-			case MessageB.TYPE_WHATS_UP:
+				sendBlock(new MessageB(sm.getId(), sm.getDataLength(), sm.getFilters()));
+			} else {
+				/*
+				 * If there is no more message.
+				 * Send ERROR back.
+				 */
+				sendBlock(new MessageB(MessageB.TYPE_ERROR_SEND, id));
+			}
 
-				sm = getSendingById(msg.getId());
+			break;
 
-				if (sm != null) {
-					/*
-					 * Send the remote the PENDING message.
-					 */
+		case MessageB.TYPE_COMPLETE:
 
-					if (!sm.isDone()) {
-						sendBlock(new MessageB(MessageB.TYPE_PENDING, sm.getId()));
-					} else {
-						if (sm.wasSuccessful()) {
-							sendBlock(new MessageB(MessageB.TYPE_SENT, sm.getId()));
-						} else {
-							sendBlock(new MessageB(MessageB.TYPE_ERROR_SEND, sm.getId()));
-						}
-					}
+			/*
+			 * Message was successfully transmitted.
+			 * Remove it if it still exist.
+			 */
 
-				} else {
-					/*
-					 * If there is no more message.
-					 * Send ERROR back.
-					 */
+			removeSending(id);
 
-					sendBlock(new MessageB(MessageB.TYPE_ERROR_SEND, msg.getId()));
-				}
+			break;
 
-				break;
+		case MessageB.TYPE_WHATS_UP:
 
-			case MessageB.TYPE_ERROR_RECIEVE:
+			sm = getSendingById(id);
 
+			if (sm != null) {
 				/*
-				 * Message transmitting failed.
-				 * Remove it if it still exist.
+				 * Send the remote the PENDING message.
 				 */
 
-				sm = getSendingById(msg.getId());
-
-				if (sm != null) {
-					synchronized (sendingQueue) {
-						sendingQueue.remove(sm);
+				if (!sm.isDone()) {
+					sendBlock(new MessageB(MessageB.TYPE_PENDING, sm.getId()));
+				} else {
+					if (sm.wasSuccessful()) {
+						sendBlock(new MessageB(MessageB.TYPE_SENT, sm.getId()));
+					} else {
+						sendBlock(new MessageB(MessageB.TYPE_ERROR_SEND, sm.getId()));
 					}
 				}
 
-				break;
+			} else {
+				/*
+				 * If there is no more message.
+				 * Send ERROR back.
+				 */
+
+				sendBlock(new MessageB(MessageB.TYPE_ERROR_SEND, id));
 			}
 
 			break;
 
-		case NodeBlock.BLOCK_MESSAGE_BLOCK:
-			MessageBlock mBlock = (MessageBlock) nb;
+		case MessageB.TYPE_ERROR_RECIEVE:
 
-			if (receivingList.containsKey(mBlock.getId())) {
+			/*
+			 * Message transmitting failed.
+			 * Remove it if it still exist.
+			 */
 
-				/*
-				 * Add block to message if message exist.
-				 */
+			removeSending(id);
+
+			break;
+		}
+	}
 
-				MessageContainer mc = receivingList.get(mBlock.getId());
+	/**
+	 * Process a received message data block.
+	 * <p>
+	 * The data may be a view of the receive buffer, it must be consumed or
+	 * copied before returning.
+	 * 
+	 * @param id the message id
+	 * @param offset the offset of the data in the message
+	 * @param data the data between position and limit
+	 */
+	protected void receivedMessageBlock(final long id, final int offset, final ByteBuffer data) {
+		int length = data.remaining();
 
-				mc.putData(mBlock.getData(), mBlock.getOffset());
+		ReceivingMessage mc = receivingList.get(id);
 
-				/*
-				 * Send feedback.
-				 */
+		if (mc != null) {
 
-				sendBlock(new MessageBlockFeedback(MessageBlockFeedback.TYPE_ACKNOWLEDGE, mBlock.getId(),
-						mBlock.getOffset(), mBlock.getData().length));
-			} else {
+			/*
+			 * Add block to message if message exist.
+			 */
 
-				/*
-				 * Add to fragment buffer.
-				 */
-				fragments.add(new MessageBlockFragment(mBlock.getId(), mBlock.getData(), mBlock.getOffset()));
+			mc.putData(data, offset);
+
+			/*
+			 * Send feedback.
+			 */
+
+			acknowledge(mc, offset, length);
+		} else {
 
+			/*
+			 * Add to fragment buffer.
+			 * The data has to be copied, the receive buffer gets reused.
+			 */
+			byte[] copy = new byte[length];
+			data.duplicate().get(copy);
+
+			MessageBlockFragment mbf = new MessageBlockFragment(id, copy, offset);
+			MessageBlockFragment head;
+
+			do {
+				head = fragments.get(id);
+				mbf.next = head;
+			} while (head == null ? fragments.putIfAbsent(id, mbf) != null : !fragments.replace(id, head, mbf));
+
+			/*
+			 * The NEW may have arrived meanwhile on another thread, then it
+			 * missed this fragment.
+			 */
+			mc = receivingList.get(id);
+
+			if (mc != null) {
+				putFragments(mc);
+			} else {
 				/*
 				 * Send unknown message.
 				 */
-				sendBlock(new MessageB(MessageB.TYPE_UNKNOWN, mBlock.getId()));
+				sendBlock(new MessageB(MessageB.TYPE_UNKNOWN, id));
 			}
+		}
+	}
 
-			break;
+	/**
+	 * Inserts the fragments received before the NEW of the message.
+	 * <p>
+	 * Every inserted fragment gets acknowledged.
+	 * 
+	 * @param mc the container of the message
+	 */
+	protected void putFragments(final ReceivingMessage mc) {
+		for (MessageBlockFragment mbf = fragments.remove(mc.getId()); mbf != null; mbf = mbf.next) {
+			/*
+			 * Insert data.
+			 */
+			mc.putData(mbf.data, mbf.offset);
 
-		case NodeBlock.BLOCK_MESSAGE_BLOCK_FEEDBACK:
-			MessageBlockFeedback mbf = (MessageBlockFeedback) nb;
+			/*
+			 * Send acknowledge.
+			 */
+			acknowledge(mc, mbf.offset, mbf.data.length);
+		}
+	}
 
-			switch (mbf.getType()) {
-			case MessageBlockFeedback.TYPE_ACKNOWLEDGE:
+	/**
+	 * Acknowledges a received message block.
+	 * <p>
+	 * If both nodes negotiated {@link NodeParameters#PARAM_ACK_EVERY}, the
+	 * blocks are acknowledged together by a {@link MessageBlockSack}. It is
+	 * sent after that count of blocks, as soon as the message is complete, or
+	 * at the latest after the negotiated delay. Otherwise every block is
+	 * acknowledged on its own.
+	 * <p>
+	 * The delayed acknowledges of all messages are sent by one task, which is
+	 * scheduled by the first message waiting.
+	 * 
+	 * @param mc the message of the block
+	 * @param offset the offset of the block
+	 * @param length the length of the block
+	 */
+	protected void acknowledge(final ReceivingMessage mc, final int offset, final int length) {
+		NodeParameters p = negotiatedParameters;
+		long every = p.get(NodeParameters.PARAM_ACK_EVERY, 0);
 
-				/*
-				 * Save acknowledge.
-				 */
-				SendingMessage sm = getSendingById(mbf.getId());
+		if (every <= 0) {
+			sendBlock(new MessageBlockFeedback(MessageBlockFeedback.TYPE_ACKNOWLEDGE, mc.getId(), offset, length));
 
-				if (sm != null) {
-					sm.readBlockResponse(mbf.getOffset(), mbf.getLength());
+			return;
+		}
 
-					if (sm.wasSuccessful()) {
-						sendBlock(new MessageB(MessageB.TYPE_SENT, sm.getId()));
-					}
+		if (mc.addReceived(offset, length) >= every || mc.isComplete()) {
+			sendAck(mc);
+
+		} else if (mc.scheduleAck()) {
+			ReceivingMessage head;
+
+			do {
+				head = pendingAcks.get();
+				mc.nextAck = head;
+			} while (!pendingAcks.compareAndSet(head, mc));
 
-					synchronized (monitor) {
-						monitor.notify();
+			if (head == null) {
+				synchronized (timerLock) {
+					if (!timerClosed) {
+						ackFuture = timer.schedule(ackTask, p.get(NodeParameters.PARAM_ACK_DELAY, 0),
+								TimeUnit.MILLISECONDS);
 					}
 				}
+			}
+		}
+	}
 
-				break;
+	/**
+	 * Sends the acknowledge of all data of a message received so far.
+	 * <p>
+	 * Nothing is sent, if all received blocks were acknowledged already.
+	 * 
+	 * @param mc the message
+	 */
+	protected void sendAck(final ReceivingMessage mc) {
+		MessageBlockSack sack = mc.createAck();
 
-			case MessageBlockFeedback.TYPE_REPEAT:
+		if (sack != null) {
+			sendBlock(sack);
+		}
+	}
 
-				/*
-				 * Resent block if available.
-				 */
+	/**
+	 * Process a received message block feedback.
+	 * 
+	 * @param type the feedback type
+	 * @param id the message id
+	 * @param offset the offset of the answered block
+	 * @param length the length of the answered block
+	 */
+	protected void receivedFeedback(final byte type, final long id, final int offset, final int length) {
+		switch (type) {
+		case MessageBlockFeedback.TYPE_ACKNOWLEDGE:
 
-				sm = getSendingById(mbf.getId());
+			/*
+			 * Save acknowledge.
+			 */
+			SendingMessage sm = getSendingById(id);
 
-				if (sm != null) {
-					sm.repeat(mbf.getOffset(), mbf.getLength());
+			if (sm != null) {
+				sm.readBlockResponse(offset, length);
 
-					synchronized (monitor) {
-						monitor.notify();
-					}
+				if (sm.wasSuccessful()) {
+					sendBlock(new MessageB(MessageB.TYPE_SENT, sm.getId()));
 				}
 
-				break;
+				signalWriter();
 			}
 
 			break;
-		}
-	}
 
-	protected SendingMessage getSendingById(final long msgId) {
-		synchronized (sendingQueue) {
-			for (SendingMessage sm : sendingQueue) {
-				if (sm.getId() == msgId)
-					return sm;
+		case MessageBlockFeedback.TYPE_REPEAT:
+
+			/*
+			 * Resent block if available.
+			 */
+
+			sm = getSendingById(id);
+
+			if (sm != null) {
+				sm.repeat(offset, length);
+
+				wakeUp();
 			}
+
+			break;
 		}
+	}
 
-		return null;
+	/**
+	 * Process a received range of a selective acknowledge.
+	 * 
+	 * @param id the message id
+	 * @param start the start of the received range
+	 * @param end the end of the received range, exclusive
+	 */
+	protected void receivedSackRange(final long id, final int start, final int end) {
+		SendingMessage sm = getSendingById(id);
+
+		if (sm != null) {
+			sm.readSackRange(start, end);
+		}
 	}
 
-	/*
-	 * (non-Javadoc)
-	 * @see com.github.held03.jasityProtocol.interfaces.Node#getNextBlock()
+	/**
+	 * Process a received selective acknowledge, after its ranges.
+	 * 
+	 * @param id the message id
+	 * @param cumulative the offset up to which all data was received
 	 */
-	@Override
-	public byte[] getNextBlock() throws InterruptedException, NodeClosedException {
-		synchronized (monitor) {
-			while (!Thread.currentThread().isInterrupted()) {
-				byte[] data = getNextBlockDirectly(connection.getBlockSize());
+	protected void receivedSack(final long id, final int cumulative) {
+		SendingMessage sm = getSendingById(id);
 
-				if (data != null && data.length > 0) {
-					return data;
-				}
+		if (sm != null) {
+			sm.readSack(cumulative);
 
-				//System.out.println("[" + Thread.currentThread().getName() + "] Waits");
-				monitor.wait();
-				//System.out.println("[" + Thread.currentThread().getName() + "] Continues");
+			if (sm.wasSuccessful()) {
+				sendBlock(new MessageB(MessageB.TYPE_SENT, sm.getId()));
 			}
-		}
 
-		throw new InterruptedException();
+			signalWriter();
+		}
 	}
 
-	protected int getBlocksSize(final List<NodeBlock> blocks) {
-
-		if (blocks.isEmpty()) {
-			return 0;
-
-		} else if (blocks.size() == 1) {
-			return blocks.get(0).getSize();
+	/**
+	 * Process a received compressed block.
+	 * <p>
+	 * The block is inflated and the contained block gets processed. If the
+	 * data does not fit the deflate stream, the stream is broken and the node
+	 * gets closed.
+	 * <p>
+	 * The inflated length comes from the remote. It can't exceed the block
+	 * size this node announced, nor what deflate reaches from the received
+	 * data at its best ratio, otherwise the node gets closed as well.
+	 * 
+	 * @param length the length of the inflated block
+	 * @param data the deflated data between position and limit
+	 */
+	protected void receivedCompressed(final int length, final ByteBuffer data) {
+		if ( (getCapabilities() & Hello.CAP_DEFLATE) == 0 || (remoteCapabilities & Hello.CAP_DEFLATE) == 0) {
+			/*
+			 * Not announced by both, so never sent by a correct remote.
+			 */
+			return;
+		}
+
+		if (length < 0 || length > connection.getBlockSize()
+				|| length > (long) data.remaining() * DeflateFilter.MAX_RATIO) {
+			Logger.getLogger(DefaultNode.class.getName()).log(Level.WARNING,
+					"Invalid length of a compressed block, closing node.");
+
+			close();
+			return;
+		}
+
+		ByteBuffer in = data;
+
+		if (!data.hasArray()) {
+			in = BufferPool.getDefault().lease(data.remaining());
+			in.put(data.duplicate());
+			in.flip();
+		}
+
+		/*
+		 * One byte more, so the inflater also consumes the trailing sync
+		 * flush marker, which would be lost otherwise.
+		 */
+		ByteBuffer out = BufferPool.getDefault().lease(length + 1);
+
+		try {
+			int len;
+
+			synchronized (inflaterLock) {
+				if (currentState.equals(State.CLOSED)) {
+					return;
+				}
+
+				if (inflater == null) {
+					inflater = new Inflater(true);
+				}
+
+				inflater.setInput(in.array(), in.arrayOffset() + in.position(), in.remaining());
+
+				try {
+					len = inflater.inflate(out.array(), out.arrayOffset(), length + 1);
+				} catch (DataFormatException e) {
+					len = -1;
+				}
+
+				if (len != length || inflater.getRemaining() != 0) {
+					len = -1;
+				}
+			}
+
+			if (len < 0) {
+				Logger.getLogger(DefaultNode.class.getName()).log(Level.WARNING, "Broken compressed block, closing node.");
+
+				close();
+				return;
+			}
+
+			out.limit(length);
+
+			NodeBlock.decodeBlock(out, receiver);
+
+		} finally {
+			BufferPool.getDefault().release(out);
+
+			if (in != data) {
+				BufferPool.getDefault().release(in);
+			}
+		}
+	}
+
+	/**
+	 * Gets a queued message by its ID.
+	 * 
+	 * @param msgId the ID of the message
+	 * @return the message, or <code>null</code> if not queued
+	 */
+	protected SendingMessage getSendingById(final long msgId) {
+		return sendingIndex.get(msgId);
+	}
+
+	/**
+	 * Adds a message to the queue.
+	 * <p>
+	 * It is only handed over to the writer, which takes it into the
+	 * {@link #sendingQueue} the next time it looks for blocks. So this never
+	 * waits for the writer.
+	 * 
+	 * @param sm the message to add
+	 */
+	protected void addSending(final SendingMessage sm) {
+		sendingIndex.put(sm.getId(), sm);
+		submitted.offer(sm);
+	}
+
+	/**
+	 * Takes the {@link #submitted} messages into the {@link #sendingQueue}.
+	 * <p>
+	 * The {@link #sendLock} must be held.
+	 */
+	private void takeSubmitted() {
+		if (submitted.isEmpty()) {
+			return;
+		}
+
+		synchronized (sendingQueue) {
+			SendingMessage sm;
+
+			while ( (sm = submitted.poll()) != null) {
+				if (!sm.removed) {
+					sendingQueue.add(sm);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes a message from the queue.
+	 * <p>
+	 * The message is only marked as removed, the queue drops it when it walks
+	 * by. So this does not depend on the length of the queue.
+	 * 
+	 * @param msgId the ID of the message
+	 * @return the removed message, or <code>null</code> if not queued
+	 */
+	protected SendingMessage removeSending(final long msgId) {
+		SendingMessage sm = sendingIndex.remove(msgId);
+
+		if (sm != null) {
+			sm.removed = true;
+		}
+
+		return sm;
+	}
+
+	/**
+	 * Gets the next message of the queue which was not removed.
+	 * <p>
+	 * Removed messages are dropped from the queue on the way. The monitor of
+	 * the {@link #sendingQueue} must be held.
+	 * 
+	 * @param it the iterator of the queue
+	 * @return the next message, or <code>null</code> if there is none
+	 */
+	private static SendingMessage nextSending(final Iterator<SendingMessage> it) {
+		while (it.hasNext()) {
+			SendingMessage sm = it.next();
+
+			if (!sm.removed) {
+				return sm;
+			}
+
+			it.remove();
+		}
+
+		return null;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.github.held03.jasityProtocol.interfaces.Node#getNextBlock()
+	 */
+	@Override
+	public byte[] getNextBlock() throws InterruptedException, NodeClosedException {
+		writer = Thread.currentThread();
+		try {
+			for (int idle = 0; !Thread.interrupted(); idle++) {
+				byte[] data = getNextBlockDirectly(connection.getBlockSize());
+
+				if (data != null && data.length > 0) {
+					return data;
+				}
+
+				//System.out.println("[" + Thread.currentThread().getName() + "] Waits");
+				awaitBlock(idle);
+				//System.out.println("[" + Thread.currentThread().getName() + "] Continues");
+			}
+		} finally {
+			writer = null;
+		}
+
+		throw new InterruptedException();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.interfaces.Node#getNextBlock(java.nio
+	 * .ByteBuffer)
+	 */
+	@Override
+	public int getNextBlock(final ByteBuffer buffer) throws InterruptedException, NodeClosedException {
+		writer = Thread.currentThread();
+		try {
+			for (int idle = 0; !Thread.interrupted(); idle++) {
+				int len = getNextBlockDirectly(buffer);
+
+				if (len > 0) {
+					return len;
+				}
+
+				awaitBlock(idle);
+			}
+		} finally {
+			writer = null;
+		}
+
+		throw new InterruptedException();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.interfaces.Node#getNextBlock(com.github
+	 * .held03.jasityProtocol.base.util.GatheringBuffer)
+	 */
+	@Override
+	public int getNextBlock(final GatheringBuffer buffer) throws InterruptedException, NodeClosedException {
+		writer = Thread.currentThread();
+		try {
+			for (int idle = 0; !Thread.interrupted(); idle++) {
+				int len = getNextBlockDirectly(buffer);
+
+				if (len > 0) {
+					return len;
+				}
+
+				awaitBlock(idle);
+			}
+		} finally {
+			writer = null;
+		}
+
+		throw new InterruptedException();
+	}
+
+	/**
+	 * Waits until new blocks got available, or held back blocks are due.
+	 * <p>
+	 * It waits by the {@link #waitStrategy}, which may return early. The
+	 * waiting thread must be set as {@link #writer}, so it gets signaled.
+	 * 
+	 * @param idle how often this was called since the last block
+	 */
+	private void awaitBlock(final int idle) {
+		long until = holdUntil;
+		long nanos = 0;
+
+		if (until != 0) {
+			nanos = until - System.nanoTime();
+
+			if (nanos <= 0) {
+				return;
+			}
+		}
+
+		waitStrategy.idle(idle, nanos);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.interfaces.Node#getNextBlockDirectly()
+	 */
+	@Override
+	public byte[] getNextBlockDirectly(final int blocksize) throws NodeClosedException {
+		NodeBlock nb = pollBlock(blocksize);
+
+		if (nb == null) {
+			return null;
+		}
+
+		return nb.encode().array();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.interfaces.Node#getNextBlockDirectly
+	 * (java.nio.ByteBuffer)
+	 */
+	@Override
+	public int getNextBlockDirectly(final ByteBuffer buffer) throws NodeClosedException {
+		if (buffer.remaining() < NodeBlock.MIN_BLOCK_SIZE) {
+			throw new IllegalArgumentException("The buffer is smaller than the minimum block size: "
+					+ buffer.remaining());
+		}
+
+		NodeBlock nb = pollBlock(buffer.remaining());
+
+		if (nb == null) {
+			return 0;
+		}
+
+		nb.encodeTo(buffer);
+
+		return nb.getSize();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.interfaces.Node#getNextBlockDirectly
+	 * (com.github.held03.jasityProtocol.base.util.GatheringBuffer)
+	 */
+	@Override
+	public int getNextBlockDirectly(final GatheringBuffer buffer) throws NodeClosedException {
+		if (buffer.getBuffer().remaining() < NodeBlock.MIN_BLOCK_SIZE) {
+			throw new IllegalArgumentException("The buffer is smaller than the minimum block size: "
+					+ buffer.getBuffer().remaining());
+		}
+
+		NodeBlock nb = pollBlock(buffer.getBuffer().remaining());
+
+		if (nb == null) {
+			return 0;
+		}
+
+		nb.encodeTo(buffer);
+
+		return nb.getSize();
+	}
+
+	/**
+	 * Takes the blocks to send next.
+	 * <p>
+	 * Blocks and message blocks are collected until the block size is
+	 * reached. If more than one block was collected, they get packed into a
+	 * {@link Multi}. The packer keeps the size of the collected blocks, so
+	 * this takes linear time in the count of blocks.
+	 * 
+	 * @param blocksize the maximum size of the encoded block
+	 * @return the block to send, or <code>null</code> if nothing to send
+	 * @throws NodeClosedException if the node was closed
+	 */
+	protected NodeBlock pollBlock(int blocksize) throws NodeClosedException {
+		//System.out.println("GetBlock...");
+
+		sendLock.lock();
+		try {
+
+//			System.out.println("[" + Thread.currentThread().getName() + "] Msg: "
+//					+ sendingQueue.size() + "/" + receivingList.size());
+
+			packer.reset();
+
+			takeSubmitted();
+
+			//System.out.println("max Size: " + size);
+
+			/*
+			 * Checking block size.
+			 * Limit it to the size the remote receives, and reset it if it
+			 * is too small.
+			 */
+			long maxSize = negotiatedParameters.get(NodeParameters.PARAM_BLOCK_SIZE, blocksize);
+
+			if (maxSize < blocksize)
+				blocksize = (int) maxSize;
+
+			if (blocksize < NodeBlock.MIN_BLOCK_SIZE)
+				blocksize = NodeBlock.MIN_BLOCK_SIZE;
+
+			/*
+			 * Hold back partial blocks, if more data may follow soon.
+			 */
+			long hold = getHoldTime(blocksize);
+
+			if (hold > 0) {
+				holdUntil = System.nanoTime() + hold;
+
+				scheduleWakeup(hold);
+
+				return null;
+			}
+
+			holdUntil = 0;
+
+			/*
+			 * If the block may get compressed, leave room for the expansion
+			 * of incompressible data. The deflate stream can't be taken back,
+			 * so a compressed block is sent even if it got larger.
+			 */
+			boolean compress = isCompressing() && !currentState.equals(State.CLOSED)
+					&& Compressed.getMaxLength(blocksize) >= Math.max(compressionThreshold, NodeBlock.MIN_BLOCK_SIZE);
+
+			if (compress) {
+				blocksize = Compressed.getMaxLength(blocksize);
+			}
+
+			/*
+			 * Getting node blocks.
+			 */
+			NodeBlock nb2;
+
+			//System.out.println("blocks: " + blocks.size());
+			while ( (nb2 = blocks.peek()) != null && packer.fits(nb2, blocksize)) {
+				packer.add(blocks.poll());
+			}
+
+			/*
+			 * Getting message blocks.
+			 */
+			if (!sendingQueue.isEmpty() && currentState.equals(State.CONNECTED)) {
+				synchronized (sendingQueue) {
+					Iterator<SendingMessage> msgs = sendingQueue.iterator();
+
+					SendingMessage msg = nextFiltered(msgs);
+
+					int freeSpace;
+
+					while (msg != null && (freeSpace = blocksize - packer.getSizeWith(MessageBlock.STATIC_COST)) > 0) {
+
+						if (msg.currentOffset() == 0) {
+							MessageB newBlock = new MessageB(msg.getId(), msg.getDataLength(), msg.getFilters());
+
+							if (freeSpace > newBlock.getSize() + Multi.ADDITIONAL_COST
+									+ (packer.isEmpty() ? Multi.STATIC_COST : 0)) {
+								packer.add(newBlock);
+
+								if (uncompressedPriorities.contains(msg.priority)) {
+									compress = false;
+								}
+
+								freeSpace = blocksize - packer.getSizeWith(MessageBlock.STATIC_COST);
+
+								if (freeSpace < 1) {
+									break;
+								}
+
+							} else if (freeSpace + MessageBlock.STATIC_COST + Multi.ADDITIONAL_COST > newBlock.getSize()) {
+
+							} else {
+								break;
+							}
+						}
+
+						MessageBlock mb = msg.getNextBlock(freeSpace, timeOut);
+
+						if (mb == null) {
+							msg = nextFiltered(msgs);
+						} else {
+							packer.add(mb);
+
+							if (uncompressedPriorities.contains(msg.priority)) {
+								compress = false;
+							}
+						}
+					}
+				}
+			}
+
+//			System.out.println("[" + Thread.currentThread().getName() + "] final Size: " + packer.getSize() + "/"
+//					+ blocksize);
+
+			if (packer.isEmpty() && currentState.equals(State.CLOSED)) {
+				throw new NodeClosedException("The node was closed.");
+
+			} else if (packer.isEmpty()) {
+				return null;
+
+			}
+
+			NodeBlock nb = packer.finish();
+
+			/*
+			 * The blocks were packed by the sizes of the normal form, which
+			 * the compact form usually undercuts. Only huge ids or offsets
+			 * may exceed it, so fall back to the normal form then.
+			 */
+			nb.setCompact(isCompact());
+
+			if (nb.getSize() > blocksize) {
+				nb.setCompact(false);
+			}
+
+			if (compress && nb.getSize() >= compressionThreshold) {
+				nb = compress(nb);
+			}
+
+			return nb;
+		} finally {
+			sendLock.unlock();
+		}
+	}
+
+	/**
+	 * Checks how long the pending data should be held back.
+	 * <p>
+	 * Data is held back while less than the minimum fill of a block is
+	 * pending, but at most for the linger time since it was seen first. While
+	 * corked, it is held back until a full block is pending.
+	 * <p>
+	 * The {@link #sendLock} must be held.
+	 * 
+	 * @param blocksize the size of the block to fill
+	 * @return the time to hold back in nanoseconds, or <code>0</code> to send
+	 *         now
+	 */
+	protected long getHoldTime(final int blocksize) {
+		long linger;
+		int fill;
+
+		if (!currentState.equals(State.CONNECTED)) {
+			return 0;
+
+		} else if (corked) {
+			linger = MAX_CORK_TIME;
+			fill = blocksize;
+
+		} else if (lingerTime > 0) {
+			linger = lingerTime;
+			fill = (int) (minFill * blocksize);
+
+		} else {
+			return 0;
+		}
+
+		int pending = getPendingSize(fill);
+
+		if (pending == 0) {
+			pendingSince = 0;
+			return 0;
+
+		} else if (pending >= fill) {
+			return 0;
+		}
+
+		long now = System.nanoTime();
+
+		if (pendingSince == 0) {
+			pendingSince = now;
+		}
+
+		return Math.max(0, pendingSince + linger * 1000 - now);
+	}
+
+	/**
+	 * Estimates the size of the data ready to be sent.
+	 * <p>
+	 * It counts the queued blocks and the data of the messages not sent yet,
+	 * but stops counting as soon as the limit is reached.
+	 * <p>
+	 * The {@link #sendLock} must be held.
+	 * 
+	 * @param limit the size up to which to count
+	 * @return the estimated size in bytes
+	 */
+	protected int getPendingSize(final int limit) {
+		if (blocks.getEncodedSize() >= limit) {
+			return limit;
+		}
+
+		int size = (int) blocks.getEncodedSize();
+
+		synchronized (sendingQueue) {
+			for (SendingMessage sm : sendingQueue) {
+				int left = sm.getDataLength() - sm.currentOffset();
+
+				if (left > 0 && !sm.removed) {
+					size += left + MessageBlock.STATIC_COST + Multi.ADDITIONAL_COST;
+
+					if (size >= limit) {
+						return size;
+					}
+				}
+			}
+		}
+
+		return size;
+	}
+
+	/**
+	 * Informs a direct connection again, if held back blocks are due.
+	 * <p>
+	 * Connections blocking in {@link #getNextBlock()} wait by themselves.
+	 * <p>
+	 * The {@link #sendLock} must be held.
+	 * 
+	 * @param delay the time until the blocks are due in nanoseconds
+	 */
+	private void scheduleWakeup(final long delay) {
+		if (wakeupScheduled || ! (connection instanceof DirectConnection)) {
+			return;
+		}
+
+		synchronized (timerLock) {
+			/*
+			 * If the node got closed, it sends everything without holding.
+			 */
+			if (!timerClosed) {
+				wakeup = timer.schedule(wakeupTask, delay, TimeUnit.NANOSECONDS);
+
+				wakeupScheduled = true;
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.github.held03.jasityProtocol.interfaces.Node#cork()
+	 */
+	@Override
+	public void cork() {
+		corked = true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.github.held03.jasityProtocol.interfaces.Node#uncork()
+	 */
+	@Override
+	public void uncork() {
+		corked = false;
+
+		wakeUp();
+	}
+
+	/**
+	 * Checks if the node is corked.
+	 * 
+	 * @return <code>true</code> if corked
+	 * @see #cork()
+	 */
+	public boolean isCorked() {
+		return corked;
+	}
+
+	/**
+	 * Sets the time partial blocks are held back, waiting for more data.
+	 * <p>
+	 * This trades latency for fewer and fuller blocks, so a burst of small
+	 * messages is sent in a few blocks instead of one block each. Data is
+	 * never held back longer than this time, and not at all if the
+	 * {@link #setMinFill(float) minimum fill} of a block is reached.
+	 * 
+	 * @param micros the time in microseconds, <code>0</code> to send blocks at
+	 *            once
+	 */
+	public void setLinger(final long micros) {
+		if (micros < 0) {
+			throw new IllegalArgumentException("Negative linger time: " + micros);
+		}
+
+		lingerTime = micros;
+
+		wakeUp();
+	}
+
+	/**
+	 * Gets the time partial blocks are held back.
+	 * 
+	 * @return the time in microseconds
+	 * @see #setLinger(long)
+	 */
+	public long getLinger() {
+		return lingerTime;
+	}
+
+	/**
+	 * Sets the fill ratio of a block, which is sent without lingering.
+	 * <p>
+	 * It is relative to the block size of the connection, the default is
+	 * <code>1</code>, meaning only full blocks are sent before the linger time
+	 * elapsed.
+	 * 
+	 * @param ratio the ratio between <code>0</code> and <code>1</code>
+	 * @see #setLinger(long)
+	 */
+	public void setMinFill(final float ratio) {
+		if (! (ratio >= 0 && ratio <= 1)) {
+			throw new IllegalArgumentException("Invalid fill ratio: " + ratio);
+		}
+
+		minFill = ratio;
+
+		wakeUp();
+	}
+
+	/**
+	 * Gets the fill ratio of a block, which is sent without lingering.
+	 * 
+	 * @return the ratio
+	 * @see #setMinFill(float)
+	 */
+	public float getMinFill() {
+		return minFill;
+	}
+
+	/**
+	 * Sets how the writer waits in {@link #getNextBlock()} while there is
+	 * nothing to send.
+	 * <p>
+	 * The threads queuing blocks and messages only signal the writer, so
+	 * reading and writing go on in parallel. Spinning strategies send queued
+	 * blocks sooner, but take CPU while idle.
+	 * 
+	 * @param strategy the strategy
+	 * @see SendWaitStrategy#BLOCK
+	 * @see SendWaitStrategy#SPIN_THEN_PARK
+	 * @see SendWaitStrategy#BUSY_SPIN
+	 */
+	public void setWaitStrategy(final SendWaitStrategy strategy) {
+		if (strategy == null) {
+			throw new NullPointerException();
+		}
+
+		waitStrategy = strategy;
+
+		/*
+		 * A parked writer may not get signaled by the new strategy.
+		 */
+		Thread t = writer;
+
+		if (t != null) {
+			LockSupport.unpark(t);
+		}
+	}
+
+	/**
+	 * Gets how the writer waits while there is nothing to send.
+	 * 
+	 * @return the strategy
+	 * @see #setWaitStrategy(SendWaitStrategy)
+	 */
+	public SendWaitStrategy getWaitStrategy() {
+		return waitStrategy;
+	}
+
+	/**
+	 * Sets how the writers of new nodes wait.
+	 * 
+	 * @param strategy the strategy
+	 * @see #setWaitStrategy(SendWaitStrategy)
+	 */
+	public static void setDefaultWaitStrategy(final SendWaitStrategy strategy) {
+		if (strategy == null) {
+			throw new NullPointerException();
+		}
+
+		defaultWaitStrategy = strategy;
+	}
+
+	/**
+	 * Gets how the writers of new nodes wait.
+	 * 
+	 * @return the strategy
+	 */
+	public static SendWaitStrategy getDefaultWaitStrategy() {
+		return defaultWaitStrategy;
+	}
+
+	/**
+	 * Gets the timer shared by all nodes.
+	 * <p>
+	 * It runs the pings, the wake ups for held back blocks and the delayed
+	 * acknowledges of all nodes on a single daemon thread, started on first
+	 * use. So the count of threads doesn't grow with the count of nodes, but
+	 * the tasks must never block.
+	 * 
+	 * @return the shared timer
+	 */
+	protected static synchronized ScheduledExecutorService getScheduler() {
+		if (scheduler == null) {
+			scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+
+				@Override
+				public Thread newThread(final Runnable r) {
+					Thread t = new Thread(r);
+					t.setDaemon(true);
+					t.setName("Node timer");
+					return t;
+				}
+			});
+
+			/*
+			 * Drop the tasks of closed nodes at once, instead of keeping them
+			 * until they are due.
+			 */
+			scheduler.setRemoveOnCancelPolicy(true);
+		}
+
+		return scheduler;
+	}
+
+	/**
+	 * Lets the connection check again for blocks to send.
+	 */
+	private void wakeUp() {
+		signalWriter();
+
+		notifyConnection();
+	}
+
+	/**
+	 * Signals the writer waiting in {@link #getNextBlock()}, if any.
+	 */
+	private void signalWriter() {
+		Thread t = writer;
+
+		if (t != null) {
+			waitStrategy.signal(t);
+		}
+	}
+
+	/**
+	 * Applies the filters of this node to the data of the given message.
+	 * <p>
+	 * If the remote can't reverse filters, messages with the
+	 * {@link Transport#OPTIONALLY} transport are sent unfiltered, and messages
+	 * with the {@link Transport#NORMAL} transport fail.
+	 * 
+	 * @param sm the message to filter, not yet sent
+	 * @return <code>false</code> if the message failed
+	 */
+	protected boolean filter(final SendingMessage sm) {
+		if ( (remoteCapabilities & Hello.CAP_FILTERS) == 0) {
+			if (sm.transport == Transport.NORMAL) {
+				Logger.getLogger(DefaultNode.class.getName()).log(Level.WARNING,
+						"The remote can not reverse filters, message {0} failed.", sm.getId());
+
+				sm.fail();
+
+				return false;
+			}
+
+			return true;
+		}
+
+		long start = System.nanoTime();
+
+		ByteBuffer data = ByteBuffer.wrap(sm.getData());
+		byte[] applied = new byte[filters.size()];
+		int count = 0;
+
+		for (MessageFilter f : filters) {
+			if (count == applied.length) {
+				/*
+				 * Added while filtering.
+				 */
+				break;
+			}
+
+			ByteBuffer res = f.encode(data);
+
+			if (res != null) {
+				data = res;
+				applied[count++] = f.getId();
+			}
+		}
+
+		if (count > 0) {
+			sm.setFilteredData(toArray(data), Arrays.copyOf(applied, count));
+		}
+
+		filterTime.addAndGet(System.nanoTime() - start);
+
+		return true;
+	}
+
+	/**
+	 * Gets the next message of the queue to send, with its filters applied.
+	 * <p>
+	 * Messages sent before the hello of the remote get filtered now, messages
+	 * which failed are removed from the queue. It is only called while
+	 * connected, so the capabilities of the remote are known. The monitor of
+	 * the {@link #sendingQueue} must be held.
+	 * 
+	 * @param it the iterator of the queue
+	 * @return the next message, or <code>null</code> if there is none
+	 */
+	private SendingMessage nextFiltered(final Iterator<SendingMessage> it) {
+		SendingMessage sm;
+
+		while ( (sm = nextSending(it)) != null) {
+			if (!sm.filterPending) {
+				return sm;
+			}
+
+			sm.filterPending = false;
+
+			if (filter(sm)) {
+				return sm;
+			}
+
+			it.remove();
+			removeSending(sm.getId());
+		}
+
+		return null;
+	}
+
+	/**
+	 * Reverses the given filters on received data.
+	 * 
+	 * @param data the filtered data
+	 * @param ids the IDs of the filters in the order they were applied
+	 * @return the original data, or <code>null</code> if a filter is unknown
+	 *         or the data is broken
+	 */
+	protected ByteBuffer unfilter(ByteBuffer data, final byte[] ids) {
+		if (ids.length == 0) {
+			return data;
+		}
+
+		long start = System.nanoTime();
+
+		try {
+			for (int i = ids.length - 1; i >= 0 && data != null; i--) {
+				MessageFilter f = getFilter(ids[i]);
+
+				if (f == null) {
+					return null;
+				}
+
+				data = f.decode(data);
+			}
+
+			return data;
+
+		} finally {
+			filterTime.addAndGet(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Gets the filter with the given ID.
+	 * 
+	 * @param id the ID of the filter
+	 * @return the filter, or <code>null</code> if unknown
+	 */
+	protected MessageFilter getFilter(final byte id) {
+		for (MessageFilter f : filters) {
+			if (f.getId() == id) {
+				return f;
+			}
+		}
 
-		} else {
-			int size = Multi.STATIC_COST;
+		return null;
+	}
 
-			for (NodeBlock nb : blocks) {
-				size += Multi.ADDITIONAL_COST;
-				size += nb.getSize();
+	/**
+	 * Adds a filter at the end of the filters of this node.
+	 * <p>
+	 * Messages which are already queued are not affected. The remote needs a
+	 * filter with the same ID to receive the messages.
+	 * 
+	 * @param filter the filter to add
+	 * @throws IllegalArgumentException if a filter with the same ID was added
+	 */
+	public void addFilter(final MessageFilter filter) {
+		synchronized (filters) {
+			if (getFilter(filter.getId()) != null) {
+				throw new IllegalArgumentException("Duplicated filter ID: " + filter.getId());
 			}
 
-			return size;
+			filters.add(filter);
 		}
 	}
 
-	protected int getBlocksSize(final List<NodeBlock> blocks, final NodeBlock add) {
-
-		if (blocks.isEmpty()) {
-			return add.getSize();
+	/**
+	 * Removes a filter of this node.
+	 * <p>
+	 * Received messages using it can't be decoded any more.
+	 * 
+	 * @param filter the filter to remove
+	 */
+	public void removeFilter(final MessageFilter filter) {
+		filters.remove(filter);
+	}
 
-		} else {
-			int size = Multi.STATIC_COST;
+	/**
+	 * Gets the filters of this node in the order they are applied.
+	 * 
+	 * @return an unmodifiable view of the filters
+	 */
+	public List<MessageFilter> getFilters() {
+		return Collections.unmodifiableList(filters);
+	}
 
-			for (NodeBlock nb : blocks) {
-				size += Multi.ADDITIONAL_COST;
-				size += nb.getSize();
-			}
+	/**
+	 * Gets the time spent in the filters of this node.
+	 * <p>
+	 * It sums up the time of filtering sent messages and reversing the filters
+	 * of received messages.
+	 * 
+	 * @return the time in nanoseconds
+	 */
+	public long getFilterTime() {
+		return filterTime.get();
+	}
 
-			size += Multi.ADDITIONAL_COST;
-			size += add.getSize();
+	/**
+	 * Sets the filters of new nodes.
+	 * <p>
+	 * Nodes created by the back ends start with these filters, so no message
+	 * gets received before they are set.
+	 * 
+	 * @param filters the filters in the order they are applied
+	 */
+	public static void setDefaultFilters(final MessageFilter... filters) {
+		defaultFilters = filters.clone();
+	}
 
-			return size;
-		}
+	/**
+	 * Gets the filters of new nodes.
+	 * 
+	 * @return a copy of the filters
+	 */
+	public static MessageFilter[] getDefaultFilters() {
+		return defaultFilters.clone();
 	}
 
-	/*
-	 * (non-Javadoc)
-	 * @see
-	 * com.github.held03.jasityProtocol.interfaces.Node#getNextBlockDirectly()
+	/**
+	 * Gets the content of the given buffer as array.
+	 * <p>
+	 * If the buffer covers its whole backing array, the array itself is
+	 * returned, otherwise the content is copied.
+	 * 
+	 * @param data the data between position and limit
+	 * @return the data
 	 */
-	@Override
-	public byte[] getNextBlockDirectly(int blocksize) throws NodeClosedException {
-		//System.out.println("GetBlock...");
+	protected static byte[] toArray(final ByteBuffer data) {
+		if (data.hasArray() && data.arrayOffset() == 0 && data.position() == 0
+				&& data.remaining() == data.array().length) {
+			return data.array();
+		}
 
-		synchronized (monitor) {
+		byte[] copy = new byte[data.remaining()];
 
-//			System.out.println("[" + Thread.currentThread().getName() + "] Blocks: " + blocks.size() + " Msg: "
-//					+ sendingQueue.size() + "/" + receivingList.size());
+		data.duplicate().get(copy);
 
-			LinkedList<NodeBlock> blocks = new LinkedList<NodeBlock>();
+		return copy;
+	}
 
-			//System.out.println("max Size: " + size);
+	/**
+	 * Compresses the given block within the deflate stream of this node.
+	 * <p>
+	 * This must be called with {@link #sendLock} held, in the order the blocks
+	 * are sent.
+	 * 
+	 * @param nb the block to compress
+	 * @return the compressed block, at most {@link Compressed#getMaxSize(int)}
+	 *         of the size of the given block
+	 */
+	protected Compressed compress(final NodeBlock nb) {
+		int length = nb.getSize();
 
-			/*
-			 * Checking block size.
-			 * Reset it if it is too small.
-			 */
-			if (blocksize < NodeBlock.MIN_BLOCK_SIZE)
-				blocksize = NodeBlock.MIN_BLOCK_SIZE;
+		ByteBuffer in = BufferPool.getDefault().lease(length);
+		ByteBuffer out = BufferPool.getDefault().lease(Compressed.getMaxSize(length));
 
-			/*
-			 * Getting node blocks.
-			 */
-			NodeBlock nb2;
+		try {
+			nb.encodeTo(in);
 
-			//System.out.println("blocks: " + blocks.size());
-			while ( (!this.blocks.isEmpty()) && ( (nb2 = this.blocks.get(0))) != null
-					&& getBlocksSize(blocks, nb2) <= blocksize) {
-				blocks.add(this.blocks.remove(0));
+			if (deflater == null) {
+				deflater = new Deflater(compressionLevel, true);
+			} else {
+				deflater.setLevel(compressionLevel);
 			}
 
-			/*
-			 * Getting message blocks.
-			 */
-			if (!sendingQueue.isEmpty() && currentState.equals(State.CONNECTED)) {
-				synchronized (sendingQueue) {
-					Iterator<SendingMessage> msgs = sendingQueue.iterator();
+			deflater.setInput(in.array(), in.arrayOffset(), length);
 
-					SendingMessage msg = msgs.next();
-
-					int freeSpace;
+			int len = deflater.deflate(out.array(), out.arrayOffset(), out.capacity(), Deflater.SYNC_FLUSH);
 
-					while ( (freeSpace = blocksize
-							- (getBlocksSize(blocks) + MessageBlock.STATIC_COST
-									+ (blocks.size() >= 1 ? Multi.ADDITIONAL_COST : 0) + (blocks.size() == 1 ? Multi.STATIC_COST
-									+ Multi.ADDITIONAL_COST
-										: 0))) > 0) {
+			/*
+			 * A sync flush is complete if it left space in the output.
+			 */
+			if (len == out.capacity() || !deflater.needsInput()) {
+				throw new IllegalStateException("Deflated block exceeds its bound: " + length);
+			}
 
-						if (msg.currentOffset() == 0) {
-							if (freeSpace > MessageB.STATIC_COST + Multi.ADDITIONAL_COST
-									+ (blocks.size() == 0 ? Multi.STATIC_COST : 0)) {
-								freeSpace -= MessageB.STATIC_COST + Multi.ADDITIONAL_COST;
+			return new Compressed(length, Arrays.copyOfRange(out.array(), out.arrayOffset(), out.arrayOffset() + len),
+					0, len);
 
-								blocks.add(new MessageB(msg.getId(), msg.getDataLength()));
+		} finally {
+			BufferPool.getDefault().release(in);
+			BufferPool.getDefault().release(out);
+		}
+	}
 
-								if (blocks.size() == 1) {
-									freeSpace -= Multi.STATIC_COST;
-									freeSpace -= Multi.ADDITIONAL_COST;
+	/**
+	 * Checks if the sent blocks get compressed.
+	 * <p>
+	 * This requires compression to be enabled, an ordered connection and a
+	 * remote which announced {@link Hello#CAP_DEFLATE}.
+	 * 
+	 * @return <code>true</code> if blocks get compressed
+	 */
+	public boolean isCompressing() {
+		return compressionLevel != Deflater.NO_COMPRESSION && (remoteCapabilities & Hello.CAP_DEFLATE) != 0
+				&& isOrdered();
+	}
 
-									if (freeSpace < 1) {
-										break;
-									}
-								}
+	/**
+	 * Gets the capabilities sent with the hello blocks of this node.
+	 * 
+	 * @return the {@link #CAPABILITIES}, and {@link Hello#CAP_DEFLATE} if the
+	 *         connection is ordered
+	 */
+	protected int getCapabilities() {
+		return CAPABILITIES | (isOrdered() ? Hello.CAP_DEFLATE : 0);
+	}
 
-							} else if (freeSpace + MessageBlock.STATIC_COST + Multi.ADDITIONAL_COST > MessageB.STATIC_COST) {
+	/**
+	 * Sets the compression level of new nodes.
+	 * <p>
+	 * Any node can inflate received blocks over an ordered connection, this
+	 * only decides if a node compresses the blocks it sends.
+	 * 
+	 * @param level a deflate level from 1 to 9 or
+	 *            {@link Deflater#DEFAULT_COMPRESSION}, or
+	 *            {@link Deflater#NO_COMPRESSION} to disable compression
+	 * @see #setCompressionLevel(int)
+	 */
+	public static void setDefaultCompressionLevel(final int level) {
+		checkCompressionLevel(level);
 
-							} else {
-								break;
-							}
-						}
+		defaultCompressionLevel = level;
+	}
 
-						MessageBlock mb = msg.getNextBlock(freeSpace, timeOut);
+	/**
+	 * Gets the compression level of new nodes.
+	 * 
+	 * @return the deflate level, or {@link Deflater#NO_COMPRESSION}
+	 */
+	public static int getDefaultCompressionLevel() {
+		return defaultCompressionLevel;
+	}
 
-						if (mb == null) {
-							if (msgs.hasNext()) {
-								msg = msgs.next();
-							} else
-								break;
-						} else {
-							blocks.add(mb);
-						}
-					}
-				}
-			}
+	/**
+	 * Sets the compression level of the blocks sent by this node.
+	 * <p>
+	 * It can be changed any time, the deflate stream goes on with the new
+	 * level.
+	 * 
+	 * @param level a deflate level from 1 to 9 or
+	 *            {@link Deflater#DEFAULT_COMPRESSION}, or
+	 *            {@link Deflater#NO_COMPRESSION} to disable compression
+	 * @see #isCompressing()
+	 */
+	public void setCompressionLevel(final int level) {
+		checkCompressionLevel(level);
 
-//			System.out.println("[" + Thread.currentThread().getName() + "] final Size: " + getBlocksSize(blocks) + "/"
-//					+ blocksize + " cont: " + Arrays.deepToString(blocks.toArray()));
+		compressionLevel = level;
+	}
 
-			if (blocks.isEmpty() && currentState.equals(State.CLOSED)) {
-				throw new NodeClosedException("The node was closed.");
+	/**
+	 * Gets the compression level of the blocks sent by this node.
+	 * 
+	 * @return the deflate level, or {@link Deflater#NO_COMPRESSION}
+	 */
+	public int getCompressionLevel() {
+		return compressionLevel;
+	}
 
-			} else if (blocks.isEmpty()) {
-				return null;
+	/**
+	 * Sets the minimum size of a block to get compressed.
+	 * 
+	 * @param threshold the minimum size in bytes
+	 * @see #DEFAULT_COMPRESSION_THRESHOLD
+	 */
+	public void setCompressionThreshold(final int threshold) {
+		compressionThreshold = threshold;
+	}
 
-			} else if (blocks.size() == 1) {
-				return blocks.getFirst().encode().array();
+	/**
+	 * Gets the minimum size of a block to get compressed.
+	 * 
+	 * @return the minimum size in bytes
+	 */
+	public int getCompressionThreshold() {
+		return compressionThreshold;
+	}
 
+	/**
+	 * Sets if messages of the given priority may be sent compressed.
+	 * <p>
+	 * Blocks containing data of an excluded message are never compressed.
+	 * This is useful for already compressed data, or messages which should
+	 * not wait for the compression.
+	 * 
+	 * @param priority the priority of the messages
+	 * @param compressed <code>false</code> to exclude the messages
+	 */
+	public void setCompressed(final Priority priority, final boolean compressed) {
+		sendLock.lock();
+		try {
+			if (compressed) {
+				uncompressedPriorities.remove(priority);
 			} else {
-				NodeBlock[] bls = blocks.toArray(new NodeBlock[0]);
-
-				return new Multi(bls).encode().array();
+				uncompressedPriorities.add(priority);
 			}
+		} finally {
+			sendLock.unlock();
+		}
+	}
+
+	/**
+	 * Checks if messages of the given priority may be sent compressed.
+	 * 
+	 * @param priority the priority of the messages
+	 * @return <code>false</code> if the messages are excluded
+	 */
+	public boolean isCompressed(final Priority priority) {
+		sendLock.lock();
+		try {
+			return !uncompressedPriorities.contains(priority);
+		} finally {
+			sendLock.unlock();
+		}
+	}
+
+	/**
+	 * Checks the given compression level.
+	 * 
+	 * @param level the level to check
+	 * @throws IllegalArgumentException if it is no deflate level
+	 */
+	private static void checkCompressionLevel(final int level) {
+		if ( (level < 0 || level > Deflater.BEST_COMPRESSION) && level != Deflater.DEFAULT_COMPRESSION) {
+			throw new IllegalArgumentException("Invalid compression level: " + level);
 		}
 	}
 
@@ -826,19 +2487,32 @@ public class DefaultNode implements Node {
 
 	/**
 	 * Queue a node block for sending.
+	 * <p>
+	 * The block is queued without locking, so this never waits for the
+	 * writer.
 	 * 
 	 * @param nb the node block to send
 	 * @param first if <code>true</code>, add the block at head of the queue
 	 */
 	protected void sendBlock(final NodeBlock nb, final boolean first) {
-		synchronized (monitor) {
-			if (first) {
-				blocks.add(0, nb);
-			} else {
-				blocks.add(nb);
-			}
+		if (first) {
+			blocks.addFirst(nb);
+		} else {
+			blocks.add(nb);
+		}
+
+		wakeUp();
+	}
 
-			monitor.notify();
+	/**
+	 * Informs the connection that new data is ready to be sent.
+	 * <p>
+	 * Only a {@link DirectConnection} gets informed, all other connections are
+	 * expected to block in {@link #getNextBlock()}.
+	 */
+	protected void notifyConnection() {
+		if (connection instanceof DirectConnection) {
+			((DirectConnection) connection).blockAvailable(this);
 		}
 	}
 
@@ -862,21 +2536,49 @@ public class DefaultNode implements Node {
 	 */
 	@Override
 	public Future<Boolean> sendMessage(final Message msg, final Priority priority) throws NodeClosedException {
-		synchronized (monitor) {
-			if (currentState.equals(State.CLOSED)) {
-				throw new NodeClosedException("Node has been closed.");
-			}
+		if (currentState.equals(State.CLOSED)) {
+			throw new NodeClosedException("Node has been closed.");
+		}
 
-			SendingMessage sm = new SendingMessage(getNextId(), coder.encodeMessage(msg).array(), priority);
+		/*
+		 * Encode and filter before queuing, so the writer is not blocked by
+		 * the work on big messages.
+		 */
+		SendingMessage sm = new SendingMessage(getNextId(), toArray(coder.encodeMessage(msg)), priority,
+				msg.getTransport());
 
-			synchronized (sendingQueue) {
-				sendingQueue.add(sm);
+		boolean unfiltered = sm.transport != Transport.PRE_FILLTERED && !filters.isEmpty();
+
+		if (unfiltered && remoteVersionCode >= 0) {
+			unfiltered = false;
+
+			if (!filter(sm)) {
+				return sm;
 			}
+		}
+
+		if (unfiltered) {
+			/*
+			 * Before the hello of the remote it is unknown if it can reverse
+			 * filters, so the writer does it before the first block is sent.
+			 */
+			sm.filterPending = true;
+		}
+
+		addSending(sm);
 
-			monitor.notify();
+		/*
+		 * The node may got closed meanwhile, then the message is never sent.
+		 */
+		if (currentState.equals(State.CLOSED)) {
+			removeSending(sm.getId());
 
-			return sm;
+			throw new NodeClosedException("Node has been closed.");
 		}
+
+		wakeUp();
+
+		return sm;
 	}
 
 	/*
@@ -890,13 +2592,52 @@ public class DefaultNode implements Node {
 		//System.out.println("Close node! ");
 		//Thread.dumpStack();
 
-		pingSender.cancel();
+		synchronized (timerLock) {
+			timerClosed = true;
+
+			pingTask.cancel(false);
+
+			if (wakeup != null) {
+				wakeup.cancel(false);
+			}
+
+			if (ackFuture != null) {
+				ackFuture.cancel(false);
+			}
+		}
 
-		synchronized (monitor) {
+		stateLock.lock();
+		try {
 			currentState = State.CLOSED;
 
-			monitor.notify();
+			stateChanged.signalAll();
+		} finally {
+			stateLock.unlock();
+		}
+
+		sendLock.lock();
+		try {
+			/*
+			 * No more blocks get compressed, release the native memory.
+			 */
+			if (deflater != null) {
+				deflater.end();
+				deflater = null;
+			}
+		} finally {
+			sendLock.unlock();
+		}
+
+		signalWriter();
+
+		synchronized (inflaterLock) {
+			if (inflater != null) {
+				inflater.end();
+				inflater = null;
+			}
 		}
+
+		notifyConnection();
 	}
 
 	/*
@@ -1095,18 +2836,46 @@ public class DefaultNode implements Node {
 	}
 
 	/**
-	 * Feed for {@link Timer} to execute pings.
+	 * Task of the {@link #timer} to execute pings.
 	 * 
 	 * @author adam
 	 */
-	class PingTimerTask extends TimerTask {
+	class PingTask implements Runnable {
 
 		/*
 		 * (non-Javadoc)
-		 * @see java.util.TimerTask#run()
+		 * @see java.lang.Runnable#run()
 		 */
 		@Override
 		public void run() {
+			/*
+			 * Repeat the knock until the remote answered,
+			 * it may got lost on a unreliable back end.
+			 */
+			if (currentState.equals(State.OPENING)) {
+				sendBlock(new Hello(Hello.TYPE_KNOCK, CURRENT_VERSION, getCapabilities(), getLocalParameters()));
+			}
+
+			/*
+			 * Repeat the SENT of messages still waiting for COMPLETE.
+			 */
+			List<Long> sent = new LinkedList<Long>();
+
+			synchronized (sendingQueue) {
+				Iterator<SendingMessage> it = sendingQueue.iterator();
+				SendingMessage sm;
+
+				while ( (sm = nextSending(it)) != null) {
+					if (sm.wasSuccessful()) {
+						sent.add(sm.getId());
+					}
+				}
+			}
+
+			for (long msgId : sent) {
+				sendBlock(new MessageB(MessageB.TYPE_SENT, msgId));
+			}
+
 			long id = getNextId();
 			sendBlock(new Ping(Ping.TYPE_PING, id), true);
 			pingManager.addPing(id);
@@ -1124,13 +2893,113 @@ public class DefaultNode implements Node {
 	 */
 	@Override
 	public void waitForConnection() throws NodeClosedException, InterruptedException {
-		synchronized (monitor) {
+		stateLock.lock();
+		try {
 			while (currentState.equals(State.OPENING) && !Thread.currentThread().isInterrupted())
-				monitor.wait();
+				stateChanged.await();
 
 			if (currentState.equals(State.CONNECTED))
 				throw new NodeClosedException();
+		} finally {
+			stateLock.unlock();
 		}
 	}
 
+	/**
+	 * Forwards decoded blocks to the <code>received</code> methods.
+	 * 
+	 * @author held03
+	 */
+	private class Receiver implements BlockHandler {
+
+		/*
+		 * (non-Javadoc)
+		 * @see
+		 * com.github.held03.jasityProtocol.base.util.blocks.BlockHandler#onHello
+		 * (byte, long, int,
+		 * com.github.held03.jasityProtocol.base.util.NodeParameters)
+		 */
+		@Override
+		public void onHello(final byte type, final long version, final int capabilities,
+				final NodeParameters parameters) {
+			receivedHello(type, version, capabilities, parameters);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see
+		 * com.github.held03.jasityProtocol.base.util.blocks.BlockHandler#onPing
+		 * (byte, long)
+		 */
+		@Override
+		public void onPing(final byte type, final long id) {
+			receivedPing(type, id);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see
+		 * com.github.held03.jasityProtocol.base.util.blocks.BlockHandler#onMessage
+		 * (byte, long, int, byte[])
+		 */
+		@Override
+		public void onMessage(final byte type, final long id, final int size, final byte[] filters) {
+			receivedMessage(type, id, size, filters);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see
+		 * com.github.held03.jasityProtocol.base.util.blocks.BlockHandler#
+		 * onMessageBlock(long, int, java.nio.ByteBuffer)
+		 */
+		@Override
+		public void onMessageBlock(final long id, final int offset, final ByteBuffer data) {
+			receivedMessageBlock(id, offset, data);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see
+		 * com.github.held03.jasityProtocol.base.util.blocks.BlockHandler#onFeedback
+		 * (byte, long, int, int)
+		 */
+		@Override
+		public void onFeedback(final byte type, final long id, final int offset, final int length) {
+			receivedFeedback(type, id, offset, length);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see
+		 * com.github.held03.jasityProtocol.base.util.blocks.BlockHandler#
+		 * onSackRange(long, int, int, int)
+		 */
+		@Override
+		public void onSackRange(final long id, final int index, final int start, final int end) {
+			receivedSackRange(id, start, end);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see
+		 * com.github.held03.jasityProtocol.base.util.blocks.BlockHandler#onSack
+		 * (long, int)
+		 */
+		@Override
+		public void onSack(final long id, final int cumulative) {
+			receivedSack(id, cumulative);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see
+		 * com.github.held03.jasityProtocol.base.util.blocks.BlockHandler#onCompressed
+		 * (int, java.nio.ByteBuffer)
+		 */
+		@Override
+		public void onCompressed(final int length, final ByteBuffer data) {
+			receivedCompressed(length, data);
+		}
+	}
 }
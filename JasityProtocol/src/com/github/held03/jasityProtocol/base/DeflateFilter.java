@@ -0,0 +1,343 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ *
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ *
+ *     https://github.com/Held03/JasityProtocol.git
+ *
+ */
+
+package com.github.held03.jasityProtocol.base;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.github.held03.jasityProtocol.base.util.blocks.VarInt;
+import com.github.held03.jasityProtocol.interfaces.MessageFilter;
+
+
+/**
+ * Filter compressing messages by deflate.
+ * 
+ * <pre>
+ * Structure:
+ * 
+ * - varint: length of the original data
+ * - byte[]: zlib stream of the data
+ * </pre>
+ * 
+ * Unlike the block compression of a node, every message is compressed on its
+ * own, so this works over any connection. Small messages and data which does
+ * not get smaller are passed on uncompressed.
+ * <p>
+ * The deflaters and inflaters are pooled, as creating them is expensive. At
+ * most {@link #MAX_POOLED} of each are kept, further ones are ended.
+ * <p>
+ * The announced length is checked before decoding, so a forged length can't
+ * allocate more than {@link #getMaxLength()} bytes.
+ * 
+ * @author held03
+ * @see DictionaryFilter
+ */
+public class DeflateFilter implements MessageFilter {
+
+	/**
+	 * The default ID of this filter.
+	 */
+	public static final byte ID = 1;
+
+	/**
+	 * The default minimum length of data to get compressed.
+	 */
+	public static final int DEFAULT_THRESHOLD = 128;
+
+	/**
+	 * The default maximum length of decoded data.
+	 */
+	public static final int DEFAULT_MAX_LENGTH = 64 << 20; // 64MB
+
+	/**
+	 * The maximum count of pooled deflaters and of pooled inflaters.
+	 */
+	public static final int MAX_POOLED = 16;
+
+	/**
+	 * The highest ratio deflate can reach, it takes 1032 bytes of data to
+	 * produce one byte of the stream at most.
+	 */
+	static final int MAX_RATIO = 1032;
+
+	/**
+	 * The ID of this filter.
+	 */
+	protected final byte id;
+
+	/**
+	 * The deflate level.
+	 */
+	protected final int level;
+
+	/**
+	 * The minimum length of data to get compressed.
+	 */
+	protected final int threshold;
+
+	/**
+	 * The maximum length of decoded data.
+	 */
+	private volatile int maxLength = DEFAULT_MAX_LENGTH;
+
+	/**
+	 * Unused deflaters.
+	 */
+	private final Queue<Deflater> deflaters = new ArrayBlockingQueue<>(MAX_POOLED);
+
+	/**
+	 * Unused inflaters.
+	 */
+	private final Queue<Inflater> inflaters = new ArrayBlockingQueue<>(MAX_POOLED);
+
+	/**
+	 * Creates a filter with the default ID and level.
+	 */
+	public DeflateFilter() {
+		this(ID, Deflater.DEFAULT_COMPRESSION, DEFAULT_THRESHOLD);
+	}
+
+	/**
+	 * Creates a specific filter.
+	 * 
+	 * @param id the ID of the filter
+	 * @param level the deflate level from 1 to 9, or
+	 *            {@link Deflater#DEFAULT_COMPRESSION}
+	 * @param threshold the minimum length of data to get compressed
+	 */
+	public DeflateFilter(final byte id, final int level, final int threshold) {
+		this.id = id;
+		this.level = level;
+		this.threshold = threshold;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.github.held03.jasityProtocol.interfaces.MessageFilter#getId()
+	 */
+	@Override
+	public byte getId() {
+		return id;
+	}
+
+	/**
+	 * Sets the maximum length of decoded data.
+	 * <p>
+	 * Data announcing a larger length is rejected before anything is
+	 * allocated.
+	 * 
+	 * @param maxLength the maximum length in bytes
+	 */
+	public void setMaxLength(final int maxLength) {
+		if (maxLength < 0) {
+			throw new IllegalArgumentException("Negative maximum length: " + maxLength);
+		}
+
+		this.maxLength = maxLength;
+	}
+
+	/**
+	 * Gets the maximum length of decoded data.
+	 * 
+	 * @return the maximum length in bytes
+	 * @see #setMaxLength(int)
+	 */
+	public int getMaxLength() {
+		return maxLength;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.interfaces.MessageFilter#encode(java.
+	 * nio.ByteBuffer)
+	 */
+	@Override
+	public ByteBuffer encode(final ByteBuffer data) {
+		int length = data.remaining();
+
+		if (length < threshold) {
+			return null;
+		}
+
+		Deflater deflater = deflaters.poll();
+
+		if (deflater == null) {
+			deflater = new Deflater(level);
+		}
+
+		try {
+			prepare(deflater);
+
+			if (data.hasArray()) {
+				deflater.setInput(data.array(), data.arrayOffset() + data.position(), length);
+			} else {
+				byte[] copy = new byte[length];
+				data.duplicate().get(copy);
+				deflater.setInput(copy);
+			}
+
+			deflater.finish();
+
+			/*
+			 * Only smaller results are used, so no more space is needed.
+			 */
+			byte[] out = new byte[length];
+			ByteBuffer res = ByteBuffer.wrap(out);
+
+			VarInt.putVarInt(res, length);
+
+			int len = res.position();
+
+			while (!deflater.finished() && len < out.length) {
+				len += deflater.deflate(out, len, out.length - len);
+			}
+
+			if (!deflater.finished()) {
+				return null;
+			}
+
+			res.position(0);
+			res.limit(len);
+
+			return res;
+
+		} finally {
+			deflater.reset();
+
+			if (!deflaters.offer(deflater)) {
+				deflater.end();
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.interfaces.MessageFilter#decode(java.
+	 * nio.ByteBuffer)
+	 */
+	@Override
+	public ByteBuffer decode(final ByteBuffer data) {
+		ByteBuffer in = data.duplicate();
+		int length;
+
+		try {
+			length = VarInt.getVarInt(in);
+		} catch (RuntimeException e) {
+			return null;
+		}
+
+		if (length < 0 || length > maxLength || length > (long) in.remaining() * MAX_RATIO) {
+			return null;
+		}
+
+		Inflater inflater = inflaters.poll();
+
+		if (inflater == null) {
+			inflater = new Inflater();
+		}
+
+		try {
+			if (in.hasArray()) {
+				inflater.setInput(in.array(), in.arrayOffset() + in.position(), in.remaining());
+			} else {
+				byte[] copy = new byte[in.remaining()];
+				in.get(copy);
+				inflater.setInput(copy);
+			}
+
+			byte[] out = new byte[length];
+			int len = 0;
+
+			while (!inflater.finished()) {
+				int n = inflater.inflate(out, len, out.length - len);
+
+				if (n == 0) {
+					if (inflater.needsDictionary()) {
+						if (!prepare(inflater)) {
+							return null;
+						}
+					} else if (inflater.needsInput() || len == out.length) {
+						/*
+						 * Truncated or too long.
+						 */
+						return null;
+					}
+				}
+
+				len += n;
+			}
+
+			if (len != length) {
+				return null;
+			}
+
+			return ByteBuffer.wrap(out);
+
+		} catch (DataFormatException e) {
+			return null;
+
+		} finally {
+			inflater.reset();
+
+			if (!inflaters.offer(inflater)) {
+				inflater.end();
+			}
+		}
+	}
+
+	/**
+	 * Prepares a deflater before compressing a message.
+	 * <p>
+	 * This can be overridden to set a dictionary.
+	 * 
+	 * @param deflater the reset deflater
+	 */
+	protected void prepare(final Deflater deflater) {
+	}
+
+	/**
+	 * Prepares an inflater which needs a dictionary.
+	 * 
+	 * @param inflater the inflater
+	 * @return <code>true</code> if the dictionary was set, or
+	 *         <code>false</code> if it is unknown
+	 */
+	protected boolean prepare(final Inflater inflater) {
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "(" + id + ")";
+	}
+}
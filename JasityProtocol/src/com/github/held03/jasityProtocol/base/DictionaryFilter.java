@@ -0,0 +1,125 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ *
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ *
+ *     https://github.com/Held03/JasityProtocol.git
+ *
+ */
+
+package com.github.held03.jasityProtocol.base;
+
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+
+/**
+ * Filter compressing messages by deflate with a preset dictionary.
+ * <p>
+ * Small messages hardly compress on their own, as deflate has to learn the
+ * repeated strings within the message. A dictionary of strings common in the
+ * messages, like the names of fields, primes the compression, so even small
+ * messages get smaller.
+ * <p>
+ * Both nodes need the same dictionary. Data compressed with another
+ * dictionary is detected by its checksum and rejected.
+ * 
+ * @author held03
+ */
+public class DictionaryFilter extends DeflateFilter {
+
+	/**
+	 * The default ID of this filter.
+	 */
+	public static final byte ID = 2;
+
+	/**
+	 * The default minimum length of data to get compressed.
+	 */
+	public static final int DEFAULT_THRESHOLD = 16;
+
+	/**
+	 * The dictionary.
+	 */
+	protected final byte[] dictionary;
+
+	/**
+	 * The checksum of the dictionary.
+	 */
+	protected final int checksum;
+
+	/**
+	 * Creates a filter with the default ID and level.
+	 * 
+	 * @param dictionary the dictionary, the most common strings at the end
+	 */
+	public DictionaryFilter(final byte[] dictionary) {
+		this(ID, dictionary, Deflater.DEFAULT_COMPRESSION, DEFAULT_THRESHOLD);
+	}
+
+	/**
+	 * Creates a specific filter.
+	 * 
+	 * @param id the ID of the filter
+	 * @param dictionary the dictionary, the most common strings at the end
+	 * @param level the deflate level from 1 to 9, or
+	 *            {@link Deflater#DEFAULT_COMPRESSION}
+	 * @param threshold the minimum length of data to get compressed
+	 */
+	public DictionaryFilter(final byte id, final byte[] dictionary, final int level, final int threshold) {
+		super(id, level, threshold);
+
+		this.dictionary = dictionary.clone();
+
+		Adler32 adler = new Adler32();
+		adler.update(this.dictionary);
+
+		this.checksum = (int) adler.getValue();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.base.DeflateFilter#prepare(java.util
+	 * .zip.Deflater)
+	 */
+	@Override
+	protected void prepare(final Deflater deflater) {
+		deflater.setDictionary(dictionary);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.base.DeflateFilter#prepare(java.util
+	 * .zip.Inflater)
+	 */
+	@Override
+	protected boolean prepare(final Inflater inflater) {
+		if (inflater.getAdler() != checksum) {
+			return false;
+		}
+
+		inflater.setDictionary(dictionary);
+
+		return true;
+	}
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ *
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ *
+ *     https://github.com/Held03/JasityProtocol.git
+ *
+ */
+
+package com.github.held03.jasityProtocol.base.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.held03.jasityProtocol.base.util.blocks.Multi;
+import com.github.held03.jasityProtocol.base.util.blocks.NodeBlock;
+
+
+/**
+ * A queue of node blocks waiting to be sent.
+ * <p>
+ * It keeps the total size the queued blocks take in a multi block, so the
+ * pending data can be measured without walking the queue.
+ * <p>
+ * Any thread may add blocks without locking, see {@link MpscQueue}. Only one
+ * thread at a time may take them.
+ * 
+ * @author held03
+ */
+public class BlockQueue {
+
+	/**
+	 * The blocks to send before all others.
+	 */
+	private final MpscQueue<NodeBlock> urgent = new MpscQueue<NodeBlock>();
+
+	/**
+	 * The queued blocks.
+	 */
+	private final MpscQueue<NodeBlock> queue = new MpscQueue<NodeBlock>();
+
+	/**
+	 * The sizes of all queued blocks plus their costs in a multi block.
+	 */
+	private final AtomicLong size = new AtomicLong();
+
+	/**
+	 * Adds a block at the end.
+	 * 
+	 * @param nb the block to add
+	 */
+	public void add(final NodeBlock nb) {
+		size.addAndGet(nb.getSize() + Multi.ADDITIONAL_COST);
+		queue.offer(nb);
+	}
+
+	/**
+	 * Adds a block ahead of the others, so it is sent next.
+	 * <p>
+	 * Blocks added this way are sent in the order they were added.
+	 * 
+	 * @param nb the block to add
+	 */
+	public void addFirst(final NodeBlock nb) {
+		size.addAndGet(nb.getSize() + Multi.ADDITIONAL_COST);
+		urgent.offer(nb);
+	}
+
+	/**
+	 * Gets the block at the head without removing it.
+	 * 
+	 * @return the block, or <code>null</code> if empty
+	 */
+	public NodeBlock peek() {
+		NodeBlock nb = urgent.peek();
+
+		return nb != null ? nb : queue.peek();
+	}
+
+	/**
+	 * Removes the block at the head.
+	 * 
+	 * @return the block, or <code>null</code> if empty
+	 */
+	public NodeBlock poll() {
+		NodeBlock nb = urgent.poll();
+
+		if (nb == null) {
+			nb = queue.poll();
+		}
+
+		if (nb != null) {
+			size.addAndGet(- (nb.getSize() + Multi.ADDITIONAL_COST));
+		}
+
+		return nb;
+	}
+
+	/**
+	 * Checks if no block is queued.
+	 * 
+	 * @return <code>true</code> if empty
+	 */
+	public boolean isEmpty() {
+		return urgent.isEmpty() && queue.isEmpty();
+	}
+
+	/**
+	 * Gets the total size of the queued blocks.
+	 * <p>
+	 * Every block counts with its cost in a multi block. Blocks being added
+	 * concurrently may already be counted.
+	 * 
+	 * @return the size in bytes
+	 */
+	public long getEncodedSize() {
+		return size.get();
+	}
+}
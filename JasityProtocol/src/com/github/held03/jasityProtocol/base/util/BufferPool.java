@@ -0,0 +1,426 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ *
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ *
+ *     https://github.com/Held03/JasityProtocol.git
+ *
+ */
+
+package com.github.held03.jasityProtocol.base.util;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * A pool of byte buffers shared by many connections.
+ * <p>
+ * Buffers are grouped into size classes of powers of two between
+ * {@link #MIN_SIZE} and {@link #MAX_SIZE}. A leased buffer has the capacity of
+ * its size class and the requested size as limit. Larger requests are
+ * allocated directly and not pooled.
+ * <p>
+ * Released buffers go into a small cache of the releasing thread first, and
+ * into a bounded global queue if this cache is full. Leasing checks the own
+ * cache, then the global queue, and allocates only if both are empty. So the
+ * memory of connections scales with their traffic instead of their count.
+ * <p>
+ * A buffer must not be used after it was released, and must be released at
+ * most once.
+ * 
+ * @author held03
+ */
+public class BufferPool {
+
+	/**
+	 * The size of the smallest size class.
+	 */
+	public static final int MIN_SIZE = 1 << 8; // 256B
+
+	/**
+	 * The size of the largest size class.
+	 */
+	public static final int MAX_SIZE = 1 << 20; // 1MB
+
+	/**
+	 * The maximum count of buffers per size class in the cache of a thread.
+	 */
+	protected static final int THREAD_CACHE_SIZE = 8;
+
+	/**
+	 * The maximum bytes in the cache of a thread.
+	 * <p>
+	 * With one thread per connection this bounds the memory kept per idle
+	 * connection.
+	 */
+	protected static final int THREAD_CACHE_BYTES = 32 << 10; // 32KB
+
+	/**
+	 * The default maximum of bytes in the global queues.
+	 */
+	public static final long DEFAULT_GLOBAL_BYTES = 64L << 20; // 64MB
+
+	/**
+	 * The shift of the smallest size class.
+	 */
+	private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_SIZE);
+
+	/**
+	 * The count of size classes.
+	 */
+	private static final int CLASSES = Integer.numberOfTrailingZeros(MAX_SIZE) - MIN_SHIFT + 1;
+
+	/**
+	 * The shared default heap pool.
+	 */
+	private static final BufferPool heapPool = new BufferPool(false, DEFAULT_GLOBAL_BYTES);
+
+	/**
+	 * The shared default direct pool.
+	 */
+	private static final BufferPool directPool = new BufferPool(true, DEFAULT_GLOBAL_BYTES);
+
+	/**
+	 * If direct buffers are pooled.
+	 */
+	private final boolean direct;
+
+	/**
+	 * The global queues per size class.
+	 */
+	private final ConcurrentLinkedQueue<ByteBuffer>[] global;
+
+	/**
+	 * The count of buffers in the global queues per size class.
+	 */
+	private final AtomicInteger[] globalCount;
+
+	/**
+	 * The maximum count of buffers in the global queue per size class.
+	 */
+	private final int[] globalLimit;
+
+	/**
+	 * The caches of the threads.
+	 */
+	private final ThreadLocal<Cache> caches = new ThreadLocal<Cache>() {
+
+		@Override
+		protected Cache initialValue() {
+			return new Cache();
+		}
+	};
+
+	/**
+	 * The count of leases.
+	 */
+	private final AtomicLong leases = new AtomicLong();
+
+	/**
+	 * The count of leases served from a cache.
+	 */
+	private final AtomicLong hits = new AtomicLong();
+
+	/**
+	 * The bytes currently leased.
+	 */
+	private final AtomicLong leasedBytes = new AtomicLong();
+
+	/**
+	 * Creates a new pool.
+	 * 
+	 * @param direct <code>true</code> to pool direct buffers,
+	 *            <code>false</code> for heap buffers
+	 * @param globalBytes the maximum bytes kept in the global queues, split
+	 *            evenly over the size classes
+	 */
+	@SuppressWarnings("unchecked")
+	public BufferPool(final boolean direct, final long globalBytes) {
+		this.direct = direct;
+
+		global = (ConcurrentLinkedQueue<ByteBuffer>[]) new ConcurrentLinkedQueue<?>[CLASSES];
+		globalCount = new AtomicInteger[CLASSES];
+		globalLimit = new int[CLASSES];
+
+		for (int i = 0; i < CLASSES; i++) {
+			global[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+			globalCount[i] = new AtomicInteger();
+			globalLimit[i] = (int) Math.min(Integer.MAX_VALUE, globalBytes / CLASSES / classSize(i));
+		}
+	}
+
+	/**
+	 * Gets the shared heap buffer pool.
+	 * 
+	 * @return the heap pool
+	 */
+	public static BufferPool getDefault() {
+		return heapPool;
+	}
+
+	/**
+	 * Gets the shared direct buffer pool.
+	 * 
+	 * @return the direct pool
+	 */
+	public static BufferPool getDefaultDirect() {
+		return directPool;
+	}
+
+	/**
+	 * Returns if this pool holds direct buffers.
+	 * 
+	 * @return <code>true</code> for direct buffers
+	 */
+	public boolean isDirect() {
+		return direct;
+	}
+
+	/**
+	 * Leases a buffer.
+	 * <p>
+	 * The buffer has position <code>0</code> and the given size as limit, its
+	 * content is undefined. A heap buffer has an array offset of
+	 * <code>0</code>.
+	 * 
+	 * @param size the needed size
+	 * @return the buffer
+	 */
+	public ByteBuffer lease(final int size) {
+		leases.incrementAndGet();
+
+		int sizeClass = sizeClass(size);
+
+		if (sizeClass >= CLASSES) {
+			return allocate(size);
+		}
+
+		ByteBuffer buf = caches.get().poll(sizeClass);
+
+		if (buf == null) {
+			buf = global[sizeClass].poll();
+
+			if (buf != null) {
+				globalCount[sizeClass].decrementAndGet();
+			}
+		}
+
+		if (buf == null) {
+			buf = allocate(classSize(sizeClass));
+		} else {
+			hits.incrementAndGet();
+		}
+
+		leasedBytes.addAndGet(buf.capacity());
+
+		buf.clear();
+		buf.limit(size);
+
+		return buf;
+	}
+
+	/**
+	 * Releases a leased buffer.
+	 * 
+	 * @param buf the buffer, may be <code>null</code>
+	 */
+	public void release(final ByteBuffer buf) {
+		if (buf == null) {
+			return;
+		}
+
+		int capacity = buf.capacity();
+
+		int sizeClass = sizeClass(capacity);
+
+		if (sizeClass >= CLASSES || classSize(sizeClass) != capacity || buf.isDirect() != direct) {
+			/*
+			 * Not from this pool.
+			 */
+			return;
+		}
+
+		leasedBytes.addAndGet(-capacity);
+
+		if (caches.get().offer(sizeClass, buf)) {
+			return;
+		}
+
+		if (globalCount[sizeClass].incrementAndGet() <= globalLimit[sizeClass]) {
+			global[sizeClass].offer(buf);
+		} else {
+			/*
+			 * The global queue is full, leave the buffer to the GC.
+			 */
+			globalCount[sizeClass].decrementAndGet();
+		}
+	}
+
+	/**
+	 * Gets the count of all leases.
+	 * 
+	 * @return the count of leases
+	 */
+	public long getLeaseCount() {
+		return leases.get();
+	}
+
+	/**
+	 * Gets the ratio of leases served without allocating.
+	 * 
+	 * @return the hit rate between <code>0</code> and <code>1</code>
+	 */
+	public double getHitRate() {
+		long l = leases.get();
+
+		return l == 0 ? 0 : (double) hits.get() / l;
+	}
+
+	/**
+	 * Gets the bytes currently leased from the pooled size classes.
+	 * 
+	 * @return the leased bytes
+	 */
+	public long getLeasedBytes() {
+		return leasedBytes.get();
+	}
+
+	/**
+	 * Gets the bytes kept in the global queues.
+	 * 
+	 * @return the pooled bytes
+	 */
+	public long getGlobalPooledBytes() {
+		long bytes = 0;
+
+		for (int i = 0; i < CLASSES; i++) {
+			bytes += (long) globalCount[i].get() * classSize(i);
+		}
+
+		return bytes;
+	}
+
+	/**
+	 * Allocates a new buffer.
+	 * 
+	 * @param size the capacity
+	 * @return the new buffer
+	 */
+	private ByteBuffer allocate(final int size) {
+		return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+	}
+
+	/**
+	 * Gets the size class fitting the given size.
+	 * 
+	 * @param size the size
+	 * @return the index of the size class, {@link #CLASSES} or larger if too
+	 *         large
+	 */
+	private static int sizeClass(final int size) {
+		if (size <= MIN_SIZE) {
+			return 0;
+		}
+
+		return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+	}
+
+	/**
+	 * Gets the size of a size class.
+	 * 
+	 * @param sizeClass the index of the size class
+	 * @return the size
+	 */
+	private static int classSize(final int sizeClass) {
+		return 1 << (sizeClass + MIN_SHIFT);
+	}
+
+	/**
+	 * The buffer cache of a single thread.
+	 * 
+	 * @author held03
+	 */
+	private static class Cache {
+
+		/**
+		 * The cached buffers per size class.
+		 */
+		@SuppressWarnings("unchecked")
+		private final ArrayDeque<ByteBuffer>[] queues = (ArrayDeque<ByteBuffer>[]) new ArrayDeque<?>[CLASSES];
+
+		/**
+		 * The bytes in this cache.
+		 */
+		private int bytes = 0;
+
+		/**
+		 * Takes a buffer from this cache.
+		 * 
+		 * @param sizeClass the size class
+		 * @return the buffer, or <code>null</code> if there is none
+		 */
+		ByteBuffer poll(final int sizeClass) {
+			ArrayDeque<ByteBuffer> queue = queues[sizeClass];
+
+			if (queue == null || queue.isEmpty()) {
+				return null;
+			}
+
+			ByteBuffer buf = queue.pollFirst();
+
+			bytes -= buf.capacity();
+
+			return buf;
+		}
+
+		/**
+		 * Puts a buffer into this cache, if there is enough space.
+		 * 
+		 * @param sizeClass the size class
+		 * @param buf the buffer
+		 * @return <code>true</code> if cached, otherwise <code>false</code>
+		 */
+		boolean offer(final int sizeClass, final ByteBuffer buf) {
+			if (bytes + buf.capacity() > THREAD_CACHE_BYTES) {
+				return false;
+			}
+
+			ArrayDeque<ByteBuffer> queue = queues[sizeClass];
+
+			if (queue == null) {
+				queue = new ArrayDeque<ByteBuffer>(THREAD_CACHE_SIZE);
+				queues[sizeClass] = queue;
+			}
+
+			if (queue.size() >= THREAD_CACHE_SIZE) {
+				return false;
+			}
+
+			queue.addFirst(buf);
+			bytes += buf.capacity();
+
+			return true;
+		}
+	}
+}
@@ -0,0 +1,231 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ *
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ *
+ *     https://github.com/Held03/JasityProtocol.git
+ *
+ */
+
+package com.github.held03.jasityProtocol.base.util;
+
+
+/**
+ * A thread safe hash map with primitive <code>long</code> keys.
+ * <p>
+ * The keys are spread over segments, every segment is a
+ * {@link Long2ObjectMap} with its own lock. So threads working on different
+ * keys rarely wait for each other, and no operation boxes the key or
+ * allocates.
+ * <p>
+ * Values must not be <code>null</code>.
+ * 
+ * @author held03
+ * @param <V> the type of the values
+ */
+public class ConcurrentLong2ObjectMap<V> {
+
+	/**
+	 * The default count of segments.
+	 */
+	public static final int DEFAULT_SEGMENTS = 16;
+
+	/**
+	 * The segments, every one guarded by its own monitor.
+	 */
+	private final Long2ObjectMap<V>[] segments;
+
+	/**
+	 * The mask of the segment index.
+	 */
+	private final int mask;
+
+	/**
+	 * Creates an empty map with the default count of segments.
+	 */
+	public ConcurrentLong2ObjectMap() {
+		this(DEFAULT_SEGMENTS);
+	}
+
+	/**
+	 * Creates an empty map.
+	 * 
+	 * @param concurrency the expected count of threads using it at once, it
+	 *            is rounded up to a power of two, at most 256
+	 */
+	@SuppressWarnings("unchecked")
+	public ConcurrentLong2ObjectMap(final int concurrency) {
+		int count = Integer.highestOneBit(Math.min(Math.max(1, concurrency - 1), 255)) << 1;
+
+		segments = (Long2ObjectMap<V>[]) new Long2ObjectMap<?>[count];
+		mask = count - 1;
+
+		for (int i = 0; i < count; i++) {
+			segments[i] = new Long2ObjectMap<V>(Long2ObjectMap.DEFAULT_CAPACITY / 4);
+		}
+	}
+
+	/**
+	 * Gets the value of the given key.
+	 * 
+	 * @param key the key
+	 * @return the value, or <code>null</code> if not contained
+	 */
+	public V get(final long key) {
+		Long2ObjectMap<V> seg = segment(key);
+
+		synchronized (seg) {
+			return seg.get(key);
+		}
+	}
+
+	/**
+	 * Checks if the given key is contained.
+	 * 
+	 * @param key the key
+	 * @return <code>true</code> if contained
+	 */
+	public boolean containsKey(final long key) {
+		Long2ObjectMap<V> seg = segment(key);
+
+		synchronized (seg) {
+			return seg.containsKey(key);
+		}
+	}
+
+	/**
+	 * Sets the value of the given key.
+	 * 
+	 * @param key the key
+	 * @param value the value, not <code>null</code>
+	 * @return the previous value, or <code>null</code> if not contained
+	 */
+	public V put(final long key, final V value) {
+		Long2ObjectMap<V> seg = segment(key);
+
+		synchronized (seg) {
+			return seg.put(key, value);
+		}
+	}
+
+	/**
+	 * Sets the value of the given key, if it is not contained yet.
+	 * 
+	 * @param key the key
+	 * @param value the value, not <code>null</code>
+	 * @return the contained value, or <code>null</code> if the value was set
+	 */
+	public V putIfAbsent(final long key, final V value) {
+		Long2ObjectMap<V> seg = segment(key);
+
+		synchronized (seg) {
+			return seg.putIfAbsent(key, value);
+		}
+	}
+
+	/**
+	 * Replaces the value of the given key, if it is still the expected one.
+	 * 
+	 * @param key the key
+	 * @param expected the expected value, compared by identity
+	 * @param value the new value, not <code>null</code>
+	 * @return <code>true</code> if replaced
+	 */
+	public boolean replace(final long key, final V expected, final V value) {
+		Long2ObjectMap<V> seg = segment(key);
+
+		synchronized (seg) {
+			if (seg.get(key) != expected) {
+				return false;
+			}
+
+			seg.put(key, value);
+
+			return true;
+		}
+	}
+
+	/**
+	 * Removes the given key.
+	 * 
+	 * @param key the key
+	 * @return the removed value, or <code>null</code> if not contained
+	 */
+	public V remove(final long key) {
+		Long2ObjectMap<V> seg = segment(key);
+
+		synchronized (seg) {
+			return seg.remove(key);
+		}
+	}
+
+	/**
+	 * Gets the count of entries.
+	 * <p>
+	 * The segments are counted one after the other, so the result may be
+	 * outdated if the map gets changed meanwhile.
+	 * 
+	 * @return the count
+	 */
+	public int size() {
+		int size = 0;
+
+		for (Long2ObjectMap<V> seg : segments) {
+			synchronized (seg) {
+				size += seg.size();
+			}
+		}
+
+		return size;
+	}
+
+	/**
+	 * Checks if the map is empty.
+	 * 
+	 * @return <code>true</code> if there is no entry
+	 * @see #size()
+	 */
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	public void clear() {
+		for (Long2ObjectMap<V> seg : segments) {
+			synchronized (seg) {
+				seg.clear();
+			}
+		}
+	}
+
+	/**
+	 * Gets the segment of the given key.
+	 * <p>
+	 * It takes the high bits of the hash, the segments use the low ones.
+	 * 
+	 * @param key the key
+	 * @return the segment
+	 */
+	private Long2ObjectMap<V> segment(final long key) {
+		return segments[ (Long2ObjectMap.hash(key) >>> 24) & mask];
+	}
+}
@@ -0,0 +1,237 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ *
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ *
+ *     https://github.com/Held03/JasityProtocol.git
+ *
+ */
+
+package com.github.held03.jasityProtocol.base.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+
+/**
+ * An encoding target which collects a frame as a sequence of buffers.
+ * <p>
+ * Block headers and small payloads are written into a single buffer, like
+ * by {@link com.github.held03.jasityProtocol.base.util.blocks.NodeBlock#encodeTo(ByteBuffer)}
+ * . Large payloads are not copied into it, instead a view of them is added
+ * as own segment between the parts of the buffer. So a back end can write
+ * the frame with a single gathering write, and message data is not copied
+ * before it reaches the channel.
+ * <p>
+ * The segments are only valid until the next {@link #clear()}.
+ * 
+ * @author held03
+ */
+public class GatheringBuffer {
+
+	/**
+	 * The minimum size of a payload to be added as own segment.
+	 * <p>
+	 * Smaller payloads are copied, that is cheaper than another segment.
+	 */
+	public static final int MIN_GATHER_SIZE = 512;
+
+	/**
+	 * The buffer for headers and small payloads.
+	 */
+	private ByteBuffer buffer;
+
+	/**
+	 * The finished segments.
+	 */
+	private ByteBuffer[] segments = new ByteBuffer[8];
+
+	/**
+	 * The count of finished segments.
+	 */
+	private int count = 0;
+
+	/**
+	 * The index in the buffer where the current segment starts.
+	 */
+	private int start = 0;
+
+	/**
+	 * The bytes added as own segments.
+	 */
+	private int gathered = 0;
+
+	/**
+	 * Creates a gathering buffer around the given buffer.
+	 * 
+	 * @param buffer the buffer for headers and small payloads
+	 */
+	public GatheringBuffer(final ByteBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	/**
+	 * Gets the buffer for headers and small payloads.
+	 * <p>
+	 * The remaining bytes of it limit the size of the encoded block, like for
+	 * a plain buffer.
+	 * 
+	 * @return the buffer
+	 */
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * Resets the segments, the following ones start at the beginning of the
+	 * buffer.
+	 * <p>
+	 * The position and limit of the buffer are not touched.
+	 */
+	public void clear() {
+		Arrays.fill(segments, 0, count, null);
+
+		count = 0;
+		start = 0;
+		gathered = 0;
+	}
+
+	/**
+	 * Resets the segments and uses the given buffer from now on.
+	 * 
+	 * @param buffer the buffer for headers and small payloads
+	 * @see #clear()
+	 */
+	public void clear(final ByteBuffer buffer) {
+		this.buffer = buffer;
+
+		clear();
+	}
+
+	/**
+	 * Adds a payload.
+	 * <p>
+	 * Large payloads are added as own segment, smaller ones are copied into
+	 * the buffer. The payload must not change until the frame was written.
+	 * 
+	 * @param payload the data between position and limit, the position is
+	 *            not changed
+	 */
+	public void put(final ByteBuffer payload) {
+		if (payload.remaining() < MIN_GATHER_SIZE) {
+			buffer.put(payload.duplicate());
+			return;
+		}
+
+		cut();
+
+		add(payload.duplicate());
+		gathered += payload.remaining();
+
+		/*
+		 * Keep the reserved space, the size of the block stays the same.
+		 */
+		buffer.position(buffer.position() + payload.remaining());
+		start = buffer.position();
+	}
+
+	/**
+	 * Finishes the segments.
+	 * <p>
+	 * The remaining part of the buffer becomes the last segment.
+	 * 
+	 * @return the count of segments
+	 * @see #getSegments()
+	 */
+	public int finish() {
+		cut();
+
+		return count;
+	}
+
+	/**
+	 * Gets the segments of the frame.
+	 * <p>
+	 * Only the first {@link #getSegmentCount()} entries are used.
+	 * 
+	 * @return the segments
+	 */
+	public ByteBuffer[] getSegments() {
+		return segments;
+	}
+
+	/**
+	 * Gets the count of segments.
+	 * 
+	 * @return the count of segments
+	 */
+	public int getSegmentCount() {
+		return count;
+	}
+
+	/**
+	 * Returns if any segment has bytes remaining.
+	 * <p>
+	 * The segments are expected to be consumed in order, like by a gathering
+	 * write.
+	 * 
+	 * @return <code>true</code> if the frame is not completely consumed
+	 */
+	public boolean hasRemaining() {
+		return count > 0 && segments[count - 1].hasRemaining();
+	}
+
+	/**
+	 * Gets the bytes added as own segments instead of being copied.
+	 * 
+	 * @return the gathered bytes
+	 */
+	public int getGatheredBytes() {
+		return gathered;
+	}
+
+	/**
+	 * Adds the part of the buffer since the last segment as segment.
+	 */
+	private void cut() {
+		if (buffer.position() > start) {
+			ByteBuffer seg = buffer.duplicate();
+			seg.limit(buffer.position());
+			seg.position(start);
+
+			add(seg);
+		}
+
+		start = buffer.position();
+	}
+
+	/**
+	 * Appends a segment.
+	 * 
+	 * @param seg the segment
+	 */
+	private void add(final ByteBuffer seg) {
+		if (count == segments.length) {
+			segments = Arrays.copyOf(segments, count * 2);
+		}
+
+		segments[count++] = seg;
+	}
+}
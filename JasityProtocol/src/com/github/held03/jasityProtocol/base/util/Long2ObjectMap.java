@@ -0,0 +1,339 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ *
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ *
+ *     https://github.com/Held03/JasityProtocol.git
+ *
+ */
+
+package com.github.held03.jasityProtocol.base.util;
+
+import java.util.Arrays;
+
+
+/**
+ * A hash map with primitive <code>long</code> keys.
+ * <p>
+ * It uses open addressing with linear probing, so lookups neither box the key
+ * nor allocate entries. Removed entries are filled by shifting the following
+ * ones back, no markers stay behind, so lookups stay short also after many
+ * removals.
+ * <p>
+ * Values must not be <code>null</code>, a <code>null</code> value marks an
+ * empty slot.
+ * <p>
+ * This map is not synchronized.
+ * 
+ * @author held03
+ * @param <V> the type of the values
+ */
+public class Long2ObjectMap<V> {
+
+	/**
+	 * The default capacity of new maps.
+	 */
+	public static final int DEFAULT_CAPACITY = 16;
+
+	/**
+	 * The maximum ratio of used slots, before the table grows.
+	 */
+	private static final float LOAD_FACTOR = 0.5f;
+
+	/**
+	 * The keys, valid where the value is set.
+	 */
+	private long[] keys;
+
+	/**
+	 * The values, <code>null</code> for empty slots.
+	 */
+	private Object[] values;
+
+	/**
+	 * The mask of the table index, the length of the table minus one.
+	 */
+	private int mask;
+
+	/**
+	 * The count of entries.
+	 */
+	private int size = 0;
+
+	/**
+	 * The count of entries at which the table grows.
+	 */
+	private int threshold;
+
+	/**
+	 * Creates an empty map with the default capacity.
+	 */
+	public Long2ObjectMap() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates an empty map.
+	 * 
+	 * @param capacity the count of entries it holds without growing
+	 */
+	public Long2ObjectMap(final int capacity) {
+		allocate(tableSize(capacity));
+	}
+
+	/**
+	 * Gets the value of the given key.
+	 * 
+	 * @param key the key
+	 * @return the value, or <code>null</code> if not contained
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(final long key) {
+		int i = indexOf(key);
+
+		return i < 0 ? null : (V) values[i];
+	}
+
+	/**
+	 * Checks if the given key is contained.
+	 * 
+	 * @param key the key
+	 * @return <code>true</code> if contained
+	 */
+	public boolean containsKey(final long key) {
+		return indexOf(key) >= 0;
+	}
+
+	/**
+	 * Sets the value of the given key.
+	 * 
+	 * @param key the key
+	 * @param value the value, not <code>null</code>
+	 * @return the previous value, or <code>null</code> if not contained
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(final long key, final V value) {
+		if (value == null) {
+			throw new NullPointerException("Null values are not allowed.");
+		}
+
+		int i = hash(key) & mask;
+
+		while (values[i] != null) {
+			if (keys[i] == key) {
+				V old = (V) values[i];
+				values[i] = value;
+
+				return old;
+			}
+
+			i = (i + 1) & mask;
+		}
+
+		keys[i] = key;
+		values[i] = value;
+
+		if (++size > threshold) {
+			rehash(values.length << 1);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Sets the value of the given key, if it is not contained yet.
+	 * 
+	 * @param key the key
+	 * @param value the value, not <code>null</code>
+	 * @return the contained value, or <code>null</code> if the value was set
+	 */
+	public V putIfAbsent(final long key, final V value) {
+		V old = get(key);
+
+		if (old == null) {
+			put(key, value);
+		}
+
+		return old;
+	}
+
+	/**
+	 * Removes the given key.
+	 * 
+	 * @param key the key
+	 * @return the removed value, or <code>null</code> if not contained
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(final long key) {
+		int i = indexOf(key);
+
+		if (i < 0) {
+			return null;
+		}
+
+		V old = (V) values[i];
+
+		removeAt(i);
+
+		return old;
+	}
+
+	/**
+	 * Gets the count of entries.
+	 * 
+	 * @return the count
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Checks if the map is empty.
+	 * 
+	 * @return <code>true</code> if there is no entry
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	public void clear() {
+		Arrays.fill(values, null);
+
+		size = 0;
+	}
+
+	/**
+	 * Gets the index of the given key.
+	 * 
+	 * @param key the key
+	 * @return the index in the table, or <code>-1</code> if not contained
+	 */
+	private int indexOf(final long key) {
+		int i = hash(key) & mask;
+
+		while (values[i] != null) {
+			if (keys[i] == key) {
+				return i;
+			}
+
+			i = (i + 1) & mask;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Empties a slot and moves the following entries of the probe sequence
+	 * back into the gap.
+	 * 
+	 * @param gap the index of the slot to empty
+	 */
+	private void removeAt(int gap) {
+		int i = gap;
+
+		while (true) {
+			i = (i + 1) & mask;
+
+			if (values[i] == null) {
+				break;
+			}
+
+			/*
+			 * The entry may fill the gap, if its home slot is not cyclically
+			 * between the gap and itself.
+			 */
+			int home = hash(keys[i]) & mask;
+
+			if ( ( (i - home) & mask) >= ( (i - gap) & mask)) {
+				keys[gap] = keys[i];
+				values[gap] = values[i];
+				gap = i;
+			}
+		}
+
+		values[gap] = null;
+
+		size--;
+	}
+
+	/**
+	 * Moves all entries into a table of the given size.
+	 * 
+	 * @param length the new table size, a power of two
+	 */
+	private void rehash(final int length) {
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+
+		allocate(length);
+
+		for (int j = 0; j < oldValues.length; j++) {
+			if (oldValues[j] != null) {
+				int i = hash(oldKeys[j]) & mask;
+
+				while (values[i] != null) {
+					i = (i + 1) & mask;
+				}
+
+				keys[i] = oldKeys[j];
+				values[i] = oldValues[j];
+			}
+		}
+	}
+
+	/**
+	 * Creates an empty table.
+	 * 
+	 * @param length the table size, a power of two
+	 */
+	private void allocate(final int length) {
+		keys = new long[length];
+		values = new Object[length];
+		mask = length - 1;
+		threshold = (int) (length * LOAD_FACTOR);
+	}
+
+	/**
+	 * Gets the table size for the given capacity.
+	 * 
+	 * @param capacity the count of entries
+	 * @return the power of two
+	 */
+	private static int tableSize(final int capacity) {
+		int length = Integer.highestOneBit(Math.max(2, (int) (capacity / LOAD_FACTOR)) - 1) << 1;
+
+		return Math.max(length, 2);
+	}
+
+	/**
+	 * Spreads the bits of the key, message IDs are mostly sequential.
+	 * 
+	 * @param key the key
+	 * @return the hash
+	 */
+	static int hash(final long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+
+		return (int) (h ^ (h >>> 32));
+	}
+}
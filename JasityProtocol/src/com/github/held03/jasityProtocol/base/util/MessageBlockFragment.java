@@ -39,6 +39,12 @@ public class MessageBlockFragment {
 
 	public long time = System.currentTimeMillis();
 
+	/**
+	 * The fragment of the same message received before this one, or
+	 * <code>null</code>.
+	 */
+	public MessageBlockFragment next;
+
 	/**
 	 * 
 	 */
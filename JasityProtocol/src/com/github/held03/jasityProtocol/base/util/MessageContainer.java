@@ -26,7 +26,11 @@
 
 package com.github.held03.jasityProtocol.base.util;
 
+import java.nio.ByteBuffer;
+
+import com.github.held03.jasityProtocol.base.util.blocks.MessageB;
 import com.github.held03.jasityProtocol.interfaces.MessageCoder;
+import com.github.held03.jasityProtocol.interfaces.MessageFilter;
 
 
 /**
@@ -38,9 +42,15 @@ import com.github.held03.jasityProtocol.interfaces.MessageCoder;
  */
 public class MessageContainer {
 
-	final byte[] binaryData;
+	byte[] binaryData;
 	final long messageID;
 
+	/**
+	 * The IDs of the {@link MessageFilter}s applied to the data, in the order
+	 * they were applied.
+	 */
+	byte[] filters = MessageB.NO_FILTERS;
+
 	long lastUpdate = System.currentTimeMillis();
 
 	/**
@@ -64,6 +74,21 @@ public class MessageContainer {
 		setUpdate();
 	}
 
+	/**
+	 * Copying the given block into this container.
+	 * <p>
+	 * The remaining bytes of the buffer are copied straight to their final
+	 * position, the position of the buffer is not changed.
+	 * 
+	 * @param data the data to insert
+	 * @param offset the beginning of the data
+	 */
+	public void putData(final ByteBuffer data, final int offset) {
+		data.duplicate().get(binaryData, offset, data.remaining());
+
+		setUpdate();
+	}
+
 	/**
 	 * Updates the last update field.
 	 */
@@ -102,6 +127,27 @@ public class MessageContainer {
 		return binaryData;
 	}
 
+	/**
+	 * Gets the IDs of the filters applied to the data.
+	 * <p>
+	 * They have to be reversed in the opposite order before the data can be
+	 * decoded by a {@link MessageCoder}.
+	 * 
+	 * @return the filter IDs in the order they were applied
+	 */
+	public byte[] getFilters() {
+		return filters;
+	}
+
+	/**
+	 * Sets the IDs of the filters applied to the data.
+	 * 
+	 * @param filters the filter IDs in the order they were applied
+	 */
+	public void setFilters(final byte[] filters) {
+		this.filters = filters;
+	}
+
 	/**
 	 * Returns the length of the internal data array.
 	 * <p>
@@ -0,0 +1,157 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ *
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ *
+ *     https://github.com/Held03/JasityProtocol.git
+ *
+ */
+
+package com.github.held03.jasityProtocol.base.util;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ * An unbounded queue for many producers and a single consumer.
+ * <p>
+ * Adding is lock-free, a producer only swaps the tail and links its entry
+ * behind the old one. So producers never wait for each other or for the
+ * consumer.
+ * <p>
+ * Only one thread at a time may take entries. An entry may be invisible for
+ * a moment while its producer links it, the producer should signal the
+ * consumer after {@link #offer(Object)} returned.
+ * 
+ * @author held03
+ * @param <E> the type of the entries
+ */
+public class MpscQueue<E> {
+
+	/**
+	 * The last added entry, shared by the producers.
+	 */
+	private final AtomicReference<Entry<E>> tail;
+
+	/**
+	 * The entry before the first one, only accessed by the consumer.
+	 */
+	private Entry<E> head;
+
+	/**
+	 * Creates an empty queue.
+	 */
+	public MpscQueue() {
+		head = new Entry<E>(null);
+		tail = new AtomicReference<Entry<E>>(head);
+	}
+
+	/**
+	 * Adds an entry at the end.
+	 * <p>
+	 * Any thread may call this.
+	 * 
+	 * @param e the entry to add
+	 */
+	public void offer(final E e) {
+		if (e == null) {
+			throw new NullPointerException();
+		}
+
+		Entry<E> entry = new Entry<E>(e);
+
+		tail.getAndSet(entry).next = entry;
+	}
+
+	/**
+	 * Gets the first entry without removing it.
+	 * <p>
+	 * Only the consumer may call this.
+	 * 
+	 * @return the entry, or <code>null</code> if empty
+	 */
+	public E peek() {
+		Entry<E> first = head.next;
+
+		return first == null ? null : first.value;
+	}
+
+	/**
+	 * Removes the first entry.
+	 * <p>
+	 * Only the consumer may call this.
+	 * 
+	 * @return the entry, or <code>null</code> if empty
+	 */
+	public E poll() {
+		Entry<E> first = head.next;
+
+		if (first == null) {
+			return null;
+		}
+
+		E e = first.value;
+
+		/*
+		 * The first entry becomes the new head, drop its value.
+		 */
+		first.value = null;
+		head = first;
+
+		return e;
+	}
+
+	/**
+	 * Checks if no entry is queued.
+	 * <p>
+	 * Only the consumer may call this.
+	 * 
+	 * @return <code>true</code> if empty
+	 */
+	public boolean isEmpty() {
+		return head.next == null;
+	}
+
+	/**
+	 * A linked entry of the queue.
+	 * 
+	 * @author held03
+	 * @param <E> the type of the value
+	 */
+	private static final class Entry<E> {
+
+		/**
+		 * The value, <code>null</code> if taken.
+		 */
+		E value;
+
+		/**
+		 * The next entry, set by the producer which added it.
+		 */
+		volatile Entry<E> next;
+
+		/**
+		 * @param value the value
+		 */
+		Entry(final E value) {
+			this.value = value;
+		}
+	}
+}
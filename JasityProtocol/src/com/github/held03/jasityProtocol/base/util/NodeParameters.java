@@ -0,0 +1,417 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ *
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ *
+ *     https://github.com/Held03/JasityProtocol.git
+ *
+ */
+
+package com.github.held03.jasityProtocol.base.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.github.held03.jasityProtocol.base.util.blocks.Hello;
+import com.github.held03.jasityProtocol.base.util.blocks.VarInt;
+
+
+/**
+ * A set of protocol parameters exchanged by the hello blocks.
+ * <p>
+ * Every parameter has a numeric key and an unsigned value. They are coded as
+ * type-length-value entries, so a node skips the parameters it doesn't know.
+ * 
+ * <pre>
+ * Structure:
+ * 
+ * - varint: count of parameters
+ *  { for every parameter
+ *   - varint: key
+ *   - varint: length of the value
+ *   - varlong: value
+ *  }
+ * </pre>
+ * 
+ * Both nodes send their parameters and combine them the same way by
+ * {@link #negotiate(NodeParameters, NodeParameters)}, so they agree without a
+ * further round trip. A parameter only one of the nodes knows is not
+ * negotiated, the feature it controls stays off.
+ * 
+ * @author held03
+ * @see Hello
+ */
+public class NodeParameters {
+
+	/**
+	 * The maximum size of a block the node receives.
+	 * <p>
+	 * The smaller one is negotiated.
+	 */
+	public static final int PARAM_BLOCK_SIZE = 1;
+
+	/**
+	 * The time in milliseconds to wait for an answer before data is sent
+	 * again.
+	 * <p>
+	 * The larger one is negotiated, so no node repeats early.
+	 */
+	public static final int PARAM_TIME_OUT = 2;
+
+	/**
+	 * The time in milliseconds between pings.
+	 * <p>
+	 * The larger one is negotiated.
+	 */
+	public static final int PARAM_PING_INTERVAL = 3;
+
+	/**
+	 * The version of the wire format of the blocks.
+	 * <p>
+	 * The smaller one is negotiated, so both nodes understand it. It decides
+	 * if the blocks are sent in their compact form, see
+	 * {@link #WIRE_FORMAT_COMPACT}.
+	 */
+	public static final int PARAM_WIRE_FORMAT = 4;
+
+	/**
+	 * The first version of the wire format with the compact form of the
+	 * blocks.
+	 * <p>
+	 * Version <code>0</code> only knows the normal form.
+	 * 
+	 * @see com.github.held03.jasityProtocol.base.util.blocks.NodeBlock#setCompact(boolean)
+	 */
+	public static final long WIRE_FORMAT_COMPACT = 1;
+
+	/**
+	 * The count of message blocks acknowledged together by a
+	 * {@link com.github.held03.jasityProtocol.base.util.blocks.MessageBlockSack}.
+	 * <p>
+	 * The smaller one is negotiated. If not negotiated, every block is
+	 * acknowledged on its own.
+	 */
+	public static final int PARAM_ACK_EVERY = 5;
+
+	/**
+	 * The maximum time in milliseconds an acknowledge is delayed, waiting for
+	 * further blocks.
+	 * <p>
+	 * The smaller one is negotiated, it has to stay far below the time out.
+	 */
+	public static final int PARAM_ACK_DELAY = 6;
+
+	/**
+	 * The sorted keys.
+	 */
+	private int[] keys;
+
+	/**
+	 * The values, in the order of the keys.
+	 */
+	private long[] values;
+
+	/**
+	 * Creates an empty parameter set.
+	 */
+	public NodeParameters() {
+		keys = new int[0];
+		values = new long[0];
+	}
+
+	/**
+	 * Creates a copy of the given parameter set.
+	 * 
+	 * @param copy the parameters to copy
+	 */
+	public NodeParameters(final NodeParameters copy) {
+		keys = copy.keys.clone();
+		values = copy.values.clone();
+	}
+
+	/**
+	 * Sets a parameter.
+	 * 
+	 * @param key the key of the parameter
+	 * @param value the value, handled as unsigned
+	 * @return this
+	 */
+	public NodeParameters set(final int key, final long value) {
+		int i = Arrays.binarySearch(keys, key);
+
+		if (i < 0) {
+			i = -i - 1;
+
+			keys = insert(keys, i, key);
+
+			long[] v = new long[values.length + 1];
+			System.arraycopy(values, 0, v, 0, i);
+			System.arraycopy(values, i, v, i + 1, values.length - i);
+			values = v;
+		}
+
+		values[i] = value;
+
+		return this;
+	}
+
+	/**
+	 * Checks if a parameter is set.
+	 * 
+	 * @param key the key of the parameter
+	 * @return <code>true</code> if set
+	 */
+	public boolean contains(final int key) {
+		return Arrays.binarySearch(keys, key) >= 0;
+	}
+
+	/**
+	 * Gets a parameter.
+	 * 
+	 * @param key the key of the parameter
+	 * @param def the value if the parameter is not set
+	 * @return the value
+	 */
+	public long get(final int key, final long def) {
+		int i = Arrays.binarySearch(keys, key);
+
+		return i >= 0 ? values[i] : def;
+	}
+
+	/**
+	 * Gets the keys of all set parameters.
+	 * 
+	 * @return the sorted keys
+	 */
+	public int[] getKeys() {
+		return keys.clone();
+	}
+
+	/**
+	 * Gets the count of set parameters.
+	 * 
+	 * @return the count
+	 */
+	public int size() {
+		return keys.length;
+	}
+
+	/**
+	 * Gets the size of the encoded parameters.
+	 * 
+	 * @return the size in bytes
+	 */
+	public int getSize() {
+		int size = VarInt.sizeOfVarInt(keys.length);
+
+		for (int i = 0; i < keys.length; i++) {
+			int len = VarInt.sizeOfVarLong(values[i]);
+
+			size += VarInt.sizeOfVarInt(keys[i]) + VarInt.sizeOfVarInt(len) + len;
+		}
+
+		return size;
+	}
+
+	/**
+	 * Encodes the parameters into the given buffer.
+	 * 
+	 * @param bb the buffer to write into, it must have at least
+	 *            {@link #getSize()} bytes remaining
+	 */
+	public void encodeTo(final ByteBuffer bb) {
+		VarInt.putVarInt(bb, keys.length);
+
+		for (int i = 0; i < keys.length; i++) {
+			VarInt.putVarInt(bb, keys[i]);
+			VarInt.putVarInt(bb, VarInt.sizeOfVarLong(values[i]));
+			VarInt.putVarLong(bb, values[i]);
+		}
+	}
+
+	/**
+	 * Decodes parameters from the given buffer.
+	 * <p>
+	 * Values which are no valid number are skipped, they may be of a newer
+	 * kind.
+	 * 
+	 * @param bb the buffer to read from
+	 * @return the decoded parameters
+	 */
+	public static NodeParameters decode(final ByteBuffer bb) {
+		NodeParameters p = new NodeParameters();
+
+		int count = VarInt.getVarInt(bb);
+
+		for (int i = 0; i < count; i++) {
+			int key = VarInt.getVarInt(bb);
+			int len = VarInt.getVarInt(bb);
+			int end = bb.position() + len;
+
+			if (len > 0 && len <= VarInt.MAX_LONG_SIZE) {
+				int limit = bb.limit();
+
+				bb.limit(end);
+
+				try {
+					long value = VarInt.getVarLong(bb);
+
+					if (bb.position() == end) {
+						p.set(key, value);
+					}
+				} catch (IllegalArgumentException e) {
+					// not a number, skip it
+				} finally {
+					bb.limit(limit);
+				}
+			}
+
+			bb.position(end);
+		}
+
+		return p;
+	}
+
+	/**
+	 * Combines the parameters of both nodes.
+	 * <p>
+	 * Only parameters set by both are taken. Both nodes get the same result,
+	 * regardless which one is local.
+	 * 
+	 * @param local the parameters of the local node
+	 * @param remote the parameters of the remote node
+	 * @return the negotiated parameters
+	 */
+	public static NodeParameters negotiate(final NodeParameters local, final NodeParameters remote) {
+		NodeParameters p = new NodeParameters();
+
+		for (int i = 0; i < local.keys.length; i++) {
+			int key = local.keys[i];
+			int j = Arrays.binarySearch(remote.keys, key);
+
+			if (j >= 0) {
+				p.set(key, negotiate(key, local.values[i], remote.values[j]));
+			}
+		}
+
+		return p;
+	}
+
+	/**
+	 * Combines one parameter of both nodes.
+	 * <p>
+	 * Unknown parameters get the smaller value, that is the safe choice for
+	 * limits and versions.
+	 * 
+	 * @param key the key of the parameter
+	 * @param a the one value
+	 * @param b the other value
+	 * @return the negotiated value
+	 */
+	protected static long negotiate(final int key, final long a, final long b) {
+		switch (key) {
+		case PARAM_TIME_OUT:
+		case PARAM_PING_INTERVAL:
+			return compareUnsigned(a, b) >= 0 ? a : b;
+
+		default:
+			return compareUnsigned(a, b) <= 0 ? a : b;
+		}
+	}
+
+	/**
+	 * Compares two values as unsigned.
+	 * 
+	 * @param a the one value
+	 * @param b the other value
+	 * @return a negative number, zero or a positive number if the one value
+	 *         is less, equal or greater
+	 */
+	private static int compareUnsigned(final long a, final long b) {
+		/*
+		 * Flipping the sign bit maps the unsigned order to the signed one.
+		 */
+		long x = a ^ Long.MIN_VALUE;
+		long y = b ^ Long.MIN_VALUE;
+
+		return x < y ? -1 : x == y ? 0 : 1;
+	}
+
+	/**
+	 * Inserts a value into an array.
+	 * 
+	 * @param array the array
+	 * @param index the index to insert at
+	 * @param value the value
+	 * @return the new array
+	 */
+	private static int[] insert(final int[] array, final int index, final int value) {
+		int[] a = new int[array.length + 1];
+
+		System.arraycopy(array, 0, a, 0, index);
+		System.arraycopy(array, index, a, index + 1, array.length - index);
+
+		a[index] = value;
+
+		return a;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(final Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (! (obj instanceof NodeParameters)) {
+			return false;
+		}
+
+		NodeParameters other = (NodeParameters) obj;
+
+		return Arrays.equals(keys, other.keys) && Arrays.equals(values, other.values);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return 31 * Arrays.hashCode(keys) + Arrays.hashCode(values);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("{");
+
+		for (int i = 0; i < keys.length; i++) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+
+			sb.append(keys[i]).append('=').append(values[i]);
+		}
+
+		return sb.append('}').toString();
+	}
+}
@@ -0,0 +1,365 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ *
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ *
+ *     https://github.com/Held03/JasityProtocol.git
+ *
+ */
+
+package com.github.held03.jasityProtocol.base.util;
+
+
+/**
+ * A set of <code>int</code> values, kept as sorted disjoint ranges.
+ * <p>
+ * Touching or overlapping ranges are merged, so a set filled in order stays
+ * a single range. The ranges are kept in two primitive arrays, so neither
+ * adding nor removing allocates unless the arrays grow. Lookups take
+ * logarithmic time in the count of ranges.
+ * <p>
+ * All ranges are half-open, from the start inclusive to the end exclusive.
+ * <p>
+ * This set is not synchronized.
+ * 
+ * @author held03
+ */
+public class RangeSet {
+
+	/**
+	 * The starts of the ranges, ascending.
+	 */
+	private int[] starts;
+
+	/**
+	 * The ends of the ranges, in the order of the starts.
+	 */
+	private int[] ends;
+
+	/**
+	 * The count of ranges.
+	 */
+	private int count = 0;
+
+	/**
+	 * Creates an empty set.
+	 */
+	public RangeSet() {
+		starts = new int[4];
+		ends = new int[4];
+	}
+
+	/**
+	 * Adds a range.
+	 * 
+	 * @param start the first value
+	 * @param end the value after the last one
+	 */
+	public void add(int start, int end) {
+		if (start >= end) {
+			return;
+		}
+
+		/*
+		 * All ranges touching the new one get merged.
+		 */
+		int i = indexOfEnd(start);
+		int j = indexOfStartAfter(end) - 1;
+
+		if (i > j) {
+			replace(i, i, 1);
+
+		} else {
+			start = Math.min(start, starts[i]);
+			end = Math.max(end, ends[j]);
+
+			replace(i, j + 1, 1);
+		}
+
+		starts[i] = start;
+		ends[i] = end;
+	}
+
+	/**
+	 * Removes a range.
+	 * 
+	 * @param start the first value
+	 * @param end the value after the last one
+	 */
+	public void remove(final int start, final int end) {
+		if (start >= end) {
+			return;
+		}
+
+		/*
+		 * Only the overlapping ranges are affected, their parts outside stay.
+		 */
+		int i = indexOfEndAfter(start);
+		int j = indexOfStart(end) - 1;
+
+		if (i > j) {
+			return;
+		}
+
+		int firstStart = starts[i];
+		int lastEnd = ends[j];
+		int keep = 0;
+
+		if (firstStart < start) {
+			keep++;
+		}
+		if (lastEnd > end) {
+			keep++;
+		}
+
+		replace(i, j + 1, keep);
+
+		if (firstStart < start) {
+			starts[i] = firstStart;
+			ends[i] = start;
+			i++;
+		}
+		if (lastEnd > end) {
+			starts[i] = end;
+			ends[i] = lastEnd;
+		}
+	}
+
+	/**
+	 * Checks if a whole range is contained.
+	 * 
+	 * @param start the first value
+	 * @param end the value after the last one
+	 * @return <code>true</code> if all values are in this set
+	 */
+	public boolean contains(final int start, final int end) {
+		if (start >= end) {
+			return true;
+		}
+
+		int i = indexOfStartAfter(start) - 1;
+
+		return i >= 0 && ends[i] >= end;
+	}
+
+	/**
+	 * Gets the first value not in this set, starting at the given one.
+	 * 
+	 * @param from the value to start at
+	 * @return the first missing value, at least <code>from</code>
+	 */
+	public int nextClear(final int from) {
+		int i = indexOfStartAfter(from) - 1;
+
+		if (i >= 0 && ends[i] > from) {
+			return ends[i];
+		}
+
+		return from;
+	}
+
+	/**
+	 * Gets the first value in this set, starting at the given one.
+	 * 
+	 * @param from the value to start at
+	 * @return the first contained value, or {@link Integer#MAX_VALUE} if none
+	 */
+	public int nextSet(final int from) {
+		int i = indexOfEndAfter(from);
+
+		if (i == count) {
+			return Integer.MAX_VALUE;
+		}
+
+		return Math.max(from, starts[i]);
+	}
+
+	/**
+	 * Checks if this set is empty.
+	 * 
+	 * @return <code>true</code> if empty
+	 */
+	public boolean isEmpty() {
+		return count == 0;
+	}
+
+	/**
+	 * Gets the count of ranges.
+	 * 
+	 * @return the count
+	 */
+	public int getRangeCount() {
+		return count;
+	}
+
+	/**
+	 * Gets the start of a range.
+	 * 
+	 * @param index the index of the range, in ascending order
+	 * @return the first value of the range
+	 */
+	public int getStart(final int index) {
+		if (index >= count) {
+			throw new IndexOutOfBoundsException(index + " >= " + count);
+		}
+
+		return starts[index];
+	}
+
+	/**
+	 * Gets the end of a range.
+	 * 
+	 * @param index the index of the range, in ascending order
+	 * @return the value after the last one of the range
+	 */
+	public int getEnd(final int index) {
+		if (index >= count) {
+			throw new IndexOutOfBoundsException(index + " >= " + count);
+		}
+
+		return ends[index];
+	}
+
+	/**
+	 * Removes all ranges.
+	 */
+	public void clear() {
+		count = 0;
+	}
+
+	/**
+	 * Gets the index of the first range ending at or after the given value.
+	 * 
+	 * @param value the value
+	 * @return the index, or the count of ranges if none
+	 */
+	private int indexOfEnd(final int value) {
+		return search(ends, value, false);
+	}
+
+	/**
+	 * Gets the index of the first range ending after the given value.
+	 * 
+	 * @param value the value
+	 * @return the index, or the count of ranges if none
+	 */
+	private int indexOfEndAfter(final int value) {
+		return search(ends, value, true);
+	}
+
+	/**
+	 * Gets the index of the first range starting at or after the given value.
+	 * 
+	 * @param value the value
+	 * @return the index, or the count of ranges if none
+	 */
+	private int indexOfStart(final int value) {
+		return search(starts, value, false);
+	}
+
+	/**
+	 * Gets the index of the first range starting after the given value.
+	 * 
+	 * @param value the value
+	 * @return the index, or the count of ranges if none
+	 */
+	private int indexOfStartAfter(final int value) {
+		return search(starts, value, true);
+	}
+
+	/**
+	 * Searches the ascending bounds of the ranges.
+	 * <p>
+	 * Comparing for "after" instead of adding one to the value keeps
+	 * {@link Integer#MAX_VALUE} from overflowing.
+	 * 
+	 * @param bounds the starts or ends
+	 * @param value the value
+	 * @param after if <code>true</code> bounds equal to the value are skipped
+	 * @return the index of the first bound not skipped, or the count of ranges
+	 */
+	private int search(final int[] bounds, final int value, final boolean after) {
+		int low = 0;
+		int high = count;
+
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+
+			if (bounds[mid] < value || after && bounds[mid] == value) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+
+		return low;
+	}
+
+	/**
+	 * Replaces the ranges from <code>from</code> to <code>to</code> by the
+	 * given count of ranges, to be set by the caller.
+	 * 
+	 * @param from the index of the first replaced range
+	 * @param to the index after the last replaced range
+	 * @param with the count of new ranges
+	 */
+	private void replace(final int from, final int to, final int with) {
+		int newCount = count - (to - from) + with;
+
+		if (newCount > starts.length) {
+			int capacity = Math.max(newCount, starts.length * 2);
+			int[] s = new int[capacity];
+			int[] e = new int[capacity];
+
+			System.arraycopy(starts, 0, s, 0, from);
+			System.arraycopy(ends, 0, e, 0, from);
+			System.arraycopy(starts, to, s, from + with, count - to);
+			System.arraycopy(ends, to, e, from + with, count - to);
+
+			starts = s;
+			ends = e;
+
+		} else if (to - from != with) {
+			System.arraycopy(starts, to, starts, from + with, count - to);
+			System.arraycopy(ends, to, ends, from + with, count - to);
+		}
+
+		count = newCount;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("[");
+
+		for (int i = 0; i < count; i++) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+
+			sb.append(starts[i]).append('-').append(ends[i]);
+		}
+
+		return sb.append(']').toString();
+	}
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ * 
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ * 
+ *     https://github.com/Held03/JasityProtocol.git
+ * 
+ */
+
+package com.github.held03.jasityProtocol.base.util;
+
+import com.github.held03.jasityProtocol.base.util.blocks.MessageBlockSack;
+
+
+/**
+ * A message being received.
+ * <p>
+ * Beside the data, it keeps which data was received, to acknowledge several
+ * blocks at once by a {@link MessageBlockSack}.
+ * 
+ * @author held03
+ */
+public class ReceivingMessage extends MessageContainer {
+
+	/**
+	 * The received data.
+	 * <p>
+	 * This field is guarded by this message.
+	 */
+	private final RangeSet received = new RangeSet();
+
+	/**
+	 * The count of blocks received since the last acknowledge.
+	 */
+	private int unacknowledged = 0;
+
+	/**
+	 * Set while a delayed acknowledge is scheduled.
+	 */
+	private boolean ackScheduled = false;
+
+	/**
+	 * The next message waiting for a delayed acknowledge of the same node.
+	 * <p>
+	 * It is only used by the node, while {@link #scheduleAck()} is set.
+	 */
+	public ReceivingMessage nextAck;
+
+	/**
+	 * Create a container for a message of the given size.
+	 * 
+	 * @param messageID the ID of the message
+	 * @param binaryData the array to receive the data into
+	 */
+	public ReceivingMessage(final long messageID, final byte[] binaryData) {
+		super(messageID, binaryData);
+	}
+
+	/**
+	 * Records a received block.
+	 * 
+	 * @param offset the offset of the data
+	 * @param length the length of the data
+	 * @return the count of blocks not acknowledged yet, including this one
+	 */
+	public synchronized int addReceived(final int offset, final int length) {
+		received.add(offset, offset + length);
+
+		return ++unacknowledged;
+	}
+
+	/**
+	 * Checks if all data was received.
+	 * 
+	 * @return <code>true</code> if complete
+	 */
+	public synchronized boolean isComplete() {
+		return received.contains(0, binaryData.length);
+	}
+
+	/**
+	 * Marks a delayed acknowledge as scheduled.
+	 * <p>
+	 * It stays scheduled until {@link #createDelayedAck()}, even if an
+	 * acknowledge was sent meanwhile.
+	 * 
+	 * @return <code>false</code> if one was already scheduled
+	 */
+	public synchronized boolean scheduleAck() {
+		if (ackScheduled) {
+			return false;
+		}
+
+		ackScheduled = true;
+
+		return true;
+	}
+
+	/**
+	 * Creates the scheduled acknowledge, and allows to schedule the next one.
+	 * 
+	 * @return the acknowledge, or <code>null</code> if no block is
+	 *         unacknowledged
+	 * @see #createAck()
+	 */
+	public synchronized MessageBlockSack createDelayedAck() {
+		ackScheduled = false;
+
+		return createAck();
+	}
+
+	/**
+	 * Creates the acknowledge of all data received so far.
+	 * <p>
+	 * The count of unacknowledged blocks is reset.
+	 * 
+	 * @return the acknowledge, or <code>null</code> if no block is
+	 *         unacknowledged
+	 */
+	public synchronized MessageBlockSack createAck() {
+		if (unacknowledged == 0) {
+			return null;
+		}
+
+		unacknowledged = 0;
+
+		/*
+		 * The first range is the cumulative one if it starts at zero, the
+		 * following ones are sent as far as they fit.
+		 */
+		int cumulative = received.nextClear(0);
+		int first = received.isEmpty() || received.getStart(0) > 0 ? 0 : 1;
+		int count = Math.min(received.getRangeCount() - first, MessageBlockSack.MAX_RANGES);
+		int[] ranges = new int[2 * count];
+
+		for (int i = 0; i < count; i++) {
+			ranges[2 * i] = received.getStart(first + i);
+			ranges[2 * i + 1] = received.getEnd(first + i);
+		}
+
+		return new MessageBlockSack(messageID, cumulative, ranges);
+	}
+}
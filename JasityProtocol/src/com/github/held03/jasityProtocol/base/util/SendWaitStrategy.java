@@ -0,0 +1,167 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ *
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ *
+ *     https://github.com/Held03/JasityProtocol.git
+ *
+ */
+
+package com.github.held03.jasityProtocol.base.util;
+
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * Strategy how the writer of a node waits while there is nothing to send.
+ * <p>
+ * Blocks and messages are queued without locking, the queuing thread only
+ * signals the waiting writer. A strategy trades the latency of that signal
+ * against the CPU the writer takes while idle.
+ * 
+ * @author held03
+ * @see com.github.held03.jasityProtocol.base.DefaultNode#setWaitStrategy(SendWaitStrategy)
+ */
+public interface SendWaitStrategy {
+
+	/**
+	 * Parks the writer until it gets signaled.
+	 * <p>
+	 * It takes no CPU while idle, this is the default.
+	 */
+	public static final SendWaitStrategy BLOCK = new SpinThenPark(0);
+
+	/**
+	 * Spins for some rounds before parking.
+	 * <p>
+	 * Blocks queued shortly after the last one are sent without waking up
+	 * the writer.
+	 */
+	public static final SendWaitStrategy SPIN_THEN_PARK = new SpinThenPark(100);
+
+	/**
+	 * Spins without ever giving up the CPU.
+	 * <p>
+	 * This gives the lowest latency, but keeps one core busy per writer.
+	 */
+	public static final SendWaitStrategy BUSY_SPIN = new BusySpin();
+
+	/**
+	 * Idles once.
+	 * <p>
+	 * This is called repeatedly as long as there is nothing to send. It may
+	 * return early, the writer checks again anyway.
+	 * 
+	 * @param count how often this was called since the last block
+	 * @param nanos the time until held back blocks are due, or <code>0</code>
+	 *            if none are held back
+	 */
+	public void idle(int count, long nanos);
+
+	/**
+	 * Wakes up the given writer if it is idling.
+	 * <p>
+	 * This is called after a block or message was queued.
+	 * 
+	 * @param writer the idling thread
+	 */
+	public void signal(Thread writer);
+
+	/**
+	 * Busy spin implementation.
+	 * 
+	 * @author held03
+	 */
+	public static class BusySpin implements SendWaitStrategy {
+
+		/*
+		 * (non-Javadoc)
+		 * @see
+		 * com.github.held03.jasityProtocol.base.util.SendWaitStrategy#idle(int,
+		 * long)
+		 */
+		@Override
+		public void idle(final int count, final long nanos) {
+			return;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see
+		 * com.github.held03.jasityProtocol.base.util.SendWaitStrategy#signal(java
+		 * .lang.Thread)
+		 */
+		@Override
+		public void signal(final Thread writer) {
+			return;
+		}
+	}
+
+	/**
+	 * Spins for some rounds and parks the writer afterwards.
+	 * 
+	 * @author held03
+	 */
+	public static class SpinThenPark implements SendWaitStrategy {
+
+		/**
+		 * The rounds to spin before parking.
+		 */
+		protected final int spinCount;
+
+		/**
+		 * @param spinCount the rounds to spin before parking, <code>0</code>
+		 *            to park at once
+		 */
+		public SpinThenPark(final int spinCount) {
+			this.spinCount = spinCount;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see
+		 * com.github.held03.jasityProtocol.base.util.SendWaitStrategy#idle(int,
+		 * long)
+		 */
+		@Override
+		public void idle(final int count, final long nanos) {
+			if (count < spinCount) {
+				return;
+			}
+
+			if (nanos > 0) {
+				LockSupport.parkNanos(this, nanos);
+			} else {
+				LockSupport.park(this);
+			}
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see
+		 * com.github.held03.jasityProtocol.base.util.SendWaitStrategy#signal(java
+		 * .lang.Thread)
+		 */
+		@Override
+		public void signal(final Thread writer) {
+			LockSupport.unpark(writer);
+		}
+	}
+}
@@ -26,9 +26,6 @@
 
 package com.github.held03.jasityProtocol.base.util;
 
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -90,119 +87,67 @@ public class SendingMessage extends MessageContainer implements Future<Boolean>,
 	public final long creation = System.currentTimeMillis();
 
 	/**
-	 * List of sent, but not confirmed blocks.
+	 * The transport of this message.
 	 * <p>
-	 * Every time a block was sent it will be listed in that list, until it gets
-	 * confirmed by the remote.
+	 * It decides if the message passes the filters of the node.
 	 */
-	protected Set<MessageBlockDef> sentBlocks = Collections
-			.synchronizedSet(new HashSet<SendingMessage.MessageBlockDef>());
+	public final Message.Transport transport;
 
 	/**
-	 * List of all blocks which should be resent.
+	 * Set if the filters of the node still have to be applied.
+	 * <p>
+	 * This is the case for messages sent before the remote announced if it
+	 * can reverse filters.
 	 */
-	protected Set<MessageBlockDef> repeatBlocks = Collections
-			.synchronizedSet(new HashSet<SendingMessage.MessageBlockDef>());
+	public boolean filterPending = false;
 
 	/**
-	 * A abstract description of a block of data.
+	 * Set if the message was removed from the queue of the node.
 	 * <p>
-	 * This class describes a block independently from the actual data, only by
-	 * offset and length. Additional, the time of sent is saved too. This allows
-	 * searching for old unconfirmed blocks for automatic resenting.
-	 * 
-	 * @author adam
+	 * The node drops it from its queue lazily, until then it is skipped.
 	 */
-	class MessageBlockDef {
+	public volatile boolean removed = false;
 
-		/**
-		 * The start position of the block in the data array.
-		 */
-		public final int offset;
-		/**
-		 * The length of the block in bytes.
-		 */
-		public final int length;
-		/**
-		 * The time as the block was sent in milliseconds.
-		 * <p>
-		 * The time stamp is equally to those returned by
-		 * {@link System#currentTimeMillis()}.
-		 */
-		public final long timeSent;
-
-		/**
-		 * Create a specific block.
-		 * <p>
-		 * The time will be set to the current time.
-		 * 
-		 * @param offset the start point of the block
-		 * @param length the length of the block
-		 */
-		public MessageBlockDef(final int offset, final int length) {
-			this(offset, length, System.currentTimeMillis());
-		}
+	/**
+	 * The data confirmed by the remote.
+	 */
+	protected final RangeSet acked = new RangeSet();
 
-		/**
-		 * Create a fully specified block.
-		 * 
-		 * @param offset the start point of the block
-		 * @param length the length of the block
-		 * @param timeSent the sending time of the block.
-		 */
-		public MessageBlockDef(final int offset, final int length, final long timeSent) {
-			this.offset = offset;
-			this.length = length;
-			this.timeSent = timeSent;
+	/**
+	 * The data the remote asked to send again.
+	 */
+	protected final RangeSet repeatRanges = new RangeSet();
 
-		}
+	/**
+	 * The offsets of the sent blocks, in the order they were sent.
+	 * <p>
+	 * The sent blocks form a ring, starting at {@link #sentHead}. A block
+	 * stays until it got confirmed or sent again, confirmed blocks are only
+	 * dropped as soon as they reached the head. As the blocks are sent in
+	 * order of time, the head is always the block waiting the longest.
+	 */
+	private int[] sentOffsets = new int[16];
 
-		/*
-		 * (non-Javadoc)
-		 * @see java.lang.Object#hashCode()
-		 */
-		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = 1;
-			result = prime * result + getOuterType().hashCode();
-			result = prime * result + length;
-			result = prime * result + offset;
-			return result;
-		}
+	/**
+	 * The lengths of the sent blocks, see {@link #sentOffsets}.
+	 */
+	private int[] sentLengths = new int[16];
 
-		/*
-		 * (non-Javadoc)
-		 * @see java.lang.Object#equals(java.lang.Object)
-		 */
-		@Override
-		public boolean equals(final Object obj) {
-			if (this == obj) {
-				return true;
-			}
-			if (obj == null) {
-				return false;
-			}
-			if (getClass() != obj.getClass()) {
-				return false;
-			}
-			MessageBlockDef other = (MessageBlockDef) obj;
-			if (!getOuterType().equals(other.getOuterType())) {
-				return false;
-			}
-			if (length != other.length) {
-				return false;
-			}
-			if (offset != other.offset) {
-				return false;
-			}
-			return true;
-		}
+	/**
+	 * The times the blocks were sent in milliseconds, see
+	 * {@link #sentOffsets}.
+	 */
+	private long[] sentTimes = new long[16];
 
-		private SendingMessage getOuterType() {
-			return SendingMessage.this;
-		}
-	}
+	/**
+	 * The index of the oldest sent block.
+	 */
+	private int sentHead = 0;
+
+	/**
+	 * The count of sent blocks.
+	 */
+	private int sentCount = 0;
 
 	/**
 	 * Create a message with given binary data.
@@ -219,9 +164,52 @@ public class SendingMessage extends MessageContainer implements Future<Boolean>,
 	 * To generate such data use a message coder. TODO: specify message coder
 	 */
 	public SendingMessage(final long messageID, final byte[] binaryData, final Message.Priority priority) {
+		this(messageID, binaryData, priority, Message.Transport.PRE_FILLTERED);
+	}
+
+	/**
+	 * Create a message with given binary data and transport.
+	 * 
+	 * @param messageID the ID of the message
+	 * @param binaryData the data encoded by a message coder
+	 * @param priority the priority of the message
+	 * @param transport the transport of the message
+	 */
+	public SendingMessage(final long messageID, final byte[] binaryData, final Message.Priority priority,
+			final Message.Transport transport) {
 		super(messageID, binaryData);
 
 		this.priority = priority;
+		this.transport = transport;
+	}
+
+	/**
+	 * Replaces the data by the filtered data.
+	 * <p>
+	 * This is only allowed before any block was sent.
+	 * 
+	 * @param data the filtered data
+	 * @param filters the IDs of the applied filters in the order they were
+	 *            applied
+	 */
+	public synchronized void setFilteredData(final byte[] data, final byte[] filters) {
+		if (currentOffset != 0) {
+			throw new IllegalStateException("The message is already being sent.");
+		}
+
+		binaryData = data;
+		setFilters(filters);
+	}
+
+	/**
+	 * Marks this message as failed.
+	 * <p>
+	 * Threads waiting for the result get woken up.
+	 */
+	public synchronized void fail() {
+		finished = false;
+
+		this.notifyAll();
 	}
 
 	/**
@@ -233,6 +221,8 @@ public class SendingMessage extends MessageContainer implements Future<Boolean>,
 	 * still not confirmed.
 	 * 
 	 * @param size size of block
+	 * @param time the maximum time in milliseconds after a block must be
+	 *            answered
 	 * @return the block data to send, or <code>null</code> if EOF
 	 */
 	public synchronized MessageBlock getNextBlock(final int size, final long time) {
@@ -260,9 +250,7 @@ public class SendingMessage extends MessageContainer implements Future<Boolean>,
 			currentOffset += length;
 		}
 
-		sentBlocks.add(new MessageBlockDef(offset, length));
-
-		return sendBlock(offset, length);
+		return resent(offset, length);
 
 	}
 
@@ -283,44 +271,70 @@ public class SendingMessage extends MessageContainer implements Future<Boolean>,
 	 * Checks if a sent block wasn't answered for <code>time</code>
 	 * milliseconds.
 	 * <p>
-	 * If at least one block exceeded the given time, that block will be
-	 * returned. If no block is out of time, <code>null</code> will be returned.
+	 * Data the remote asked for is sent first. Otherwise, if the oldest sent
+	 * block exceeded the given time, its unconfirmed data is returned. If no
+	 * block is out of time, <code>null</code> will be returned.
+	 * <p>
+	 * Only the oldest block has to be checked, so this takes logarithmic time
+	 * in the count of confirmed ranges.
 	 * 
 	 * @param size the block size
 	 * @param time the maximum time after a block must be answered.
-	 * @return
+	 * @return the block to send again, or <code>null</code>
 	 */
 	public synchronized MessageBlock checkForMissingBlocks(final int size, final long time) {
-		for (MessageBlockDef mbd : repeatBlocks) {
-			if (size < mbd.length) {
-				repeatBlocks.remove(mbd);
-				sentBlocks.add(new MessageBlockDef(mbd.offset, size));
-				repeatBlocks.add(new MessageBlockDef(mbd.offset + size, mbd.length - size, mbd.timeSent));
-				return sendBlock(mbd.offset, size);
+		while (!repeatRanges.isEmpty()) {
+			int start = repeatRanges.getStart(0);
+			int end = Math.min(repeatRanges.getEnd(0), currentOffset);
+
+			/*
+			 * Skip the data confirmed meanwhile, and data never sent.
+			 */
+			int offset = acked.nextClear(start);
+
+			if (offset >= end) {
+				repeatRanges.remove(start, repeatRanges.getEnd(0));
+				continue;
+			}
 
-			} else {
-				sentBlocks.add(new MessageBlockDef(mbd.offset, mbd.length));
-				repeatBlocks.remove(mbd);
+			end = Math.min(end, Math.min(acked.nextSet(offset), offset + size));
 
-				return sendBlock(mbd.offset, mbd.length);
-			}
+			repeatRanges.remove(start, end);
+
+			return resent(offset, end - offset);
 		}
 
-		for (MessageBlockDef mbd : sentBlocks) {
-			if (mbd.timeSent + time < System.currentTimeMillis()) {
-				sentBlocks.remove(mbd);
+		long now = System.nanoTime() / 1000000;
+
+		while (sentCount > 0) {
+			int offset = sentOffsets[sentHead];
+			int end = offset + sentLengths[sentHead];
+
+			offset = acked.nextClear(offset);
 
-				if (size < mbd.length) {
-					sentBlocks.add(new MessageBlockDef(mbd.offset, size));
-					sentBlocks.add(new MessageBlockDef(mbd.offset + size, mbd.length - size, mbd.timeSent));
-					return sendBlock(mbd.offset, size);
+			if (offset >= end) {
+				dropSent();
+				continue;
+			}
+
+			if (sentTimes[sentHead] + time >= now) {
+				return null;
+			}
 
-				} else {
-					sentBlocks.add(new MessageBlockDef(mbd.offset, mbd.length));
+			/*
+			 * Resend the first missing part, the rest of the block stays
+			 * the oldest one.
+			 */
+			int length = Math.min(Math.min(acked.nextSet(offset), end) - offset, size);
 
-					return sendBlock(mbd.offset, mbd.length);
-				}
+			if (offset + length < end) {
+				sentOffsets[sentHead] = offset + length;
+				sentLengths[sentHead] = end - offset - length;
+			} else {
+				dropSent();
 			}
+
+			return resent(offset, length);
 		}
 
 		return null;
@@ -328,21 +342,55 @@ public class SendingMessage extends MessageContainer implements Future<Boolean>,
 
 	/**
 	 * Called by the node if block response was received.
+	 * <p>
+	 * Responses exceeding the sent data are ignored.
 	 * 
 	 * @param offset the block response offset
 	 * @param length the block response length
 	 */
 	public synchronized void readBlockResponse(final int offset, final int length) {
-		// removes old instance (all which are contained)
-		HashSet<MessageBlockDef> rm = new HashSet<MessageBlockDef>();
-		for (MessageBlockDef mbds : sentBlocks) {
-			if (mbds.offset >= offset && mbds.offset + mbds.length <= offset + length) {
-				rm.add(mbds);
-			}
+		if (offset >= 0 && length > 0 && length <= currentOffset - offset) {
+			acked.add(offset, offset + length);
+		}
+
+		checkFinished();
+	}
+
+	/**
+	 * Called by the node for every range of a selective acknowledge.
+	 * <p>
+	 * Ranges exceeding the sent data are ignored.
+	 * 
+	 * @param start the start of the received range
+	 * @param end the end of the received range, exclusive
+	 */
+	public synchronized void readSackRange(final int start, final int end) {
+		if (start >= 0 && start < end && end <= currentOffset) {
+			acked.add(start, end);
 		}
-		sentBlocks.removeAll(rm);
+	}
 
-		if (sentBlocks.isEmpty() && repeatBlocks.isEmpty() && currentOffset == binaryData.length) {
+	/**
+	 * Called by the node if a selective acknowledge was received, after its
+	 * ranges.
+	 * <p>
+	 * A cumulative offset exceeding the sent data is ignored.
+	 * 
+	 * @param cumulative the offset up to which all data was received
+	 */
+	public synchronized void readSack(final int cumulative) {
+		if (cumulative > 0 && cumulative <= currentOffset) {
+			acked.add(0, cumulative);
+		}
+
+		checkFinished();
+	}
+
+	/**
+	 * Marks the message as finished if all data was sent and confirmed.
+	 */
+	private void checkFinished() {
+		if (currentOffset == binaryData.length && acked.contains(0, binaryData.length)) {
 			finished = true;
 
 			this.notifyAll();
@@ -357,27 +405,63 @@ public class SendingMessage extends MessageContainer implements Future<Boolean>,
 	 * @return the block to send
 	 */
 	public synchronized MessageBlock resent(final int offset, final int length) {
-		MessageBlockDef mbd = new MessageBlockDef(offset, length);
-		// removes old instance (all which are contained)
-		HashSet<MessageBlockDef> rm = new HashSet<MessageBlockDef>();
-		for (MessageBlockDef mbds : sentBlocks) {
-			if (mbds.offset >= offset && mbds.offset + mbds.length <= offset + length) {
-				rm.add(mbds);
-			}
+		if (sentCount == sentOffsets.length) {
+			growSent();
 		}
-		sentBlocks.removeAll(rm);
 
-		sentBlocks.add(mbd); // add new instance
+		int i = (sentHead + sentCount) % sentOffsets.length;
+
+		sentOffsets[i] = offset;
+		sentLengths[i] = length;
+		sentTimes[i] = System.nanoTime() / 1000000;
+		sentCount++;
 
 		return sendBlock(offset, length);
 	}
 
+	/**
+	 * Drops the oldest sent block.
+	 */
+	private void dropSent() {
+		sentHead = (sentHead + 1) % sentOffsets.length;
+		sentCount--;
+	}
+
+	/**
+	 * Doubles the capacity of the sent blocks ring.
+	 */
+	private void growSent() {
+		int capacity = sentOffsets.length * 2;
+		int[] offsets = new int[capacity];
+		int[] lengths = new int[capacity];
+		long[] times = new long[capacity];
+
+		for (int j = 0; j < sentCount; j++) {
+			int i = (sentHead + j) % sentOffsets.length;
+
+			offsets[j] = sentOffsets[i];
+			lengths[j] = sentLengths[i];
+			times[j] = sentTimes[i];
+		}
+
+		sentOffsets = offsets;
+		sentLengths = lengths;
+		sentTimes = times;
+		sentHead = 0;
+	}
+
 	public boolean wasSuccessful() {
 		return (finished != null ? finished : false);
 	}
 
+	/**
+	 * Called by the node if the remote asked to send a block again.
+	 * 
+	 * @param offset the start position of the data
+	 * @param length the length of the data
+	 */
 	public synchronized void repeat(final int offset, final int length) {
-		repeatBlocks.add(new MessageBlockDef(offset, length));
+		repeatRanges.add(offset, offset + length);
 	}
 
 	/*
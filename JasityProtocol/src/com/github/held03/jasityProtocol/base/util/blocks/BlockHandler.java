@@ -0,0 +1,137 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ *
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ *
+ *     https://github.com/Held03/JasityProtocol.git
+ *
+ */
+
+package com.github.held03.jasityProtocol.base.util.blocks;
+
+import java.nio.ByteBuffer;
+
+import com.github.held03.jasityProtocol.base.util.NodeParameters;
+
+
+/**
+ * Receives the content of decoded blocks.
+ * <p>
+ * This is the callback style alternative to
+ * {@link NodeBlock#decodeBlock(ByteBuffer)}. The decoder walks the received
+ * buffer, including nested multi blocks, and calls the matching method for
+ * every block without creating block objects.
+ * <p>
+ * Ignore blocks and unknown blocks are skipped.
+ * 
+ * @author held03
+ * @see NodeBlock#decodeBlock(ByteBuffer, BlockHandler)
+ */
+public interface BlockHandler {
+
+	/**
+	 * A hello block was decoded.
+	 * 
+	 * @param type the hello type, see {@link Hello}
+	 * @param version the version of the sender
+	 * @param capabilities the capabilities of the sender
+	 * @param parameters the parameters of the sender, empty if it sent none
+	 */
+	public void onHello(byte type, long version, int capabilities, NodeParameters parameters);
+
+	/**
+	 * A ping block was decoded.
+	 * 
+	 * @param type the ping type, see {@link Ping}
+	 * @param id the ping id
+	 */
+	public void onPing(byte type, long id);
+
+	/**
+	 * A message meta data block was decoded.
+	 * 
+	 * @param type the message type, see {@link MessageB}
+	 * @param id the message id
+	 * @param size the message size, only set on {@link MessageB#TYPE_NEW}
+	 * @param filters the IDs of the filters applied to the message, only set
+	 *            on {@link MessageB#TYPE_NEW}, otherwise
+	 *            {@link MessageB#NO_FILTERS}
+	 */
+	public void onMessage(byte type, long id, int size, byte[] filters);
+
+	/**
+	 * A message data block was decoded.
+	 * <p>
+	 * The data is the received buffer itself with position and limit set
+	 * around the data. It is only valid during this call and must not be
+	 * modified.
+	 * 
+	 * @param id the message id
+	 * @param offset the offset of the data in the message
+	 * @param data the data between position and limit
+	 */
+	public void onMessageBlock(long id, int offset, ByteBuffer data);
+
+	/**
+	 * A message block feedback was decoded.
+	 * 
+	 * @param type the feedback type, see {@link MessageBlockFeedback}
+	 * @param id the message id
+	 * @param offset the offset of the answered block
+	 * @param length the length of the answered block
+	 */
+	public void onFeedback(byte type, long id, int offset, int length);
+
+	/**
+	 * A range of a selective acknowledge was decoded.
+	 * <p>
+	 * All ranges of an acknowledge are passed in ascending order, before
+	 * {@link #onSack(long, int)}. They are checked already, so a malformed
+	 * acknowledge passes no range at all.
+	 * 
+	 * @param id the message id
+	 * @param index the index of the range in the acknowledge
+	 * @param start the start of the received range
+	 * @param end the end of the received range, exclusive
+	 * @see MessageBlockSack
+	 */
+	public void onSackRange(long id, int index, int start, int end);
+
+	/**
+	 * A selective acknowledge was decoded.
+	 * 
+	 * @param id the message id
+	 * @param cumulative the offset up to which all data was received
+	 * @see MessageBlockSack
+	 */
+	public void onSack(long id, int cumulative);
+
+	/**
+	 * A compressed block was decoded.
+	 * <p>
+	 * The data is the received buffer itself with position and limit set
+	 * around the deflated data, like by {@link #onMessageBlock}. The inflated
+	 * block is not decoded, as the deflate stream belongs to the receiver.
+	 * 
+	 * @param length the length of the inflated block
+	 * @param data the deflated data between position and limit
+	 */
+	public void onCompressed(int length, ByteBuffer data);
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ *
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ *
+ *     https://github.com/Held03/JasityProtocol.git
+ *
+ */
+
+package com.github.held03.jasityProtocol.base.util.blocks;
+
+import java.util.Arrays;
+
+
+/**
+ * Collects blocks to be sent together and keeps track of their size.
+ * <p>
+ * The size is updated on every added block, so filling a block takes linear
+ * time in the count of collected blocks. If more than one block was
+ * collected, they get packed into a {@link Multi}.
+ * <p>
+ * A packer can be reused, {@link #finish()} resets it. It is not
+ * synchronized.
+ * 
+ * @author held03
+ */
+public class BlockPacker {
+
+	/**
+	 * The collected blocks.
+	 */
+	private NodeBlock[] blocks = new NodeBlock[8];
+
+	/**
+	 * The count of collected blocks.
+	 */
+	private int count = 0;
+
+	/**
+	 * The sizes of all collected blocks plus their costs in a multi block.
+	 */
+	private int sum = 0;
+
+	/**
+	 * Adds a block.
+	 * 
+	 * @param nb the block to add
+	 */
+	public void add(final NodeBlock nb) {
+		if (count == blocks.length) {
+			blocks = Arrays.copyOf(blocks, count << 1);
+		}
+
+		blocks[count++] = nb;
+		sum += nb.getSize() + Multi.ADDITIONAL_COST;
+	}
+
+	/**
+	 * Gets the size of the collected blocks packed.
+	 * 
+	 * @return the size of the single block or the multi block, or
+	 *         <code>0</code> if empty
+	 */
+	public int getSize() {
+		switch (count) {
+		case 0:
+			return 0;
+
+		case 1:
+			return sum - Multi.ADDITIONAL_COST;
+
+		default:
+			return Multi.STATIC_COST + sum;
+		}
+	}
+
+	/**
+	 * Gets the size of the collected blocks packed, if one more block was
+	 * added.
+	 * 
+	 * @param size the size of the block to add
+	 * @return the packed size with the block
+	 */
+	public int getSizeWith(final int size) {
+		if (count == 0) {
+			return size;
+		}
+
+		return Multi.STATIC_COST + sum + Multi.ADDITIONAL_COST + size;
+	}
+
+	/**
+	 * Checks if a block fits into the given size together with the collected
+	 * ones.
+	 * 
+	 * @param nb the block to add
+	 * @param limit the size of the packed blocks
+	 * @return <code>true</code> if it fits
+	 */
+	public boolean fits(final NodeBlock nb, final int limit) {
+		return getSizeWith(nb.getSize()) <= limit;
+	}
+
+	/**
+	 * Gets the count of collected blocks.
+	 * 
+	 * @return the count
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Checks if no block was collected.
+	 * 
+	 * @return <code>true</code> if empty
+	 */
+	public boolean isEmpty() {
+		return count == 0;
+	}
+
+	/**
+	 * Packs the collected blocks and resets the packer.
+	 * 
+	 * @return the only block, a multi block containing all blocks, or
+	 *         <code>null</code> if empty
+	 */
+	public NodeBlock finish() {
+		NodeBlock nb;
+
+		switch (count) {
+		case 0:
+			nb = null;
+			break;
+
+		case 1:
+			nb = blocks[0];
+			break;
+
+		default:
+			nb = new Multi(Arrays.copyOf(blocks, count));
+		}
+
+		reset();
+
+		return nb;
+	}
+
+	/**
+	 * Drops the collected blocks.
+	 */
+	public void reset() {
+		Arrays.fill(blocks, 0, count, null);
+
+		count = 0;
+		sum = 0;
+	}
+}
@@ -0,0 +1,237 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ *
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ *
+ *     https://github.com/Held03/JasityProtocol.git
+ *
+ */
+
+package com.github.held03.jasityProtocol.base.util.blocks;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * Compressed block.
+ * 
+ * <pre>
+ * Structure:
+ * 
+ * - varint: length of the inflated block
+ * - varint: length of the deflated data
+ * - byte[]: deflated data
+ * </pre>
+ * 
+ * The data is a raw deflate stream (without zlib header), which inflates to
+ * exactly one encoded block. The stream of a node is continued from block to
+ * block, every block ends with a sync flush. So the blocks must be inflated
+ * in the order they were sent, and none may be lost.
+ * 
+ * @see NodeBlock#BLOCK_COMPRESSED
+ * @see Hello#CAP_DEFLATE
+ * @author held03
+ */
+public class Compressed extends NodeBlock {
+
+	/**
+	 * The length of the inflated block.
+	 */
+	int length = 0;
+
+	/**
+	 * The deflated data.
+	 * <p>
+	 * A decoded block holds a read-only slice of the received buffer.
+	 */
+	ByteBuffer data = ByteBuffer.allocate(0);
+
+	/**
+	 * Creates empty compressed block.
+	 */
+	public Compressed() {
+
+	}
+
+	/**
+	 * Creates a specific compressed block.
+	 * 
+	 * @param length the length of the inflated block
+	 * @param data the deflated data
+	 * @param offset the beginning of the data in the array
+	 * @param len the length of the data in the array from the offset
+	 */
+	public Compressed(final int length, final byte[] data, final int offset, final int len) {
+		this.length = length;
+		this.data = ByteBuffer.wrap(data, offset, len).slice();
+	}
+
+	/**
+	 * The length of the inflated block.
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * The deflated data.
+	 * <p>
+	 * This returns a read-only view between position and limit.
+	 */
+	public ByteBuffer getDataBuffer() {
+		return data.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Gets the maximum size of the compressed block of an encoded block.
+	 * <p>
+	 * Deflate expands incompressible data a little, this is the bound of zlib
+	 * plus the bytes of the sync flush and the header of this block.
+	 * 
+	 * @param length the length of the encoded block
+	 * @return the maximum size of the compressed block
+	 */
+	public static int getMaxSize(final int length) {
+		return length + (length >> 12) + (length >> 14) + (length >> 25) + 13 + 6 + 1 + 2 * VarInt.MAX_INT_SIZE;
+	}
+
+	/**
+	 * Gets the maximum length of a block, which compressed fits always into
+	 * the given block size.
+	 * 
+	 * @param blocksize the size available for the compressed block
+	 * @return the maximum length of the encoded block, may be negative if the
+	 *         block size is too small
+	 */
+	public static int getMaxLength(final int blocksize) {
+		/*
+		 * The expansion grows with the length, so the one of the block size
+		 * is enough.
+		 */
+		return blocksize - (getMaxSize(blocksize) - blocksize);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.base.util.NodeBlock#encodeTo(java.nio.
+	 * ByteBuffer)
+	 */
+	@Override
+	public void encodeTo(final ByteBuffer bb) {
+		/*
+		 * Write the native type.
+		 */
+		bb.put(getNativeType());
+
+		/*
+		 * Write the actual data.
+		 */
+		VarInt.putVarInt(bb, length);
+		VarInt.putVarInt(bb, data.remaining());
+		bb.put(data.duplicate());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.base.util.blocks.NodeBlock#decode(java
+	 * .nio.ByteBuffer)
+	 */
+	@Override
+	public Compressed decode(final ByteBuffer data) {
+		/*
+		 * Get the data.
+		 */
+		length = VarInt.getVarInt(data);
+		int len = VarInt.getVarInt(data);
+
+		/*
+		 * Refer to the data instead of copying it.
+		 */
+		ByteBuffer slice = data.slice();
+		slice.limit(len);
+		this.data = slice.asReadOnlyBuffer();
+
+		data.position(data.position() + len);
+
+		return this;
+	}
+
+	/**
+	 * Decodes a compressed block without creating an object.
+	 * 
+	 * @param data the data to parse, behind the native type
+	 * @param baseId the current message ID base, which is kept
+	 * @param handler the handler receiving the content
+	 * @return the given base ID
+	 * @see NodeBlock#decodeBlock(ByteBuffer, BlockHandler)
+	 */
+	static long decode(final ByteBuffer data, final long baseId, final BlockHandler handler) {
+		int length = VarInt.getVarInt(data);
+		int len = VarInt.getVarInt(data);
+
+		int limit = data.limit();
+		int end = data.position() + len;
+
+		data.limit(end);
+
+		handler.onCompressed(length, data);
+
+		data.limit(limit);
+		data.position(end);
+
+		return baseId;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.base.util.blocks.NodeBlock#getSize()
+	 */
+	@Override
+	public int getSize() {
+		/*
+		 * Takes:
+		 * - 1 byte: native type (byte)
+		 * - 1-5 bytes: length (varint)
+		 * - 1-5 bytes: data length (varint)
+		 * - data length bytes: data (byte[])
+		 */
+		return 1 + VarInt.sizeOfVarInt(length) + VarInt.sizeOfVarInt(data.remaining()) + data.remaining();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.base.util.blocks.NodeBlock#getNativeType
+	 * ()
+	 */
+	@Override
+	public byte getNativeType() {
+		return BLOCK_COMPRESSED;
+	}
+
+	@Override
+	public String toString() {
+		return "Compressed(" + length + ", " + data.remaining() + ")";
+	}
+
+}
@@ -28,6 +28,8 @@ package com.github.held03.jasityProtocol.base.util.blocks;
 
 import java.nio.ByteBuffer;
 
+import com.github.held03.jasityProtocol.base.util.NodeParameters;
+
 
 /**
  * Handshake block.
@@ -45,6 +47,8 @@ import java.nio.ByteBuffer;
  *          2: Busy  - connection refused
  *          3: Bye   - connection closed
  * - long: version code
+ * - int: capabilities (optional, zero if missing)
+ * - parameters (optional, see {@link NodeParameters})
  * </pre>
  * 
  * Opening socket have first to send the <code>Knock</code> order. It's allowed
@@ -88,11 +92,51 @@ public class Hello extends NodeBlock {
 	 */
 	public static final byte TYPE_BYE = 3;
 
+	/**
+	 * Capability: the node can decode compact blocks.
+	 * 
+	 * @see NodeBlock#setCompact(boolean)
+	 */
+	public static final int CAP_COMPACT = 1;
+
+	/**
+	 * Capability: the node can inflate compressed blocks.
+	 * <p>
+	 * It is only sent over ordered connections, as the blocks share one
+	 * deflate stream.
+	 * 
+	 * @see Compressed
+	 */
+	public static final int CAP_DEFLATE = 2;
+
+	/**
+	 * Capability: the node reverses the filters of messages.
+	 * 
+	 * @see MessageB#getFilters()
+	 */
+	public static final int CAP_FILTERS = 4;
+
 	/**
 	 * The version of the node which sent this.
 	 */
 	long version = 0;
 
+	/**
+	 * The capabilities of the node which sent this.
+	 * <p>
+	 * It is a bitmask of the <code>CAP_</code> constants. Older nodes don't
+	 * send it, so it is zero for them.
+	 */
+	int capabilities = 0;
+
+	/**
+	 * The parameters of the node which sent this.
+	 * <p>
+	 * They are only sent with <code>Knock</code> and <code>Hello</code>. Older
+	 * nodes don't send them, so they are empty for them.
+	 */
+	NodeParameters parameters = new NodeParameters();
+
 	/**
 	 * The type of this block.
 	 * <p>
@@ -115,8 +159,35 @@ public class Hello extends NodeBlock {
 	 * @param version the node version of the sender
 	 */
 	public Hello(final byte type, final long version) {
+		this(type, version, 0);
+
+	}
+
+	/**
+	 * Creates a specific hello block with capabilities.
+	 * 
+	 * @param type the hello type.
+	 * @param version the node version of the sender
+	 * @param capabilities the capabilities of the sender
+	 */
+	public Hello(final byte type, final long version, final int capabilities) {
+		this(type, version, capabilities, new NodeParameters());
+
+	}
+
+	/**
+	 * Creates a specific hello block with capabilities and parameters.
+	 * 
+	 * @param type the hello type.
+	 * @param version the node version of the sender
+	 * @param capabilities the capabilities of the sender
+	 * @param parameters the parameters of the sender
+	 */
+	public Hello(final byte type, final long version, final int capabilities, final NodeParameters parameters) {
 		this.type = type;
 		this.version = version;
+		this.capabilities = capabilities;
+		this.parameters = parameters;
 
 	}
 
@@ -127,6 +198,24 @@ public class Hello extends NodeBlock {
 		return version;
 	}
 
+	/**
+	 * The capabilities of the node which sent this.
+	 * <p>
+	 * It is a bitmask of the <code>CAP_</code> constants.
+	 */
+	public int getCapabilities() {
+		return capabilities;
+	}
+
+	/**
+	 * The parameters of the node which sent this.
+	 * <p>
+	 * They are empty if the node sent none.
+	 */
+	public NodeParameters getParameters() {
+		return parameters;
+	}
+
 	/**
 	 * The type of this block.
 	 * <p>
@@ -139,12 +228,12 @@ public class Hello extends NodeBlock {
 
 	/*
 	 * (non-Javadoc)
-	 * @see com.github.held03.jasityProtocol.base.util.NodeBlock#encode()
+	 * @see
+	 * com.github.held03.jasityProtocol.base.util.NodeBlock#encodeTo(java.nio.
+	 * ByteBuffer)
 	 */
 	@Override
-	public ByteBuffer encode() {
-		ByteBuffer bb = ByteBuffer.allocate(getSize());
-
+	public void encodeTo(final ByteBuffer bb) {
 		/*
 		 * Write the native type.
 		 */
@@ -157,11 +246,13 @@ public class Hello extends NodeBlock {
 		bb.putLong(version);
 
 		/*
-		 * Flush and return data.
+		 * Older nodes ignore the trailing capabilities and parameters.
 		 */
-		bb.rewind();
+		bb.putInt(capabilities);
 
-		return bb;
+		if (parameters.size() > 0) {
+			parameters.encodeTo(bb);
+		}
 	}
 
 	/*
@@ -179,9 +270,36 @@ public class Hello extends NodeBlock {
 		type = data.get();
 		version = data.getLong();
 
+		/*
+		 * Older nodes don't send capabilities.
+		 */
+		capabilities = data.remaining() >= 4 ? data.getInt() : 0;
+
+		parameters = data.hasRemaining() ? NodeParameters.decode(data) : new NodeParameters();
+
 		return this;
 	}
 
+	/**
+	 * Decodes a hello block without creating an object.
+	 * 
+	 * @param data the data to parse, behind the native type
+	 * @param baseId the current message ID base, which is kept
+	 * @param handler the handler receiving the content
+	 * @return the given base ID
+	 * @see NodeBlock#decodeBlock(ByteBuffer, BlockHandler)
+	 */
+	static long decode(final ByteBuffer data, final long baseId, final BlockHandler handler) {
+		byte type = data.get();
+		long version = data.getLong();
+		int capabilities = data.remaining() >= 4 ? data.getInt() : 0;
+		NodeParameters parameters = data.hasRemaining() ? NodeParameters.decode(data) : new NodeParameters();
+
+		handler.onHello(type, version, capabilities, parameters);
+
+		return baseId;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see
@@ -190,12 +308,13 @@ public class Hello extends NodeBlock {
 	@Override
 	public int getSize() {
 		/*
-		 * Takes always 10 bytes:
+		 * Takes 14 bytes and the parameters:
 		 * - 1 byte: native type (byte)
 		 * - 1 byte: type (byte)
 		 * - 8 bytes: version (long)
+		 * - 4 bytes: capabilities (int)
 		 */
-		return 10;
+		return 14 + (parameters.size() > 0 ? parameters.getSize() : 0);
 
 	}
 
@@ -229,7 +348,7 @@ public class Hello extends NodeBlock {
 			break;
 		}
 
-		return "Hello(" + typ + ", " + version + ")";
+		return "Hello(" + typ + ", " + version + ", " + capabilities + ", " + parameters + ")";
 	}
 
 }
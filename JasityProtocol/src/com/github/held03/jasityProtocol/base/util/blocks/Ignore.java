@@ -50,8 +50,10 @@ public class Ignore extends NodeBlock {
 
 	/**
 	 * The data of the block.
+	 * <p>
+	 * A decoded block holds a read-only slice of the received buffer.
 	 */
-	byte[] data = new byte[0];
+	ByteBuffer data = ByteBuffer.allocate(0);
 
 	/**
 	 * Create a empty ignoring block.
@@ -68,11 +70,13 @@ public class Ignore extends NodeBlock {
 	 * @param size the length of data which it should contain
 	 */
 	public Ignore(final int size) {
-		data = new byte[size];
+		byte[] bytes = new byte[size];
 
 		Random ran = new Random();
 
-		ran.nextBytes(data);
+		ran.nextBytes(bytes);
+
+		data = ByteBuffer.wrap(bytes);
 	}
 
 	/**
@@ -81,24 +85,30 @@ public class Ignore extends NodeBlock {
 	 * @param data the data it contains
 	 */
 	public Ignore(final byte[] data) {
-		this.data = data;
+		this.data = ByteBuffer.wrap(data);
 	}
 
 	/**
 	 * The data of the block.
+	 * <p>
+	 * This returns a copy of the data.
 	 */
 	public byte[] getData() {
-		return data;
+		byte[] copy = new byte[data.remaining()];
+
+		data.duplicate().get(copy);
+
+		return copy;
 	}
 
 	/*
 	 * (non-Javadoc)
-	 * @see com.github.held03.jasityProtocol.base.util.NodeBlock#encode()
+	 * @see
+	 * com.github.held03.jasityProtocol.base.util.NodeBlock#encodeTo(java.nio.
+	 * ByteBuffer)
 	 */
 	@Override
-	public ByteBuffer encode() {
-		ByteBuffer bb = ByteBuffer.allocate(getSize());
-
+	public void encodeTo(final ByteBuffer bb) {
 		/*
 		 * Write the native type.
 		 */
@@ -107,14 +117,8 @@ public class Ignore extends NodeBlock {
 		/*
 		 * Write the actual data.
 		 */
-		bb.putInt(data.length);
-		bb.put(data);
-
-		/*
-		 * Flush and return data.
-		 */
-		bb.rewind();
-		return bb;
+		bb.putInt(data.remaining());
+		bb.put(data.duplicate());
 	}
 
 	/*
@@ -130,9 +134,14 @@ public class Ignore extends NodeBlock {
 		 */
 		int len = data.getInt();
 
-		this.data = new byte[len];
+		/*
+		 * Refer to the data instead of copying it.
+		 */
+		ByteBuffer slice = data.slice();
+		slice.limit(len);
+		this.data = slice.asReadOnlyBuffer();
 
-		data.get(this.data);
+		data.position(data.position() + len);
 
 		return this;
 	}
@@ -150,7 +159,7 @@ public class Ignore extends NodeBlock {
 		 * - 4 byte: length (int)
 		 * - length bytes: data (byte[])
 		 */
-		return 5 + data.length;
+		return 5 + data.remaining();
 
 	}
 
@@ -167,7 +176,7 @@ public class Ignore extends NodeBlock {
 
 	@Override
 	public String toString() {
-		return "Ignore(" + data.length + ")";
+		return "Ignore(" + data.remaining() + ")";
 	}
 
 }
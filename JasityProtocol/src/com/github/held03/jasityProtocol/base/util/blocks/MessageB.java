@@ -48,6 +48,8 @@ import java.nio.ByteBuffer;
  *          7: ErrorRece - message receiving fail
  * - long: message ID
  * - int: message size or zero (only parsed on NEW)
+ * - byte: count of filters (optional, only on NEW)
+ * - byte[]: filter IDs, in the order they were applied
  * </pre>
  * 
  * The sender first sends the <code>New</code> command with the related ID and a
@@ -74,6 +76,10 @@ import java.nio.ByteBuffer;
  * <code>ErrorSend</code> is always send by the sender. <code>ErrorRece</code>
  * is always send by the receiver. This is important to distinguish if a local
  * or a remote message is canceled.
+ * <p>
+ * The filters of a message are only sent if any was applied. Older nodes
+ * ignore them, so they are only applied if the remote announced
+ * {@link Hello#CAP_FILTERS}.
  * 
  * @see NodeBlock#BLOCK_MESSAGE
  * @author held03
@@ -127,6 +133,11 @@ public class MessageB extends NodeBlock {
 	 */
 	public static final byte TYPE_ERROR_RECIEVE = 7;
 
+	/**
+	 * The filters of a message without filters.
+	 */
+	public static final byte[] NO_FILTERS = new byte[0];
+
 	/**
 	 * The message id about it is.
 	 */
@@ -137,6 +148,11 @@ public class MessageB extends NodeBlock {
 	 */
 	int size = 0;
 
+	/**
+	 * The IDs of the filters applied to the message (only on NEW).
+	 */
+	byte[] filters = NO_FILTERS;
+
 	/**
 	 * The type of this block.
 	 * <p>
@@ -170,9 +186,23 @@ public class MessageB extends NodeBlock {
 	 * @param size the size of the message
 	 */
 	public MessageB(final long id, final int size) {
+		this(id, size, NO_FILTERS);
+
+	}
+
+	/**
+	 * Creates a new message block with given id, size and filters.
+	 * 
+	 * @param id the id of the message this is about
+	 * @param size the size of the message
+	 * @param filters the IDs of the filters applied to the message, in the
+	 *            order they were applied
+	 */
+	public MessageB(final long id, final int size, final byte[] filters) {
 		this.type = TYPE_NEW;
 		this.id = id;
 		this.size = size;
+		this.filters = filters;
 
 	}
 
@@ -193,6 +223,15 @@ public class MessageB extends NodeBlock {
 		return size;
 	}
 
+	/**
+	 * The IDs of the filters applied to the message (only on NEW).
+	 * <p>
+	 * They are in the order they were applied.
+	 */
+	public byte[] getFilters() {
+		return filters;
+	}
+
 	/**
 	 * The type of this block.
 	 * <p>
@@ -205,29 +244,48 @@ public class MessageB extends NodeBlock {
 
 	/*
 	 * (non-Javadoc)
-	 * @see com.github.held03.jasityProtocol.base.util.NodeBlock#encode()
+	 * @see
+	 * com.github.held03.jasityProtocol.base.util.NodeBlock#encodeTo(java.nio.
+	 * ByteBuffer)
 	 */
 	@Override
-	public ByteBuffer encode() {
-		ByteBuffer bb = ByteBuffer.allocate(getSize());
+	public void encodeTo(final ByteBuffer bb) {
+		encodeTo(bb, 0);
+	}
 
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.base.util.blocks.NodeBlock#encodeTo(java
+	 * .nio.ByteBuffer, long)
+	 */
+	@Override
+	public void encodeTo(final ByteBuffer bb, final long baseId) {
 		/*
 		 * Write the native type.
 		 */
-		bb.put(getNativeType());
+		bb.put(getWireType());
 
 		/*
 		 * Write the actual data.
 		 */
 		bb.put(type);
-		bb.putLong(id);
-		bb.putInt(size);
 
-		/*
-		 * Flush and return data.
-		 */
-		bb.rewind();
-		return bb;
+		if (compact) {
+			VarInt.putSignedVarLong(bb, id - baseId);
+
+			if (type == TYPE_NEW) {
+				VarInt.putVarInt(bb, size);
+			}
+		} else {
+			bb.putLong(id);
+			bb.putInt(size);
+		}
+
+		if (type == TYPE_NEW && filters.length > 0) {
+			bb.put((byte) filters.length);
+			bb.put(filters);
+		}
 	}
 
 	/*
@@ -235,30 +293,133 @@ public class MessageB extends NodeBlock {
 	 */
 	@Override
 	public MessageB decode(final ByteBuffer data) {
+		return decode(data, 0);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.base.util.blocks.NodeBlock#decode(java
+	 * .nio.ByteBuffer, long)
+	 */
+	@Override
+	public MessageB decode(final ByteBuffer data, final long baseId) {
 		/*
 		 * Get the data.
 		 */
 		type = data.get();
-		id = data.getLong();
-		size = data.getInt();
+
+		if (compact) {
+			id = baseId + VarInt.getSignedVarLong(data);
+			size = type == TYPE_NEW ? VarInt.getVarInt(data) : 0;
+		} else {
+			id = data.getLong();
+			size = data.getInt();
+		}
+
+		filters = decodeFilters(type, data);
 
 		return this;
 	}
 
+	/**
+	 * Decodes the optional filters of a message.
+	 * 
+	 * @param type the type of the block
+	 * @param data the data to parse, behind the size
+	 * @return the filters, or {@link #NO_FILTERS}
+	 */
+	private static byte[] decodeFilters(final byte type, final ByteBuffer data) {
+		if (type != TYPE_NEW || !data.hasRemaining()) {
+			return NO_FILTERS;
+		}
+
+		byte[] filters = new byte[data.get() & 0xFF];
+
+		data.get(filters);
+
+		return filters;
+	}
+
+	/**
+	 * Decodes a message block without creating an object.
+	 * 
+	 * @param data the data to parse, behind the type
+	 * @param compact <code>true</code> if in compact form
+	 * @param baseId the message ID this block is relative to
+	 * @param handler the handler receiving the content
+	 * @return the message ID of the block
+	 * @see NodeBlock#decodeBlock(ByteBuffer, BlockHandler)
+	 */
+	static long decode(final ByteBuffer data, final boolean compact, final long baseId,
+			final BlockHandler handler) {
+		byte type = data.get();
+		long id;
+		int size;
+
+		if (compact) {
+			id = baseId + VarInt.getSignedVarLong(data);
+			size = type == TYPE_NEW ? VarInt.getVarInt(data) : 0;
+		} else {
+			id = data.getLong();
+			size = data.getInt();
+		}
+
+		handler.onMessage(type, id, size, decodeFilters(type, data));
+
+		return id;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 */
 	@Override
 	public int getSize() {
+		return getSize(0);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.base.util.blocks.NodeBlock#getSize(long)
+	 */
+	@Override
+	public int getSize(final long baseId) {
+		if (compact) {
+			/*
+			 * 2 bytes plus the coded id delta and the size on NEW.
+			 */
+			return 2 + VarInt.sizeOfSignedVarLong(id - baseId)
+					+ (type == TYPE_NEW ? VarInt.sizeOfVarInt(size) + getFiltersSize() : 0);
+		}
+
 		/*
-		 * Takes always 14 bytes:
+		 * Takes 14 bytes plus the filters:
 		 * - 1 byte: native type (byte)
 		 * - 1 byte: type (byte)
 		 * - 8 bytes: id (long)
 		 * - 4 bytes: size (long)
 		 */
-		return STATIC_COST; // 14
+		return STATIC_COST + (type == TYPE_NEW ? getFiltersSize() : 0);
+	}
 
+	/**
+	 * Gets the size of the filters of a NEW block.
+	 * 
+	 * @return the size of the coded filters
+	 */
+	public int getFiltersSize() {
+		return filters.length > 0 ? 1 + filters.length : 0;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.base.util.blocks.NodeBlock#getBaseId(long)
+	 */
+	@Override
+	public long getBaseId(final long baseId) {
+		return id;
 	}
 
 	/*
@@ -272,6 +433,17 @@ public class MessageB extends NodeBlock {
 		return BLOCK_MESSAGE;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.base.util.blocks.NodeBlock#getCompactType
+	 * ()
+	 */
+	@Override
+	public byte getCompactType() {
+		return BLOCK_MESSAGE_COMPACT;
+	}
+
 	@Override
 	public String toString() {
 		String typ = "Illegal";
@@ -27,7 +27,8 @@
 package com.github.held03.jasityProtocol.base.util.blocks;
 
 import java.nio.ByteBuffer;
-import java.util.Arrays;
+
+import com.github.held03.jasityProtocol.base.util.GatheringBuffer;
 
 
 /**
@@ -68,8 +69,12 @@ public class MessageBlock extends NodeBlock {
 
 	/**
 	 * The binary data of the message.
+	 * <p>
+	 * The data is always between position and limit. A decoded block holds a
+	 * read-only slice of the received buffer, which is only valid until the
+	 * receiving connection reuses its buffer.
 	 */
-	byte[] data = new byte[0];
+	ByteBuffer data = ByteBuffer.allocate(0);
 
 	/**
 	 * Create a empty ping.
@@ -87,13 +92,15 @@ public class MessageBlock extends NodeBlock {
 	public MessageBlock(final long id, final int offset, final byte[] data) {
 		this.id = id;
 		this.offset = offset;
-		this.data = data;
+		this.data = ByteBuffer.wrap(data);
 
 	}
 
 	/**
 	 * Create a new message block with given id and extract the data from the
 	 * given array.
+	 * <p>
+	 * The data is not copied, so the array must not be changed afterwards.
 	 * 
 	 * @param type the
 	 * @param id
@@ -101,7 +108,7 @@ public class MessageBlock extends NodeBlock {
 	public MessageBlock(final long id, final byte[] data, final int offset, final int length) {
 		this.id = id;
 		this.offset = offset;
-		this.data = Arrays.copyOfRange(data, offset, offset + length);
+		this.data = ByteBuffer.wrap(data, offset, length).slice();
 
 	}
 
@@ -121,41 +128,107 @@ public class MessageBlock extends NodeBlock {
 
 	/**
 	 * The binary data of the message.
+	 * <p>
+	 * This returns a copy of the data, so it stays valid after the receive
+	 * buffer got reused.
+	 * 
+	 * @see #getDataBuffer()
 	 */
 	public byte[] getData() {
-		return data;
+		byte[] copy = new byte[data.remaining()];
+
+		data.duplicate().get(copy);
+
+		return copy;
+	}
+
+	/**
+	 * The binary data of the message without copying.
+	 * <p>
+	 * For a decoded block this is a read-only view of the receive buffer, it
+	 * must be consumed before the receiving method returns.
+	 * 
+	 * @return a buffer with the data between position and limit
+	 */
+	public ByteBuffer getDataBuffer() {
+		return data.duplicate();
+	}
+
+	/**
+	 * The length of the binary data.
+	 * 
+	 * @return the length in bytes
+	 */
+	public int getDataLength() {
+		return data.remaining();
 	}
 
 	/*
 	 * (non-Javadoc)
-	 * @see com.github.held03.jasityProtocol.base.util.NodeBlock#encode()
+	 * @see
+	 * com.github.held03.jasityProtocol.base.util.NodeBlock#encodeTo(java.nio.
+	 * ByteBuffer)
 	 * - long: message ID
 	 * - int: data offset
 	 * - int: data length
 	 * - byte[]: message data
 	 */
 	@Override
-	public ByteBuffer encode() {
-		ByteBuffer bb = ByteBuffer.allocate(getSize());
+	public void encodeTo(final ByteBuffer bb) {
+		encodeTo(bb, 0);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.base.util.blocks.NodeBlock#encodeTo(java
+	 * .nio.ByteBuffer, long)
+	 */
+	@Override
+	public void encodeTo(final ByteBuffer bb, final long baseId) {
+		encodeHeader(bb, baseId);
 
+		bb.put(data.duplicate());
+	}
+
+	/**
+	 * Adds the data as view, so it is not copied.
+	 * 
+	 * @see
+	 * com.github.held03.jasityProtocol.base.util.blocks.NodeBlock#encodeTo(com
+	 * .github.held03.jasityProtocol.base.util.GatheringBuffer, long)
+	 */
+	@Override
+	public void encodeTo(final GatheringBuffer gb, final long baseId) {
+		encodeHeader(gb.getBuffer(), baseId);
+
+		gb.put(data);
+	}
+
+	/**
+	 * Encodes all but the data.
+	 * 
+	 * @param bb the buffer to write into
+	 * @param baseId the message ID this block is relative to
+	 */
+	private void encodeHeader(final ByteBuffer bb, final long baseId) {
 		/*
 		 * Write the native type.
 		 */
-		bb.put(getNativeType());
+		bb.put(getWireType());
 
 		/*
 		 * Write the actual data.
 		 */
-		bb.putLong(id);
-		bb.putInt(offset);
-		bb.putInt(data.length);
-		bb.put(data);
-
-		/*
-		 * Flush and return data.
-		 */
-		bb.rewind();
-		return bb;
+		if (compact) {
+			VarInt.putSignedVarLong(bb, id - baseId);
+			VarInt.putVarInt(bb, offset);
+			VarInt.putVarInt(bb, data.remaining());
+		} else {
+			bb.putLong(id);
+			bb.putInt(offset);
+			bb.putInt(data.remaining());
+		}
 	}
 
 	/*
@@ -167,24 +240,110 @@ public class MessageBlock extends NodeBlock {
 	 */
 	@Override
 	public MessageBlock decode(final ByteBuffer data) {
+		return decode(data, 0);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.base.util.blocks.NodeBlock#decode(java
+	 * .nio.ByteBuffer, long)
+	 */
+	@Override
+	public MessageBlock decode(final ByteBuffer data, final long baseId) {
 
 		/*
 		 * Get the data.
 		 */
-		id = data.getLong();
-		this.offset = data.getInt();
-		int len = data.getInt();
-		this.data = new byte[len];
-		data.get(this.data);
+		int len;
+
+		if (compact) {
+			id = baseId + VarInt.getSignedVarLong(data);
+			this.offset = VarInt.getVarInt(data);
+			len = VarInt.getVarInt(data);
+		} else {
+			id = data.getLong();
+			this.offset = data.getInt();
+			len = data.getInt();
+		}
+
+		/*
+		 * Refer to the data instead of copying it.
+		 */
+		ByteBuffer slice = data.slice();
+		slice.limit(len);
+		this.data = slice.asReadOnlyBuffer();
+
+		data.position(data.position() + len);
 
 		return this;
 	}
 
+	/**
+	 * Decodes a message data block without creating an object.
+	 * <p>
+	 * The data is passed as the given buffer itself, limited to the data.
+	 * 
+	 * @param data the data to parse, behind the type
+	 * @param compact <code>true</code> if in compact form
+	 * @param baseId the message ID this block is relative to
+	 * @param handler the handler receiving the content
+	 * @return the message ID of the block
+	 * @see NodeBlock#decodeBlock(ByteBuffer, BlockHandler)
+	 */
+	static long decode(final ByteBuffer data, final boolean compact, final long baseId,
+			final BlockHandler handler) {
+		long id;
+		int offset;
+		int len;
+
+		if (compact) {
+			id = baseId + VarInt.getSignedVarLong(data);
+			offset = VarInt.getVarInt(data);
+			len = VarInt.getVarInt(data);
+		} else {
+			id = data.getLong();
+			offset = data.getInt();
+			len = data.getInt();
+		}
+
+		int limit = data.limit();
+		int end = data.position() + len;
+
+		data.limit(end);
+
+		handler.onMessageBlock(id, offset, data);
+
+		data.limit(limit);
+		data.position(end);
+
+		return id;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 */
 	@Override
 	public int getSize() {
+		return getSize(0);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.base.util.blocks.NodeBlock#getSize(long)
+	 */
+	@Override
+	public int getSize(final long baseId) {
+		if (compact) {
+			/*
+			 * 1 byte plus the coded id delta, offset and length, and the
+			 * data.
+			 */
+			return 1 + VarInt.sizeOfSignedVarLong(id - baseId) + VarInt.sizeOfVarInt(offset)
+					+ VarInt.sizeOfVarInt(data.remaining()) + data.remaining();
+		}
+
 		/*
 		 * Takes always 17 + length od data bytes:
 		 * - 1 byte: native type (byte)
@@ -193,7 +352,7 @@ public class MessageBlock extends NodeBlock {
 		 * - 4 bytes: lenght (int)
 		 * - length bytes: data (byte[])
 		 */
-		return STATIC_COST + data.length;
+		return STATIC_COST + data.remaining();
 
 	}
 
@@ -208,9 +367,30 @@ public class MessageBlock extends NodeBlock {
 		return BLOCK_MESSAGE_BLOCK;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.base.util.blocks.NodeBlock#getCompactType
+	 * ()
+	 */
+	@Override
+	public byte getCompactType() {
+		return BLOCK_MESSAGE_BLOCK_COMPACT;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.base.util.blocks.NodeBlock#getBaseId(long)
+	 */
+	@Override
+	public long getBaseId(final long baseId) {
+		return id;
+	}
+
 	@Override
 	public String toString() {
-		return "MessageBlock(" + id + ", " + offset + ", " + data.length + ")";
+		return "MessageBlock(" + id + ", " + offset + ", " + data.remaining() + ")";
 	}
 
 }
@@ -148,7 +148,9 @@ public class MessageBlockFeedback extends NodeBlock {
 
 	/*
 	 * (non-Javadoc)
-	 * @see com.github.held03.jasityProtocol.base.util.NodeBlock#encode()
+	 * @see
+	 * com.github.held03.jasityProtocol.base.util.NodeBlock#encodeTo(java.nio.
+	 * ByteBuffer)
 	 * - long: message ID to answer to
 	 * - int: data offset
 	 * - int: data length
@@ -157,27 +159,37 @@ public class MessageBlockFeedback extends NodeBlock {
 	 * 1: Repeat - resent block
 	 */
 	@Override
-	public ByteBuffer encode() {
-		ByteBuffer bb = ByteBuffer.allocate(getSize());
+	public void encodeTo(final ByteBuffer bb) {
+		encodeTo(bb, 0);
+	}
 
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.base.util.blocks.NodeBlock#encodeTo(java
+	 * .nio.ByteBuffer, long)
+	 */
+	@Override
+	public void encodeTo(final ByteBuffer bb, final long baseId) {
 		/*
 		 * Write the native type.
 		 */
-		bb.put(getNativeType());
+		bb.put(getWireType());
 
 		/*
 		 * Write the actual data.
 		 */
-		bb.putLong(id);
-		bb.putInt(this.offset);
-		bb.putInt(this.length);
-		bb.put(type);
+		if (compact) {
+			VarInt.putSignedVarLong(bb, id - baseId);
+			VarInt.putVarInt(bb, this.offset);
+			VarInt.putVarInt(bb, this.length);
+		} else {
+			bb.putLong(id);
+			bb.putInt(this.offset);
+			bb.putInt(this.length);
+		}
 
-		/*
-		 * Flush and return data.
-		 */
-		bb.rewind();
-		return bb;
+		bb.put(type);
 	}
 
 	/*
@@ -194,18 +206,67 @@ public class MessageBlockFeedback extends NodeBlock {
 	 */
 	@Override
 	public MessageBlockFeedback decode(final ByteBuffer data) {
+		return decode(data, 0);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.base.util.blocks.NodeBlock#decode(java
+	 * .nio.ByteBuffer, long)
+	 */
+	@Override
+	public MessageBlockFeedback decode(final ByteBuffer data, final long baseId) {
 
 		/*
 		 * Get the data.
 		 */
-		id = data.getLong();
-		this.offset = data.getInt();
-		this.length = data.getInt();
+		if (compact) {
+			id = baseId + VarInt.getSignedVarLong(data);
+			this.offset = VarInt.getVarInt(data);
+			this.length = VarInt.getVarInt(data);
+		} else {
+			id = data.getLong();
+			this.offset = data.getInt();
+			this.length = data.getInt();
+		}
+
 		type = data.get();
 
 		return this;
 	}
 
+	/**
+	 * Decodes a feedback block without creating an object.
+	 * 
+	 * @param data the data to parse, behind the type
+	 * @param compact <code>true</code> if in compact form
+	 * @param baseId the message ID this block is relative to
+	 * @param handler the handler receiving the content
+	 * @return the message ID of the block
+	 * @see NodeBlock#decodeBlock(ByteBuffer, BlockHandler)
+	 */
+	static long decode(final ByteBuffer data, final boolean compact, final long baseId,
+			final BlockHandler handler) {
+		long id;
+		int offset;
+		int length;
+
+		if (compact) {
+			id = baseId + VarInt.getSignedVarLong(data);
+			offset = VarInt.getVarInt(data);
+			length = VarInt.getVarInt(data);
+		} else {
+			id = data.getLong();
+			offset = data.getInt();
+			length = data.getInt();
+		}
+
+		handler.onFeedback(data.get(), id, offset, length);
+
+		return id;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see
@@ -213,6 +274,24 @@ public class MessageBlockFeedback extends NodeBlock {
 	 */
 	@Override
 	public int getSize() {
+		return getSize(0);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.base.util.blocks.NodeBlock#getSize(long)
+	 */
+	@Override
+	public int getSize(final long baseId) {
+		if (compact) {
+			/*
+			 * 2 bytes plus the coded id delta, offset and length.
+			 */
+			return 2 + VarInt.sizeOfSignedVarLong(id - baseId) + VarInt.sizeOfVarInt(offset)
+					+ VarInt.sizeOfVarInt(length);
+		}
+
 		/*
 		 * Takes always 18 bytes:
 		 * - 1 byte: native type (byte)
@@ -236,6 +315,27 @@ public class MessageBlockFeedback extends NodeBlock {
 		return BLOCK_MESSAGE_BLOCK_FEEDBACK;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.base.util.blocks.NodeBlock#getCompactType
+	 * ()
+	 */
+	@Override
+	public byte getCompactType() {
+		return BLOCK_MESSAGE_BLOCK_FEEDBACK_COMPACT;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.base.util.blocks.NodeBlock#getBaseId(long)
+	 */
+	@Override
+	public long getBaseId(final long baseId) {
+		return id;
+	}
+
 	@Override
 	public String toString() {
 		String typ = "Illegal";
@@ -0,0 +1,298 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ * 
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ * 
+ *     https://github.com/Held03/JasityProtocol.git
+ * 
+ */
+
+package com.github.held03.jasityProtocol.base.util.blocks;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+
+/**
+ * Selective acknowledge of the received data of a message.
+ * 
+ * <pre>
+ * Structure:
+ * 
+ * - varlong: message ID to answer to
+ * - varint: cumulative offset, all data before was received
+ * - byte: count of further ranges
+ *  { for every range
+ *   - varint: start, relative to the end of the range before
+ *   - varint: length
+ *  }
+ * </pre>
+ * 
+ * It replaces the {@link MessageBlockFeedback#TYPE_ACKNOWLEDGE} of every
+ * single block, if both nodes negotiated
+ * {@link com.github.held03.jasityProtocol.base.util.NodeParameters#PARAM_ACK_EVERY}.
+ * The receiver answers a number of blocks together, or the blocks received
+ * within a short delay, with the state of the whole message. So a lost
+ * acknowledge is repaired by the next one.
+ * 
+ * @see NodeBlock#BLOCK_MESSAGE_BLOCK_SACK
+ * @author held03
+ */
+public class MessageBlockSack extends NodeBlock {
+
+	/**
+	 * The maximum count of ranges sent beside the cumulative offset.
+	 * <p>
+	 * Data in further ranges is acknowledged as soon as the gaps before are
+	 * filled.
+	 */
+	public static final int MAX_RANGES = 4;
+
+	/**
+	 * The id of this block relates to.
+	 */
+	long id = 0;
+
+	/**
+	 * The offset up to which all data was received.
+	 */
+	int cumulative;
+
+	/**
+	 * The received ranges behind the cumulative offset, as pairs of start and
+	 * end.
+	 */
+	int[] ranges = new int[0];
+
+	/**
+	 * Create an empty acknowledge.
+	 */
+	public MessageBlockSack() {
+
+	}
+
+	/**
+	 * Create a specific acknowledge.
+	 * 
+	 * @param id the message id
+	 * @param cumulative the offset up to which all data was received
+	 * @param ranges the received ranges behind the cumulative offset, as
+	 *            ascending pairs of start and end
+	 */
+	public MessageBlockSack(final long id, final int cumulative, final int[] ranges) {
+		if (ranges.length % 2 != 0 || ranges.length > 2 * MAX_RANGES) {
+			throw new IllegalArgumentException("Invalid ranges: " + Arrays.toString(ranges));
+		}
+
+		this.id = id;
+		this.cumulative = cumulative;
+		this.ranges = ranges;
+	}
+
+	/**
+	 * The id of this block relates to.
+	 */
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * The offset up to which all data was received.
+	 */
+	public int getCumulative() {
+		return cumulative;
+	}
+
+	/**
+	 * The received ranges behind the cumulative offset, as pairs of start and
+	 * end.
+	 */
+	public int[] getRanges() {
+		return ranges.clone();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.base.util.blocks.NodeBlock#encodeTo(java
+	 * .nio.ByteBuffer)
+	 */
+	@Override
+	public void encodeTo(final ByteBuffer bb) {
+		/*
+		 * Write the native type.
+		 */
+		bb.put(getNativeType());
+
+		/*
+		 * Write the actual data.
+		 */
+		VarInt.putVarLong(bb, id);
+		VarInt.putVarInt(bb, cumulative);
+		bb.put((byte) (ranges.length / 2));
+
+		int last = cumulative;
+
+		for (int i = 0; i < ranges.length; i += 2) {
+			VarInt.putVarInt(bb, ranges[i] - last);
+			VarInt.putVarInt(bb, ranges[i + 1] - ranges[i]);
+
+			last = ranges[i + 1];
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.base.util.blocks.NodeBlock#decode(java
+	 * .nio.ByteBuffer)
+	 */
+	@Override
+	public MessageBlockSack decode(final ByteBuffer data) {
+		id = VarInt.getVarLong(data);
+		cumulative = VarInt.getVarInt(data);
+
+		int count = checkRanges(data, cumulative);
+
+		ranges = new int[2 * count];
+
+		for (int i = 0; i < ranges.length; i += 2) {
+			ranges[i] = (i == 0 ? cumulative : ranges[i - 1]) + VarInt.getVarInt(data);
+			ranges[i + 1] = ranges[i] + VarInt.getVarInt(data);
+		}
+
+		return this;
+	}
+
+	/**
+	 * Decodes an acknowledge without creating an object.
+	 * <p>
+	 * The ranges are passed one by one, before the acknowledge itself.
+	 * 
+	 * @param data the data to parse, behind the native type
+	 * @param baseId the current message ID base, which is kept
+	 * @param handler the handler receiving the content
+	 * @return the given base ID
+	 * @throws IllegalArgumentException if the ranges are malformed
+	 * @see NodeBlock#decodeBlock(ByteBuffer, BlockHandler)
+	 */
+	static long decode(final ByteBuffer data, final long baseId, final BlockHandler handler) {
+		long id = VarInt.getVarLong(data);
+		int cumulative = VarInt.getVarInt(data);
+
+		int count = checkRanges(data, cumulative);
+		int last = cumulative;
+
+		for (int i = 0; i < count; i++) {
+			int start = last + VarInt.getVarInt(data);
+			int end = start + VarInt.getVarInt(data);
+
+			handler.onSackRange(id, i, start, end);
+
+			last = end;
+		}
+
+		handler.onSack(id, cumulative);
+
+		return baseId;
+	}
+
+	/**
+	 * Checks the ranges behind the cumulative offset, before any is used.
+	 * <p>
+	 * The ranges must be ascending, not empty and within the positive int
+	 * range.
+	 * 
+	 * @param data the data to parse, starting with the count of ranges, its
+	 *            position is left behind the count
+	 * @param cumulative the cumulative offset
+	 * @return the count of ranges
+	 * @throws IllegalArgumentException if the ranges are malformed
+	 */
+	private static int checkRanges(final ByteBuffer data, final int cumulative) {
+		int count = data.get() & 0xff;
+
+		if (cumulative < 0 || count > MAX_RANGES) {
+			throw new IllegalArgumentException("Malformed acknowledge: " + cumulative + ", " + count + " ranges");
+		}
+
+		int position = data.position();
+		long last = cumulative;
+
+		for (int i = 0; i < count; i++) {
+			long start = last + (VarInt.getVarInt(data) & 0xFFFFFFFFL);
+			long length = VarInt.getVarInt(data) & 0xFFFFFFFFL;
+
+			last = start + length;
+
+			if (length == 0 || last > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("Malformed acknowledge range: " + start + ", " + length);
+			}
+		}
+
+		data.position(position);
+
+		return count;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.base.util.blocks.NodeBlock#getSize()
+	 */
+	@Override
+	public int getSize() {
+		/*
+		 * Takes:
+		 * - 1 byte: native type (byte)
+		 * - 1-10 bytes: id (varlong)
+		 * - 1-5 bytes: cumulative offset (varint)
+		 * - 1 byte: count of ranges (byte)
+		 * - 2-10 bytes per range: start and length (varint)
+		 */
+		int size = 2 + VarInt.sizeOfVarLong(id) + VarInt.sizeOfVarInt(cumulative);
+		int last = cumulative;
+
+		for (int i = 0; i < ranges.length; i += 2) {
+			size += VarInt.sizeOfVarInt(ranges[i] - last) + VarInt.sizeOfVarInt(ranges[i + 1] - ranges[i]);
+
+			last = ranges[i + 1];
+		}
+
+		return size;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.base.util.blocks.NodeBlock#getNativeType
+	 * ()
+	 */
+	@Override
+	public byte getNativeType() {
+		return BLOCK_MESSAGE_BLOCK_SACK;
+	}
+
+	@Override
+	public String toString() {
+		return "MessageBlockSack(" + id + ", " + cumulative + ", " + Arrays.toString(ranges) + ")";
+	}
+
+}
@@ -29,6 +29,8 @@ package com.github.held03.jasityProtocol.base.util.blocks;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 
+import com.github.held03.jasityProtocol.base.util.GatheringBuffer;
+
 
 /**
  * A block containing other blocks.
@@ -79,41 +81,89 @@ public class Multi extends NodeBlock {
 		return subBlocks;
 	}
 
+	/**
+	 * Encodes the sub blocks directly behind their length, without encoding
+	 * them separately first.
+	 * 
+	 * @see
+	 * com.github.held03.jasityProtocol.base.util.blocks.NodeBlock#encodeTo(java
+	 * .nio.ByteBuffer)
+	 */
+	@Override
+	public void encodeTo(final ByteBuffer bb) {
+		encodeTo(bb, 0);
+	}
+
+	/**
+	 * In compact form the count and lengths are coded as varints, and the
+	 * message IDs of the sub blocks relative to the sub block before.
+	 * 
+	 * @see
+	 * com.github.held03.jasityProtocol.base.util.blocks.NodeBlock#encodeTo(java
+	 * .nio.ByteBuffer, long)
+	 */
+	@Override
+	public void encodeTo(final ByteBuffer bb, final long baseId) {
+		encodeTo(bb, null, baseId);
+	}
+
 	/*
 	 * (non-Javadoc)
-	 * @see com.github.held03.jasityProtocol.base.util.blocks.NodeBlock#encode()
+	 * @see
+	 * com.github.held03.jasityProtocol.base.util.blocks.NodeBlock#encodeTo(com
+	 * .github.held03.jasityProtocol.base.util.GatheringBuffer, long)
 	 */
 	@Override
-	public ByteBuffer encode() {
-		ByteBuffer bb = ByteBuffer.allocate(getSize());
+	public void encodeTo(final GatheringBuffer gb, final long baseId) {
+		encodeTo(gb.getBuffer(), gb, baseId);
+	}
 
-		bb.put(getNativeType());
+	/**
+	 * Encodes the sub blocks into the buffer, or into the gathering buffer if
+	 * given.
+	 * 
+	 * @param bb the buffer to write into
+	 * @param gb the gathering buffer around <code>bb</code>, or
+	 *            <code>null</code>
+	 * @param baseId the message ID this block is relative to
+	 */
+	private void encodeTo(final ByteBuffer bb, final GatheringBuffer gb, final long baseId) {
+		bb.put(getWireType());
 
 		/*
-		 * Get count and create an appropriated array.
+		 * Write count.
 		 */
-		bb.putInt(subBlocks.length);
+		if (compact) {
+			VarInt.putVarInt(bb, subBlocks.length);
+		} else {
+			bb.putInt(subBlocks.length);
+		}
 
-		ByteBuffer buf;
+		long base = compact ? baseId : 0;
 
 		/*
-		 * Decode all entries.
+		 * Encode all entries.
 		 */
 		for (int i = 0; i < subBlocks.length; i++) {
-			/*
-			 * Get encoding of the entry
-			 */
-			buf = subBlocks[i].encode();
-
 			/*
 			 * Write length and data out.
 			 */
-			bb.putInt(buf.remaining());
-			bb.put(buf);
-		}
+			if (compact) {
+				VarInt.putVarInt(bb, subBlocks[i].getSize(base));
+			} else {
+				bb.putInt(subBlocks[i].getSize());
+			}
+
+			if (gb != null) {
+				subBlocks[i].encodeTo(gb, base);
+			} else {
+				subBlocks[i].encodeTo(bb, base);
+			}
 
-		bb.rewind();
-		return bb;
+			if (compact) {
+				base = subBlocks[i].getBaseId(base);
+			}
+		}
 	}
 
 	/*
@@ -121,16 +171,33 @@ public class Multi extends NodeBlock {
 	 */
 	@Override
 	public Multi decode(final ByteBuffer data) {
+		return decode(data, 0);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.base.util.blocks.NodeBlock#decode(java
+	 * .nio.ByteBuffer, long)
+	 */
+	@Override
+	public Multi decode(final ByteBuffer data, final long baseId) {
 
 		/*
 		 * Get count and create an appropriated array.
 		 */
-		int count = data.getInt();
+		int count = compact ? VarInt.getVarInt(data) : data.getInt();
+
+		if (count < 0 || count > data.remaining()) {
+			throw new IllegalArgumentException("Illegal count of sub blocks: " + count);
+		}
+
 		subBlocks = new NodeBlock[count];
 
 		int len;
 		int limit = data.limit();
 		int nextPos;
+		long base = compact ? baseId : 0;
 
 		/*
 		 * Decode all entries.
@@ -139,14 +206,18 @@ public class Multi extends NodeBlock {
 			/*
 			 * Get length and content of the entry
 			 */
-			len = data.getInt();
+			len = compact ? VarInt.getVarInt(data) : data.getInt();
 			nextPos = data.position() + len;
 			data.limit(nextPos);
 
 			/*
 			 * Add it to array.
 			 */
-			subBlocks[i] = NodeBlock.decodeBlock(data);
+			subBlocks[i] = NodeBlock.decodeBlock(data, base);
+
+			if (compact && subBlocks[i] != null) {
+				base = subBlocks[i].getBaseId(base);
+			}
 
 			data.position(nextPos);
 			data.limit(limit);
@@ -155,6 +226,45 @@ public class Multi extends NodeBlock {
 		return this;
 	}
 
+	/**
+	 * Decodes a multi block without creating objects.
+	 * <p>
+	 * All sub blocks are passed to the handler in order.
+	 * 
+	 * @param data the data to parse, behind the type
+	 * @param compact <code>true</code> if in compact form
+	 * @param baseId the message ID this block is relative to
+	 * @param handler the handler receiving the content
+	 * @return the given base ID
+	 * @see NodeBlock#decodeBlock(ByteBuffer, BlockHandler)
+	 */
+	static long decode(final ByteBuffer data, final boolean compact, final long baseId,
+			final BlockHandler handler) {
+		int count = compact ? VarInt.getVarInt(data) : data.getInt();
+
+		int len;
+		int limit = data.limit();
+		int nextPos;
+		long base = compact ? baseId : 0;
+
+		for (int i = 0; i < count; i++) {
+			len = compact ? VarInt.getVarInt(data) : data.getInt();
+			nextPos = data.position() + len;
+			data.limit(nextPos);
+
+			long next = NodeBlock.decodeBlock(data, base, handler);
+
+			if (compact) {
+				base = next;
+			}
+
+			data.limit(limit);
+			data.position(nextPos);
+		}
+
+		return baseId;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see
@@ -162,6 +272,31 @@ public class Multi extends NodeBlock {
 	 */
 	@Override
 	public int getSize() {
+		return getSize(0);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.base.util.blocks.NodeBlock#getSize(long)
+	 */
+	@Override
+	public int getSize(final long baseId) {
+		if (compact) {
+			int size = 1 + VarInt.sizeOfVarInt(subBlocks.length);
+			int subSize;
+			long base = baseId;
+
+			for (NodeBlock block : subBlocks) {
+				subSize = block.getSize(base);
+				size += VarInt.sizeOfVarInt(subSize) + subSize;
+
+				base = block.getBaseId(base);
+			}
+
+			return size;
+		}
+
 		/*
 		 * Own size 5 bytes plus 4 bytes for every entry
 		 * and finally the sum of the sizes of the entries.
@@ -187,6 +322,33 @@ public class Multi extends NodeBlock {
 		return BLOCK_MULTIBLOCK;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.base.util.blocks.NodeBlock#getCompactType
+	 * ()
+	 */
+	@Override
+	public byte getCompactType() {
+		return BLOCK_MULTIBLOCK_COMPACT;
+	}
+
+	/**
+	 * Sets the form of all sub blocks as well.
+	 * 
+	 * @see
+	 * com.github.held03.jasityProtocol.base.util.blocks.NodeBlock#setCompact
+	 * (boolean)
+	 */
+	@Override
+	public void setCompact(final boolean compact) {
+		super.setCompact(compact);
+
+		for (NodeBlock block : subBlocks) {
+			block.setCompact(compact);
+		}
+	}
+
 	@Override
 	public String toString() {
 		return "Multi(" + Arrays.deepToString(subBlocks) + ")";
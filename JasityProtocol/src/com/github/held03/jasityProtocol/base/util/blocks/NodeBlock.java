@@ -28,6 +28,8 @@ package com.github.held03.jasityProtocol.base.util.blocks;
 
 import java.nio.ByteBuffer;
 
+import com.github.held03.jasityProtocol.base.util.GatheringBuffer;
+
 import com.github.held03.jasityProtocol.interfaces.Node;
 
 
@@ -99,6 +101,9 @@ public abstract class NodeBlock {
 	 *          2: Busy  - connection refused
 	 *          3: Bye   - connection closed
 	 * - long: version code
+	 * - int: capabilities (optional, zero if missing)
+	 * - parameters (optional, see
+	 *   {@link com.github.held03.jasityProtocol.base.util.NodeParameters})
 	 * </pre>
 	 * 
 	 * Opening socket have first to send the <code>Knock</code> order. It's
@@ -157,6 +162,8 @@ public abstract class NodeBlock {
 	 *          7: ErrorRece - message receiving fail
 	 * - long: message ID
 	 * - int: message size or zero (only parsed on NEW)
+	 * - byte: count of filters (optional, only on NEW)
+	 * - byte[]: filter IDs, in the order they were applied
 	 * </pre>
 	 * 
 	 * The sender first sends the <code>New</code> command with the related ID
@@ -232,6 +239,125 @@ public abstract class NodeBlock {
 	 */
 	public static final byte BLOCK_MESSAGE_BLOCK_FEEDBACK = 5;
 
+	/**
+	 * Compact form of {@link #BLOCK_MULTIBLOCK}.
+	 * 
+	 * <pre>
+	 * Structure:
+	 * 
+	 * - varint: count of sub blocks
+	 *  { for every block
+	 *   - varint: block size
+	 *   - block data, message IDs relative to the previous sub block
+	 *  }
+	 * </pre>
+	 * 
+	 * The first message ID of the sub blocks is relative to zero, every
+	 * further one is relative to the message ID of the sub block before.
+	 * 
+	 * @see Hello#CAP_COMPACT
+	 */
+	public static final byte BLOCK_MULTIBLOCK_COMPACT = -2;
+
+	/**
+	 * Compact form of {@link #BLOCK_MESSAGE}.
+	 * 
+	 * <pre>
+	 * Structure:
+	 * 
+	 * - byte: type (see {@link #BLOCK_MESSAGE})
+	 * - zigzag varlong: message ID delta
+	 * - varint: message size (only on NEW)
+	 * - byte: count of filters (optional, only on NEW)
+	 * - byte[]: filter IDs, in the order they were applied
+	 * </pre>
+	 * 
+	 * @see Hello#CAP_COMPACT
+	 */
+	public static final byte BLOCK_MESSAGE_COMPACT = 6;
+
+	/**
+	 * Compact form of {@link #BLOCK_MESSAGE_BLOCK}.
+	 * 
+	 * <pre>
+	 * Structure:
+	 * 
+	 * - zigzag varlong: message ID delta
+	 * - varint: data offset
+	 * - varint: data length
+	 * - byte[]: message data
+	 * </pre>
+	 * 
+	 * @see Hello#CAP_COMPACT
+	 */
+	public static final byte BLOCK_MESSAGE_BLOCK_COMPACT = 7;
+
+	/**
+	 * Compact form of {@link #BLOCK_MESSAGE_BLOCK_FEEDBACK}.
+	 * 
+	 * <pre>
+	 * Structure:
+	 * 
+	 * - zigzag varlong: message ID delta
+	 * - varint: data offset
+	 * - varint: data length
+	 * - byte: answer (see {@link #BLOCK_MESSAGE_BLOCK_FEEDBACK})
+	 * </pre>
+	 * 
+	 * @see Hello#CAP_COMPACT
+	 */
+	public static final byte BLOCK_MESSAGE_BLOCK_FEEDBACK_COMPACT = 8;
+
+	/**
+	 * Compressed block.
+	 * 
+	 * <pre>
+	 * Structure:
+	 * 
+	 * - varint: length of the inflated block
+	 * - varint: length of the deflated data
+	 * - byte[]: deflated data
+	 * </pre>
+	 * 
+	 * Contains exactly one other block, deflated within the stream of the
+	 * sender. It may only be sent over ordered connections to nodes which can
+	 * inflate it.
+	 * 
+	 * @see Compressed
+	 * @see Hello#CAP_DEFLATE
+	 */
+	public static final byte BLOCK_COMPRESSED = 9;
+
+	/**
+	 * Selective acknowledge block.
+	 * 
+	 * <pre>
+	 * Structure:
+	 * 
+	 * - varlong: message ID to answer to
+	 * - varint: cumulative offset, all data before was received
+	 * - byte: count of further ranges
+	 *  { for every range
+	 *   - varint: start, relative to the end of the range before
+	 *   - varint: length
+	 *  }
+	 * </pre>
+	 * 
+	 * Acknowledges several {@link #BLOCK_MESSAGE_BLOCK}s of a message at once.
+	 * It may only be sent to nodes which negotiated
+	 * {@link com.github.held03.jasityProtocol.base.util.NodeParameters#PARAM_ACK_EVERY}.
+	 * 
+	 * @see MessageBlockSack
+	 */
+	public static final byte BLOCK_MESSAGE_BLOCK_SACK = 10;
+
+	/**
+	 * If this block is encoded in its compact form.
+	 * 
+	 * @see #setCompact(boolean)
+	 */
+	protected boolean compact = false;
+
 
 	/**
 	 * Empty constructor.
@@ -254,8 +380,74 @@ public abstract class NodeBlock {
 	 * {@link #decode(ByteBuffer)}
 	 * 
 	 * @return a byte array representing this block
+	 * @see #encodeTo(ByteBuffer)
+	 */
+	public ByteBuffer encode() {
+		ByteBuffer bb = ByteBuffer.allocate(getSize());
+
+		encodeTo(bb);
+
+		bb.rewind();
+		return bb;
+	}
+
+	/**
+	 * Encodes the block into the given buffer.
+	 * <p>
+	 * Exactly {@link #getSize()} bytes are written at the current position of
+	 * the buffer, and the position is moved behind them. The encoding is the
+	 * same like by {@link #encode()}, but no buffer is allocated, so blocks
+	 * can be written straight into the output buffer of a connection.
+	 * 
+	 * @param bb the buffer to write into, it must have at least
+	 *            {@link #getSize()} bytes remaining
+	 */
+	public abstract void encodeTo(final ByteBuffer bb);
+
+	/**
+	 * Encodes the block into the given buffer, with message IDs relative to
+	 * the given one.
+	 * <p>
+	 * This is used by compact multi blocks, which code the message IDs of
+	 * their sub blocks as deltas. Blocks without message ID or not in compact
+	 * form ignore the base ID.
+	 * 
+	 * @param bb the buffer to write into, it must have at least
+	 *            {@link #getSize(long)} bytes remaining
+	 * @param baseId the message ID this block is relative to
+	 * @see #getBaseId(long)
 	 */
-	public abstract ByteBuffer encode();
+	public void encodeTo(final ByteBuffer bb, final long baseId) {
+		encodeTo(bb);
+	}
+
+	/**
+	 * Encodes the block into the given gathering buffer.
+	 * <p>
+	 * The encoding is the same, but large payloads may be added as own
+	 * segment instead of being copied.
+	 * 
+	 * @param gb the buffer to write into, its buffer must have at least
+	 *            {@link #getSize()} bytes remaining
+	 */
+	public void encodeTo(final GatheringBuffer gb) {
+		encodeTo(gb, 0);
+	}
+
+	/**
+	 * Encodes the block into the given gathering buffer, with message IDs
+	 * relative to the given one.
+	 * <p>
+	 * Blocks without payload just encode into the buffer of it.
+	 * 
+	 * @param gb the buffer to write into, its buffer must have at least
+	 *            {@link #getSize(long)} bytes remaining
+	 * @param baseId the message ID this block is relative to
+	 * @see #encodeTo(ByteBuffer, long)
+	 */
+	public void encodeTo(final GatheringBuffer gb, final long baseId) {
+		encodeTo(gb.getBuffer(), baseId);
+	}
 
 	/**
 	 * Gets the size of bytes this block would takes encoded.
@@ -267,6 +459,30 @@ public abstract class NodeBlock {
 	 */
 	public abstract int getSize();
 
+	/**
+	 * Gets the size of bytes this block would takes encoded relative to the
+	 * given message ID.
+	 * 
+	 * @param baseId the message ID this block is relative to
+	 * @return the size of the block
+	 * @see #encodeTo(ByteBuffer, long)
+	 */
+	public int getSize(final long baseId) {
+		return getSize();
+	}
+
+	/**
+	 * Gets the message ID the following sub block of a compact multi block is
+	 * relative to.
+	 * 
+	 * @param baseId the message ID this block is relative to
+	 * @return the message ID of this block, or the given one if this block has
+	 *         none
+	 */
+	public long getBaseId(final long baseId) {
+		return baseId;
+	}
+
 	/**
 	 * Decodes the array into this block.
 	 * <p>
@@ -282,6 +498,19 @@ public abstract class NodeBlock {
 	 */
 	public abstract NodeBlock decode(final ByteBuffer data);
 
+	/**
+	 * Decodes the array into this block, with message IDs relative to the
+	 * given one.
+	 * 
+	 * @param data the data to parse
+	 * @param baseId the message ID this block is relative to
+	 * @return the block represented by the data
+	 * @see #encodeTo(ByteBuffer, long)
+	 */
+	public NodeBlock decode(final ByteBuffer data, final long baseId) {
+		return decode(data);
+	}
+
 	/**
 	 * Returns the type byte of the block.
 	 * <p>
@@ -290,6 +519,48 @@ public abstract class NodeBlock {
 	 */
 	public abstract byte getNativeType();
 
+	/**
+	 * Returns the type byte of the compact form of the block.
+	 * <p>
+	 * Blocks without compact form return their native type.
+	 * 
+	 * @return the compact type
+	 */
+	public byte getCompactType() {
+		return getNativeType();
+	}
+
+	/**
+	 * Returns the type byte written in front of the encoded block.
+	 * 
+	 * @return the compact type if encoded compact, otherwise the native type
+	 */
+	public byte getWireType() {
+		return compact ? getCompactType() : getNativeType();
+	}
+
+	/**
+	 * Returns if this block is encoded in its compact form.
+	 * 
+	 * @return <code>true</code> if compact
+	 */
+	public boolean isCompact() {
+		return compact;
+	}
+
+	/**
+	 * Sets if this block is encoded in its compact form.
+	 * <p>
+	 * The compact form may only be sent to nodes supporting it, see
+	 * {@link Hello#CAP_COMPACT}. Blocks without compact form stay in their
+	 * normal form.
+	 * 
+	 * @param compact <code>true</code> to use the compact form
+	 */
+	public void setCompact(final boolean compact) {
+		this.compact = compact && getCompactType() != getNativeType();
+	}
+
 	/**
 	 * Decodes a block.
 	 * <p>
@@ -334,13 +605,120 @@ public abstract class NodeBlock {
 	 * this method.
 	 * 
 	 * @param data the data to parse
-	 * @param offset the beginning of the data in the array
-	 * @param length the length of the data in the array from the offset
 	 * @return the decoded block
 	 */
 	public static NodeBlock decodeBlock(final ByteBuffer data) {
+		return decodeBlock(data, 0);
+	}
+
+	/**
+	 * Decodes a block without creating block objects.
+	 * <p>
+	 * The content of the block, and of all sub blocks of multi blocks, is
+	 * passed to the handler. The position of the buffer is moved behind the
+	 * block.
+	 * 
+	 * @param data the data to parse, starting with the type of the block
+	 * @param handler the handler receiving the content
+	 */
+	public static void decodeBlock(final ByteBuffer data, final BlockHandler handler) {
+		decodeBlock(data, 0, handler);
+	}
+
+	/**
+	 * Decodes a block without creating block objects, with message IDs
+	 * relative to the given one.
+	 * 
+	 * @param data the data to parse, starting with the type of the block
+	 * @param baseId the message ID compact blocks are relative to
+	 * @param handler the handler receiving the content
+	 * @return the message ID following blocks are relative to
+	 * @see #getBaseId(long)
+	 */
+	static long decodeBlock(final ByteBuffer data, final long baseId, final BlockHandler handler) {
+
+		switch (data.get()) {
+		case BLOCK_MULTIBLOCK:
+			return Multi.decode(data, false, baseId, handler);
+
+		case BLOCK_MULTIBLOCK_COMPACT:
+			return Multi.decode(data, true, baseId, handler);
+
+		case BLOCK_HELLO:
+			return Hello.decode(data, baseId, handler);
+
+		case BLOCK_PING:
+			return Ping.decode(data, baseId, handler);
+
+		case BLOCK_MESSAGE:
+			return MessageB.decode(data, false, baseId, handler);
+
+		case BLOCK_MESSAGE_COMPACT:
+			return MessageB.decode(data, true, baseId, handler);
+
+		case BLOCK_MESSAGE_BLOCK:
+			return MessageBlock.decode(data, false, baseId, handler);
+
+		case BLOCK_MESSAGE_BLOCK_COMPACT:
+			return MessageBlock.decode(data, true, baseId, handler);
+
+		case BLOCK_MESSAGE_BLOCK_FEEDBACK:
+			return MessageBlockFeedback.decode(data, false, baseId, handler);
+
+		case BLOCK_MESSAGE_BLOCK_FEEDBACK_COMPACT:
+			return MessageBlockFeedback.decode(data, true, baseId, handler);
+
+		case BLOCK_COMPRESSED:
+			return Compressed.decode(data, baseId, handler);
+
+		case BLOCK_MESSAGE_BLOCK_SACK:
+			return MessageBlockSack.decode(data, baseId, handler);
+
+		case BLOCK_IGNORE:
+			/*
+			 * Skip the ignored data.
+			 */
+			int len = data.getInt();
+			data.position(data.position() + len);
+
+			return baseId;
+
+		default:
+			return baseId;
+		}
+	}
+
+	/**
+	 * Decodes a block, with message IDs relative to the given one.
+	 * <p>
+	 * This block has to start with the type of the block. Compact blocks are
+	 * detected by their type as well.
+	 * 
+	 * @param data the data to parse
+	 * @param baseId the message ID compact blocks are relative to
+	 * @return the decoded block
+	 * @see #encodeTo(ByteBuffer, long)
+	 */
+	public static NodeBlock decodeBlock(final ByteBuffer data, final long baseId) {
+		NodeBlock nb;
 
 		switch (data.get()) {
+		case BLOCK_MULTIBLOCK_COMPACT:
+			nb = new Multi();
+			break;
+
+		case BLOCK_MESSAGE_COMPACT:
+			nb = new MessageB();
+			break;
+
+		case BLOCK_MESSAGE_BLOCK_COMPACT:
+			nb = new MessageBlock();
+			break;
+
+		case BLOCK_MESSAGE_BLOCK_FEEDBACK_COMPACT:
+			nb = new MessageBlockFeedback();
+			break;
+
 		case BLOCK_MULTIBLOCK:
 			return new Multi().decode(data);
 
@@ -362,9 +740,19 @@ public abstract class NodeBlock {
 		case BLOCK_IGNORE:
 			return new Ignore().decode(data);
 
+		case BLOCK_COMPRESSED:
+			return new Compressed().decode(data);
+
+		case BLOCK_MESSAGE_BLOCK_SACK:
+			return new MessageBlockSack().decode(data);
+
+		default:
+			return null;
 		}
 
-		return null;
+		nb.compact = true;
+
+		return nb.decode(data, baseId);
 	}
 
 
@@ -121,12 +121,12 @@ public class Ping extends NodeBlock {
 
 	/*
 	 * (non-Javadoc)
-	 * @see com.github.held03.jasityProtocol.base.util.NodeBlock#encode()
+	 * @see
+	 * com.github.held03.jasityProtocol.base.util.NodeBlock#encodeTo(java.nio.
+	 * ByteBuffer)
 	 */
 	@Override
-	public ByteBuffer encode() {
-		ByteBuffer bb = ByteBuffer.allocate(getSize());
-
+	public void encodeTo(final ByteBuffer bb) {
 		/*
 		 * Write the native type.
 		 */
@@ -137,13 +137,6 @@ public class Ping extends NodeBlock {
 		 */
 		bb.put(type);
 		bb.putLong(id);
-
-		/*
-		 * Flush and return data.
-		 */
-		bb.rewind();
-
-		return bb;
 	}
 
 	/*
@@ -164,6 +157,24 @@ public class Ping extends NodeBlock {
 		return this;
 	}
 
+	/**
+	 * Decodes a ping block without creating an object.
+	 * 
+	 * @param data the data to parse, behind the native type
+	 * @param baseId the current message ID base, which is kept
+	 * @param handler the handler receiving the content
+	 * @return the given base ID
+	 * @see NodeBlock#decodeBlock(ByteBuffer, BlockHandler)
+	 */
+	static long decode(final ByteBuffer data, final long baseId, final BlockHandler handler) {
+		byte type = data.get();
+		long id = data.getLong();
+
+		handler.onPing(type, id);
+
+		return baseId;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see
@@ -0,0 +1,194 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ *
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ *
+ *     https://github.com/Held03/JasityProtocol.git
+ *
+ */
+
+package com.github.held03.jasityProtocol.base.util.blocks;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * Variable length coding of integers for the compact block format.
+ * <p>
+ * Every byte carries seven bits of the value, starting with the lowest ones.
+ * The highest bit of a byte is set if further bytes follow. So small values
+ * take only one byte.
+ * <p>
+ * Signed values are mapped by zigzag coding first, so small negative values
+ * are small as well.
+ * 
+ * @author held03
+ */
+public final class VarInt {
+
+	/**
+	 * The maximum bytes of a coded long.
+	 */
+	public static final int MAX_LONG_SIZE = 10;
+
+	/**
+	 * The maximum bytes of a coded int.
+	 */
+	public static final int MAX_INT_SIZE = 5;
+
+	/**
+	 * No instances.
+	 */
+	private VarInt() {
+
+	}
+
+	/**
+	 * Writes an unsigned int.
+	 * 
+	 * @param bb the buffer to write into
+	 * @param value the value, handled as unsigned
+	 */
+	public static void putVarInt(final ByteBuffer bb, final int value) {
+		putVarLong(bb, value & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Reads an unsigned int.
+	 * 
+	 * @param bb the buffer to read from
+	 * @return the value
+	 * @throws IllegalArgumentException if the coded value is too long
+	 */
+	public static int getVarInt(final ByteBuffer bb) {
+		long value = getVarLong(bb);
+
+		if ( (value >>> 32) != 0) {
+			throw new IllegalArgumentException("The coded value exceeds an int: " + value);
+		}
+
+		return (int) value;
+	}
+
+	/**
+	 * Gets the coded size of an unsigned int.
+	 * 
+	 * @param value the value, handled as unsigned
+	 * @return the size in bytes
+	 */
+	public static int sizeOfVarInt(final int value) {
+		return sizeOfVarLong(value & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Writes an unsigned long.
+	 * 
+	 * @param bb the buffer to write into
+	 * @param value the value, handled as unsigned
+	 */
+	public static void putVarLong(final ByteBuffer bb, long value) {
+		while ( (value & ~0x7FL) != 0) {
+			bb.put((byte) ( (value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+
+		bb.put((byte) value);
+	}
+
+	/**
+	 * Reads an unsigned long.
+	 * 
+	 * @param bb the buffer to read from
+	 * @return the value
+	 * @throws IllegalArgumentException if the coded value is too long
+	 */
+	public static long getVarLong(final ByteBuffer bb) {
+		long value = 0;
+
+		for (int shift = 0; shift < 7 * MAX_LONG_SIZE; shift += 7) {
+			byte b = bb.get();
+
+			value |= (long) (b & 0x7F) << shift;
+
+			if (b >= 0) {
+				return value;
+			}
+		}
+
+		throw new IllegalArgumentException("Malformed variable length value.");
+	}
+
+	/**
+	 * Gets the coded size of an unsigned long.
+	 * 
+	 * @param value the value, handled as unsigned
+	 * @return the size in bytes
+	 */
+	public static int sizeOfVarLong(final long value) {
+		if (value == 0) {
+			return 1;
+		}
+
+		return (63 - Long.numberOfLeadingZeros(value)) / 7 + 1;
+	}
+
+	/**
+	 * Writes a signed long using zigzag coding.
+	 * 
+	 * @param bb the buffer to write into
+	 * @param value the value
+	 */
+	public static void putSignedVarLong(final ByteBuffer bb, final long value) {
+		putVarLong(bb, zigzag(value));
+	}
+
+	/**
+	 * Reads a signed long using zigzag coding.
+	 * 
+	 * @param bb the buffer to read from
+	 * @return the value
+	 * @throws IllegalArgumentException if the coded value is too long
+	 */
+	public static long getSignedVarLong(final ByteBuffer bb) {
+		long value = getVarLong(bb);
+
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Gets the coded size of a signed long.
+	 * 
+	 * @param value the value
+	 * @return the size in bytes
+	 */
+	public static int sizeOfSignedVarLong(final long value) {
+		return sizeOfVarLong(zigzag(value));
+	}
+
+	/**
+	 * Maps a signed value to an unsigned one.
+	 * 
+	 * @param value the signed value
+	 * @return the zigzag coded value
+	 */
+	private static long zigzag(final long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ *
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ *
+ *     https://github.com/Held03/JasityProtocol.git
+ *
+ */
+
+package com.github.held03.jasityProtocol.interfaces;
+
+
+/**
+ * A connection which polls its nodes instead of blocking on them.
+ * <p>
+ * Back ends which drive many nodes with few threads can not block in
+ * {@link Node#getNextBlock()}. Instead they call
+ * {@link Node#getNextBlockDirectly(int)} whenever they are able to send. To
+ * avoid busy polling, a node informs such a connection through
+ * {@link #blockAvailable(Node)} every time new data got ready to be sent.
+ * <p>
+ * This interface has to be implemented by the back end, if it wants to be
+ * notified.
+ * 
+ * @author held03
+ */
+public interface DirectConnection extends Connection {
+
+	/**
+	 * The given node has new data to send.
+	 * <p>
+	 * This is called by the node, every time a block or a message was queued.
+	 * It may be called from any thread, also while the node holds internal
+	 * locks, therefore the implementation must return quickly and must not
+	 * call back into the node from within this method.
+	 * <p>
+	 * It is allowed to call this method more often than necessary.
+	 * 
+	 * @param node the node which has something to send
+	 */
+	public void blockAvailable(Node node);
+}
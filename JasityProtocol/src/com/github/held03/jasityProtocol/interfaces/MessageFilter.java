@@ -0,0 +1,87 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ *
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ *
+ *     https://github.com/Held03/JasityProtocol.git
+ *
+ */
+
+package com.github.held03.jasityProtocol.interfaces;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * Transforms the encoded data of messages.
+ * <p>
+ * Filters work between the {@link MessageCoder} and the sending of a message.
+ * The data encoded by the coder passes all filters of a node in the order
+ * they were added, and the receiving node reverses them in the opposite
+ * order before the data is decoded by its coder. The IDs of the applied
+ * filters are sent with the message, so the receiver needs a filter with the
+ * same ID.
+ * <p>
+ * The filters are chained by {@link ByteBuffer}s: a filter gets the data
+ * between position and limit, and may return the given buffer itself, a
+ * view of it, or a new buffer. So filters which don't have to copy the data
+ * don't need to.
+ * <p>
+ * Filters are used by all messages of a node at the same time, so they have
+ * to be thread safe.
+ * 
+ * @author held03
+ * @see Message.Transport
+ */
+public interface MessageFilter {
+
+	/**
+	 * Gets the ID of this filter.
+	 * <p>
+	 * The ID must be unique within the filters of a node, and the remote needs
+	 * a filter with the same ID to reverse it.
+	 * 
+	 * @return the ID
+	 */
+	public byte getId();
+
+	/**
+	 * Applies this filter to the data of a message.
+	 * <p>
+	 * If the filter would not help, like compressing already compressed data,
+	 * it can return <code>null</code>. Then the data is passed on unchanged
+	 * and the remote does not reverse this filter.
+	 * 
+	 * @param data the data between position and limit, it must not be
+	 *            modified
+	 * @return the filtered data between position and limit, or
+	 *         <code>null</code> if not applied
+	 */
+	public ByteBuffer encode(ByteBuffer data);
+
+	/**
+	 * Reverses this filter on the data of a message.
+	 * 
+	 * @param data the filtered data between position and limit
+	 * @return the original data between position and limit, or
+	 *         <code>null</code> if the data is broken
+	 */
+	public ByteBuffer decode(ByteBuffer data);
+}
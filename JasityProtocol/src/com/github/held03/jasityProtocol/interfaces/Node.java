@@ -26,10 +26,13 @@
 
 package com.github.held03.jasityProtocol.interfaces;
 
+import java.nio.ByteBuffer;
 import java.util.Set;
 import java.util.concurrent.Future;
 
 import com.github.held03.jasityProtocol.base.ListenerContainer;
+import com.github.held03.jasityProtocol.base.util.GatheringBuffer;
+import com.github.held03.jasityProtocol.base.util.NodeParameters;
 
 
 /**
@@ -85,6 +88,19 @@ public interface Node {
 	 */
 	public void receivedBlock(byte[] block);
 
+	/**
+	 * The connection back end received a block for this node.
+	 * <p>
+	 * Like {@link #receivedBlock(byte[])}, but the block is read from the
+	 * position to the limit of the buffer.
+	 * <p>
+	 * The buffer is only valid during this call, the back end may reuse it
+	 * afterwards. So the node must not keep any reference to it.
+	 * 
+	 * @param block the buffer containing the received raw block
+	 */
+	public void receivedBlock(ByteBuffer block);
+
 	/**
 	 * Returns the next raw block to send.
 	 * <p>
@@ -126,6 +142,72 @@ public interface Node {
 	 */
 	public byte[] getNextBlockDirectly(int blocksize) throws NodeClosedException;
 
+	/**
+	 * Writes the next raw block to send into the given buffer.
+	 * <p>
+	 * This behaves similar to {@link #getNextBlock()}, but the block is
+	 * encoded straight into the buffer at its current position instead of into
+	 * a new array. The remaining space of the buffer is used as block size.
+	 * 
+	 * @param buffer the buffer to write into, it must have at least
+	 *            {@link com.github.held03.jasityProtocol.base.util.blocks.NodeBlock#MIN_BLOCK_SIZE}
+	 *            bytes remaining
+	 * @return the length of the written block
+	 * @throws InterruptedException
+	 * @throws NodeClosedException if the node was closed
+	 * @see #getNextBlock()
+	 */
+	public int getNextBlock(ByteBuffer buffer) throws InterruptedException, NodeClosedException;
+
+	/**
+	 * Writes immediately the next raw block to send into the given buffer.
+	 * <p>
+	 * This behaves similar to {@link #getNextBlockDirectly(int)}, but the block
+	 * is encoded straight into the buffer at its current position instead of
+	 * into a new array. The remaining space of the buffer is used as block
+	 * size.
+	 * 
+	 * @param buffer the buffer to write into, it must have at least
+	 *            {@link com.github.held03.jasityProtocol.base.util.blocks.NodeBlock#MIN_BLOCK_SIZE}
+	 *            bytes remaining
+	 * @return the length of the written block, or <code>0</code> if no block
+	 *         is ready
+	 * @throws NodeClosedException if the node was closed
+	 * @see #getNextBlockDirectly(int)
+	 */
+	public int getNextBlockDirectly(ByteBuffer buffer) throws NodeClosedException;
+
+	/**
+	 * Writes the next raw block to send into the given gathering buffer.
+	 * <p>
+	 * This behaves similar to {@link #getNextBlock(ByteBuffer)}, but large
+	 * message data is added as view instead of being copied. The remaining
+	 * space of the buffer of it is used as block size.
+	 * 
+	 * @param buffer the buffer to write into
+	 * @return the length of the written block
+	 * @throws InterruptedException
+	 * @throws NodeClosedException if the node was closed
+	 * @see #getNextBlock(ByteBuffer)
+	 */
+	public int getNextBlock(GatheringBuffer buffer) throws InterruptedException, NodeClosedException;
+
+	/**
+	 * Writes immediately the next raw block to send into the given gathering
+	 * buffer.
+	 * <p>
+	 * This behaves similar to {@link #getNextBlockDirectly(ByteBuffer)}, but
+	 * large message data is added as view instead of being copied. The
+	 * remaining space of the buffer of it is used as block size.
+	 * 
+	 * @param buffer the buffer to write into
+	 * @return the length of the written block, or <code>0</code> if no block
+	 *         is ready
+	 * @throws NodeClosedException if the node was closed
+	 * @see #getNextBlockDirectly(ByteBuffer)
+	 */
+	public int getNextBlockDirectly(GatheringBuffer buffer) throws NodeClosedException;
+
 	/**
 	 * Gets the calculated ping time in seconds.
 	 * <p>
@@ -141,6 +223,18 @@ public interface Node {
 	 */
 	public float getPingTime();
 
+	/**
+	 * Gets the protocol parameters agreed with the remote node.
+	 * <p>
+	 * They are exchanged during the handshake. Until the remote answered, or
+	 * if it is too old to send parameters, the set is empty and the node uses
+	 * its defaults.
+	 * 
+	 * @return a copy of the negotiated parameters
+	 * @see NodeParameters
+	 */
+	public NodeParameters getNegotiatedParameters();
+
 	/**
 	 * Send a message to the remote node.
 	 * <p>
@@ -177,6 +271,25 @@ public interface Node {
 	 */
 	public Future<Boolean> sendMessage(Message msg, Message.Priority priority) throws NodeClosedException;
 
+	/**
+	 * Holds back partial blocks until {@link #uncork()} is called.
+	 * <p>
+	 * While corked, the node only gives out full blocks, so many small
+	 * messages sent at once are packed together instead of being sent one by
+	 * one. The implementation may limit the time data is held back, to not
+	 * stall the connection if the application fails to uncork.
+	 * 
+	 * @see #uncork()
+	 */
+	public void cork();
+
+	/**
+	 * Sends all data held back since {@link #cork()}.
+	 * 
+	 * @see #cork()
+	 */
+	public void uncork();
+
 	/**
 	 * Closes the connection to the remote node and interrupts the connection.
 	 */
@@ -0,0 +1,146 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ *
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ *
+ *     https://github.com/Held03/JasityProtocol.git
+ *
+ */
+
+package com.github.held03.jasityProtocol.local;
+
+import java.io.IOException;
+
+import com.github.held03.jasityProtocol.interfaces.Address;
+import com.github.held03.jasityProtocol.interfaces.BackEnd;
+import com.github.held03.jasityProtocol.interfaces.Node;
+
+
+/**
+ * Address of a node within the same JVM.
+ * <p>
+ * A {@link LocalServer} is addressed by its name only. The clients connected
+ * to it get additionally an unique id.
+ * 
+ * @author held03
+ */
+public class LocalAddress implements Address {
+
+	/**
+	 * The name of the server.
+	 */
+	public final String name;
+
+	/**
+	 * The id of the client, or <code>0</code> for the server itself.
+	 */
+	public final long id;
+
+	/**
+	 * Creates the address of the server with the given name.
+	 * 
+	 * @param name the name of the server
+	 */
+	public LocalAddress(final String name) {
+		this(name, 0);
+	}
+
+	/**
+	 * Creates the address of a client of the given server.
+	 * 
+	 * @param name the name of the server
+	 * @param id the id of the client
+	 */
+	public LocalAddress(final String name, final long id) {
+		this.name = name;
+		this.id = id;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + (int) (id ^ (id >>> 32));
+		result = prime * result + ( (name == null) ? 0 : name.hashCode());
+		return result;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(final Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null) {
+			return false;
+		}
+		if (getClass() != obj.getClass()) {
+			return false;
+		}
+		LocalAddress other = (LocalAddress) obj;
+		if (id != other.id) {
+			return false;
+		}
+		if (name == null) {
+			if (other.name != null) {
+				return false;
+			}
+		} else if (!name.equals(other.name)) {
+			return false;
+		}
+		return true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.github.held03.jasityProtocol.interfaces.Address#connectTo()
+	 */
+	@Override
+	public Node connectTo() {
+		try {
+			return LocalConnection.newConnection(this);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.github.held03.jasityProtocol.interfaces.Address#getBackEnd()
+	 */
+	@Override
+	public BackEnd getBackEnd() {
+		return LocalBackEnd.instance;
+	}
+
+	@Override
+	public String toString() {
+		return "Local[" + name + (id != 0 ? "#" + id : "") + "]";
+	}
+
+}
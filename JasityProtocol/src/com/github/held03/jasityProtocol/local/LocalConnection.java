@@ -0,0 +1,365 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ *
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ *
+ *     https://github.com/Held03/JasityProtocol.git
+ *
+ */
+
+package com.github.held03.jasityProtocol.local;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+import com.github.held03.jasityProtocol.base.AbstractConnection;
+import com.github.held03.jasityProtocol.base.DefaultNode;
+import com.github.held03.jasityProtocol.interfaces.Address;
+import com.github.held03.jasityProtocol.interfaces.Message;
+import com.github.held03.jasityProtocol.interfaces.Node;
+import com.github.held03.jasityProtocol.interfaces.NodeClosedException;
+
+
+/**
+ * In-memory implementation for the JasityProtocol.
+ * <p>
+ * Two connections are linked to each other. Every one has a queue, into
+ * which the remote connection puts the blocks of its node. So the protocol
+ * runs without any kernel networking, what is useful to measure the protocol
+ * overhead or to connect modules within one process.
+ * <p>
+ * If the server passes messages by reference, {@link LocalNode}s are used,
+ * which put the messages themselves into the queue.
+ * <p>
+ * Only the writer of the remote waits if too many blocks are queued. The
+ * reader never waits for the remote, so listeners may answer from it without
+ * two connections waiting for each other.
+ * 
+ * @author held03
+ */
+public class LocalConnection extends AbstractConnection {
+
+	/**
+	 * The standard block size for the node blocks.
+	 */
+	protected static final int STANDART_BLOCK_SIZE = 0xFFFF; // 64kB
+
+	/**
+	 * The count of blocks a queue can hold.
+	 */
+	protected static final int QUEUE_SIZE = 64;
+
+	/**
+	 * The blocks and messages received from the remote connection.
+	 * <p>
+	 * The blocks are limited by {@link #blockPermits}, the messages passed by
+	 * reference are not limited.
+	 */
+	protected final BlockingQueue<Object> inbound = new LinkedBlockingQueue<Object>();
+
+	/**
+	 * The count of blocks the remote may still put into the {@link #inbound}
+	 * queue.
+	 */
+	protected final Semaphore blockPermits = new Semaphore(QUEUE_SIZE);
+
+	/**
+	 * The address of the remote end.
+	 */
+	protected final Address remoteAddress;
+
+	/**
+	 * The server which accepted this connection, or <code>null</code>.
+	 */
+	protected final LocalServer owner;
+
+	/**
+	 * The connection of the remote end.
+	 */
+	protected LocalConnection peer;
+
+	/**
+	 * The node of this connection.
+	 */
+	protected Node node;
+
+	/**
+	 * The reader thread which handles the reading.
+	 */
+	private Thread reader;
+
+	/**
+	 * The writer thread which handles the writing.
+	 */
+	private Thread writer;
+
+	/**
+	 * @param local the local address
+	 * @param remote the remote address
+	 * @param owner the server which accepted this connection, or
+	 *            <code>null</code>
+	 */
+	protected LocalConnection(final Address local, final Address remote, final LocalServer owner) {
+		super(local, true);
+
+		this.remoteAddress = remote;
+		this.owner = owner;
+	}
+
+	/**
+	 * Creates a node connected to the given address.
+	 * 
+	 * @param connectTo the address of the server to connect to
+	 * @return the node representing this connection
+	 * @throws IOException if there is no such server
+	 */
+	public static Node newConnection(final LocalAddress connectTo) throws IOException {
+		LocalServer server = LocalServer.getServer(connectTo.name);
+
+		if (server == null) {
+			throw new IOException("There is no local server named " + connectTo.name);
+		}
+
+		LocalAddress clientAddress = server.nextClientAddress();
+
+		LocalConnection client = new LocalConnection(clientAddress, connectTo, null);
+		LocalConnection accepted = new LocalConnection(connectTo, clientAddress, server);
+
+		client.peer = accepted;
+		accepted.peer = client;
+
+		client.createNode(server.isPassByReference());
+		accepted.createNode(server.isPassByReference());
+
+		server.addNode(accepted.node);
+
+		accepted.start();
+		client.start();
+
+		return client.node;
+	}
+
+	/**
+	 * Creates the node of this connection.
+	 * 
+	 * @param passByReference if <code>true</code> a {@link LocalNode} is
+	 *            created
+	 */
+	protected void createNode(final boolean passByReference) {
+		if (passByReference) {
+			node = new LocalNode(remoteAddress, this);
+		} else {
+			node = new DefaultNode(remoteAddress, this);
+		}
+
+		addNode(node);
+	}
+
+	/**
+	 * Starts the reader and writer thread.
+	 */
+	protected void start() {
+		reader = new Thread(new Reader());
+		reader.setDaemon(false);
+		reader.setName("Read from " + remoteAddress);
+		reader.start();
+
+		writer = new Thread(new Writer());
+		writer.setDaemon(true);
+		writer.setName("Write to " + remoteAddress);
+		writer.start();
+	}
+
+	/**
+	 * Passes a message to the remote node without encoding.
+	 * <p>
+	 * This never blocks.
+	 * 
+	 * @param msg the message to pass
+	 * @return the result, <code>true</code> as soon as the remote node
+	 *         delivered the message, <code>false</code> if the connection got
+	 *         closed before
+	 */
+	Future<Boolean> passMessage(final Message msg) {
+		Delivery d = new Delivery((LocalNode) peer.node, msg);
+
+		if (isClosed || peer.isClosed) {
+			d.fail();
+
+			return d;
+		}
+
+		peer.inbound.add(d);
+
+		/*
+		 * The remote may got closed meanwhile, then nobody takes it anymore.
+		 */
+		if (peer.isClosed && peer.inbound.remove(d)) {
+			d.fail();
+		}
+
+		return d;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.interfaces.Connection#getBlockSize()
+	 */
+	@Override
+	public int getBlockSize() {
+		return STANDART_BLOCK_SIZE;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.github.held03.jasityProtocol.base.AbstractConnection#isOrdered()
+	 */
+	@Override
+	public boolean isOrdered() {
+		return true;
+	}
+
+	@Override
+	public void close() {
+		if (isClosed) {
+			return;
+		}
+
+		if (reader != null)
+			reader.interrupt();
+
+		if (writer != null)
+			writer.interrupt();
+
+		super.close();
+
+		if (owner != null) {
+			owner.rmNode(node);
+		}
+
+		/*
+		 * The queued messages are not delivered anymore.
+		 */
+		Object o;
+
+		while ( (o = inbound.poll()) != null) {
+			if (o instanceof Delivery) {
+				((Delivery) o).fail();
+			}
+		}
+	}
+
+	/**
+	 * A message passed by reference.
+	 * <p>
+	 * It is run by the reader of the receiving connection, and completes as
+	 * soon as the message was delivered.
+	 * 
+	 * @author held03
+	 */
+	static class Delivery extends FutureTask<Boolean> {
+
+		/**
+		 * @param receiver the node to deliver to
+		 * @param msg the message
+		 */
+		Delivery(final LocalNode receiver, final Message msg) {
+			super(new Callable<Boolean>() {
+
+				@Override
+				public Boolean call() throws Exception {
+					receiver.deliverLocal(msg);
+
+					return true;
+				}
+			});
+		}
+
+		/**
+		 * Completes the delivery as failed, if not yet done.
+		 */
+		void fail() {
+			set(false);
+		}
+	}
+
+	class Reader implements Runnable {
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run() {
+			try {
+				while (!isClosed && !Thread.currentThread().isInterrupted()) {
+					Object o = inbound.take();
+
+					if (o instanceof byte[]) {
+						blockPermits.release();
+
+						node.receivedBlock((byte[]) o);
+					} else {
+						((Delivery) o).run();
+					}
+				}
+
+			} catch (InterruptedException e) {
+				//e.printStackTrace();
+			}
+
+			close();
+		}
+
+	}
+
+	class Writer implements Runnable {
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run() {
+			try {
+				byte[] buf;
+
+				while ( (buf = getNextBlock(remoteAddress)) != null && !Thread.currentThread().isInterrupted()) {
+					peer.blockPermits.acquire();
+					peer.inbound.add(buf);
+				}
+
+			} catch (InterruptedException e) {
+				//e.printStackTrace();
+			} catch (NodeClosedException e) {
+				//e.printStackTrace();
+			}
+
+			close();
+		}
+
+	}
+}
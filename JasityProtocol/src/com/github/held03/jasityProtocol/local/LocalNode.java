@@ -0,0 +1,88 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ *
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ *
+ *     https://github.com/Held03/JasityProtocol.git
+ *
+ */
+
+package com.github.held03.jasityProtocol.local;
+
+import java.util.concurrent.Future;
+
+import com.github.held03.jasityProtocol.base.DefaultNode;
+import com.github.held03.jasityProtocol.interfaces.Address;
+import com.github.held03.jasityProtocol.interfaces.Message;
+import com.github.held03.jasityProtocol.interfaces.Message.Priority;
+import com.github.held03.jasityProtocol.interfaces.MessageCoder;
+import com.github.held03.jasityProtocol.interfaces.NodeClosedException;
+
+
+/**
+ * A node passing messages by reference to its remote node.
+ * <p>
+ * The messages are neither encoded by a {@link MessageCoder} nor split into
+ * blocks, they are queued as object for the remote node. The handshake and
+ * the pings are still done by blocks.
+ * <p>
+ * The priority of a message is ignored, all messages are delivered in the
+ * order they were sent. The future of a sent message completes as soon as the
+ * remote node delivered it to its listeners.
+ * 
+ * @author held03
+ */
+public class LocalNode extends DefaultNode {
+
+	/**
+	 * Create a new Node.
+	 * 
+	 * @param remote the address the node is connected to
+	 * @param connection the connection to the remote node
+	 */
+	LocalNode(final Address remote, final LocalConnection connection) {
+		super(remote, connection);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.base.DefaultNode#sendMessage(com.github
+	 * .held03.jasityProtocol.interfaces.Message,
+	 * com.github.held03.jasityProtocol.interfaces.Message.Priority)
+	 */
+	@Override
+	public Future<Boolean> sendMessage(final Message msg, final Priority priority) throws NodeClosedException {
+		if (currentState.equals(State.CLOSED)) {
+			throw new NodeClosedException("Node has been closed.");
+		}
+
+		return ((LocalConnection) connection).passMessage(msg);
+	}
+
+	/**
+	 * Delivers a message passed by the remote node.
+	 * 
+	 * @param msg the message to deliver
+	 */
+	void deliverLocal(final Message msg) {
+		deliverMessage(msg);
+	}
+}
@@ -0,0 +1,173 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ *
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ *
+ *     https://github.com/Held03/JasityProtocol.git
+ *
+ */
+
+package com.github.held03.jasityProtocol.local;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.held03.jasityProtocol.base.AbstractServer;
+import com.github.held03.jasityProtocol.interfaces.Node;
+
+
+/**
+ * Server for nodes within the same JVM.
+ * <p>
+ * The server is registered by its name as long as it is open. Clients connect
+ * to it with a {@link LocalAddress} of the same name.
+ * <p>
+ * If <code>passByReference</code> is enabled, messages are handed over as
+ * objects without being encoded by any coder. Notice that both ends share the
+ * message instance then, so it should not be modified after sending.
+ * 
+ * @author held03
+ */
+public class LocalServer extends AbstractServer {
+
+	/**
+	 * All open servers by name.
+	 */
+	private static final ConcurrentMap<String, LocalServer> servers = new ConcurrentHashMap<String, LocalServer>();
+
+	/**
+	 * Counter for the ids of the clients.
+	 */
+	private final AtomicLong clientIds = new AtomicLong();
+
+	/**
+	 * The name of the server.
+	 */
+	protected final String name;
+
+	/**
+	 * Indicates if the messages are passed by reference.
+	 */
+	protected final boolean passByReference;
+
+	/**
+	 * Indicates if the server was opened.
+	 */
+	private boolean isOpen = false;
+
+	/**
+	 * @param localAddress
+	 */
+	LocalServer(final LocalAddress localAddress, final boolean passByReference) {
+		super(localAddress);
+
+		this.name = localAddress.name;
+		this.passByReference = passByReference;
+	}
+
+	/**
+	 * Creates a server with the given name.
+	 * <p>
+	 * The messages will be encoded like on any other back end.
+	 * 
+	 * @param name the name of the server
+	 * @return the server
+	 */
+	public static LocalServer openServer(final String name) {
+		return openServer(name, false);
+	}
+
+	/**
+	 * Creates a server with the given name.
+	 * 
+	 * @param name the name of the server
+	 * @param passByReference if <code>true</code>, messages will be handed
+	 *            over without encoding
+	 * @return the server
+	 */
+	public static LocalServer openServer(final String name, final boolean passByReference) {
+		return new LocalServer(new LocalAddress(name), passByReference);
+	}
+
+	/**
+	 * Gets the open server of the given name.
+	 * 
+	 * @param name the name of the server
+	 * @return the server or <code>null</code> if there is none
+	 */
+	static LocalServer getServer(final String name) {
+		return servers.get(name);
+	}
+
+	/**
+	 * Gets a new address for a client.
+	 * 
+	 * @return the address for the next client
+	 */
+	LocalAddress nextClientAddress() {
+		return new LocalAddress(name, clientIds.incrementAndGet());
+	}
+
+	/**
+	 * Indicates if the messages are passed by reference.
+	 * 
+	 * @return <code>true</code> if the messages are not encoded
+	 */
+	public boolean isPassByReference() {
+		return passByReference;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.github.held03.jasityProtocol.interfaces.Server#open()
+	 */
+	@Override
+	public synchronized void open() {
+		if (!isOpen) {
+			if (servers.putIfAbsent(name, this) != null) {
+				throw new IllegalStateException("There is already a local server named " + name);
+			}
+
+			isOpen = true;
+		}
+	}
+
+	@Override
+	public void close() {
+		servers.remove(name, this);
+
+		for (Node n : getRelatedNodes()) {
+			n.close();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.interfaces.Connection#getBlockSize()
+	 */
+	@Override
+	public int getBlockSize() {
+		// Nothing to send.
+		return 0;
+	}
+
+}
@@ -0,0 +1,362 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ *
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ *
+ *     https://github.com/Held03/JasityProtocol.git
+ *
+ */
+
+package com.github.held03.jasityProtocol.shm;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+
+/**
+ * A single-producer/single-consumer ring buffer of blocks in a memory mapped
+ * file.
+ * <p>
+ * The ring consists of a header holding the read and the write position and a
+ * data area. Positions are ever increasing counters of bytes. Every block is
+ * stored as record:
+ * 
+ * <pre>
+ * - int: length of the block, or {@link #PADDING}
+ * - byte[]: the block
+ * - padding to the next multiple of 8 bytes
+ * </pre>
+ * 
+ * If a record does not fit before the end of the data area, a
+ * <code>PADDING</code> record fills up the rest and the record starts at the
+ * beginning.
+ * <p>
+ * The positions are written with release semantics after the data, and read
+ * with acquire semantics before the data. Therefore the producer and the
+ * consumer can be in different processes and no system call is needed.
+ * <p>
+ * This uses <code>sun.misc.Unsafe</code> for the ordered access to the
+ * positions, it is accessed by method handles.
+ * 
+ * @author held03
+ */
+class RingBuffer {
+
+	/**
+	 * Size of the ring header.
+	 * <p>
+	 * The read and write position are in different cache lines.
+	 */
+	static final int HEADER_SIZE = 128;
+
+	/**
+	 * Offset of the read position in the header.
+	 */
+	static final int HEAD_OFFSET = 0;
+
+	/**
+	 * Offset of the write position in the header.
+	 */
+	static final int TAIL_OFFSET = 64;
+
+	/**
+	 * Length marking a padding record.
+	 */
+	static final int PADDING = -1;
+
+	/**
+	 * Size of the record header.
+	 */
+	static final int RECORD_HEADER = 4;
+
+	/**
+	 * <code>Unsafe.getLongVolatile(Object, long)</code>
+	 */
+	private static final MethodHandle GET_LONG_VOLATILE;
+
+	/**
+	 * <code>Unsafe.putOrderedLong(Object, long, long)</code>
+	 */
+	private static final MethodHandle PUT_ORDERED_LONG;
+
+	/**
+	 * <code>Unsafe.getLong(Object, long)</code>
+	 */
+	private static final MethodHandle GET_LONG;
+
+	/**
+	 * Offset of the address field within a buffer.
+	 */
+	private static final long ADDRESS_OFFSET;
+
+	/**
+	 * The error if the ordered memory access is not available.
+	 */
+	private static final Throwable UNAVAILABLE;
+
+	static {
+		MethodHandle getVolatile = null;
+		MethodHandle putOrdered = null;
+		MethodHandle get = null;
+		long addressOffset = -1;
+		Throwable unavailable = null;
+
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			Object unsafe = theUnsafe.get(null);
+
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+			getVolatile = lookup.findVirtual(unsafeClass, "getLongVolatile",
+					MethodType.methodType(long.class, Object.class, long.class)).bindTo(unsafe);
+			putOrdered = lookup.findVirtual(unsafeClass, "putOrderedLong",
+					MethodType.methodType(void.class, Object.class, long.class, long.class)).bindTo(unsafe);
+			get = lookup.findVirtual(unsafeClass, "getLong",
+					MethodType.methodType(long.class, Object.class, long.class)).bindTo(unsafe);
+
+			MethodHandle fieldOffset = lookup.findVirtual(unsafeClass, "objectFieldOffset",
+					MethodType.methodType(long.class, Field.class)).bindTo(unsafe);
+
+			addressOffset = (long) fieldOffset.invokeExact(Buffer.class.getDeclaredField("address"));
+
+		} catch (Throwable e) {
+			unavailable = e;
+		}
+
+		GET_LONG_VOLATILE = getVolatile;
+		PUT_ORDERED_LONG = putOrdered;
+		GET_LONG = get;
+		ADDRESS_OFFSET = addressOffset;
+		UNAVAILABLE = unavailable;
+	}
+
+	/**
+	 * The data area of the ring.
+	 */
+	private final ByteBuffer data;
+
+	/**
+	 * The capacity of the data area, a power of two.
+	 */
+	private final int capacity;
+
+	/**
+	 * Absolute memory address of the read position.
+	 */
+	private final long headAddress;
+
+	/**
+	 * Absolute memory address of the write position.
+	 */
+	private final long tailAddress;
+
+	/**
+	 * The local copy of the own position, read position for the consumer and
+	 * write position for the producer.
+	 */
+	private long position;
+
+	/**
+	 * Creates a ring within the given mapping.
+	 * 
+	 * @param map the mapped file
+	 * @param headerOffset the offset of the ring header within the mapping
+	 * @param dataOffset the offset of the data area within the mapping
+	 * @param capacity the size of the data area, a power of two
+	 * @param producer <code>true</code> if this side writes the ring
+	 */
+	RingBuffer(final MappedByteBuffer map, final int headerOffset, final int dataOffset, final int capacity,
+			final boolean producer) {
+		if (UNAVAILABLE != null) {
+			throw new UnsupportedOperationException("Ordered memory access is not available.", UNAVAILABLE);
+		}
+
+		if (Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("The capacity must be a power of two: " + capacity);
+		}
+
+		long base = address(map);
+
+		this.capacity = capacity;
+		this.headAddress = base + headerOffset + HEAD_OFFSET;
+		this.tailAddress = base + headerOffset + TAIL_OFFSET;
+
+		ByteBuffer dup = map.duplicate();
+		dup.position(dataOffset);
+		dup.limit(dataOffset + capacity);
+		this.data = dup.slice();
+
+		this.position = producer ? getVolatile(tailAddress) : getVolatile(headAddress);
+	}
+
+	/**
+	 * Gets the maximum length of a block.
+	 * 
+	 * @return the maximum length
+	 */
+	int getMaxLength() {
+		return capacity / 2 - RECORD_HEADER;
+	}
+
+	/**
+	 * Writes a block into the ring.
+	 * <p>
+	 * This must be called by the producer only.
+	 * 
+	 * @param block the block to write
+	 * @return <code>true</code> if written, <code>false</code> if the ring is
+	 *         too full
+	 */
+	boolean write(final byte[] block) {
+		if (block.length > getMaxLength()) {
+			throw new IllegalArgumentException("Block too large: " + block.length);
+		}
+
+		int recordSize = align(RECORD_HEADER + block.length);
+
+		long tail = position;
+		int index = (int) (tail & (capacity - 1));
+		int toEnd = capacity - index;
+		int needed = toEnd < recordSize ? toEnd + recordSize : recordSize;
+
+		if (tail + needed - getVolatile(headAddress) > capacity) {
+			return false;
+		}
+
+		if (toEnd < recordSize) {
+			data.putInt(index, PADDING);
+			tail += toEnd;
+			index = 0;
+		}
+
+		data.putInt(index, block.length);
+		data.position(index + RECORD_HEADER);
+		data.put(block);
+
+		position = tail + recordSize;
+
+		putOrdered(tailAddress, position);
+
+		return true;
+	}
+
+	/**
+	 * Reads the next block from the ring.
+	 * <p>
+	 * This must be called by the consumer only.
+	 * 
+	 * @return the next block, or <code>null</code> if the ring is empty
+	 * @throws IllegalStateException if the length of a record does not fit
+	 *             the ring, as the other process broke it
+	 */
+	byte[] read() {
+		long head = position;
+
+		while (head != getVolatile(tailAddress)) {
+			int index = (int) (head & (capacity - 1));
+			int len = data.getInt(index);
+
+			if (len == PADDING) {
+				head += capacity - index;
+
+			} else {
+				/*
+				 * The length comes from shared memory, records never wrap
+				 * around the end of the ring.
+				 */
+				if (len < 0 || len > capacity - index - RECORD_HEADER) {
+					throw new IllegalStateException("Corrupted record length: " + len);
+				}
+
+				byte[] block = new byte[len];
+
+				data.position(index + RECORD_HEADER);
+				data.get(block);
+
+				head += align(RECORD_HEADER + len);
+
+				position = head;
+				putOrdered(headAddress, head);
+
+				return block;
+			}
+		}
+
+		if (head != position) {
+			position = head;
+			putOrdered(headAddress, head);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Rounds up to the next multiple of 8.
+	 * 
+	 * @param size the size
+	 * @return the aligned size
+	 */
+	private static int align(final int size) {
+		return (size + 7) & ~7;
+	}
+
+	/**
+	 * Gets the memory address of a direct buffer.
+	 * 
+	 * @param buffer the buffer
+	 * @return the address of its first byte
+	 */
+	private static long address(final ByteBuffer buffer) {
+		try {
+			return (long) GET_LONG.invokeExact((Object) buffer, ADDRESS_OFFSET);
+		} catch (Throwable e) {
+			throw new UnsupportedOperationException(e);
+		}
+	}
+
+	/**
+	 * Reads a long with acquire semantics.
+	 */
+	private static long getVolatile(final long address) {
+		try {
+			return (long) GET_LONG_VOLATILE.invokeExact((Object) null, address);
+		} catch (Throwable e) {
+			throw new UnsupportedOperationException(e);
+		}
+	}
+
+	/**
+	 * Writes a long with release semantics.
+	 */
+	private static void putOrdered(final long address, final long value) {
+		try {
+			PUT_ORDERED_LONG.invokeExact((Object) null, address, value);
+		} catch (Throwable e) {
+			throw new UnsupportedOperationException(e);
+		}
+	}
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ *
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ *
+ *     https://github.com/Held03/JasityProtocol.git
+ *
+ */
+
+package com.github.held03.jasityProtocol.shm;
+
+import java.io.IOException;
+
+import com.github.held03.jasityProtocol.interfaces.Address;
+import com.github.held03.jasityProtocol.interfaces.BackEnd;
+import com.github.held03.jasityProtocol.interfaces.Node;
+
+
+/**
+ * Address of a shared memory link.
+ * <p>
+ * A link is identified by the path of its memory mapped file, which should
+ * be located in a memory file system like <code>/dev/shm</code>.
+ * 
+ * @author held03
+ */
+public class ShmAddress implements Address {
+
+	/**
+	 * The path of the mapped file.
+	 */
+	public final String path;
+
+	/**
+	 * @param path the path of the mapped file
+	 */
+	public ShmAddress(final String path) {
+		this.path = path;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + ( (path == null) ? 0 : path.hashCode());
+		return result;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(final Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null) {
+			return false;
+		}
+		if (getClass() != obj.getClass()) {
+			return false;
+		}
+		ShmAddress other = (ShmAddress) obj;
+		if (path == null) {
+			if (other.path != null) {
+				return false;
+			}
+		} else if (!path.equals(other.path)) {
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Joins the link created by the remote process.
+	 * 
+	 * @see com.github.held03.jasityProtocol.interfaces.Address#connectTo()
+	 */
+	@Override
+	public Node connectTo() {
+		try {
+			return ShmConnection.join(this, WaitStrategy.PARK);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.github.held03.jasityProtocol.interfaces.Address#getBackEnd()
+	 */
+	@Override
+	public BackEnd getBackEnd() {
+		return ShmBackEnd.instance;
+	}
+
+	@Override
+	public String toString() {
+		return "Shm[" + path + "]";
+	}
+
+}
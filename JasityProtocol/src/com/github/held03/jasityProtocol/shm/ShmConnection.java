@@ -0,0 +1,459 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ *
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ *
+ *     https://github.com/Held03/JasityProtocol.git
+ *
+ */
+
+package com.github.held03.jasityProtocol.shm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import com.github.held03.jasityProtocol.base.AbstractConnection;
+import com.github.held03.jasityProtocol.base.DefaultNode;
+import com.github.held03.jasityProtocol.interfaces.DirectConnection;
+import com.github.held03.jasityProtocol.interfaces.Node;
+import com.github.held03.jasityProtocol.interfaces.NodeClosedException;
+
+
+/**
+ * Shared memory implementation for the JasityProtocol.
+ * <p>
+ * Two processes on the same host exchange the blocks of their nodes over two
+ * {@link RingBuffer}s in a memory mapped file. One process creates the file,
+ * the other one joins it. Neither sending nor receiving a block needs a
+ * system call.
+ * <p>
+ * The file has the following layout:
+ * 
+ * <pre>
+ * - int: magic number, written last by the creator
+ * - int: version
+ * - int: capacity of one ring
+ * - int: closed flag
+ * - ring header of ring A, written by the creator
+ * - ring header of ring B, written by the joiner
+ * - data of ring A
+ * - data of ring B
+ * </pre>
+ * 
+ * Every connection has one thread, which waits for work by the given
+ * {@link WaitStrategy}.
+ * 
+ * @author held03
+ */
+public class ShmConnection extends AbstractConnection implements DirectConnection {
+
+	/**
+	 * The magic number at the start of the file ("JSHM").
+	 */
+	protected static final int MAGIC = 0x4A53484D;
+
+	/**
+	 * The version of the file layout.
+	 */
+	protected static final int VERSION = 1;
+
+	/**
+	 * The default capacity of one ring.
+	 */
+	public static final int DEFAULT_CAPACITY = 1 << 20; // 1MB
+
+	/**
+	 * The standard block size for the node blocks.
+	 */
+	protected static final int STANDART_BLOCK_SIZE = 0xFFFF; // 64kB
+
+	/**
+	 * Offset of the version.
+	 */
+	private static final int VERSION_OFFSET = 4;
+
+	/**
+	 * Offset of the capacity.
+	 */
+	private static final int CAPACITY_OFFSET = 8;
+
+	/**
+	 * Offset of the closed flag.
+	 */
+	private static final int CLOSED_OFFSET = 12;
+
+	/**
+	 * Offset of the ring header of ring A.
+	 */
+	private static final int RING_A_OFFSET = 64;
+
+	/**
+	 * Offset of the ring header of ring B.
+	 */
+	private static final int RING_B_OFFSET = RING_A_OFFSET + RingBuffer.HEADER_SIZE;
+
+	/**
+	 * Size of the file header.
+	 */
+	private static final int FILE_HEADER_SIZE = RING_B_OFFSET + RingBuffer.HEADER_SIZE;
+
+	/**
+	 * Interval in nanoseconds to ask the node for blocks without being
+	 * signaled, e.g. for resending.
+	 */
+	protected static final long POLL_INTERVAL = 100000000L; // 100ms
+
+	/**
+	 * The address of the link.
+	 */
+	protected final ShmAddress address;
+
+	/**
+	 * <code>true</code> if this side created the file.
+	 */
+	protected final boolean creator;
+
+	/**
+	 * The mapped file.
+	 */
+	protected final MappedByteBuffer map;
+
+	/**
+	 * The ring to receive from.
+	 */
+	protected final RingBuffer inbound;
+
+	/**
+	 * The ring to send to.
+	 */
+	protected final RingBuffer outbound;
+
+	/**
+	 * The strategy to wait for work.
+	 */
+	protected final WaitStrategy waitStrategy;
+
+	/**
+	 * The node of this connection.
+	 */
+	protected Node node;
+
+	/**
+	 * The thread handling both rings.
+	 */
+	private Thread thread;
+
+	/**
+	 * Set if the node has new blocks.
+	 */
+	private volatile boolean blockAvailable = true;
+
+	/**
+	 * Set if the thread should stop.
+	 */
+	private volatile boolean stopped = false;
+
+	/**
+	 * @param address the address of the link
+	 * @param map the mapped file
+	 * @param capacity the capacity of one ring
+	 * @param creator <code>true</code> if this side created the file
+	 * @param waitStrategy the strategy to wait for work
+	 */
+	protected ShmConnection(final ShmAddress address, final MappedByteBuffer map, final int capacity,
+			final boolean creator, final WaitStrategy waitStrategy) {
+		super(address, true);
+
+		this.address = address;
+		this.map = map;
+		this.creator = creator;
+		this.waitStrategy = waitStrategy;
+
+		RingBuffer a = new RingBuffer(map, RING_A_OFFSET, FILE_HEADER_SIZE, capacity, creator);
+		RingBuffer b = new RingBuffer(map, RING_B_OFFSET, FILE_HEADER_SIZE + capacity, capacity, !creator);
+
+		this.outbound = creator ? a : b;
+		this.inbound = creator ? b : a;
+	}
+
+	/**
+	 * Creates a new link with the default capacity.
+	 * 
+	 * @param address the address of the link
+	 * @return the node representing this connection
+	 * @throws IOException if the file could not be created
+	 */
+	public static Node create(final ShmAddress address) throws IOException {
+		return create(address, DEFAULT_CAPACITY, WaitStrategy.PARK);
+	}
+
+	/**
+	 * Creates a new link.
+	 * <p>
+	 * An existing file is replaced.
+	 * 
+	 * @param address the address of the link
+	 * @param capacity the capacity of one ring, a power of two
+	 * @param waitStrategy the strategy to wait for work
+	 * @return the node representing this connection
+	 * @throws IOException if the file could not be created
+	 */
+	public static Node create(final ShmAddress address, final int capacity, final WaitStrategy waitStrategy)
+			throws IOException {
+		if (Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("The capacity must be a power of two: " + capacity);
+		}
+
+		File file = new File(address.path);
+		file.delete();
+
+		MappedByteBuffer map;
+
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(FILE_HEADER_SIZE + 2L * capacity);
+			map = raf.getChannel().map(MapMode.READ_WRITE, 0, FILE_HEADER_SIZE + 2L * capacity);
+		}
+
+		map.putInt(VERSION_OFFSET, VERSION);
+		map.putInt(CAPACITY_OFFSET, capacity);
+
+		ShmConnection con = new ShmConnection(address, map, capacity, true, waitStrategy);
+
+		/*
+		 * Publish the file after the rings are set up
+		 */
+		map.putInt(0, MAGIC);
+
+		return con.start();
+	}
+
+	/**
+	 * Joins a link created by another process.
+	 * 
+	 * @param address the address of the link
+	 * @param waitStrategy the strategy to wait for work
+	 * @return the node representing this connection
+	 * @throws IOException if there is no such link
+	 */
+	public static Node join(final ShmAddress address, final WaitStrategy waitStrategy) throws IOException {
+		MappedByteBuffer map;
+
+		try (RandomAccessFile raf = new RandomAccessFile(address.path, "rw")) {
+			FileChannel channel = raf.getChannel();
+
+			if (channel.size() < FILE_HEADER_SIZE) {
+				throw new IOException("Not a shared memory link: " + address.path);
+			}
+
+			map = channel.map(MapMode.READ_WRITE, 0, channel.size());
+		}
+
+		if (map.getInt(0) != MAGIC) {
+			throw new IOException("Not a shared memory link: " + address.path);
+		}
+
+		if (map.getInt(VERSION_OFFSET) != VERSION) {
+			throw new IOException("Unsupported shared memory link version: " + map.getInt(VERSION_OFFSET));
+		}
+
+		if (map.getInt(CLOSED_OFFSET) != 0) {
+			throw new IOException("The shared memory link is closed: " + address.path);
+		}
+
+		int capacity = map.getInt(CAPACITY_OFFSET);
+
+		if (map.capacity() < FILE_HEADER_SIZE + 2L * capacity) {
+			throw new IOException("Truncated shared memory link: " + address.path);
+		}
+
+		return new ShmConnection(address, map, capacity, false, waitStrategy).start();
+	}
+
+	/**
+	 * Creates the node and starts the thread.
+	 * 
+	 * @return the node
+	 */
+	protected Node start() {
+		node = new DefaultNode(address, this);
+		addNode(node);
+
+		thread = new Thread(new Worker());
+		thread.setDaemon(false);
+		thread.setName("Shared memory " + address.path);
+		thread.start();
+
+		return node;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.interfaces.DirectConnection#blockAvailable
+	 * (com.github.held03.jasityProtocol.interfaces.Node)
+	 */
+	@Override
+	public void blockAvailable(final Node node) {
+		blockAvailable = true;
+
+		Thread t = thread;
+
+		if (t != null) {
+			waitStrategy.signal(t);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.interfaces.Connection#getBlockSize()
+	 */
+	@Override
+	public int getBlockSize() {
+		return Math.min(STANDART_BLOCK_SIZE, outbound.getMaxLength());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.github.held03.jasityProtocol.base.AbstractConnection#isOrdered()
+	 */
+	@Override
+	public boolean isOrdered() {
+		return true;
+	}
+
+	@Override
+	public void close() {
+		if (isClosed) {
+			return;
+		}
+
+		stopped = true;
+
+		map.putInt(CLOSED_OFFSET, 1);
+
+		if (creator) {
+			new File(address.path).delete();
+		}
+
+		super.close();
+
+		Thread t = thread;
+
+		if (t != null) {
+			waitStrategy.signal(t);
+		}
+	}
+
+	/**
+	 * Moves the blocks between the node and the rings.
+	 * 
+	 * @author held03
+	 */
+	class Worker implements Runnable {
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run() {
+			byte[] pending = null;
+			long nextPoll = 0;
+			int idle = 0;
+
+			try {
+				while (!stopped) {
+					boolean busy = false;
+
+					/*
+					 * Receive
+					 */
+					byte[] block;
+
+					while ( (block = inbound.read()) != null) {
+						node.receivedBlock(block);
+						busy = true;
+					}
+
+					/*
+					 * Send
+					 */
+					while (true) {
+						if (pending == null) {
+							long now = System.nanoTime();
+
+							if (!blockAvailable && now - nextPoll < 0) {
+								break;
+							}
+
+							blockAvailable = false;
+
+							pending = node.getNextBlockDirectly(getBlockSize());
+
+							if (pending == null) {
+								nextPoll = now + POLL_INTERVAL;
+								break;
+							}
+
+							/*
+							 * There may be more
+							 */
+							blockAvailable = true;
+						}
+
+						if (!outbound.write(pending)) {
+							break;
+						}
+
+						pending = null;
+						busy = true;
+					}
+
+					if (busy) {
+						idle = 0;
+					} else {
+						if (map.getInt(CLOSED_OFFSET) != 0) {
+							break;
+						}
+
+						waitStrategy.idle(idle++);
+					}
+				}
+
+			} catch (NodeClosedException e) {
+				//e.printStackTrace();
+			} catch (RuntimeException e) {
+				/*
+				 * A corrupted ring or a malformed block, the connection
+				 * can't go on.
+				 */
+				e.printStackTrace();
+			}
+
+			close();
+		}
+
+	}
+}
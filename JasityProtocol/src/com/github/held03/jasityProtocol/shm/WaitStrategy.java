@@ -0,0 +1,150 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ *
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ *
+ *     https://github.com/Held03/JasityProtocol.git
+ *
+ */
+
+package com.github.held03.jasityProtocol.shm;
+
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * Strategy how a {@link ShmConnection} waits while there is nothing to do.
+ * <p>
+ * Because the remote process writes directly into the shared memory, it can
+ * not wake up the local thread. So the thread has either to spin or to sleep
+ * for short periods.
+ * 
+ * @author held03
+ */
+public interface WaitStrategy {
+
+	/**
+	 * Spins without ever giving up the CPU.
+	 * <p>
+	 * This gives the lowest latency, but keeps one core busy per connection.
+	 */
+	public static final WaitStrategy BUSY_SPIN = new BusySpin();
+
+	/**
+	 * Parks for 50 microseconds after some spinning.
+	 */
+	public static final WaitStrategy PARK = new Park(50000);
+
+	/**
+	 * Idles once.
+	 * <p>
+	 * This is called repeatedly as long as there is nothing to do.
+	 * 
+	 * @param count how often this was called since the last work
+	 */
+	public void idle(int count);
+
+	/**
+	 * Wakes up the given thread if it is idling.
+	 * <p>
+	 * This is called if a local node has new blocks to send.
+	 * 
+	 * @param thread the idling thread
+	 */
+	public void signal(Thread thread);
+
+	/**
+	 * Busy spin implementation.
+	 * 
+	 * @author held03
+	 */
+	public static class BusySpin implements WaitStrategy {
+
+		/*
+		 * (non-Javadoc)
+		 * @see com.github.held03.jasityProtocol.shm.WaitStrategy#idle(int)
+		 */
+		@Override
+		public void idle(final int count) {
+			return;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see
+		 * com.github.held03.jasityProtocol.shm.WaitStrategy#signal(java.lang.
+		 * Thread)
+		 */
+		@Override
+		public void signal(final Thread thread) {
+			return;
+		}
+	}
+
+	/**
+	 * Spins for some rounds and parks the thread afterwards.
+	 * 
+	 * @author held03
+	 */
+	public static class Park implements WaitStrategy {
+
+		/**
+		 * The rounds to spin before parking.
+		 */
+		protected static final int SPIN_COUNT = 100;
+
+		/**
+		 * The maximum time to park in nanoseconds.
+		 */
+		protected final long parkNanos;
+
+		/**
+		 * @param parkNanos the maximum time to park in nanoseconds, this is
+		 *            the latency for blocks of the remote process
+		 */
+		public Park(final long parkNanos) {
+			this.parkNanos = parkNanos;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see com.github.held03.jasityProtocol.shm.WaitStrategy#idle(int)
+		 */
+		@Override
+		public void idle(final int count) {
+			if (count < SPIN_COUNT) {
+				return;
+			}
+
+			LockSupport.parkNanos(parkNanos);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see
+		 * com.github.held03.jasityProtocol.shm.WaitStrategy#signal(java.lang.
+		 * Thread)
+		 */
+		@Override
+		public void signal(final Thread thread) {
+			LockSupport.unpark(thread);
+		}
+	}
+}
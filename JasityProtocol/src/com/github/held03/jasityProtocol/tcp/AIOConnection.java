@@ -0,0 +1,498 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ *
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ *
+ *     https://github.com/Held03/JasityProtocol.git
+ *
+ */
+
+package com.github.held03.jasityProtocol.tcp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.ShutdownChannelGroupException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.github.held03.jasityProtocol.base.AbstractConnection;
+import com.github.held03.jasityProtocol.base.DefaultNode;
+import com.github.held03.jasityProtocol.base.util.BufferPool;
+import com.github.held03.jasityProtocol.base.util.GatheringBuffer;
+import com.github.held03.jasityProtocol.interfaces.Address;
+import com.github.held03.jasityProtocol.interfaces.DirectConnection;
+import com.github.held03.jasityProtocol.interfaces.Node;
+import com.github.held03.jasityProtocol.interfaces.NodeClosedException;
+
+
+/**
+ * Asynchronous TCP implementation for the JasityProtocol.
+ * <p>
+ * This connection uses the completion based channels of NIO.2. Neither the
+ * connection nor the node own a thread, the completion handlers run on the
+ * threads of an {@link AIOGroup}, which is usually shared by all
+ * connections. A completed read delivers the block to the node and starts
+ * the next read, a completed write pulls the next block by
+ * {@link Node#getNextBlockDirectly(int)}.
+ * <p>
+ * The blocks are framed exactly like by {@link TCPConnection}, so both
+ * implementations can talk to each other.
+ * 
+ * @author held03
+ */
+public class AIOConnection extends AbstractConnection implements DirectConnection {
+
+	/**
+	 * The standard block size for the node blocks.
+	 */
+	protected static final int STANDART_BLOCK_SIZE = TCPConnection.STANDART_BLOCK_SIZE;
+
+	/**
+	 * The maximum block size for the node blocks.
+	 */
+	protected static final int MAX_BLOCK_SIZE = TCPConnection.MAX_BLOCK_SIZE;
+
+	/**
+	 * The size of the frame header: a boolean and the block length.
+	 */
+	protected static final int HEADER_SIZE = 5;
+
+	/**
+	 * The back end channel over which the communication will be done.
+	 */
+	protected final AsynchronousSocketChannel channel;
+
+	/**
+	 * The address of the remote end.
+	 */
+	protected final Address remoteAddress;
+
+	/**
+	 * The connection which created this one, or <code>null</code>.
+	 * <p>
+	 * It gets informed if the node of this connection is lost.
+	 */
+	protected final AbstractConnection owner;
+
+	/**
+	 * The group which drives this connection.
+	 */
+	protected final AIOGroup group;
+
+	/**
+	 * The node of this connection.
+	 */
+	protected volatile Node node;
+
+	/**
+	 * Buffer for the header of the currently read frame.
+	 */
+	protected final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+	/**
+	 * Buffer for the block of the currently read frame, or <code>null</code>
+	 * if the header is read.
+	 * <p>
+	 * It is leased from the direct {@link BufferPool} for each frame.
+	 */
+	protected ByteBuffer body;
+
+	/**
+	 * The segments of the frame currently written.
+	 * <p>
+	 * It is only used by the owner of the {@link #writing} flag.
+	 */
+	protected final GatheringBuffer frame = new GatheringBuffer(null);
+
+	/**
+	 * Indicates if a write is in progress.
+	 * <p>
+	 * A channel allows only one outstanding write.
+	 */
+	private final AtomicBoolean writing = new AtomicBoolean();
+
+	/**
+	 * Set if the node got new blocks since the last pull.
+	 */
+	private volatile boolean blockPending = false;
+
+	/**
+	 * Task to pull and write the next block.
+	 */
+	private final Runnable flushTask = new Runnable() {
+
+		@Override
+		public void run() {
+			flush();
+		}
+	};
+
+	/**
+	 * Handles completed reads.
+	 */
+	private final CompletionHandler<Integer, Void> readHandler = new CompletionHandler<Integer, Void>() {
+
+		@Override
+		public void completed(final Integer result, final Void attachment) {
+			if (result.intValue() < 0) {
+				close();
+				return;
+			}
+
+			read();
+		}
+
+		@Override
+		public void failed(final Throwable exc, final Void attachment) {
+			close();
+		}
+	};
+
+	/**
+	 * Handles completed writes.
+	 */
+	private final CompletionHandler<Long, GatheringBuffer> writeHandler = new CompletionHandler<Long, GatheringBuffer>() {
+
+		@Override
+		public void completed(final Long result, final GatheringBuffer frame) {
+			if (frame.hasRemaining()) {
+				startWrite(frame);
+			} else {
+				BufferPool.getDefaultDirect().release(frame.getBuffer());
+
+				flush();
+			}
+		}
+
+		@Override
+		public void failed(final Throwable exc, final GatheringBuffer frame) {
+			BufferPool.getDefaultDirect().release(frame.getBuffer());
+
+			close();
+		}
+	};
+
+	/**
+	 * Creates a connection over the given channel.
+	 * 
+	 * @param channel the connected channel
+	 * @param local the local address
+	 * @param remote the remote address
+	 * @param group the group which drives the connection
+	 * @param owner the connection informed about lost nodes, or
+	 *            <code>null</code>
+	 */
+	protected AIOConnection(final AsynchronousSocketChannel channel, final Address local, final Address remote,
+			final AIOGroup group, final AbstractConnection owner) {
+		super(local, true);
+
+		this.channel = channel;
+		this.remoteAddress = remote;
+		this.group = group;
+		this.owner = owner;
+	}
+
+	/**
+	 * Creates a node connected to the given address.
+	 * <p>
+	 * The connection will be driven by the default group.
+	 * 
+	 * @param connectTo the address to connect to
+	 * @return the node representing this connection
+	 * @throws IOException
+	 */
+	public static Node newConnection(final TCPAddress connectTo) throws IOException {
+		return newConnection(connectTo, AIOGroup.getDefault());
+	}
+
+	/**
+	 * Creates a node connected to the given address.
+	 * <p>
+	 * This blocks until the connection is established.
+	 * 
+	 * @param connectTo the address to connect to
+	 * @param group the group which drives the connection
+	 * @return the node representing this connection
+	 * @throws IOException
+	 */
+	public static Node newConnection(final TCPAddress connectTo, final AIOGroup group) throws IOException {
+		AsynchronousSocketChannel channel = AsynchronousSocketChannel.open(group.getChannelGroup());
+
+		try {
+			channel.connect(new InetSocketAddress(connectTo.inetAddress, connectTo.port)).get();
+
+		} catch (InterruptedException | ExecutionException e) {
+			channel.close();
+
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+
+			throw new IOException("Could not connect to " + connectTo, e);
+		}
+
+		InetSocketAddress local = (InetSocketAddress) channel.getLocalAddress();
+
+		return newConnection(channel, new TCPAddress(local.getAddress(), local.getPort()), connectTo, group, null);
+	}
+
+	/**
+	 * Creates a node communicating over the given channel.
+	 * 
+	 * @param channel the connected channel
+	 * @param local the local address
+	 * @param remote the remote address
+	 * @param group the group of the channel
+	 * @param owner the connection informed about lost nodes, or
+	 *            <code>null</code>
+	 * @return the node representing this connection
+	 */
+	public static Node newConnection(final AsynchronousSocketChannel channel, final Address local,
+			final Address remote, final AIOGroup group, final AbstractConnection owner) {
+		AIOConnection con = new AIOConnection(channel, local, remote, group, owner);
+
+		Node n = new DefaultNode(remote, con);
+
+		con.addNode(n);
+
+		con.node = n;
+
+		con.startRead(con.header);
+
+		con.blockAvailable(n);
+
+		return n;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.interfaces.Connection#getBlockSize()
+	 */
+	@Override
+	public int getBlockSize() {
+		return STANDART_BLOCK_SIZE;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.github.held03.jasityProtocol.base.AbstractConnection#isOrdered()
+	 */
+	@Override
+	public boolean isOrdered() {
+		return true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.interfaces.DirectConnection#blockAvailable
+	 * (com.github.held03.jasityProtocol.interfaces.Node)
+	 */
+	@Override
+	public void blockAvailable(final Node node) {
+		blockPending = true;
+
+		if (!isClosed && this.node != null && writing.compareAndSet(false, true)) {
+			try {
+				group.execute(flushTask);
+			} catch (RejectedExecutionException e) {
+				/*
+				 * The group was shut down.
+				 */
+				writing.set(false);
+			}
+		}
+	}
+
+	/**
+	 * Processes the completed part of a frame and starts the next read.
+	 * <p>
+	 * Reads of one connection never overlap, so no synchronization is needed.
+	 */
+	protected void read() {
+		if (isClosed) {
+			return;
+		}
+
+		if (body == null) {
+			if (header.hasRemaining()) {
+				startRead(header);
+				return;
+			}
+
+			header.flip();
+
+			boolean more = header.get() != 0;
+			int len = header.getInt();
+
+			header.clear();
+
+			if (!more || len < 0 || len > MAX_BLOCK_SIZE) {
+				close();
+				return;
+			}
+
+			body = BufferPool.getDefaultDirect().lease(len);
+		}
+
+		if (body.hasRemaining()) {
+			startRead(body);
+			return;
+		}
+
+		ByteBuffer data = body;
+		body = null;
+
+		data.flip();
+
+		try {
+			node.receivedBlock(data);
+		} catch (RuntimeException e) {
+			/*
+			 * A malformed block must not escape the completion handler, the
+			 * connection would be left without a pending read.
+			 */
+			close();
+			return;
+		} finally {
+			BufferPool.getDefaultDirect().release(data);
+		}
+
+		startRead(header);
+	}
+
+	/**
+	 * Starts reading into the given buffer.
+	 * 
+	 * @param buffer the buffer to read into
+	 */
+	protected void startRead(final ByteBuffer buffer) {
+		try {
+			channel.read(buffer, null, readHandler);
+		} catch (ShutdownChannelGroupException e) {
+			close();
+		}
+	}
+
+	/**
+	 * Starts writing the given frame.
+	 * 
+	 * @param frame the segments of the frame to write
+	 */
+	protected void startWrite(final GatheringBuffer frame) {
+		try {
+			channel.write(frame.getSegments(), 0, frame.getSegmentCount(), 0, TimeUnit.MILLISECONDS, frame,
+					writeHandler);
+		} catch (ShutdownChannelGroupException e) {
+			close();
+		}
+	}
+
+	/**
+	 * Pulls the next block of the node and writes it.
+	 * <p>
+	 * This must be called only by the owner of the {@link #writing} flag. If
+	 * there is nothing to send, the flag is released.
+	 */
+	protected void flush() {
+		while (!isClosed) {
+			blockPending = false;
+
+			int len;
+
+			/*
+			 * The frame header and the block headers are encoded directly
+			 * into a leased buffer, which is released if the write
+			 * completed. Large message data is written straight from the
+			 * message.
+			 */
+			ByteBuffer out = BufferPool.getDefaultDirect().lease(HEADER_SIZE + getBlockSize());
+			out.position(HEADER_SIZE);
+
+			frame.clear(out);
+
+			try {
+				len = node.getNextBlockDirectly(frame);
+
+			} catch (NodeClosedException e) {
+				BufferPool.getDefaultDirect().release(out);
+				close();
+				return;
+			}
+
+			if (len > 0) {
+				out.put(0, (byte) 1);
+				out.putInt(1, len);
+
+				frame.finish();
+
+				startWrite(frame);
+				return;
+			}
+
+			BufferPool.getDefaultDirect().release(out);
+
+			writing.set(false);
+
+			/*
+			 * A block may have been announced after the pull, but before the
+			 * flag was released.
+			 */
+			if (!blockPending || !writing.compareAndSet(false, true)) {
+				return;
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.github.held03.jasityProtocol.base.AbstractConnection#close()
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (isClosed) {
+				return;
+			}
+
+			isClosed = true;
+		}
+
+		try {
+			channel.close();
+		} catch (IOException e) {
+			/*
+			 * Ignore exception.
+			 */
+		}
+
+		super.close();
+
+		if (owner != null && node != null) {
+			owner.rmNode(node);
+		}
+	}
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ *
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ *
+ *     https://github.com/Held03/JasityProtocol.git
+ *
+ */
+
+package com.github.held03.jasityProtocol.tcp;
+
+import java.io.IOException;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * A fixed pool of threads driving asynchronous channels.
+ * <p>
+ * The group wraps an {@link AsynchronousChannelGroup} and its executor. The
+ * completion handlers of all channels of the group run on its threads, and
+ * so does the work a connection schedules itself, like pulling blocks after
+ * {@link com.github.held03.jasityProtocol.interfaces.DirectConnection#blockAvailable(com.github.held03.jasityProtocol.interfaces.Node)}
+ * .
+ * <p>
+ * Usually one group is shared by all connections, see {@link #getDefault()}.
+ * 
+ * @author held03
+ */
+public class AIOGroup {
+
+	/**
+	 * The shared default group.
+	 */
+	private static AIOGroup defaultGroup;
+
+	/**
+	 * The executor running the threads.
+	 */
+	protected final ExecutorService executor;
+
+	/**
+	 * The channel group.
+	 */
+	protected final AsynchronousChannelGroup group;
+
+	/**
+	 * The count of threads.
+	 */
+	private final int threads;
+
+	/**
+	 * Creates a group with the given count of threads.
+	 * 
+	 * @param threads the count of threads, at least one
+	 * @throws IOException if the channel group could not be created
+	 */
+	public AIOGroup(final int threads) throws IOException {
+		if (threads < 1) {
+			throw new IllegalArgumentException("At least one thread is required: " + threads);
+		}
+
+		this.threads = threads;
+
+		final AtomicInteger count = new AtomicInteger();
+
+		executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+			@Override
+			public Thread newThread(final Runnable r) {
+				Thread t = new Thread(r);
+				t.setDaemon(true);
+				t.setName("AIO worker " + count.getAndIncrement());
+				return t;
+			}
+		});
+
+		group = AsynchronousChannelGroup.withThreadPool(executor);
+	}
+
+	/**
+	 * Gets the shared default group.
+	 * <p>
+	 * It is created on first use with one thread per available processor.
+	 * 
+	 * @return the default group
+	 * @throws IOException if the group could not be created
+	 */
+	public static synchronized AIOGroup getDefault() throws IOException {
+		if (defaultGroup == null || defaultGroup.isShutdown()) {
+			defaultGroup = new AIOGroup(Runtime.getRuntime().availableProcessors());
+		}
+
+		return defaultGroup;
+	}
+
+	/**
+	 * Gets the channel group to open channels with.
+	 * 
+	 * @return the channel group
+	 */
+	public AsynchronousChannelGroup getChannelGroup() {
+		return group;
+	}
+
+	/**
+	 * Gets the count of threads of this group.
+	 * 
+	 * @return the count of threads
+	 */
+	public int getThreadCount() {
+		return threads;
+	}
+
+	/**
+	 * Returns if this group was shut down.
+	 * 
+	 * @return <code>true</code> if shut down
+	 */
+	public boolean isShutdown() {
+		return group.isShutdown();
+	}
+
+	/**
+	 * Closes all channels of this group and stops the threads.
+	 */
+	public void shutdown() {
+		try {
+			group.shutdownNow();
+		} catch (IOException e) {
+			/*
+			 * Ignore exception.
+			 */
+		}
+	}
+
+	/**
+	 * Runs a task on a thread of this group.
+	 * 
+	 * @param task the task
+	 */
+	void execute(final Runnable task) {
+		executor.execute(task);
+	}
+}
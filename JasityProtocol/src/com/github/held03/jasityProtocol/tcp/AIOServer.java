@@ -0,0 +1,210 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ *
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ *
+ *     https://github.com/Held03/JasityProtocol.git
+ *
+ */
+
+package com.github.held03.jasityProtocol.tcp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.ShutdownChannelGroupException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.github.held03.jasityProtocol.base.AbstractServer;
+import com.github.held03.jasityProtocol.interfaces.Address;
+import com.github.held03.jasityProtocol.interfaces.Node;
+
+
+/**
+ * Asynchronous server counterpart of {@link AIOConnection}.
+ * <p>
+ * Accepting is driven by completion handlers on the threads of the
+ * {@link AIOGroup}, the next accept is started before the
+ * accepted connection is handled.
+ * 
+ * @author held03
+ */
+public class AIOServer extends AbstractServer {
+
+	/**
+	 * The channel accepting the connections.
+	 */
+	protected final AsynchronousServerSocketChannel server;
+
+	/**
+	 * The group driving the server and the accepted connections.
+	 */
+	protected final AIOGroup group;
+
+	/**
+	 * Indicates if the server accepts.
+	 */
+	private boolean opened = false;
+
+	/**
+	 * Handles accepted connections.
+	 */
+	private final CompletionHandler<AsynchronousSocketChannel, Void> acceptHandler = new CompletionHandler<AsynchronousSocketChannel, Void>() {
+
+		@Override
+		public void completed(final AsynchronousSocketChannel s, final Void attachment) {
+			accept();
+
+			try {
+				InetSocketAddress local = (InetSocketAddress) s.getLocalAddress();
+				InetSocketAddress remote = (InetSocketAddress) s.getRemoteAddress();
+
+				Node n = AIOConnection.newConnection(s, new TCPAddress(local.getAddress(), local.getPort()),
+						new TCPAddress(remote.getAddress(), remote.getPort()), group, AIOServer.this);
+
+				addNode(n);
+
+			} catch (IOException e) {
+				try {
+					s.close();
+				} catch (IOException e1) {
+					/*
+					 * Ignore exception.
+					 */
+				}
+			}
+		}
+
+		@Override
+		public void failed(final Throwable exc, final Void attachment) {
+			if (server.isOpen()) {
+				Logger.getLogger(AIOServer.class.getName()).log(Level.WARNING, "Accept failed.", exc);
+
+				accept();
+			}
+		}
+	};
+
+	/**
+	 * Creates a server for the given bound channel.
+	 * 
+	 * @param localAddress the address of the server
+	 * @param server the bound channel
+	 * @param group the group driving the server
+	 */
+	protected AIOServer(final Address localAddress, final AsynchronousServerSocketChannel server,
+			final AIOGroup group) {
+		super(localAddress);
+
+		this.server = server;
+		this.group = group;
+	}
+
+	/**
+	 * Opens a server on the given port.
+	 * <p>
+	 * The server will be driven by the default {@link AIOGroup}.
+	 * 
+	 * @param port the port to listen on
+	 * @return the new server
+	 * @throws IOException
+	 */
+	public static AIOServer openServer(final int port) throws IOException {
+		return openServer(port, AIOGroup.getDefault());
+	}
+
+	/**
+	 * Opens a server on the given port.
+	 * 
+	 * @param port the port to listen on
+	 * @param group the group driving the server and its connections
+	 * @return the new server
+	 * @throws IOException
+	 */
+	public static AIOServer openServer(final int port, final AIOGroup group) throws IOException {
+		AsynchronousServerSocketChannel server = AsynchronousServerSocketChannel.open(group.getChannelGroup());
+
+		server.bind(new InetSocketAddress(port));
+
+		InetSocketAddress local = (InetSocketAddress) server.getLocalAddress();
+
+		return new AIOServer(new TCPAddress(local.getAddress(), local.getPort()), server, group);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.github.held03.jasityProtocol.interfaces.Server#open()
+	 */
+	@Override
+	public synchronized void open() {
+		if (opened) {
+			return;
+		}
+
+		opened = true;
+
+		accept();
+	}
+
+	/**
+	 * Starts accepting the next connection.
+	 */
+	protected void accept() {
+		try {
+			server.accept(null, acceptHandler);
+		} catch (ShutdownChannelGroupException e) {
+			/*
+			 * The group was shut down.
+			 */
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.github.held03.jasityProtocol.base.AbstractServer#close()
+	 */
+	@Override
+	public void close() {
+		try {
+			server.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		for (Node n : getRelatedNodes()) {
+			n.close();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.interfaces.Connection#getBlockSize()
+	 */
+	@Override
+	public int getBlockSize() {
+		// Nothing to send.
+		return 0;
+	}
+
+}
@@ -0,0 +1,473 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ *
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ *
+ *     https://github.com/Held03/JasityProtocol.git
+ *
+ */
+
+package com.github.held03.jasityProtocol.tcp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.github.held03.jasityProtocol.base.AbstractConnection;
+import com.github.held03.jasityProtocol.base.DefaultNode;
+import com.github.held03.jasityProtocol.base.util.BufferPool;
+import com.github.held03.jasityProtocol.base.util.GatheringBuffer;
+import com.github.held03.jasityProtocol.interfaces.Address;
+import com.github.held03.jasityProtocol.interfaces.DirectConnection;
+import com.github.held03.jasityProtocol.interfaces.Node;
+import com.github.held03.jasityProtocol.interfaces.NodeClosedException;
+import com.github.held03.jasityProtocol.tcp.NIOEventLoopGroup.EventLoop;
+import com.github.held03.jasityProtocol.tcp.NIOEventLoopGroup.SelectHandler;
+
+
+/**
+ * Non-blocking TCP implementation for the JasityProtocol.
+ * <p>
+ * Unlike {@link TCPConnection} this connection does not own any thread. It is
+ * driven by an event loop of a {@link NIOEventLoopGroup}, which handles the
+ * reading and writing of many connections. Outgoing data is pulled by
+ * {@link Node#getNextBlockDirectly(int)} as soon as the channel is writable.
+ * <p>
+ * The blocks are framed exactly like by {@link TCPConnection}, so both
+ * implementations can talk to each other.
+ * 
+ * @author held03
+ */
+public class NIOConnection extends AbstractConnection implements DirectConnection, SelectHandler {
+
+	/**
+	 * The standard block size for the node blocks.
+	 */
+	protected static final int STANDART_BLOCK_SIZE = TCPConnection.STANDART_BLOCK_SIZE;
+
+	/**
+	 * The maximum block size for the node blocks.
+	 */
+	protected static final int MAX_BLOCK_SIZE = TCPConnection.MAX_BLOCK_SIZE;
+
+	/**
+	 * The size of the frame header: a boolean and the block length.
+	 */
+	protected static final int HEADER_SIZE = 5;
+
+	/**
+	 * Maximum count of blocks read or written at once, before other channels
+	 * of the loop get their turn.
+	 */
+	protected static final int SPIN_COUNT = 16;
+
+	/**
+	 * The back end channel over which the communication will be done.
+	 */
+	protected final SocketChannel channel;
+
+	/**
+	 * The address of the remote end.
+	 */
+	protected final Address remoteAddress;
+
+	/**
+	 * The loop which drives this connection.
+	 */
+	protected final EventLoop loop;
+
+	/**
+	 * The connection which created this one, or <code>null</code>.
+	 * <p>
+	 * It gets informed if the node of this connection is lost.
+	 */
+	protected final AbstractConnection owner;
+
+	/**
+	 * The node of this connection.
+	 */
+	protected volatile Node node;
+
+	/**
+	 * The selection key of the channel.
+	 */
+	protected SelectionKey key;
+
+	/**
+	 * Buffer for the header of the currently read frame.
+	 */
+	protected final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+	/**
+	 * Buffer for the block of the currently read frame, or <code>null</code>
+	 * if the header is read.
+	 * <p>
+	 * It is leased from the direct {@link BufferPool} for each frame.
+	 */
+	protected ByteBuffer body;
+
+	/**
+	 * The segments of the frame currently written.
+	 * <p>
+	 * The frame and block headers are encoded into a buffer leased from the
+	 * direct {@link BufferPool} for each frame, large message data is written
+	 * straight from the message.
+	 */
+	protected final GatheringBuffer frame = new GatheringBuffer(null);
+
+	/**
+	 * Set if the frame could not be written at once.
+	 */
+	protected boolean pending = false;
+
+	/**
+	 * Indicates if a flush is already scheduled within the loop.
+	 */
+	private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+	/**
+	 * Task to flush within the loop.
+	 */
+	private final Runnable flushTask = new Runnable() {
+
+		@Override
+		public void run() {
+			flushScheduled.set(false);
+			flush();
+		}
+	};
+
+	/**
+	 * Creates a connection over the given channel.
+	 * 
+	 * @param channel the connected channel
+	 * @param local the local address
+	 * @param remote the remote address
+	 * @param loop the loop driving the connection
+	 * @param owner the connection informed about lost nodes, or
+	 *            <code>null</code>
+	 */
+	protected NIOConnection(final SocketChannel channel, final Address local, final Address remote,
+			final EventLoop loop, final AbstractConnection owner) {
+		super(local, true);
+
+		this.channel = channel;
+		this.remoteAddress = remote;
+		this.loop = loop;
+		this.owner = owner;
+	}
+
+	/**
+	 * Creates a node connected to the given address.
+	 * <p>
+	 * The connection will be driven by the default {@link NIOEventLoopGroup}.
+	 * 
+	 * @param connectTo the address to connect to
+	 * @return the node representing this connection
+	 * @throws IOException
+	 */
+	public static Node newConnection(final TCPAddress connectTo) throws IOException {
+		return newConnection(connectTo, NIOEventLoopGroup.getDefault());
+	}
+
+	/**
+	 * Creates a node connected to the given address.
+	 * 
+	 * @param connectTo the address to connect to
+	 * @param group the group which drives the connection
+	 * @return the node representing this connection
+	 * @throws IOException
+	 */
+	public static Node newConnection(final TCPAddress connectTo, final NIOEventLoopGroup group) throws IOException {
+		SocketChannel channel = SocketChannel.open(new InetSocketAddress(connectTo.inetAddress, connectTo.port));
+
+		Address local = new TCPAddress(channel.socket().getLocalAddress(), channel.socket().getLocalPort());
+
+		return newConnection(channel, local, connectTo, group, null);
+	}
+
+	/**
+	 * Creates a node communicating over the given channel.
+	 * <p>
+	 * This can be used for any connected stream channel, like an accepted one.
+	 * 
+	 * @param channel the connected channel
+	 * @param local the local address
+	 * @param remote the remote address
+	 * @param group the group which drives the connection
+	 * @param owner the connection informed about lost nodes, or
+	 *            <code>null</code>
+	 * @return the node representing this connection
+	 * @throws IOException
+	 */
+	public static Node newConnection(final SocketChannel channel, final Address local, final Address remote,
+			final NIOEventLoopGroup group, final AbstractConnection owner) throws IOException {
+		channel.configureBlocking(false);
+
+		final NIOConnection con = new NIOConnection(channel, local, remote, group.next(), owner);
+
+		Node n = new DefaultNode(remote, con);
+
+		con.addNode(n);
+
+		con.node = n;
+
+		con.loop.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				con.register();
+			}
+		});
+
+		return n;
+	}
+
+	/**
+	 * Registers the channel with the selector of the loop.
+	 * <p>
+	 * This must be called within the loop.
+	 */
+	protected void register() {
+		if (isClosed) {
+			return;
+		}
+
+		try {
+			key = channel.register(loop.selector, SelectionKey.OP_READ, this);
+
+		} catch (ClosedChannelException e) {
+			close();
+
+			return;
+		}
+
+		flush();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.interfaces.Connection#getBlockSize()
+	 */
+	@Override
+	public int getBlockSize() {
+		return STANDART_BLOCK_SIZE;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.github.held03.jasityProtocol.base.AbstractConnection#isOrdered()
+	 */
+	@Override
+	public boolean isOrdered() {
+		return true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.interfaces.DirectConnection#blockAvailable
+	 * (com.github.held03.jasityProtocol.interfaces.Node)
+	 */
+	@Override
+	public void blockAvailable(final Node node) {
+		if (!isClosed && flushScheduled.compareAndSet(false, true)) {
+			loop.execute(flushTask);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.tcp.NIOEventLoopGroup.SelectHandler#
+	 * select(java.nio.channels.SelectionKey)
+	 */
+	@Override
+	public void select(final SelectionKey key) {
+		if (key.isReadable()) {
+			read();
+		}
+
+		if (key.isValid() && key.isWritable()) {
+			flush();
+		}
+	}
+
+	/**
+	 * Reads as many frames as available and delivers them to the node.
+	 * <p>
+	 * This must be called within the loop.
+	 */
+	protected void read() {
+		try {
+			for (int i = 0; i < SPIN_COUNT && !isClosed; i++) {
+				if (body == null) {
+					if (channel.read(header) < 0) {
+						close();
+						return;
+					}
+
+					if (header.hasRemaining()) {
+						return;
+					}
+
+					header.flip();
+
+					boolean more = header.get() != 0;
+					int len = header.getInt();
+
+					header.clear();
+
+					if (!more || len < 0 || len > MAX_BLOCK_SIZE) {
+						close();
+						return;
+					}
+
+					body = BufferPool.getDefaultDirect().lease(len);
+				}
+
+				if (channel.read(body) < 0) {
+					close();
+					return;
+				}
+
+				if (body.hasRemaining()) {
+					return;
+				}
+
+				ByteBuffer data = body;
+				body = null;
+
+				data.flip();
+
+				try {
+					node.receivedBlock(data);
+				} catch (RuntimeException e) {
+					/*
+					 * A malformed block must not escape to the event loop, the
+					 * connection would be left half open.
+					 */
+					close();
+					return;
+				} finally {
+					BufferPool.getDefaultDirect().release(data);
+				}
+			}
+
+		} catch (IOException e) {
+			close();
+		}
+	}
+
+	/**
+	 * Writes as many blocks as the channel accepts.
+	 * <p>
+	 * If the channel is full, the write interest gets registered, so this
+	 * will be called again if the channel gets writable.
+	 * <p>
+	 * This must be called within the loop.
+	 */
+	protected void flush() {
+		if (isClosed || key == null || node == null) {
+			return;
+		}
+
+		try {
+			for (int i = 0; i < SPIN_COUNT; i++) {
+				if (!pending) {
+					ByteBuffer out = BufferPool.getDefaultDirect().lease(HEADER_SIZE + getBlockSize());
+					out.position(HEADER_SIZE);
+
+					frame.clear(out);
+
+					int len = node.getNextBlockDirectly(frame);
+
+					if (len == 0) {
+						BufferPool.getDefaultDirect().release(out);
+						key.interestOps(SelectionKey.OP_READ);
+						return;
+					}
+
+					out.put(0, (byte) 1);
+					out.putInt(1, len);
+
+					frame.finish();
+
+					pending = true;
+				}
+
+				channel.write(frame.getSegments(), 0, frame.getSegmentCount());
+
+				if (frame.hasRemaining()) {
+					key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+					return;
+				}
+
+				BufferPool.getDefaultDirect().release(frame.getBuffer());
+				frame.clear(null);
+				pending = false;
+			}
+
+			/*
+			 * Give other channels a chance, and continue afterwards.
+			 */
+			blockAvailable(node);
+
+		} catch (NodeClosedException | IOException e) {
+			close();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.github.held03.jasityProtocol.base.AbstractConnection#close()
+	 */
+	@Override
+	public void close() {
+		if (isClosed) {
+			return;
+		}
+
+		isClosed = true;
+
+		if (key != null) {
+			key.cancel();
+		}
+
+		try {
+			channel.close();
+		} catch (IOException e) {
+			/*
+			 * Ignore exception.
+			 */
+		}
+
+		super.close();
+
+		if (owner != null && node != null) {
+			owner.rmNode(node);
+		}
+	}
+}
@@ -0,0 +1,343 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ *
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ *
+ *     https://github.com/Held03/JasityProtocol.git
+ *
+ */
+
+package com.github.held03.jasityProtocol.tcp;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * A fixed set of event loop threads driving non-blocking channels.
+ * <p>
+ * Every loop owns one {@link Selector} and handles all channels registered
+ * with it. New channels are spread round robin over the loops. The count of
+ * threads is fixed by construction, independent of the count of connections.
+ * <p>
+ * Usually one group is shared by all connections, see {@link #getDefault()}.
+ * 
+ * @author held03
+ */
+public class NIOEventLoopGroup {
+
+	/**
+	 * The shared default group.
+	 */
+	private static NIOEventLoopGroup defaultGroup;
+
+	/**
+	 * The loops of this group.
+	 */
+	protected final EventLoop[] loops;
+
+	/**
+	 * Counter to select the next loop.
+	 */
+	private final AtomicInteger nextLoop = new AtomicInteger();
+
+	/**
+	 * Indicates if the group was shut down.
+	 */
+	private volatile boolean isShutdown = false;
+
+	/**
+	 * Creates a group with the given count of event loop threads.
+	 * 
+	 * @param threads the count of threads, at least one
+	 * @throws IOException if a selector could not be opened
+	 */
+	public NIOEventLoopGroup(final int threads) throws IOException {
+		if (threads < 1) {
+			throw new IllegalArgumentException("At least one thread is required: " + threads);
+		}
+
+		loops = new EventLoop[threads];
+
+		for (int i = 0; i < threads; i++) {
+			loops[i] = new EventLoop(i);
+		}
+
+		for (EventLoop loop : loops) {
+			loop.thread.start();
+		}
+	}
+
+	/**
+	 * Gets the shared default group.
+	 * <p>
+	 * It is created on first use with one thread per available processor.
+	 * 
+	 * @return the default group
+	 * @throws IOException if the group could not be created
+	 */
+	public static synchronized NIOEventLoopGroup getDefault() throws IOException {
+		if (defaultGroup == null || defaultGroup.isShutdown()) {
+			defaultGroup = new NIOEventLoopGroup(Runtime.getRuntime().availableProcessors());
+		}
+
+		return defaultGroup;
+	}
+
+	/**
+	 * Gets the count of event loop threads of this group.
+	 * 
+	 * @return the count of threads
+	 */
+	public int getThreadCount() {
+		return loops.length;
+	}
+
+	/**
+	 * Returns if this group was shut down.
+	 * 
+	 * @return <code>true</code> if shut down
+	 */
+	public boolean isShutdown() {
+		return isShutdown;
+	}
+
+	/**
+	 * Stops all loops of this group.
+	 * <p>
+	 * All channels still registered will be closed.
+	 */
+	public void shutdown() {
+		isShutdown = true;
+
+		for (EventLoop loop : loops) {
+			loop.running = false;
+			loop.selector.wakeup();
+		}
+	}
+
+	/**
+	 * Waits until all loops stopped after a {@link #shutdown()}.
+	 * <p>
+	 * Only then all channels are closed and their ports released.
+	 * 
+	 * @param timeout the maximum time to wait
+	 * @param unit the unit of the timeout
+	 * @return <code>true</code> if all loops stopped, <code>false</code> if
+	 *         the timeout elapsed before
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+		for (EventLoop loop : loops) {
+			if (loop.inLoop()) {
+				continue;
+			}
+
+			long left = deadline - System.nanoTime();
+
+			if (left > 0) {
+				TimeUnit.NANOSECONDS.timedJoin(loop.thread, left);
+			}
+
+			if (loop.thread.isAlive()) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Selects the loop for a new channel.
+	 * 
+	 * @return the next loop
+	 */
+	EventLoop next() {
+		if (isShutdown) {
+			throw new IllegalStateException("The event loop group was shut down.");
+		}
+
+		return loops[ (nextLoop.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+	}
+
+	/**
+	 * Handles the ready operations of a selection key.
+	 * <p>
+	 * Every key registered to a loop has to carry such a handler as
+	 * attachment.
+	 * 
+	 * @author held03
+	 */
+	interface SelectHandler {
+
+		/**
+		 * The channel of the given key is ready.
+		 * <p>
+		 * This is always called from the loop thread.
+		 * 
+		 * @param key the ready key
+		 */
+		public void select(SelectionKey key);
+
+		/**
+		 * The loop stopped.
+		 * <p>
+		 * The handler should close its channel.
+		 */
+		public void close();
+	}
+
+	/**
+	 * A single event loop thread.
+	 * 
+	 * @author held03
+	 */
+	class EventLoop implements Runnable {
+
+		/**
+		 * The selector of this loop.
+		 */
+		final Selector selector;
+
+		/**
+		 * The thread running this loop.
+		 */
+		final Thread thread;
+
+		/**
+		 * Tasks to execute within this loop.
+		 */
+		private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+		/**
+		 * Indicates if the selector was already woken up.
+		 */
+		private final AtomicBoolean wokenUp = new AtomicBoolean();
+
+		/**
+		 * Indicates if this loop should run.
+		 */
+		volatile boolean running = true;
+
+		/**
+		 * Creates a loop.
+		 * 
+		 * @param index the index of the loop in the group
+		 * @throws IOException if the selector could not be opened
+		 */
+		EventLoop(final int index) throws IOException {
+			selector = Selector.open();
+
+			thread = new Thread(this);
+			thread.setDaemon(true);
+			thread.setName("NIO event loop " + index);
+		}
+
+		/**
+		 * Checks if the current thread is this loop.
+		 * 
+		 * @return <code>true</code> if called from within the loop
+		 */
+		boolean inLoop() {
+			return Thread.currentThread() == thread;
+		}
+
+		/**
+		 * Executes the given task within the loop.
+		 * <p>
+		 * This can be called from any thread.
+		 * 
+		 * @param task the task to run
+		 */
+		void execute(final Runnable task) {
+			tasks.add(task);
+
+			if (!inLoop() && wokenUp.compareAndSet(false, true)) {
+				selector.wakeup();
+			}
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run() {
+			while (running) {
+				try {
+					wokenUp.set(false);
+
+					if (tasks.isEmpty()) {
+						selector.select();
+					} else {
+						selector.selectNow();
+					}
+
+					Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+					while (keys.hasNext()) {
+						SelectionKey key = keys.next();
+						keys.remove();
+
+						if (key.isValid()) {
+							((SelectHandler) key.attachment()).select(key);
+						}
+					}
+
+					Runnable task;
+
+					while ( (task = tasks.poll()) != null) {
+						task.run();
+					}
+
+				} catch (IOException | RuntimeException e) {
+					Logger.getLogger(NIOEventLoopGroup.class.getName()).log(Level.WARNING,
+							"Failure within event loop " + thread.getName(), e);
+				}
+			}
+
+			/*
+			 * Close all remaining channels.
+			 */
+			for (SelectionKey key : new ArrayList<SelectionKey>(selector.keys())) {
+				((SelectHandler) key.attachment()).close();
+			}
+
+			try {
+				selector.close();
+			} catch (IOException e) {
+				/*
+				 * Ignore exception.
+				 */
+			}
+		}
+	}
+}
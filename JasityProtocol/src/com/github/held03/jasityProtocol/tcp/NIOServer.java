@@ -0,0 +1,247 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ *
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ *
+ *     https://github.com/Held03/JasityProtocol.git
+ *
+ */
+
+package com.github.held03.jasityProtocol.tcp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.github.held03.jasityProtocol.base.AbstractServer;
+import com.github.held03.jasityProtocol.interfaces.Address;
+import com.github.held03.jasityProtocol.interfaces.Node;
+import com.github.held03.jasityProtocol.tcp.NIOEventLoopGroup.EventLoop;
+import com.github.held03.jasityProtocol.tcp.NIOEventLoopGroup.SelectHandler;
+
+
+/**
+ * Non-blocking server counterpart of {@link NIOConnection}.
+ * <p>
+ * The server accepts new connections within one loop of its
+ * {@link NIOEventLoopGroup}, every accepted connection gets assigned to the
+ * next loop of the group.
+ * 
+ * @author held03
+ */
+public class NIOServer extends AbstractServer implements SelectHandler {
+
+	/**
+	 * Maximum count of connections accepted at once.
+	 */
+	protected static final int ACCEPT_COUNT = 64;
+
+	/**
+	 * The channel accepting the connections.
+	 */
+	protected final ServerSocketChannel server;
+
+	/**
+	 * The group driving the server and the accepted connections.
+	 */
+	protected final NIOEventLoopGroup group;
+
+	/**
+	 * The loop accepting new connections.
+	 */
+	protected EventLoop loop;
+
+	/**
+	 * The selection key of the server channel.
+	 */
+	protected SelectionKey key;
+
+	/**
+	 * Creates a server for the given bound channel.
+	 * 
+	 * @param localAddress the address of the server
+	 * @param server the bound channel
+	 * @param group the group driving the server
+	 */
+	protected NIOServer(final Address localAddress, final ServerSocketChannel server, final NIOEventLoopGroup group) {
+		super(localAddress);
+
+		this.server = server;
+		this.group = group;
+	}
+
+	/**
+	 * Opens a server on the given port.
+	 * <p>
+	 * The server will be driven by the default {@link NIOEventLoopGroup}.
+	 * 
+	 * @param port the port to listen on
+	 * @return the new server
+	 * @throws IOException
+	 */
+	public static NIOServer openServer(final int port) throws IOException {
+		return openServer(port, NIOEventLoopGroup.getDefault());
+	}
+
+	/**
+	 * Opens a server on the given port.
+	 * 
+	 * @param port the port to listen on
+	 * @param group the group driving the server and its connections
+	 * @return the new server
+	 * @throws IOException
+	 */
+	public static NIOServer openServer(final int port, final NIOEventLoopGroup group) throws IOException {
+		ServerSocketChannel server = ServerSocketChannel.open();
+
+		server.bind(new InetSocketAddress(port));
+
+		Address local = new TCPAddress(server.socket().getInetAddress(), server.socket().getLocalPort());
+
+		return new NIOServer(local, server, group);
+	}
+
+	/**
+	 * Creates the address for an end point of an accepted channel.
+	 * 
+	 * @param address the socket address of the end point
+	 * @param channel the accepted channel
+	 * @return the address of the end point
+	 */
+	protected Address createAddress(final SocketAddress address, final SocketChannel channel) {
+		InetSocketAddress inet = (InetSocketAddress) address;
+
+		return new TCPAddress(inet.getAddress(), inet.getPort());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.github.held03.jasityProtocol.interfaces.Server#open()
+	 */
+	@Override
+	public synchronized void open() {
+		if (loop != null) {
+			return;
+		}
+
+		loop = group.next();
+
+		loop.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					server.configureBlocking(false);
+
+					key = server.register(loop.selector, SelectionKey.OP_ACCEPT, NIOServer.this);
+
+				} catch (ClosedChannelException e) {
+					/*
+					 * Closed before opened.
+					 */
+				} catch (IOException e) {
+					Logger.getLogger(NIOServer.class.getName()).log(Level.WARNING, "Could not open server.", e);
+				}
+			}
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.tcp.NIOEventLoopGroup.SelectHandler#
+	 * select(java.nio.channels.SelectionKey)
+	 */
+	@Override
+	public void select(final SelectionKey key) {
+		for (int i = 0; i < ACCEPT_COUNT; i++) {
+			SocketChannel s;
+
+			try {
+				s = server.accept();
+
+			} catch (IOException e) {
+				Logger.getLogger(NIOServer.class.getName()).log(Level.WARNING, "Accept failed.", e);
+				return;
+			}
+
+			if (s == null) {
+				return;
+			}
+
+			try {
+				Address local = createAddress(s.getLocalAddress(), s);
+				Address remote = createAddress(s.getRemoteAddress(), s);
+
+				Node n = NIOConnection.newConnection(s, local, remote, group, this);
+
+				addNode(n);
+
+			} catch (IOException e) {
+				try {
+					s.close();
+				} catch (IOException e1) {
+					/*
+					 * Ignore exception.
+					 */
+				}
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.github.held03.jasityProtocol.base.AbstractServer#close()
+	 */
+	@Override
+	public void close() {
+		if (key != null) {
+			key.cancel();
+		}
+
+		try {
+			server.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		for (Node n : getRelatedNodes()) {
+			n.close();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.interfaces.Connection#getBlockSize()
+	 */
+	@Override
+	public int getBlockSize() {
+		// Nothing to send.
+		return 0;
+	}
+
+}
@@ -26,24 +26,35 @@
 
 package com.github.held03.jasityProtocol.tcp;
 
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 
 import com.github.held03.jasityProtocol.base.AbstractConnection;
 import com.github.held03.jasityProtocol.base.DefaultNode;
+import com.github.held03.jasityProtocol.base.util.BufferPool;
+import com.github.held03.jasityProtocol.base.util.GatheringBuffer;
 import com.github.held03.jasityProtocol.interfaces.Address;
+import com.github.held03.jasityProtocol.interfaces.DirectConnection;
 import com.github.held03.jasityProtocol.interfaces.Node;
 import com.github.held03.jasityProtocol.interfaces.NodeClosedException;
 
 
 /**
  * TCP implementation for the JasityProtocol.
+ * <p>
+ * Every connection has a reader and a writer thread. The writer is informed
+ * by the node through {@link #blockAvailable(Node)} and waits by the
+ * {@link DefaultNode#getWaitStrategy()} of the node meanwhile. It only leases
+ * a buffer while there is something to send, so idle connections keep no
+ * buffer.
  * 
  * @author held03
  */
-public class TCPConnection extends AbstractConnection {
+public class TCPConnection extends AbstractConnection implements DirectConnection {
 
 	/**
 	 * The standard block size for the node blocks.
@@ -55,11 +66,36 @@ public class TCPConnection extends AbstractConnection {
 	 */
 	protected static final int MAX_BLOCK_SIZE = 0xFFFFF; // 1MB 
 
+	/**
+	 * The size of the frame header: a boolean and the block length.
+	 */
+	protected static final int HEADER_SIZE = 5;
+
+	/**
+	 * The size of the buffer collecting small frames before they are written
+	 * to the socket.
+	 * <p>
+	 * Larger segments are written straight to the socket.
+	 */
+	protected static final int WRITE_BUFFER_SIZE = 8192;
+
 	/**
 	 * The back end socket over which the communication will be done.
 	 */
 	protected Socket socket;
 
+	/**
+	 * The connection informed about the lost node, or <code>null</code>.
+	 */
+	protected AbstractConnection owner;
+
+	/**
+	 * The node of this connection.
+	 * <p>
+	 * The received blocks are passed to it directly, without looking it up.
+	 */
+	protected Node node;
+
 	/**
 	 * The reader thread which handles the reading.
 	 */
@@ -67,8 +103,21 @@ public class TCPConnection extends AbstractConnection {
 
 	/**
 	 * The writer thread which handles the writing.
+	 * <p>
+	 * It is read by the threads signaling new blocks, which may have been
+	 * started before it got assigned.
 	 */
-	private Thread writer;
+	private volatile Thread writer;
+
+	/**
+	 * Set if the node got new blocks since the writer polled it last.
+	 */
+	private volatile boolean blockAvailable = true;
+
+	/**
+	 * If new connections run their threads on virtual threads by default.
+	 */
+	private static volatile boolean defaultVirtualThreads = false;
 
 	/**
 	 * @param localAddress
@@ -77,6 +126,44 @@ public class TCPConnection extends AbstractConnection {
 		super(local, true);
 	}
 
+	/**
+	 * Sets if new connections run their reader and writer on virtual threads
+	 * by default.
+	 * <p>
+	 * Blocked virtual threads do not occupy a platform thread, so a thread per
+	 * connection scales to many thousand connections. Virtual threads are
+	 * always daemon threads.
+	 * 
+	 * @param virtual <code>true</code> to use virtual threads
+	 * @throws UnsupportedOperationException if the runtime has no virtual
+	 *             threads (before Java 21)
+	 */
+	public static void setDefaultVirtualThreads(final boolean virtual) {
+		if (virtual) {
+			VirtualThreads.checkSupported();
+		}
+
+		defaultVirtualThreads = virtual;
+	}
+
+	/**
+	 * Checks if new connections use virtual threads by default.
+	 * 
+	 * @return <code>true</code> if virtual threads are used
+	 */
+	public static boolean isDefaultVirtualThreads() {
+		return defaultVirtualThreads;
+	}
+
+	/**
+	 * Checks if the runtime supports virtual threads.
+	 * 
+	 * @return <code>true</code> if supported
+	 */
+	public static boolean isVirtualThreadsSupported() {
+		return VirtualThreads.isSupported();
+	}
+
 	/**
 	 * Creates a node connected to the given address.
 	 * 
@@ -86,6 +173,25 @@ public class TCPConnection extends AbstractConnection {
 	 * @throws IOException
 	 */
 	public static Node newConnection(final TCPAddress connectTo) throws IOException {
+		return newConnection(connectTo, defaultVirtualThreads);
+	}
+
+	/**
+	 * Creates a node connected to the given address.
+	 * 
+	 * @param connectTo
+	 *            the address to connect to
+	 * @param virtual
+	 *            if <code>true</code> the reader and writer run on virtual
+	 *            threads
+	 * @return the node representing this connection
+	 * @throws IOException
+	 */
+	public static Node newConnection(final TCPAddress connectTo, final boolean virtual) throws IOException {
+		if (virtual) {
+			VirtualThreads.checkSupported();
+		}
+
 		@SuppressWarnings("resource")
 		Socket s = new Socket(connectTo.inetAddress, connectTo.port);
 
@@ -97,22 +203,29 @@ public class TCPConnection extends AbstractConnection {
 
 		con.addNode(n);
 
-		con.socket = s;
+		con.node = n;
 
-		con.reader = new Thread(con.new Reader());
-		con.reader.setDaemon(false);
-		con.reader.setName("Read from " + connectTo);
-		con.reader.start();
+		con.socket = s;
 
-		con.writer = new Thread(con.new Writer());
-		con.writer.setDaemon(true);
-		con.writer.setName("Write to " + connectTo);
-		con.writer.start();
+		con.start(connectTo, virtual);
 
 		return n;
 	}
 
-	static Node newConnection(final Socket connection) throws IOException {
+	/**
+	 * Creates a node for an accepted socket.
+	 * <p>
+	 * The connection is not started yet, so listeners can be added to the
+	 * node before the first block is read. It has to be started by
+	 * {@link #start(Address, boolean)}.
+	 * 
+	 * @param connection the accepted socket
+	 * @param owner the connection informed about the lost node, or
+	 *            <code>null</code>
+	 * @return the connection, its node is {@link #node}
+	 * @throws IOException
+	 */
+	static TCPConnection newConnection(final Socket connection, final AbstractConnection owner) throws IOException {
 		Address local = new TCPAddress(connection.getLocalAddress(), connection.getLocalPort());
 		Address remote = new TCPAddress(connection.getInetAddress(), connection.getPort());
 
@@ -120,23 +233,45 @@ public class TCPConnection extends AbstractConnection {
 
 		Node n = new DefaultNode(remote, con);
 
-		System.out.println("creat node to: " + n.getRemoteAddress());
-
 		con.addNode(n);
 
+		con.owner = owner;
+		con.node = n;
+
 		con.socket = connection;
 
-		con.reader = new Thread(con.new Reader());
-		con.reader.setDaemon(false);
-		con.reader.setName("Read from " + remote);
-		con.reader.start();
+		return con;
+	}
 
-		con.writer = new Thread(con.new Writer());
-		con.writer.setDaemon(true);
-		con.writer.setName("Write to " + remote);
-		con.writer.start();
+	/**
+	 * Starts the reader and writer thread.
+	 * 
+	 * @param remote the remote address, used for the thread names
+	 * @param virtual if <code>true</code> virtual threads are used
+	 */
+	void start(final Address remote, final boolean virtual) {
+		reader = VirtualThreads.newThread(new Reader(), "Read from " + remote, false, virtual);
+		reader.start();
 
-		return n;
+		writer = VirtualThreads.newThread(new Writer(), "Write to " + remote, true, virtual);
+		writer.start();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.interfaces.DirectConnection#blockAvailable
+	 * (com.github.held03.jasityProtocol.interfaces.Node)
+	 */
+	@Override
+	public void blockAvailable(final Node node) {
+		blockAvailable = true;
+
+		Thread t = writer;
+
+		if (t != null) {
+			((DefaultNode) node).getWaitStrategy().signal(t);
+		}
 	}
 
 	/*
@@ -149,8 +284,21 @@ public class TCPConnection extends AbstractConnection {
 		return STANDART_BLOCK_SIZE;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * @see com.github.held03.jasityProtocol.base.AbstractConnection#isOrdered()
+	 */
+	@Override
+	public boolean isOrdered() {
+		return true;
+	}
+
 	@Override
 	public void close() {
+		if (isClosed) {
+			return;
+		}
+
 		if (reader != null)
 			reader.interrupt();
 
@@ -171,6 +319,10 @@ public class TCPConnection extends AbstractConnection {
 
 		super.close();
 
+		if (owner != null) {
+			owner.rmNode(node);
+		}
+
 	}
 
 	class Reader implements Runnable {
@@ -183,20 +335,29 @@ public class TCPConnection extends AbstractConnection {
 		public void run() {
 			try (DataInputStream in = new DataInputStream(TCPConnection.this.socket.getInputStream())) {
 
-				Address from = new TCPAddress(socket.getInetAddress(), socket.getPort());
-
-				//System.out.println("[" + Thread.currentThread().getName() + "] from: " + from);
-
 				int len;
-				byte[] buf = new byte[MAX_BLOCK_SIZE];
+				ByteBuffer buf;
 
 				while (in.readBoolean() && !Thread.currentThread().isInterrupted()) {
 					len = in.readInt();
 
-					in.readFully(buf, 0, len);
+					if (len < 0 || len > MAX_BLOCK_SIZE) {
+						break;
+					}
+
+					/*
+					 * Lease a buffer for each frame, so an idle connection
+					 * does not hold any.
+					 */
+					buf = BufferPool.getDefault().lease(len);
 
-					deliverBlock(buf, from);
+					try {
+						in.readFully(buf.array(), 0, len);
 
+						node.receivedBlock(buf);
+					} finally {
+						BufferPool.getDefault().release(buf);
+					}
 				}
 
 			} catch (IOException e) {
@@ -216,28 +377,74 @@ public class TCPConnection extends AbstractConnection {
 		 */
 		@Override
 		public void run() {
-			try (DataOutputStream out = new DataOutputStream(TCPConnection.this.socket.getOutputStream())) {
+			try (OutputStream out = new BufferedOutputStream(TCPConnection.this.socket.getOutputStream(),
+					WRITE_BUFFER_SIZE)) {
+
+				int size = HEADER_SIZE + getBlockSize();
+				GatheringBuffer frame = null;
+				int idle = 0;
+
+				while (!Thread.currentThread().isInterrupted()) {
+					if (!blockAvailable) {
+						((DefaultNode) node).getWaitStrategy().idle(idle++, 0);
+
+						continue;
+					}
+
+					blockAvailable = false;
+					idle = 0;
 
-				Address to = new TCPAddress(socket.getInetAddress(), socket.getPort());
+					/*
+					 * The frame header and the block headers are encoded into
+					 * the same buffer, which is only leased until nothing is
+					 * left to send. Large message data is written straight
+					 * from the message.
+					 */
+					ByteBuffer buf = BufferPool.getDefault().lease(size);
 
-				byte[] buf;
+					if (frame == null) {
+						frame = new GatheringBuffer(buf);
+					}
 
-				//System.out.println("[" + Thread.currentThread().getName() + "] to: " + to);
+					try {
+						/*
+						 * Frames which are ready at once are collected and
+						 * flushed together, the socket is only flushed before
+						 * waiting for the next block.
+						 */
+						while (true) {
+							buf.limit(size);
+							buf.position(HEADER_SIZE);
+							frame.clear(buf);
 
-				while ( (buf = getNextBlock(to)) != null && !Thread.currentThread().isInterrupted()) {
-					out.writeBoolean(true);
+							int len = node.getNextBlockDirectly(frame);
 
-					out.writeInt(buf.length);
+							if (len == 0) {
+								break;
+							}
 
-					out.write(buf);
+							buf.put(0, (byte) 1);
+							buf.putInt(1, len);
+
+							ByteBuffer[] segments = frame.getSegments();
+
+							for (int i = 0, count = frame.finish(); i < count; i++) {
+								ByteBuffer seg = segments[i];
+
+								out.write(seg.array(), seg.arrayOffset() + seg.position(), seg.remaining());
+							}
+						}
+					} finally {
+						frame.clear(null);
+
+						BufferPool.getDefault().release(buf);
+					}
 
 					out.flush();
 				}
 
 			} catch (IOException e) {
 				e.printStackTrace();
-			} catch (InterruptedException e) {
-				//e.printStackTrace();
 			} catch (NodeClosedException e) {
 				//e.printStackTrace();
 			}
@@ -27,66 +27,376 @@
 package com.github.held03.jasityProtocol.tcp;
 
 import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.github.held03.jasityProtocol.base.AbstractServer;
 import com.github.held03.jasityProtocol.interfaces.Address;
-import com.github.held03.jasityProtocol.interfaces.Node;
 
 
 /**
+ * TCP server for the JasityProtocol.
+ * <p>
+ * One or more acceptor threads accept connections continuously. Accepted
+ * sockets are passed to admission threads, which create the node and ask the
+ * {@link com.github.held03.jasityProtocol.interfaces.ServerListener}s, so a
+ * slow listener does not delay accepting.
+ * <p>
+ * The server can limit the number of connections and the accept rate. A
+ * socket exceeding a limit is closed directly after accepting, before any
+ * node is created. So is a socket accepted while all admission threads are
+ * busy and their queue is full.
+ * 
  * @author held03
  */
 public class TCPServer extends AbstractServer {
 
-	ServerSocket server;
+	/**
+	 * The default length of the accept queue.
+	 */
+	public static final int DEFAULT_BACKLOG = 1024;
+
+	/**
+	 * The maximum count of admission threads.
+	 */
+	public static final int ADMISSION_THREADS = 16;
+
+	/**
+	 * The maximum count of accepted sockets waiting for an admission thread.
+	 * Further sockets are closed immediately.
+	 */
+	public static final int ADMISSION_QUEUE = DEFAULT_BACKLOG;
+
+	/**
+	 * The first pause of an acceptor after a failed accept in milliseconds.
+	 */
+	private static final long MIN_ACCEPT_BACKOFF = 10;
+
+	/**
+	 * The longest pause of an acceptor after failed accepts in milliseconds.
+	 */
+	private static final long MAX_ACCEPT_BACKOFF = 1000;
+
+	/**
+	 * The longest wait for the acceptor and admission threads on close in
+	 * milliseconds.
+	 */
+	private static final long CLOSE_TIMEOUT = 5000;
+
+	/**
+	 * The server sockets, one per acceptor if <code>SO_REUSEPORT</code> is
+	 * used, otherwise one shared by all acceptors.
+	 */
+	final List<ServerSocket> servers = new ArrayList<ServerSocket>();
+
+	/**
+	 * The acceptor threads.
+	 */
+	final List<Thread> waiters = new ArrayList<Thread>();
+
+	/**
+	 * The count of acceptor threads.
+	 */
+	private final int acceptors;
+
+	/**
+	 * Runs the admission of accepted sockets.
+	 */
+	private ExecutorService admission;
+
+	/**
+	 * If the threads of this server run on virtual threads.
+	 */
+	private volatile boolean virtualThreads = TCPConnection.isDefaultVirtualThreads();
+
+	/**
+	 * The maximum count of connections, <code>0</code> for no limit.
+	 */
+	private volatile int maxConnections = 0;
+
+	/**
+	 * The maximum accepted connections per second, <code>0</code> for no
+	 * limit.
+	 */
+	private volatile int maxAcceptRate = 0;
+
+	/**
+	 * The connections accepted but not yet added or refused.
+	 */
+	private final AtomicInteger admitting = new AtomicInteger();
 
-	Thread waiter;
+	/**
+	 * Available accepts of the rate limit.
+	 */
+	private double acceptTokens = 0;
+
+	/**
+	 * Time of the last refill of {@link #acceptTokens} in nanoseconds.
+	 */
+	private long lastRefill = System.nanoTime();
 
 	/**
 	 * @param localAddress
+	 * @param acceptors the count of acceptor threads
 	 */
-	TCPServer(final Address localAddress) {
+	TCPServer(final Address localAddress, final int acceptors) {
 		super(localAddress);
+
+		this.acceptors = acceptors;
 	}
 
+	/**
+	 * Opens a server with one acceptor and the default backlog.
+	 * 
+	 * @param port the port to listen on
+	 * @return the server
+	 * @throws IOException
+	 */
 	public static TCPServer openServer(final int port) throws IOException {
+		return openServer(port, DEFAULT_BACKLOG, 1);
+	}
+
+	/**
+	 * Opens a server.
+	 * <p>
+	 * If there are multiple acceptors and the system supports
+	 * <code>SO_REUSEPORT</code> (Linux since Java 9), every acceptor gets an
+	 * own server socket and the kernel distributes the connections. Otherwise
+	 * all acceptors share one server socket.
+	 * 
+	 * @param port the port to listen on
+	 * @param backlog the length of the accept queue of every server socket
+	 * @param acceptors the count of acceptor threads
+	 * @return the server
+	 * @throws IOException
+	 */
+	public static TCPServer openServer(final int port, final int backlog, final int acceptors) throws IOException {
+		if (acceptors < 1) {
+			throw new IllegalArgumentException("At least one acceptor is needed.");
+		}
+
+		boolean reusePort = acceptors > 1 && ReusePort.isSupported();
 
-		@SuppressWarnings("resource")
-		ServerSocket server = new ServerSocket(port);
+		ServerSocket first = bind(port, backlog, reusePort);
 
-		Address local = new TCPAddress(server.getInetAddress(), server.getLocalPort());
+		Address local = new TCPAddress(first.getInetAddress(), first.getLocalPort());
 
-		TCPServer s = new TCPServer(local);
+		TCPServer s = new TCPServer(local, acceptors);
 
-		s.server = server;
+		s.servers.add(first);
+
+		try {
+			for (int i = 1; reusePort && i < acceptors; i++) {
+				s.servers.add(bind(first.getLocalPort(), backlog, true));
+			}
+		} catch (IOException e) {
+			s.close();
+			throw e;
+		}
 
 		return s;
 
 	}
 
+	/**
+	 * Binds a new server socket.
+	 * 
+	 * @param port the port
+	 * @param backlog the length of the accept queue
+	 * @param reusePort if <code>SO_REUSEPORT</code> should be set
+	 * @return the bound server socket
+	 * @throws IOException
+	 */
+	private static ServerSocket bind(final int port, final int backlog, final boolean reusePort)
+			throws IOException {
+		ServerSocket server = new ServerSocket();
+
+		try {
+			/*
+			 * Allow restarting while old connections are in TIME_WAIT.
+			 */
+			server.setReuseAddress(true);
+
+			if (reusePort) {
+				ReusePort.enable(server);
+			}
+
+			server.bind(new InetSocketAddress(port), backlog);
+
+		} catch (IOException e) {
+			server.close();
+			throw e;
+		}
+
+		return server;
+	}
+
+	/**
+	 * Sets if the acceptor and the accepted connections run on virtual
+	 * threads.
+	 * <p>
+	 * The default is taken from
+	 * {@link TCPConnection#isDefaultVirtualThreads()}. This has to be set
+	 * before {@link #open()} to apply to the acceptor.
+	 * 
+	 * @param virtual <code>true</code> to use virtual threads
+	 * @throws UnsupportedOperationException if the runtime has no virtual
+	 *             threads (before Java 21)
+	 */
+	public void setVirtualThreads(final boolean virtual) {
+		if (virtual) {
+			VirtualThreads.checkSupported();
+		}
+
+		virtualThreads = virtual;
+	}
+
+	/**
+	 * Checks if this server uses virtual threads.
+	 * 
+	 * @return <code>true</code> if virtual threads are used
+	 */
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
+	/**
+	 * Sets the maximum count of connections.
+	 * <p>
+	 * Connections which are accepted while the limit is reached are closed
+	 * immediately.
+	 * 
+	 * @param maxConnections the limit, <code>0</code> for no limit
+	 */
+	public void setMaxConnections(final int maxConnections) {
+		this.maxConnections = maxConnections;
+	}
+
+	/**
+	 * Gets the maximum count of connections.
+	 * 
+	 * @return the limit, <code>0</code> for no limit
+	 */
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	/**
+	 * Sets the maximum count of accepted connections per second.
+	 * <p>
+	 * Up to one second of accepts may be used at once. Connections exceeding
+	 * the rate are closed immediately.
+	 * 
+	 * @param maxAcceptRate the limit, <code>0</code> for no limit
+	 */
+	public void setMaxAcceptRate(final int maxAcceptRate) {
+		synchronized (this) {
+			this.maxAcceptRate = maxAcceptRate;
+			this.acceptTokens = maxAcceptRate;
+			this.lastRefill = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Gets the maximum count of accepted connections per second.
+	 * 
+	 * @return the limit, <code>0</code> for no limit
+	 */
+	public int getMaxAcceptRate() {
+		return maxAcceptRate;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see com.github.held03.jasityProtocol.interfaces.Server#open()
 	 */
 	@Override
 	public void open() {
-		if (waiter == null) {
-			waiter = new Thread(new Waiter());
-			waiter.setDaemon(false);
-			waiter.start();
+		synchronized (waiters) {
+			if (!waiters.isEmpty()) {
+				return;
+			}
+
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(ADMISSION_THREADS, ADMISSION_THREADS, 60,
+					TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(ADMISSION_QUEUE), new ThreadFactory() {
+
+						@Override
+						public Thread newThread(final Runnable r) {
+							return VirtualThreads.newThread(r, "Admission on " + getLocalAddress(), true,
+									virtualThreads);
+						}
+					});
+			pool.allowCoreThreadTimeOut(true);
+
+			admission = pool;
+
+			for (int i = 0; i < acceptors; i++) {
+				ServerSocket server = servers.get(i % servers.size());
+
+				Thread waiter = VirtualThreads.newThread(new Waiter(server), "Accept on " + getLocalAddress() + " #"
+						+ i, false, virtualThreads);
+				waiters.add(waiter);
+				waiter.start();
+			}
 		}
 	}
 
 	@Override
 	public void close() {
-		try {
-			if (server != null) {
+		isClosed = true;
+
+		for (ServerSocket server : servers) {
+			try {
 				server.close();
+			} catch (IOException e) {
+				e.printStackTrace();
 			}
-		} catch (IOException e) {
-			e.printStackTrace();
+		}
+
+		List<Thread> stopping;
+		ExecutorService pool;
+
+		synchronized (waiters) {
+			stopping = new ArrayList<Thread>(waiters);
+			pool = admission;
+
+			if (pool != null) {
+				pool.shutdown();
+			}
+		}
+
+		/*
+		 * The port is only released after the acceptors left accept(), so
+		 * wait for them. The acceptors are woken by closing the sockets.
+		 */
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CLOSE_TIMEOUT);
+
+		try {
+			for (Thread waiter : stopping) {
+				if (waiter != Thread.currentThread()) {
+					TimeUnit.NANOSECONDS.timedJoin(waiter, Math.max(1, deadline - System.nanoTime()));
+				}
+			}
+
+			if (pool != null) {
+				pool.awaitTermination(Math.max(1, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
 	}
 
@@ -101,28 +411,280 @@ public class TCPServer extends AbstractServer {
 		return 0;
 	}
 
+	/**
+	 * Checks the limits for a new connection.
+	 * <p>
+	 * If the connection is admitted, it is counted as admitting.
+	 * 
+	 * @return <code>true</code> if the connection may be admitted
+	 */
+	protected boolean admit() {
+		int rate = maxAcceptRate;
+
+		if (rate > 0) {
+			synchronized (this) {
+				long now = System.nanoTime();
+
+				acceptTokens = Math.min(rate, acceptTokens + (now - lastRefill) * rate / 1e9);
+				lastRefill = now;
+
+				if (acceptTokens < 1) {
+					return false;
+				}
+
+				acceptTokens--;
+			}
+		}
+
+		int max = maxConnections;
+
+		if (max <= 0) {
+			admitting.incrementAndGet();
+
+			return true;
+		}
+
+		/*
+		 * Several acceptors may admit at once, so the limit is checked and
+		 * the connection counted in one step.
+		 */
+		while (true) {
+			int current = admitting.get();
+
+			if (nodes.size() + current >= max) {
+				return false;
+			}
+
+			if (admitting.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Closes a refused socket with a reset.
+	 * 
+	 * @param s the socket
+	 */
+	private static void refuse(final Socket s) {
+		try {
+			s.setSoLinger(true, 0);
+			s.close();
+		} catch (IOException e) {
+			/*
+			 * Ignore exception.
+			 */
+		}
+	}
+
+	/**
+	 * Accepts connections.
+	 * 
+	 * @author held03
+	 */
 	class Waiter implements Runnable {
 
+		/**
+		 * The server socket to accept from.
+		 */
+		private final ServerSocket server;
+
+		/**
+		 * @param server the server socket to accept from
+		 */
+		Waiter(final ServerSocket server) {
+			this.server = server;
+		}
+
 		/*
 		 * (non-Javadoc)
 		 * @see java.lang.Runnable#run()
 		 */
 		@Override
 		public void run() {
-			try {
-				Socket s = server.accept();
+			long backoff = 0;
+
+			while (!server.isClosed()) {
+				Socket s;
+
+				try {
+					s = server.accept();
+
+				} catch (IOException e) {
+					if (server.isClosed()) {
+						break;
+					}
 
-				Node n = TCPConnection.newConnection(s);
+					/*
+					 * Failures like running out of file descriptors usually
+					 * persist for a while, so pause instead of spinning.
+					 */
+					if (backoff == 0) {
+						e.printStackTrace();
+						backoff = MIN_ACCEPT_BACKOFF;
+					} else {
+						backoff = Math.min(backoff * 2, MAX_ACCEPT_BACKOFF);
+					}
 
-				addNode(n);
+					try {
+						Thread.sleep(backoff);
+					} catch (InterruptedException e1) {
+						break;
+					}
 
-				//addNode(n);
+					continue;
+				}
+
+				backoff = 0;
+
+				if (!admit()) {
+					refuse(s);
+					continue;
+				}
+
+				try {
+					admission.execute(new Admission(s));
+				} catch (RejectedExecutionException e) {
+					admitting.decrementAndGet();
+					refuse(s);
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * Creates the node of an accepted socket and asks the listeners.
+	 * 
+	 * @author held03
+	 */
+	class Admission implements Runnable {
+
+		/**
+		 * The accepted socket.
+		 */
+		private final Socket socket;
+
+		/**
+		 * @param socket the accepted socket
+		 */
+		Admission(final Socket socket) {
+			this.socket = socket;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run() {
+			try {
+				TCPConnection con = TCPConnection.newConnection(socket, TCPServer.this);
+
+				/*
+				 * The listeners are asked before the connection reads, so
+				 * they don't miss the first messages.
+				 */
+				addNode(con.node);
+
+				con.start(con.node.getRemoteAddress(), virtualThreads);
 
 			} catch (IOException e) {
 				e.printStackTrace();
+
+				try {
+					socket.close();
+				} catch (IOException e1) {
+					/*
+					 * Ignore exception.
+					 */
+				}
+			} finally {
+				admitting.decrementAndGet();
 			}
 		}
 
 	}
 
+	/**
+	 * Access to <code>SO_REUSEPORT</code>.
+	 * <p>
+	 * The option and <code>ServerSocket.setOption</code> are available since
+	 * Java 9 and only on some systems, therefore they are accessed by
+	 * reflection.
+	 * 
+	 * @author held03
+	 */
+	static final class ReusePort {
+
+		/**
+		 * <code>StandardSocketOptions.SO_REUSEPORT</code>, or
+		 * <code>null</code>.
+		 */
+		private static final SocketOption<?> option;
+
+		/**
+		 * <code>ServerSocket.setOption(SocketOption, Object)</code>
+		 */
+		private static final Method setOption;
+
+		static {
+			SocketOption<?> o = null;
+			Method set = null;
+
+			try {
+				Field f = Class.forName("java.net.StandardSocketOptions").getField("SO_REUSEPORT");
+				o = (SocketOption<?>) f.get(null);
+
+				set = ServerSocket.class.getMethod("setOption", SocketOption.class, Object.class);
+
+				try (ServerSocket probe = new ServerSocket()) {
+					Set<?> supported = (Set<?>) ServerSocket.class.getMethod("supportedOptions").invoke(probe);
+
+					if (!supported.contains(o)) {
+						o = null;
+					}
+				}
+
+			} catch (ReflectiveOperationException | IOException | RuntimeException e) {
+				o = null;
+			}
+
+			option = o;
+			setOption = set;
+		}
+
+		/**
+		 * Closed constructor.
+		 */
+		private ReusePort() {
+			/*
+			 * Should be never used.
+			 */
+		}
+
+		/**
+		 * Checks if <code>SO_REUSEPORT</code> is supported.
+		 * 
+		 * @return <code>true</code> if supported
+		 */
+		static boolean isSupported() {
+			return option != null;
+		}
+
+		/**
+		 * Sets <code>SO_REUSEPORT</code> on an unbound server socket.
+		 * 
+		 * @param server the server socket
+		 * @throws IOException
+		 */
+		static void enable(final ServerSocket server) throws IOException {
+			try {
+				setOption.invoke(server, option, Boolean.TRUE);
+			} catch (ReflectiveOperationException e) {
+				throw new IOException("Could not set SO_REUSEPORT.", e);
+			}
+		}
+	}
+
 }
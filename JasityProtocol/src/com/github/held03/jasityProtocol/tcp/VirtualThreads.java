@@ -0,0 +1,121 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ *
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ *
+ *     https://github.com/Held03/JasityProtocol.git
+ *
+ */
+
+package com.github.held03.jasityProtocol.tcp;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+
+/**
+ * Access to the virtual threads of the JDK.
+ * <p>
+ * Virtual threads are available since Java 21. The library itself is still
+ * compatible to older versions, therefore they are accessed by reflection.
+ * 
+ * @author held03
+ */
+final class VirtualThreads {
+
+	/**
+	 * Factory of virtual threads, or <code>null</code> if not supported.
+	 */
+	private static final ThreadFactory factory;
+
+	static {
+		ThreadFactory f = null;
+
+		try {
+			Method ofVirtual = Thread.class.getMethod("ofVirtual");
+			Object builder = ofVirtual.invoke(null);
+
+			Method factoryMethod = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+			f = (ThreadFactory) factoryMethod.invoke(builder);
+
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			f = null;
+		}
+
+		factory = f;
+	}
+
+	/**
+	 * Closed constructor.
+	 */
+	private VirtualThreads() {
+		/*
+		 * Should be never used.
+		 */
+	}
+
+	/**
+	 * Checks if the runtime supports virtual threads.
+	 * 
+	 * @return <code>true</code> if supported
+	 */
+	static boolean isSupported() {
+		return factory != null;
+	}
+
+	/**
+	 * Creates an unstarted thread.
+	 * <p>
+	 * Virtual threads are always daemon threads, so the daemon flag applies
+	 * only to platform threads.
+	 * 
+	 * @param task the task to run
+	 * @param name the name of the thread
+	 * @param daemon if a platform thread should be a daemon thread
+	 * @param virtual if <code>true</code> and supported, a virtual thread is
+	 *            created
+	 * @return the new thread
+	 */
+	static Thread newThread(final Runnable task, final String name, final boolean daemon, final boolean virtual) {
+		Thread t;
+
+		if (virtual && factory != null) {
+			t = factory.newThread(task);
+		} else {
+			t = new Thread(task);
+			t.setDaemon(daemon);
+		}
+
+		t.setName(name);
+
+		return t;
+	}
+
+	/**
+	 * Checks that virtual threads are supported.
+	 * 
+	 * @throws UnsupportedOperationException if not supported
+	 */
+	static void checkSupported() {
+		if (factory == null) {
+			throw new UnsupportedOperationException("Virtual threads require Java 21 or newer.");
+		}
+	}
+}
@@ -0,0 +1,379 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ *
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ *
+ *     https://github.com/Held03/JasityProtocol.git
+ *
+ */
+
+package com.github.held03.jasityProtocol.udp;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * The reading and writing of a datagram socket shared by many nodes.
+ * <p>
+ * The endpoint owns one reader thread, which forwards every received datagram
+ * to its {@link Handler}, and one writer thread, which asks the handler for
+ * blocks to send until there is none left. The writer waits until it gets
+ * woken up by {@link #wakeUp()}, but at least every
+ * {@link #RESEND_CHECK_INTERVAL} milliseconds to let the nodes resent lost
+ * blocks.
+ * 
+ * @author held03
+ */
+class DatagramEndpoint {
+
+	/**
+	 * The maximum payload of a UDP datagram.
+	 */
+	static final int MAX_DATAGRAM_SIZE = 65507;
+
+	/**
+	 * The MTU used if it could not be detected.
+	 */
+	static final int DEFAULT_MTU = 1500;
+
+	/**
+	 * The size of the IP and UDP header, IPv6 as worst case.
+	 */
+	static final int HEADER_SIZE = 48;
+
+	/**
+	 * Maximum time in milliseconds the writer waits without being woken up.
+	 */
+	static final long RESEND_CHECK_INTERVAL = 100;
+
+	/**
+	 * Handles the datagrams of an endpoint.
+	 * 
+	 * @author held03
+	 */
+	interface Handler {
+
+		/**
+		 * A datagram was received.
+		 * 
+		 * @param data the content of the datagram
+		 * @param from the sender
+		 */
+		public void receivedDatagram(byte[] data, UDPAddress from);
+
+		/**
+		 * Sends the next available block.
+		 * 
+		 * @return <code>true</code> if a block was sent, <code>false</code> if
+		 *         there was none
+		 * @throws IOException
+		 */
+		public boolean sendNextBlock() throws IOException;
+
+		/**
+		 * The endpoint failed.
+		 */
+		public void close();
+	}
+
+	/**
+	 * The socket of this endpoint.
+	 */
+	final DatagramChannel channel;
+
+	/**
+	 * The handler of the datagrams.
+	 */
+	private final Handler handler;
+
+	/**
+	 * Monitor for the writer to wait on.
+	 */
+	private final Object writeMonitor = new Object();
+
+	/**
+	 * Indicates if new data was announced since the writer checked last.
+	 */
+	private boolean writeRequested = false;
+
+	/**
+	 * Indicates if the endpoint is closed.
+	 */
+	private volatile boolean isClosed = false;
+
+	/**
+	 * The reader thread.
+	 */
+	private Thread reader;
+
+	/**
+	 * The writer thread.
+	 */
+	private Thread writer;
+
+	/**
+	 * Creates an endpoint for the given socket.
+	 * 
+	 * @param channel the bound socket
+	 * @param handler the handler for the datagrams
+	 */
+	DatagramEndpoint(final DatagramChannel channel, final Handler handler) {
+		this.channel = channel;
+		this.handler = handler;
+	}
+
+	/**
+	 * Starts the reader and writer thread.
+	 * 
+	 * @param name the name used for the threads
+	 */
+	void start(final String name) {
+		reader = new Thread(new Reader());
+		reader.setDaemon(false);
+		reader.setName("Read from " + name);
+		reader.start();
+
+		writer = new Thread(new Writer());
+		writer.setDaemon(true);
+		writer.setName("Write to " + name);
+		writer.start();
+	}
+
+	/**
+	 * Wakes the writer up, because there is something to send.
+	 */
+	void wakeUp() {
+		synchronized (writeMonitor) {
+			writeRequested = true;
+
+			writeMonitor.notify();
+		}
+	}
+
+	/**
+	 * Sends a block to the given address.
+	 * 
+	 * @param data the block to send
+	 * @param to the target
+	 * @throws IOException if the socket was closed
+	 */
+	void send(final byte[] data, final UDPAddress to) throws IOException {
+		try {
+			channel.send(ByteBuffer.wrap(data), to.toSocketAddress());
+
+		} catch (ClosedChannelException e) {
+			throw e;
+
+		} catch (IOException e) {
+			/*
+			 * Like a lost datagram, the node will resent it.
+			 */
+			Logger.getLogger(DatagramEndpoint.class.getName()).log(Level.FINE, "Could not send to " + to, e);
+		}
+	}
+
+	/**
+	 * Closes the socket and stops the threads.
+	 */
+	void close() {
+		isClosed = true;
+
+		if (reader != null)
+			reader.interrupt();
+
+		if (writer != null)
+			writer.interrupt();
+
+		try {
+			channel.close();
+		} catch (IOException e) {
+			/*
+			 * Ignore exception.
+			 */
+		}
+	}
+
+	/**
+	 * Gets the block size fitting into the MTU of the route to the target.
+	 * <p>
+	 * Java does not provide the path MTU, therefore the MTU of the local
+	 * interface used to reach the target is taken.
+	 * 
+	 * @param target the remote address
+	 * @return the block size
+	 */
+	static int getBlockSize(final InetSocketAddress target) {
+		int mtu = DEFAULT_MTU;
+
+		try (DatagramChannel probe = DatagramChannel.open()) {
+			probe.connect(target);
+
+			InetAddress local = ((InetSocketAddress) probe.getLocalAddress()).getAddress();
+
+			NetworkInterface ni = NetworkInterface.getByInetAddress(local);
+
+			if (ni != null && ni.getMTU() > 0) {
+				mtu = ni.getMTU();
+			}
+
+		} catch (IOException e) {
+			/*
+			 * Keep default.
+			 */
+		}
+
+		return toBlockSize(mtu);
+	}
+
+	/**
+	 * Gets the block size fitting into the smallest MTU of all active
+	 * interfaces.
+	 * <p>
+	 * This is used if the remote is not yet known, like for a server.
+	 * 
+	 * @return the block size
+	 */
+	static int getBlockSize() {
+		int mtu = Integer.MAX_VALUE;
+
+		try {
+			Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+
+			while (interfaces != null && interfaces.hasMoreElements()) {
+				NetworkInterface ni = interfaces.nextElement();
+
+				if (ni.isUp() && !ni.isLoopback() && ni.getMTU() > 0) {
+					mtu = Math.min(mtu, ni.getMTU());
+				}
+			}
+
+		} catch (SocketException e) {
+			/*
+			 * Keep default.
+			 */
+		}
+
+		return toBlockSize(mtu == Integer.MAX_VALUE ? DEFAULT_MTU : mtu);
+	}
+
+	/**
+	 * Converts a MTU into a block size.
+	 * 
+	 * @param mtu the MTU
+	 * @return the payload fitting in
+	 */
+	private static int toBlockSize(final int mtu) {
+		return Math.min(mtu - HEADER_SIZE, MAX_DATAGRAM_SIZE);
+	}
+
+	class Reader implements Runnable {
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run() {
+			ByteBuffer buf = ByteBuffer.allocate(MAX_DATAGRAM_SIZE);
+
+			try {
+				while (!isClosed && !Thread.currentThread().isInterrupted()) {
+					buf.clear();
+
+					InetSocketAddress from = (InetSocketAddress) channel.receive(buf);
+
+					try {
+						handler.receivedDatagram(Arrays.copyOf(buf.array(), buf.position()), new UDPAddress(from));
+
+					} catch (RuntimeException e) {
+						/*
+						 * A broken datagram must not stop the other nodes.
+						 */
+						Logger.getLogger(DatagramEndpoint.class.getName()).log(Level.FINE,
+								"Dropped invalid datagram from " + from, e);
+					}
+				}
+
+			} catch (ClosedChannelException e) {
+				/*
+				 * Closed.
+				 */
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+
+			handler.close();
+		}
+
+	}
+
+	class Writer implements Runnable {
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run() {
+			try {
+				while (!isClosed && !Thread.currentThread().isInterrupted()) {
+					synchronized (writeMonitor) {
+						writeRequested = false;
+					}
+
+					while (handler.sendNextBlock()) {
+						/*
+						 * Send all available.
+						 */
+					}
+
+					synchronized (writeMonitor) {
+						if (!writeRequested) {
+							writeMonitor.wait(RESEND_CHECK_INTERVAL);
+						}
+					}
+				}
+
+			} catch (ClosedChannelException e) {
+				/*
+				 * Closed.
+				 */
+			} catch (IOException e) {
+				e.printStackTrace();
+			} catch (InterruptedException e) {
+				//e.printStackTrace();
+			}
+
+			handler.close();
+		}
+
+	}
+}
@@ -0,0 +1,225 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ *
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ *
+ *     https://github.com/Held03/JasityProtocol.git
+ *
+ */
+
+package com.github.held03.jasityProtocol.udp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+
+import com.github.held03.jasityProtocol.base.AbstractConnection;
+import com.github.held03.jasityProtocol.base.DefaultNode;
+import com.github.held03.jasityProtocol.interfaces.Address;
+import com.github.held03.jasityProtocol.interfaces.DirectConnection;
+import com.github.held03.jasityProtocol.interfaces.Node;
+
+
+/**
+ * UDP implementation for the JasityProtocol.
+ * <p>
+ * One datagram socket serves all nodes of this connection. Every block is sent
+ * as one datagram, therefore the block size is limited by the MTU. Lost,
+ * duplicated or reordered blocks are handled by the acknowledges and resents
+ * of the nodes, so there is no head-of-line blocking between messages.
+ * 
+ * @author held03
+ */
+public class UDPConnection extends AbstractConnection implements DirectConnection, DatagramEndpoint.Handler {
+
+	/**
+	 * The socket handling.
+	 */
+	protected final DatagramEndpoint endpoint;
+
+	/**
+	 * The size of the blocks.
+	 */
+	protected volatile int blockSize;
+
+	/**
+	 * Creates a connection over the given bound socket.
+	 * 
+	 * @param local the local address
+	 * @param channel the bound socket
+	 * @param closeIfEmpty close the socket if the last node closes
+	 */
+	protected UDPConnection(final Address local, final DatagramChannel channel, final boolean closeIfEmpty) {
+		super(local, closeIfEmpty);
+
+		this.endpoint = new DatagramEndpoint(channel, this);
+		this.blockSize = DatagramEndpoint.getBlockSize();
+	}
+
+	/**
+	 * Opens a socket on the given port, which can be used to connect to many
+	 * nodes.
+	 * <p>
+	 * The socket will be kept open until the connection gets closed.
+	 * 
+	 * @param port the local port, or <code>0</code> for any free port
+	 * @return the new connection
+	 * @throws IOException
+	 */
+	public static UDPConnection open(final int port) throws IOException {
+		return open(port, false);
+	}
+
+	/**
+	 * Opens a socket on the given port.
+	 * 
+	 * @param port the local port, or <code>0</code> for any free port
+	 * @param closeIfEmpty close the socket if the last node closes
+	 * @return the new connection
+	 * @throws IOException
+	 */
+	protected static UDPConnection open(final int port, final boolean closeIfEmpty) throws IOException {
+		DatagramChannel channel = DatagramChannel.open();
+
+		channel.bind(new InetSocketAddress(port));
+
+		InetSocketAddress bound = (InetSocketAddress) channel.getLocalAddress();
+
+		UDPConnection con = new UDPConnection(new UDPAddress(bound), channel, closeIfEmpty);
+
+		con.endpoint.start(con.localAddress.toString());
+
+		return con;
+	}
+
+	/**
+	 * Creates a node connected to the given address, using a new socket.
+	 * <p>
+	 * The socket gets closed with the node.
+	 * 
+	 * @param connectTo the address to connect to
+	 * @return the node representing this connection
+	 * @throws IOException
+	 */
+	public static Node newConnection(final UDPAddress connectTo) throws IOException {
+		UDPConnection con = open(0, true);
+
+		con.setBlockSize(DatagramEndpoint.getBlockSize(connectTo.toSocketAddress()));
+
+		return con.connectTo(connectTo);
+	}
+
+	/**
+	 * Creates a node connected to the given address over this socket.
+	 * <p>
+	 * If there is already a node for this address, that one is returned.
+	 * 
+	 * @param connectTo the address to connect to
+	 * @return the node representing this connection
+	 */
+	public Node connectTo(final UDPAddress connectTo) {
+		synchronized (nodes) {
+			Node n = nodes.get(connectTo);
+
+			if (n == null) {
+				n = new DefaultNode(connectTo, this);
+
+				addNode(n);
+			}
+
+			return n;
+		}
+	}
+
+	/**
+	 * Sets the size of the blocks.
+	 * <p>
+	 * By default it fits the MTU of the local interface. If the path to a
+	 * remote has a smaller MTU, it should be set to avoid fragmentation.
+	 * 
+	 * @param blockSize the new block size
+	 */
+	public void setBlockSize(final int blockSize) {
+		this.blockSize = Math.min(blockSize, DatagramEndpoint.MAX_DATAGRAM_SIZE);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.interfaces.Connection#getBlockSize()
+	 */
+	@Override
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.interfaces.DirectConnection#blockAvailable
+	 * (com.github.held03.jasityProtocol.interfaces.Node)
+	 */
+	@Override
+	public void blockAvailable(final Node node) {
+		endpoint.wakeUp();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.udp.DatagramEndpoint.Handler#receivedDatagram
+	 * (byte[], com.github.held03.jasityProtocol.udp.UDPAddress)
+	 */
+	@Override
+	public void receivedDatagram(final byte[] data, final UDPAddress from) {
+		deliverBlock(data, from);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.udp.DatagramEndpoint.Handler#sendNextBlock
+	 * ()
+	 */
+	@Override
+	public boolean sendNextBlock() throws IOException {
+		Block block = getNextBlockDirectly();
+
+		if (block == null) {
+			return false;
+		}
+
+		endpoint.send(block.data, (UDPAddress) block.target);
+
+		return true;
+	}
+
+	@Override
+	public void close() {
+		if (isClosed) {
+			return;
+		}
+
+		super.close();
+
+		endpoint.close();
+	}
+
+}
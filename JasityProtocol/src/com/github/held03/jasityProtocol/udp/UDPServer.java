@@ -0,0 +1,216 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ *
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ *
+ *     https://github.com/Held03/JasityProtocol.git
+ *
+ */
+
+package com.github.held03.jasityProtocol.udp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+
+import com.github.held03.jasityProtocol.base.AbstractServer;
+import com.github.held03.jasityProtocol.base.DefaultNode;
+import com.github.held03.jasityProtocol.base.util.blocks.Hello;
+import com.github.held03.jasityProtocol.base.util.blocks.Multi;
+import com.github.held03.jasityProtocol.base.util.blocks.NodeBlock;
+import com.github.held03.jasityProtocol.interfaces.Address;
+import com.github.held03.jasityProtocol.interfaces.DirectConnection;
+import com.github.held03.jasityProtocol.interfaces.Node;
+
+
+/**
+ * UDP server for the JasityProtocol.
+ * <p>
+ * All clients are served by the one socket of the server. A node is created
+ * for every new remote which knocks, see {@link Hello#TYPE_KNOCK}. Datagrams of
+ * unknown remotes without a knock are dropped.
+ * 
+ * @author held03
+ */
+public class UDPServer extends AbstractServer implements DirectConnection, DatagramEndpoint.Handler {
+
+	/**
+	 * The socket handling.
+	 */
+	protected final DatagramEndpoint endpoint;
+
+	/**
+	 * The size of the blocks.
+	 */
+	protected volatile int blockSize;
+
+	/**
+	 * Indicates if the server was opened.
+	 */
+	private boolean isOpen = false;
+
+	/**
+	 * @param localAddress
+	 */
+	UDPServer(final Address localAddress, final DatagramChannel channel) {
+		super(localAddress);
+
+		this.endpoint = new DatagramEndpoint(channel, this);
+		this.blockSize = DatagramEndpoint.getBlockSize();
+	}
+
+	public static UDPServer openServer(final int port) throws IOException {
+		DatagramChannel channel = DatagramChannel.open();
+
+		channel.bind(new InetSocketAddress(port));
+
+		Address local = new UDPAddress((InetSocketAddress) channel.getLocalAddress());
+
+		return new UDPServer(local, channel);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.github.held03.jasityProtocol.interfaces.Server#open()
+	 */
+	@Override
+	public synchronized void open() {
+		if (!isOpen) {
+			isOpen = true;
+
+			endpoint.start(localAddress.toString());
+		}
+	}
+
+	@Override
+	public void close() {
+		if (isClosed) {
+			return;
+		}
+
+		isClosed = true;
+
+		for (Node n : getRelatedNodes()) {
+			n.close();
+		}
+
+		endpoint.close();
+	}
+
+	/**
+	 * Sets the size of the blocks.
+	 * <p>
+	 * By default it fits the smallest MTU of the local interfaces.
+	 * 
+	 * @param blockSize the new block size
+	 */
+	public void setBlockSize(final int blockSize) {
+		this.blockSize = Math.min(blockSize, DatagramEndpoint.MAX_DATAGRAM_SIZE);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.interfaces.Connection#getBlockSize()
+	 */
+	@Override
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.interfaces.DirectConnection#blockAvailable
+	 * (com.github.held03.jasityProtocol.interfaces.Node)
+	 */
+	@Override
+	public void blockAvailable(final Node node) {
+		endpoint.wakeUp();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.udp.DatagramEndpoint.Handler#receivedDatagram
+	 * (byte[], com.github.held03.jasityProtocol.udp.UDPAddress)
+	 */
+	@Override
+	public void receivedDatagram(final byte[] data, final UDPAddress from) {
+		if (deliverBlock(data, from)) {
+			return;
+		}
+
+		/*
+		 * Unknown remote, accept it only if it knocks.
+		 */
+		if (containsKnock(NodeBlock.decodeBlock(data))) {
+			Node n = new DefaultNode(from, this);
+
+			if (addNode(n)) {
+				deliverBlock(data, from);
+			}
+		}
+	}
+
+	/**
+	 * Checks if the given block is or contains a knock.
+	 * 
+	 * @param nb the block to check
+	 * @return <code>true</code> if a knock was found
+	 */
+	protected boolean containsKnock(final NodeBlock nb) {
+		if (nb == null) {
+			return false;
+
+		} else if (nb.getNativeType() == NodeBlock.BLOCK_HELLO) {
+			return ((Hello) nb).getType() == Hello.TYPE_KNOCK;
+
+		} else if (nb.getNativeType() == NodeBlock.BLOCK_MULTIBLOCK) {
+			for (NodeBlock sub : ((Multi) nb).getSubBlocks()) {
+				if (containsKnock(sub)) {
+					return true;
+				}
+			}
+		}
+
+		return false;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.udp.DatagramEndpoint.Handler#sendNextBlock
+	 * ()
+	 */
+	@Override
+	public boolean sendNextBlock() throws IOException {
+		Block block = getNextBlockDirectly();
+
+		if (block == null) {
+			return false;
+		}
+
+		endpoint.send(block.data, (UDPAddress) block.target);
+
+		return true;
+	}
+
+}
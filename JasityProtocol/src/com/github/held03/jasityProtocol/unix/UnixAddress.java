@@ -0,0 +1,176 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ *
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ *
+ *     https://github.com/Held03/JasityProtocol.git
+ *
+ */
+
+package com.github.held03.jasityProtocol.unix;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+
+import com.github.held03.jasityProtocol.interfaces.Address;
+import com.github.held03.jasityProtocol.interfaces.BackEnd;
+import com.github.held03.jasityProtocol.interfaces.Node;
+import com.github.held03.jasityProtocol.tcp.NIOConnection;
+import com.github.held03.jasityProtocol.tcp.NIOEventLoopGroup;
+
+
+/**
+ * Address of a Unix domain socket.
+ * <p>
+ * A {@link UnixServer} is addressed by the path of its socket file only.
+ * Connected clients have no path of their own, therefore they get an unique
+ * id additionally.
+ * <p>
+ * Unix domain sockets require Java 16 or newer.
+ * 
+ * @author held03
+ */
+public class UnixAddress implements Address {
+
+	/**
+	 * The path of the socket file.
+	 */
+	public final String path;
+
+	/**
+	 * The id of an unnamed client, or <code>0</code> for a named socket.
+	 */
+	public final long id;
+
+	/**
+	 * Creates the address of the given socket file.
+	 * 
+	 * @param path the path of the socket file
+	 */
+	public UnixAddress(final String path) {
+		this(path, 0);
+	}
+
+	/**
+	 * Creates the address of a client connected to the given socket file.
+	 * 
+	 * @param path the path of the socket file
+	 * @param id the id of the client
+	 */
+	public UnixAddress(final String path, final long id) {
+		this.path = path;
+		this.id = id;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + (int) (id ^ (id >>> 32));
+		result = prime * result + ( (path == null) ? 0 : path.hashCode());
+		return result;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(final Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null) {
+			return false;
+		}
+		if (getClass() != obj.getClass()) {
+			return false;
+		}
+		UnixAddress other = (UnixAddress) obj;
+		if (id != other.id) {
+			return false;
+		}
+		if (path == null) {
+			if (other.path != null) {
+				return false;
+			}
+		} else if (!path.equals(other.path)) {
+			return false;
+		}
+		return true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.github.held03.jasityProtocol.interfaces.Address#connectTo()
+	 */
+	@Override
+	public Node connectTo() {
+		try {
+			return connectTo(NIOEventLoopGroup.getDefault());
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/**
+	 * Initiate a connection to the node, driven by the given group.
+	 * 
+	 * @param group the group which drives the connection
+	 * @return a new node connected to this address
+	 * @throws IOException
+	 */
+	public Node connectTo(final NIOEventLoopGroup group) throws IOException {
+		SocketChannel channel = UnixSockets.openChannel();
+
+		try {
+			channel.connect(UnixSockets.toSocketAddress(path));
+
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+
+			throw e;
+		}
+
+		Address local = new UnixAddress(UnixSockets.getPath(channel.getLocalAddress()));
+
+		return NIOConnection.newConnection(channel, local, this, group, null);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.github.held03.jasityProtocol.interfaces.Address#getBackEnd()
+	 */
+	@Override
+	public BackEnd getBackEnd() {
+		return UnixBackEnd.instance;
+	}
+
+	@Override
+	public String toString() {
+		return "Unix[" + path + (id != 0 ? "#" + id : "") + "]";
+	}
+
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ *
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ *
+ *     https://github.com/Held03/JasityProtocol.git
+ *
+ */
+
+package com.github.held03.jasityProtocol.unix;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.held03.jasityProtocol.interfaces.Address;
+import com.github.held03.jasityProtocol.tcp.NIOEventLoopGroup;
+import com.github.held03.jasityProtocol.tcp.NIOServer;
+
+
+/**
+ * Server listening on a Unix domain socket.
+ * <p>
+ * Like the {@link NIOServer} for TCP, the connections are driven by a
+ * {@link NIOEventLoopGroup}. The socket file gets created on opening and
+ * deleted on closing of the server.
+ * <p>
+ * Unix domain sockets require Java 16 or newer.
+ * 
+ * @author held03
+ */
+public class UnixServer extends NIOServer {
+
+	/**
+	 * Counter for the ids of the clients.
+	 */
+	private final AtomicLong clientIds = new AtomicLong();
+
+	/**
+	 * The path of the socket file.
+	 */
+	protected final String path;
+
+	/**
+	 * @param localAddress
+	 */
+	protected UnixServer(final UnixAddress localAddress, final ServerSocketChannel server,
+			final NIOEventLoopGroup group) {
+		super(localAddress, server, group);
+
+		this.path = localAddress.path;
+	}
+
+	/**
+	 * Opens a server on the given socket file.
+	 * <p>
+	 * The server will be driven by the default {@link NIOEventLoopGroup}.
+	 * 
+	 * @param path the path of the socket file, it must not exist
+	 * @return the new server
+	 * @throws IOException
+	 */
+	public static UnixServer openServer(final String path) throws IOException {
+		return openServer(path, NIOEventLoopGroup.getDefault());
+	}
+
+	/**
+	 * Opens a server on the given socket file.
+	 * 
+	 * @param path the path of the socket file, it must not exist
+	 * @param group the group driving the server and its connections
+	 * @return the new server
+	 * @throws IOException
+	 */
+	public static UnixServer openServer(final String path, final NIOEventLoopGroup group) throws IOException {
+		ServerSocketChannel server = UnixSockets.openServerChannel();
+
+		try {
+			server.bind(UnixSockets.toSocketAddress(path));
+
+		} catch (IOException | RuntimeException e) {
+			server.close();
+
+			throw e;
+		}
+
+		return new UnixServer(new UnixAddress(path), server, group);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.github.held03.jasityProtocol.tcp.NIOServer#createAddress(java.net.
+	 * SocketAddress, java.nio.channels.SocketChannel)
+	 */
+	@Override
+	protected Address createAddress(final SocketAddress address, final SocketChannel channel) {
+		String p = UnixSockets.getPath(address);
+
+		if (p.isEmpty()) {
+			/*
+			 * Unnamed client.
+			 */
+			return new UnixAddress(path, clientIds.incrementAndGet());
+		}
+
+		return new UnixAddress(p);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.github.held03.jasityProtocol.tcp.NIOServer#close()
+	 */
+	@Override
+	public void close() {
+		super.close();
+
+		new File(path).delete();
+	}
+
+}
@@ -0,0 +1,214 @@
+/**
+ * Copyright 2014 Adam Wagenhäuser <adam@wag-web.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+ *
+ * This file is part of the JasityProtocol. It is a library to provide easy
+ * server-client networking.
+ * 
+ * It can be accessed on github:
+ *
+ *     https://github.com/Held03/JasityProtocol.git
+ *
+ */
+
+package com.github.held03.jasityProtocol.unix;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+
+/**
+ * Access to the Unix domain sockets of the JDK.
+ * <p>
+ * Unix domain socket channels are available since Java 16. The library itself
+ * is still compatible to older versions, therefore they are accessed by
+ * reflection. On older runtimes every method throws an
+ * {@link UnsupportedOperationException}.
+ * 
+ * @author held03
+ */
+final class UnixSockets {
+
+	/**
+	 * The <code>UNIX</code> protocol family, or <code>null</code>.
+	 */
+	private static final ProtocolFamily UNIX;
+
+	/**
+	 * <code>SocketChannel.open(ProtocolFamily)</code>
+	 */
+	private static final Method openChannel;
+
+	/**
+	 * <code>ServerSocketChannel.open(ProtocolFamily)</code>
+	 */
+	private static final Method openServerChannel;
+
+	/**
+	 * <code>UnixDomainSocketAddress.of(String)</code>
+	 */
+	private static final Method addressOf;
+
+	/**
+	 * <code>UnixDomainSocketAddress.getPath()</code>
+	 */
+	private static final Method getPath;
+
+	/**
+	 * The class <code>UnixDomainSocketAddress</code>
+	 */
+	private static final Class<?> addressClass;
+
+	static {
+		ProtocolFamily unix = null;
+		Method open = null;
+		Method openServer = null;
+		Method of = null;
+		Method path = null;
+		Class<?> address = null;
+
+		try {
+			unix = StandardProtocolFamily.valueOf("UNIX");
+
+			open = SocketChannel.class.getMethod("open", ProtocolFamily.class);
+			openServer = ServerSocketChannel.class.getMethod("open", ProtocolFamily.class);
+
+			address = Class.forName("java.net.UnixDomainSocketAddress");
+			of = address.getMethod("of", String.class);
+			path = address.getMethod("getPath");
+
+		} catch (IllegalArgumentException | ReflectiveOperationException e) {
+			unix = null;
+		}
+
+		UNIX = unix;
+		openChannel = open;
+		openServerChannel = openServer;
+		addressOf = of;
+		getPath = path;
+		addressClass = address;
+	}
+
+	/**
+	 * Closed constructor.
+	 */
+	private UnixSockets() {
+		/*
+		 * Should be never used.
+		 */
+	}
+
+	/**
+	 * Checks if the runtime supports Unix domain sockets.
+	 * 
+	 * @return <code>true</code> if supported
+	 */
+	static boolean isSupported() {
+		return UNIX != null;
+	}
+
+	/**
+	 * Opens an unconnected Unix domain socket channel.
+	 * 
+	 * @return the new channel
+	 * @throws IOException
+	 */
+	static SocketChannel openChannel() throws IOException {
+		return (SocketChannel) invoke(openChannel, null, UNIX);
+	}
+
+	/**
+	 * Opens an unbound Unix domain server socket channel.
+	 * 
+	 * @return the new channel
+	 * @throws IOException
+	 */
+	static ServerSocketChannel openServerChannel() throws IOException {
+		return (ServerSocketChannel) invoke(openServerChannel, null, UNIX);
+	}
+
+	/**
+	 * Creates the socket address of the given path.
+	 * 
+	 * @param path the path of the socket file
+	 * @return the socket address
+	 */
+	static SocketAddress toSocketAddress(final String path) {
+		try {
+			return (SocketAddress) invoke(addressOf, null, path);
+		} catch (IOException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	/**
+	 * Gets the path of a Unix domain socket address.
+	 * <p>
+	 * The path of an unnamed socket, like the one of a connected client, is
+	 * empty.
+	 * 
+	 * @param address the socket address
+	 * @return the path
+	 */
+	static String getPath(final SocketAddress address) {
+		if (!isSupported() || !addressClass.isInstance(address)) {
+			throw new IllegalArgumentException("Not a Unix domain socket address: " + address);
+		}
+
+		try {
+			return invoke(getPath, address).toString();
+		} catch (IOException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	/**
+	 * Invokes the given method.
+	 * 
+	 * @param method the method to invoke
+	 * @param target the target object or <code>null</code> for static ones
+	 * @param args the arguments
+	 * @return the result of the method
+	 * @throws IOException if the method threw one
+	 */
+	private static Object invoke(final Method method, final Object target, final Object... args) throws IOException {
+		if (!isSupported()) {
+			throw new UnsupportedOperationException("Unix domain sockets require Java 16 or newer.");
+		}
+
+		try {
+			return method.invoke(target, args);
+
+		} catch (InvocationTargetException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			} else if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			} else {
+				throw new IOException(e.getCause());
+			}
+
+		} catch (IllegalAccessException e) {
+			throw new UnsupportedOperationException(e);
+		}
+	}
+}